@@ -0,0 +1,52 @@
+#!/usr/bin/env bash
+# Retrieves a secret through share-holder agents running as local processes over loopback, and
+# checks that it is identical to the one retrieved from the local shadow files.
+#
+# Usage: scripts/agents-loopback.sh <k> <shadows_directory> [port]
+#        (from the project root, after packaging)
+set -euo pipefail
+
+K=$1
+DIR=$2
+PORT=${3:-47470}
+ROOT=$(cd "$(dirname "$0")/.." && pwd)
+JAR="$ROOT/target/steganography.jar"
+WORK=$(mktemp -d)
+trap 'rm -rf "$WORK"' EXIT
+
+# Reference: retrieve from k local shadows
+mkdir "$WORK/local"
+find "$DIR" -maxdepth 1 -name '*.bmp' | sort | head -n "$K" | xargs -I{} cp {} "$WORK/local"
+(cd "$WORK" && java -jar "$JAR" -r -secret "$WORK/local.bmp" -k "$K" -dir "$WORK/local")
+
+# Distributed: one agent per shadow, each of them only reading its own file
+(cd "$WORK" && java -jar "$JAR" -r -secret "$WORK/remote.bmp" -k "$K" -listen "$PORT" -stats \
+  > "$WORK/coordinator.json") &
+coordinator=$!
+agents=()
+for shadow in "$WORK"/local/*.bmp; do
+  (cd "$WORK" && java -jar "$JAR" -a -shadow "$shadow" -connect "127.0.0.1:$PORT") &
+  agents+=($!)
+done
+for agent in "${agents[@]}"; do
+  wait "$agent"
+done
+wait "$coordinator"
+
+# The header of a k = 8 secret is the one of the shadow it is taken from, which may differ
+# between both retrievals => only the pixel data is compared
+same() {
+  if [ "$K" -ne 8 ]; then
+    cmp -s "$1" "$2"
+    return
+  fi
+  local offset
+  offset=$(od -An -tu4 -j10 -N4 "$1" | tr -d ' ')
+  cmp -s <(tail -c +$((offset + 1)) "$1") <(tail -c +$((offset + 1)) "$2")
+}
+if same "$WORK/local.bmp" "$WORK/remote.bmp"; then
+  echo "agents retrieve identical (k = $K, $DIR)"
+else
+  echo "agents retrieve DIFFERENT (k = $K, $DIR)"
+  exit 1
+fi
@@ -0,0 +1,63 @@
+#!/usr/bin/env bash
+# Reports the median time-to-main & time-to-exit (in ms) of the help, distribute & retrieve
+# programs on small inputs, with & without the AppCDS archive built by `mvn package -Pstartup`.
+#
+# Usage: scripts/startup-benchmark.sh [runs]   (from the project root, after packaging)
+set -euo pipefail
+
+RUNS=${1:-10}
+ROOT=$(cd "$(dirname "$0")/.." && pwd)
+JAR="$ROOT/target/steganography.jar"
+JSA="$ROOT/target/steganography.jsa"
+IMAGES="$ROOT/images"
+WORK=$(mktemp -d)
+trap 'rm -rf "$WORK"' EXIT
+
+if [ ! -f "$JAR" ]; then
+  echo "$JAR not found. Run 'mvn package -Pstartup' first" >&2
+  exit 1
+fi
+
+# Shadows used by the retrieve runs (covers are left untouched thanks to -out)
+java -jar "$JAR" -d -secret "$IMAGES/database/Alfred.bmp" -k 2 -dir "$IMAGES/shadows/k_2_n_2" \
+  -out "$WORK/shadows" > /dev/null
+
+median() {
+  sort -n | awk '{ values[NR] = $1 } END { print values[int((NR + 1) / 2)] }'
+}
+
+# $1: label; $2: extra JVM options; remaining: program arguments
+bench() {
+  local label=$1 jvmOpts=$2
+  shift 2
+  local toMain=() toExit=()
+  for _ in $(seq "$RUNS"); do
+    local start end line
+    start=$(date +%s%3N)
+    # shellcheck disable=SC2086
+    line=$(cd "$WORK" && java $jvmOpts -Dsteganography.launchMillis="$start" -jar "$JAR" "$@" \
+      2>&1 > /dev/null | grep time_to_main_ms)
+    end=$(date +%s%3N)
+    toMain+=("${line#time_to_main_ms=}")
+    toExit+=($((end - start)))
+  done
+  printf "%-22s %-8s time-to-main: %4s ms   time-to-exit: %4s ms\n" "$label" "$1" \
+    "$(printf "%s\n" "${toMain[@]}" | median)" "$(printf "%s\n" "${toExit[@]}" | median)"
+}
+
+run_all() {
+  local label=$1 jvmOpts=$2
+  bench "$label" "$jvmOpts" -h
+  bench "$label" "$jvmOpts" -d -secret "$IMAGES/database/Alfred.bmp" -k 2 \
+    -dir "$IMAGES/shadows/k_2_n_2" -out "$WORK/out"
+  bench "$label" "$jvmOpts" -r -secret "$WORK/secret.bmp" -k 2 -dir "$WORK/shadows"
+}
+
+echo "Median of $RUNS runs"
+run_all "default" "-Xshare:auto"
+if [ -f "$JSA" ]; then
+  run_all "appcds" "-XX:SharedArchiveFile=$JSA"
+  run_all "appcds+c1" "-XX:SharedArchiveFile=$JSA -XX:TieredStopAtLevel=1 -XX:+UseSerialGC"
+else
+  echo "$JSA not found: run 'mvn package -Pstartup' to benchmark the AppCDS archive" >&2
+fi
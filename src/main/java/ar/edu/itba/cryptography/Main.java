@@ -8,39 +8,69 @@ import ar.edu.itba.cryptography.interfaces.MainProgram;
 import ar.edu.itba.cryptography.interfaces.MainProgramBuilder;
 import ar.edu.itba.cryptography.main_programs.ProgramBuilderFactory;
 import ar.edu.itba.cryptography.services.IOService;
+import ar.edu.itba.cryptography.services.InstrumentationService;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Optional;
 
 public class Main {
-  private static final Map<String, MainProgramBuilder> mainPrograms;
+  /**
+   * If set (to the launch time, in epoch millis), the time to main is printed to stderr.
+   * Used by the startup benchmark
+   */
+  private static final String LAUNCH_MILLIS_PROPERTY = "steganography.launchMillis";
+  // Builders are only created for the chosen program
+  private static final Map<String, InputArgs> mainPrograms;
   static {
     mainPrograms = new HashMap<>();
-    mainPrograms.put(HELP_PROGRAM.getType(), ProgramBuilderFactory.helpProgramBuilder());
-    mainPrograms.put(DISTRIBUTION_PROGRAM.getType(), ProgramBuilderFactory.distProgramBuilder());
-    mainPrograms.put(RETRIEVE_PROGRAM.getType(), ProgramBuilderFactory.retrieveProgramBuilder());
+    mainPrograms.put(HELP_PROGRAM.getType(), HELP_PROGRAM);
+    mainPrograms.put(DISTRIBUTION_PROGRAM.getType(), DISTRIBUTION_PROGRAM);
+    mainPrograms.put(RETRIEVE_PROGRAM.getType(), RETRIEVE_PROGRAM);
+    mainPrograms.put(EXTEND_PROGRAM.getType(), EXTEND_PROGRAM);
+    mainPrograms.put(AGENT_PROGRAM.getType(), AGENT_PROGRAM);
+    mainPrograms.put(BATCH_PROGRAM.getType(), BATCH_PROGRAM);
+    mainPrograms.put(TUNE_PROGRAM.getType(), TUNE_PROGRAM);
+    mainPrograms.put(BENCHMARK_PROGRAM.getType(), BENCHMARK_PROGRAM);
   }
 
   public static void main(String[] args) {
-    final Optional<MainProgram> mainProgram = getMainProgram(args);
+    reportTimeToMain();
+    if (args.length == 0) {
+      IOService.exit(IOService.ExitStatus.NO_ARGS, null);
+    }
+    final Map<InputArgs, String> parsedArgs = InputArgsHelper.parseArgs(args);
+    final Optional<MainProgram> mainProgram = getMainProgram(parsedArgs);
     if (!mainProgram.isPresent()) {
       IOService.exit(IOService.ExitStatus.BAD_ARGUMENT, "Invalid method");
       throw new IllegalStateException(); // Should never reach here
     }
     mainProgram.get().run(); // Run main method
+    if (InputArgsHelper.isFlagSet(parsedArgs, STATS)) {
+      IOService.print(InstrumentationService.statsAsJson());
+    }
   }
 
   // private methods
 
-  private static Optional<MainProgram> getMainProgram(final String[] args) {
-    if (args.length == 0) {
-      IOService.exit(IOService.ExitStatus.NO_ARGS, null);
-    }
-    final Map<InputArgs, String> parsedArgs = InputArgsHelper.parseArgs(args);
-    final MainProgramBuilder mainProgramBuilder = mainPrograms.get(parsedArgs.get(MAIN_PROGRAM));
-    if (mainProgramBuilder == null) {
+  private static Optional<MainProgram> getMainProgram(final Map<InputArgs, String> parsedArgs) {
+    final InputArgs mainProgramArg = mainPrograms.get(parsedArgs.get(MAIN_PROGRAM));
+    if (mainProgramArg == null) {
       return Optional.empty();
     }
+    final MainProgramBuilder mainProgramBuilder = ProgramBuilderFactory.builderFor(mainProgramArg);
     return Optional.of(mainProgramBuilder.build(parsedArgs));
   }
+
+  private static void reportTimeToMain() {
+    final String launchMillis = System.getProperty(LAUNCH_MILLIS_PROPERTY);
+    if (launchMillis == null) {
+      return;
+    }
+    try {
+      final long timeToMain = System.currentTimeMillis() - Long.parseLong(launchMillis.trim());
+      System.err.println("time_to_main_ms=" + timeToMain);
+    } catch (final NumberFormatException e) {
+      // A malformed launch time (e.g. an unexpanded `$(date +%s%3N)`) only skips the report
+    }
+  }
 }
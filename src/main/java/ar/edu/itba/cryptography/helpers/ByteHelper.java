@@ -1,5 +1,7 @@
 package ar.edu.itba.cryptography.helpers;
 
+import ar.edu.itba.cryptography.services.BufferPoolService;
+
 public abstract class ByteHelper {
   private static final int FIRST_ELEM_INDEX = 0;
   private static final int BYTE_MASK = 0x00FF;
@@ -22,10 +24,13 @@ public abstract class ByteHelper {
     return sb.toString();
   }
 
+  /**
+   * @return both arrays one after the other, in an array leased from the {@link BufferPoolService}
+   */
   public static byte[] merge(final byte[] bytes1, final byte[] bytes2) {
     final int length1 = bytes1.length;
     final int length2 = bytes2.length;
-    final byte[] merge = new byte[length1 + length2];
+    final byte[] merge = BufferPoolService.lease(length1 + length2);
     System.arraycopy(bytes1, FIRST_ELEM_INDEX, merge, FIRST_ELEM_INDEX, length1);
     System.arraycopy(bytes2, FIRST_ELEM_INDEX, merge, length1, length2);
     return merge;
@@ -0,0 +1,961 @@
+package ar.edu.itba.cryptography.helpers;
+
+import static ar.edu.itba.cryptography.services.IOService.ExitStatus.VALIDATION_FAILED;
+
+import ar.edu.itba.cryptography.helpers.ObfuscatorHelper.Keystream;
+import ar.edu.itba.cryptography.interfaces.ByteSource;
+import ar.edu.itba.cryptography.services.IOService;
+import ar.edu.itba.cryptography.services.SegmentedBuffer;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A compressed payload is split into chunks of k bytes. A salted chunk carries a salt byte as its
+ * first byte (i.e., the a0 coefficient of its polynomial) and k-1 bytes of a stream; any other
+ * chunk carries k bytes of the data. <p>
+ * Salts are the only bytes modified when a chunk evaluation overflows, and only the chunks whose
+ * evaluation would overflow without a salt are salted (see {@link Encoder}), so, unlike a plain
+ * secret, the data is always retrieved without any loss, as required by the deflate format. <p>
+ * The payload is made of:
+ * <ul>
+ *   <li>the header chunks (salted), with the following fields (all values are little-endian, as
+ *   in the BMP header):
+ * <pre>
+ * 0x0000 WORD  ID = 'DZ'
+ * 0x0002 DWORD total payload size (salts, header, data, salt lists & padding)
+ * 0x0006 BYTE  codec, with {@link #FLAG_SALT_LIST} set
+ * 0x0007 DWORD original (uncompressed) size
+ * 0x000B DWORD data size
+ * 0x000F DWORD data chunks
+ * 0x0013 DWORD segment chunks
+ * </pre></li>
+ *   <li>the segments: the data chunks (the deflated original, or the original itself if deflate
+ *   does not make it smaller, followed by zero padding up to a whole chunk), split into segments
+ *   of the given amount of data chunks (but the last one). Each segment is followed by its salt
+ *   list chunks (salted): the amount of data chunks of the segment that are salted, and each of
+ *   them as the amount of data chunks since the previous one, all in a variable length (7 bits
+ *   per byte, LSB first)</li>
+ * </ul>
+ * Payloads without {@link #FLAG_SALT_LIST} salt every chunk, and their data follows the codec and
+ * the original size in the same stream. They are smaller for tiny data, whose header & salt list
+ * take more chunks than the salts they save.
+ * <p>
+ * Payloads are laid out & inflated on the fly (see {@link Encoder} & {@link Decoder}), so only a
+ * segment of them is held at a time
+ */
+public abstract class CompressionHelper {
+  public static final int CODEC_STORED = 0;
+  public static final int CODEC_DEFLATE = 1;
+  /**
+   * Set in the codec field of the payloads that only salt the chunks of their salt lists
+   */
+  public static final int FLAG_SALT_LIST = 0x80;
+
+  private static final int MODULUS = 257;
+  private static final int ID = 0x5A44; // 'DZ' backwards because of the way it is stored
+  private static final int ID_POSITION = 0x0000;
+  private static final int SIZE_POSITION = 0x0002;
+  private static final int CODEC_POSITION = 0x0006;
+  private static final int ORIGINAL_SIZE_POSITION = 0x0007;
+  private static final int DATA_SIZE_POSITION = 0x000B;
+  private static final int DATA_CHUNKS_POSITION = 0x000F;
+  private static final int SEGMENT_CHUNKS_POSITION = 0x0013;
+  private static final int HEADER_SIZE = 0x0017;
+  /**
+   * Where the data starts in the stream of a payload without {@link #FLAG_SALT_LIST}
+   */
+  private static final int LEGACY_HEADER_SIZE = 0x000B;
+  private static final int CODEC_MASK = 0x7F;
+  private static final int VARIABLE_LENGTH_BITS = 7;
+  private static final int VARIABLE_LENGTH_MASK = 0x7F;
+  private static final int VARIABLE_LENGTH_MORE = 0x80;
+  /**
+   * Largest shift of the last byte of a value of the salt lists (which fit in an int)
+   */
+  private static final int VARIABLE_LENGTH_MAX_SHIFT = 28;
+  private static final long MAX_DWORD = 0xFFFFFFFFL;
+  /**
+   * Starting value of all the obfuscated salts. Each overflow retry decrements the salt by one, and
+   * there is at most one overflowing salt value per shadow, so this leaves room for 255 shadows
+   */
+  private static final byte SALT_START_VALUE = (byte) 0xFF;
+  /**
+   * Amount of data chunks of each segment (i.e., of the chunks a salt list covers) of the laid out
+   * payloads
+   */
+  private static final int SEGMENT_CHUNKS = 4096;
+  /**
+   * Largest amount of data chunks of each segment of the inflated payloads, so as a corrupted
+   * header cannot make a segment exceed a few megabytes
+   */
+  private static final int MAX_SEGMENT_CHUNKS = 1 << 16;
+  /**
+   * Amount of stream bytes laid out at once (and of original bytes deflated at once)
+   */
+  private static final int STREAM_BUFFER_SIZE = 1 << 16;
+  /**
+   * Amount of chunks whose keystream is generated at once
+   */
+  private static final int KEYSTREAM_CHUNKS = 1024;
+
+  /**
+   * @param k the chunk size
+   * @return the amount of payload bytes (multiple of k) that should be read to get both the
+   * ID & the total payload size of a compressed payload
+   */
+  public static int getMinHeaderChunkSize(final int k) {
+    return (int) saltedChunksFor(SIZE_POSITION + 4, k) * k;
+  }
+
+  /**
+   * @param k the chunk size
+   * @return the amount of payload bytes (multiple of k) that should be read to get the original
+   * size of a compressed payload as well (see {@link #getOriginalSize})
+   */
+  public static int getHeaderChunkSize(final int k) {
+    return (int) saltedChunksFor(ORIGINAL_SIZE_POSITION + 4, k) * k;
+  }
+
+  /**
+   * @param payload the payload (or its first {@link #getMinHeaderChunkSize(int)} bytes)
+   * @param k the chunk size
+   * @return true if the payload is a compressed payload; false otherwise
+   */
+  public static boolean isCompressed(final byte[] payload, final int k) {
+    return payload.length >= getMinHeaderChunkSize(k)
+        && getValue(payload, k, ID_POSITION, 2) == ID;
+  }
+
+  /**
+   * @param payload the payload (or its first {@link #getMinHeaderChunkSize(int)} bytes)
+   * @param k the chunk size
+   * @return the total payload size, in bytes (up to 4 GB)
+   */
+  public static long getPayloadSize(final byte[] payload, final int k) {
+    return getValue(payload, k, SIZE_POSITION, 4);
+  }
+
+  /**
+   * @param payload the payload (or its first {@link #getHeaderChunkSize(int)} bytes)
+   * @param k the chunk size
+   * @return the original (uncompressed) size, in bytes (up to 4 GB)
+   */
+  public static long getOriginalSize(final byte[] payload, final int k) {
+    return getValue(payload, k, ORIGINAL_SIZE_POSITION, 4);
+  }
+
+  /**
+   * Lays out the payload of the given data (see {@link Encoder}) into an array of exactly its
+   * size. Exits with a validation error if it does not fit in an array
+   * @param data the data to be compressed
+   * @param k the chunk size. Should be at least 2
+   * @param seed the seed the payload is going to be obfuscated with
+   * @param shadowNumbers the shadow numbers the payload is going to be distributed to
+   * @return the compressed payload, whose size is a multiple of k
+   */
+  public static byte[] deflate(final byte[] data, final int k, final char seed,
+      final int[] shadowNumbers) {
+    final Encoder encoder = new Encoder(SegmentedBuffer.wrap(data), k, seed, shadowNumbers);
+    if (encoder.size() > SegmentedBuffer.MAX_ARRAY_SIZE) {
+      IOService.exit(VALIDATION_FAILED, "The compressed payload does not fit in memory. "
+          + "Payload size: " + encoder.size() + "; k = " + k);
+    }
+    final byte[] payload = new byte[(int) encoder.size()];
+    encoder.get(0, payload, 0, payload.length);
+    return payload;
+  }
+
+  /**
+   * Inflates the given payload (see {@link Decoder}) into an array of exactly the original size.
+   * Exits with a validation error if the payload cannot be inflated, or if the original does not
+   * fit in an array
+   * @param payload the compressed payload, as specified in this class doc
+   * @param k the chunk size
+   * @return the original data
+   */
+  public static byte[] inflate(final byte[] payload, final int k) {
+    if (payload.length < getHeaderChunkSize(k)) {
+      IOService.exit(VALIDATION_FAILED, "Truncated compressed payload. Payload size: "
+          + payload.length);
+    }
+    final long originalSize = getOriginalSize(payload, k);
+    if (originalSize > SegmentedBuffer.MAX_ARRAY_SIZE) {
+      IOService.exit(VALIDATION_FAILED, "The secret has " + originalSize + " bytes, and only up "
+          + "to " + SegmentedBuffer.MAX_ARRAY_SIZE + " bytes can be retrieved whole. Retrieve it "
+          + "with -pipeline instead");
+    }
+    final byte[] data = new byte[(int) originalSize];
+    final int[] size = new int[1];
+    final Decoder decoder = new Decoder(k, (bytes, from, length) -> {
+      System.arraycopy(bytes, from, data, size[0], length);
+      size[0] += length;
+    });
+    decoder.write(payload, 0, payload.length);
+    decoder.finish();
+    return data;
+  }
+
+  /**
+   * Where the original data is written to, as it is inflated (see {@link Decoder})
+   */
+  @FunctionalInterface
+  public interface Sink {
+    /**
+     * Writes {@code length} bytes of {@code bytes}, starting at {@code from}, after the previous
+     * ones. The bytes should not be referenced once it returns
+     */
+    void write(byte[] bytes, int from, int length);
+  }
+
+  /**
+   * Lays out the payload of the given data on demand, as specified in the class doc: the data is
+   * compressed with deflate (or stored as it is, if deflate does not make it smaller) as its
+   * chunks are read. <p>
+   * A data chunk is salted only if its obfuscated evaluation overflows for any of the given
+   * shadow numbers, so the payload is only valid for a distribution with the given seed & shadow
+   * numbers. The salts are set so as they are obfuscated to their starting value, so the payload
+   * should be distributed as is. <p>
+   * Neither the data (when deflated) nor the payload are held as a whole: the data is laid out
+   * once to measure the payload (i.e., to choose its codec & layout, and to fill its header), and
+   * again as the payload is read. Reading a position before the last one read lays the payload out
+   * again from its start, so it should be read in ascending positions
+   */
+  public static final class Encoder implements ByteSource {
+    private final SegmentedBuffer data;
+    private final int k;
+    private final char seed;
+    private final int[][] matrixA;
+    private final int codec;
+    /**
+     * False if every chunk is salted (i.e., the payload has no {@link #FLAG_SALT_LIST})
+     */
+    private final boolean saltLists;
+    private final long dataSize;
+    private final long dataChunks;
+    private final long payloadSize;
+    private final byte[] streamBuffer = new byte[STREAM_BUFFER_SIZE];
+    private Stream stream;
+    private Layout layout;
+    /**
+     * The chunks laid out but not read yet
+     */
+    private byte[] pending = new byte[STREAM_BUFFER_SIZE];
+    private int pendingFrom;
+    private int pendingTo;
+    /**
+     * Position of the first pending byte in the payload
+     */
+    private long position;
+
+    /**
+     * Measures the payload of the given data. Exits with a validation error if its size does not
+     * fit in the header fields
+     * @param data the data to be compressed
+     * @param k the chunk size. Should be at least 2
+     * @param seed the seed the payload is going to be obfuscated with
+     * @param shadowNumbers the shadow numbers the payload is going to be distributed to
+     */
+    public Encoder(final SegmentedBuffer data, final int k, final char seed,
+        final int[] shadowNumbers) {
+      this.data = data;
+      this.k = k;
+      this.seed = seed;
+      this.matrixA = new int[shadowNumbers.length][k];
+      for (int row = 0 ; row < shadowNumbers.length ; row ++) {
+        for (int col = 0 ; col < k ; col ++) {
+          matrixA[row][col] = MatrixHelper.getCoefficient(shadowNumbers[row], col, MODULUS);
+        }
+      }
+      int measuredCodec = CODEC_DEFLATE;
+      Layout measured = measure(measuredCodec);
+      if (measured.dataSize >= data.size()) {
+        measuredCodec = CODEC_STORED;
+        measured = measure(measuredCodec);
+      }
+      this.codec = measuredCodec;
+      this.dataSize = measured.dataSize;
+      this.dataChunks = measured.dataChunks;
+      final long allSaltedSize = saltedChunksFor(LEGACY_HEADER_SIZE + dataSize, k) * k;
+      // A tiny data (whose header & salt list take more chunks than the salts they save) is
+      // laid out with every chunk salted
+      this.saltLists = measured.chunks * k < allSaltedSize;
+      this.payloadSize = saltLists ? measured.chunks * k : allSaltedSize;
+      if (data.size() > MAX_DWORD || payloadSize > MAX_DWORD) {
+        IOService.exit(VALIDATION_FAILED, "The compressed payload does not fit in its 4 GB size "
+            + "fields. Original size: " + data.size() + "; payload size: " + payloadSize
+            + "; k = " + k);
+      }
+      restart();
+    }
+
+    /**
+     * @return the payload size, a multiple of k
+     */
+    @Override
+    public long size() {
+      return payloadSize;
+    }
+
+    @Override
+    public void get(final long position, final byte[] bytes, final int from, final int length) {
+      if (position < this.position) {
+        restart();
+      }
+      while (this.position < position) {
+        layOutPending();
+        final int skipped = (int) Math.min(position - this.position, pendingTo - pendingFrom);
+        pendingFrom += skipped;
+        this.position += skipped;
+      }
+      for (int copied = 0 ; copied < length ; ) {
+        layOutPending();
+        final int count = Math.min(length - copied, pendingTo - pendingFrom);
+        System.arraycopy(pending, pendingFrom, bytes, from + copied, count);
+        pendingFrom += count;
+        this.position += count;
+        copied += count;
+      }
+    }
+
+    /**
+     * Lays the data out with the given codec, only counting its chunks
+     */
+    private Layout measure(final int codec) {
+      final Layout measured = new Layout(k, matrixA, seed, null);
+      measured.putSalted(new byte[HEADER_SIZE], 0, HEADER_SIZE);
+      final Stream measuredStream = new Stream(data, codec);
+      for (int read = measuredStream.read(streamBuffer) ; read >= 0 ;
+          read = measuredStream.read(streamBuffer)) {
+        measured.putData(streamBuffer, 0, read);
+      }
+      measured.finishData();
+      return measured;
+    }
+
+    /**
+     * Starts laying out the payload from its first chunk
+     */
+    private void restart() {
+      stream = new Stream(data, codec);
+      layout = new Layout(k, saltLists ? matrixA : null, seed, this::append);
+      pendingFrom = 0;
+      pendingTo = 0;
+      position = 0;
+      final byte[] header = new byte[saltLists ? HEADER_SIZE : LEGACY_HEADER_SIZE];
+      putValue(header, ID, ID_POSITION, 2);
+      putValue(header, payloadSize, SIZE_POSITION, 4);
+      header[CODEC_POSITION] = (byte) (saltLists ? codec | FLAG_SALT_LIST : codec);
+      putValue(header, data.size(), ORIGINAL_SIZE_POSITION, 4);
+      if (saltLists) {
+        putValue(header, dataSize, DATA_SIZE_POSITION, 4);
+        putValue(header, dataChunks, DATA_CHUNKS_POSITION, 4);
+        putValue(header, SEGMENT_CHUNKS, SEGMENT_CHUNKS_POSITION, 4);
+        layout.putSalted(header, 0, header.length);
+      } else {
+        // Every chunk is salted => the data follows the header in the same stream
+        layout.putData(header, 0, header.length);
+      }
+    }
+
+    /**
+     * Lays out the following chunks of the payload, unless some of them are still pending
+     */
+    private void layOutPending() {
+      while (pendingFrom == pendingTo) {
+        pendingFrom = 0;
+        pendingTo = 0;
+        if (layout == null) {
+          throw new IndexOutOfBoundsException("The payload has " + payloadSize + " bytes");
+        }
+        final int read = stream.read(streamBuffer);
+        if (read >= 0) {
+          layout.putData(streamBuffer, 0, read);
+        } else {
+          layout.finishData();
+          if (layout.chunks * k != payloadSize) {
+            throw new IllegalStateException("The payload was laid out into "
+                + layout.chunks * k + " bytes, but " + payloadSize + " were measured");
+          }
+          layout = null;
+        }
+      }
+    }
+
+    private void append(final byte[] bytes, final int from, final int length) {
+      if (pendingTo + length > pending.length) {
+        pending = Arrays.copyOf(pending, Math.max(pending.length * 2, pendingTo + length));
+      }
+      System.arraycopy(bytes, from, pending, pendingTo, length);
+      pendingTo += length;
+    }
+  }
+
+  /**
+   * Inflates a payload on the fly: the payload is given in order, and the data of each segment is
+   * inflated into the given sink as soon as the salt list of the segment is given, so only a
+   * segment of the payload is held at a time. <p>
+   * Exits with a validation error if the payload cannot be inflated
+   */
+  public static final class Decoder {
+    private final int k;
+    private final Sink sink;
+    /**
+     * The bytes of the following chunk, if it was not given whole
+     */
+    private final byte[] chunk;
+    private int chunkSize;
+    private State state;
+    private final byte[] header;
+    private int headerSize;
+    private int codec;
+    private long originalSize;
+    private long dataSize;
+    private long dataChunks;
+    private int segmentChunks;
+    /**
+     * The chunks of the current segment (or, without {@link #FLAG_SALT_LIST}, the stream bytes
+     * not inflated yet)
+     */
+    private byte[] segment;
+    private int segmentSize;
+    private int segmentLength;
+    private boolean[] salted;
+    private byte[] saltList;
+    private int saltListSize;
+    private int saltListPosition;
+    private int saltedChunks;
+    private int saltedRead;
+    private int previousSalted;
+    private long decodedChunks;
+    private long decodedSize;
+    private long writtenSize;
+    private Inflater inflater;
+    private byte[] inflated;
+
+    /**
+     * @param k the chunk size
+     * @param sink where the original data is written to
+     */
+    public Decoder(final int k, final Sink sink) {
+      this.k = k;
+      this.sink = sink;
+      this.chunk = new byte[k];
+      this.state = State.HEADER;
+      this.header = new byte[(int) saltedChunksFor(HEADER_SIZE, k) * (k - 1)];
+    }
+
+    /**
+     * Inflates the following bytes of the payload (with no obfuscation)
+     */
+    public void write(final byte[] payload, final int from, final int length) {
+      final int end = from + length;
+      for (int position = from ; position < end ; ) {
+        if (chunkSize == 0 && end - position >= k) {
+          process(payload, position);
+          position += k;
+          continue;
+        }
+        final int count = Math.min(k - chunkSize, end - position);
+        System.arraycopy(payload, position, chunk, chunkSize, count);
+        chunkSize += count;
+        position += count;
+        if (chunkSize == k) {
+          process(chunk, 0);
+          chunkSize = 0;
+        }
+      }
+    }
+
+    /**
+     * Exits with a validation error if the payload given so far does not hold the whole original
+     */
+    public void finish() {
+      if (state == State.LEGACY) {
+        decode(segment, 0, segmentSize);
+      }
+      if (inflater != null) {
+        inflater.end();
+      }
+      if (state != State.LEGACY && state != State.DONE) {
+        IOService.exit(VALIDATION_FAILED, "Truncated compressed payload: it ends after "
+            + decodedChunks + " of its " + dataChunks + " data chunks");
+      }
+      if (writtenSize != originalSize) {
+        IOService.exit(VALIDATION_FAILED, "Truncated compressed payload. Expected size: "
+            + originalSize + "; inflated size: " + writtenSize);
+      }
+    }
+
+    private void process(final byte[] bytes, final int offset) {
+      switch (state) {
+        case HEADER:
+          readHeader(bytes, offset);
+          break;
+        case LEGACY:
+          if (segmentSize + k - 1 > segment.length) {
+            decode(segment, 0, segmentSize);
+            segmentSize = 0;
+          }
+          System.arraycopy(bytes, offset + 1, segment, segmentSize, k - 1);
+          segmentSize += k - 1;
+          break;
+        case SEGMENT:
+          System.arraycopy(bytes, offset, segment, segmentSize * k, k);
+          if (++segmentSize == segmentLength) {
+            state = State.SALT_LIST;
+          }
+          break;
+        case SALT_LIST:
+          readSaltList(bytes, offset);
+          break;
+        default:
+          break; // anything after the last segment is ignored
+      }
+    }
+
+    private void readHeader(final byte[] bytes, final int offset) {
+      final int count = Math.min(k - 1, header.length - headerSize);
+      System.arraycopy(bytes, offset + 1, header, headerSize, count);
+      headerSize += count;
+      if (headerSize < LEGACY_HEADER_SIZE) {
+        return;
+      }
+      if (getStreamValue(header, ID_POSITION, 2) != ID) {
+        IOService.exit(VALIDATION_FAILED, "Not a compressed payload");
+      }
+      originalSize = getStreamValue(header, ORIGINAL_SIZE_POSITION, 4);
+      final int codecField = ByteHelper.byteToUnsignedInt(header[CODEC_POSITION]);
+      if ((codecField & FLAG_SALT_LIST) == 0) {
+        // Every chunk is salted => the data is right after the header in the same stream
+        startCodec(codecField);
+        state = State.LEGACY;
+        segment = new byte[STREAM_BUFFER_SIZE];
+        segmentSize = headerSize - LEGACY_HEADER_SIZE;
+        System.arraycopy(header, LEGACY_HEADER_SIZE, segment, 0, segmentSize);
+        return;
+      }
+      if (headerSize < HEADER_SIZE) {
+        return;
+      }
+      dataSize = getStreamValue(header, DATA_SIZE_POSITION, 4);
+      dataChunks = getStreamValue(header, DATA_CHUNKS_POSITION, 4);
+      final long segmentChunksField = getStreamValue(header, SEGMENT_CHUNKS_POSITION, 4);
+      if (dataChunks * k < dataSize || segmentChunksField < 1
+          || segmentChunksField > MAX_SEGMENT_CHUNKS) {
+        IOService.exit(VALIDATION_FAILED, "Corrupted compressed payload header. Data size: "
+            + dataSize + "; data chunks: " + dataChunks + "; segment chunks: "
+            + segmentChunksField);
+      }
+      segmentChunks = (int) segmentChunksField;
+      startCodec(codecField & CODEC_MASK);
+      final int maxSegmentLength = (int) Math.min(segmentChunks, dataChunks);
+      segment = new byte[maxSegmentLength * k];
+      salted = new boolean[maxSegmentLength];
+      saltList = new byte[Math.max(k, maxSegmentLength)];
+      startSegment();
+    }
+
+    private void startCodec(final int codec) {
+      if (codec == CODEC_DEFLATE) {
+        inflater = new Inflater();
+        inflated = new byte[STREAM_BUFFER_SIZE];
+      } else if (codec != CODEC_STORED) {
+        IOService.exit(VALIDATION_FAILED, "Unknown compression codec: " + codec);
+      }
+      this.codec = codec;
+    }
+
+    private void startSegment() {
+      if (decodedChunks == dataChunks) {
+        state = State.DONE;
+        return;
+      }
+      state = State.SEGMENT;
+      segmentSize = 0;
+      segmentLength = (int) Math.min(segmentChunks, dataChunks - decodedChunks);
+      Arrays.fill(salted, false);
+      saltListSize = 0;
+      saltListPosition = 0;
+      saltedChunks = -1;
+      saltedRead = 0;
+      previousSalted = -1;
+    }
+
+    /**
+     * Reads the salt list of the current segment from the given chunk, and inflates the segment
+     * once the list is over
+     */
+    private void readSaltList(final byte[] bytes, final int offset) {
+      if (saltListSize + k - 1 > saltList.length) {
+        saltList = Arrays.copyOf(saltList, saltList.length * 2);
+      }
+      System.arraycopy(bytes, offset + 1, saltList, saltListSize, k - 1);
+      saltListSize += k - 1;
+      while (saltedChunks < 0 || saltedRead < saltedChunks) {
+        final int value = readVariableLength();
+        if (value < 0) {
+          return; // the list goes on in the following chunk
+        }
+        if (saltedChunks < 0) {
+          saltedChunks = value;
+        } else {
+          // The amount of data chunks since the previous salted one
+          previousSalted += value + 1;
+          saltedRead ++;
+        }
+        if (saltedChunks > segmentLength || previousSalted >= segmentLength) {
+          IOService.exit(VALIDATION_FAILED, "Corrupted compressed payload: the salt list of its "
+              + "data chunk " + decodedChunks + " does not match its " + segmentLength
+              + " data chunks");
+        }
+        if (saltedRead > 0) {
+          salted[previousSalted] = true;
+        }
+      }
+      // The rest of the chunk is padding => the segment is over. Its stream is packed in place
+      int size = 0;
+      for (int dataChunk = 0 ; dataChunk < segmentLength ; dataChunk ++) {
+        final int skipped = salted[dataChunk] ? 1 : 0;
+        System.arraycopy(segment, dataChunk * k + skipped, segment, size, k - skipped);
+        size += k - skipped;
+      }
+      final int length = (int) Math.min(size, dataSize - decodedSize);
+      decode(segment, 0, length);
+      decodedSize += length;
+      decodedChunks += segmentLength;
+      startSegment();
+    }
+
+    /**
+     * @return the following value of the salt list; -1 if it goes on in the following chunk
+     */
+    private int readVariableLength() {
+      int value = 0;
+      for (int position = saltListPosition, shift = 0 ; position < saltListSize ;
+          position ++, shift += VARIABLE_LENGTH_BITS) {
+        if (shift > VARIABLE_LENGTH_MAX_SHIFT) {
+          IOService.exit(VALIDATION_FAILED, "Corrupted compressed payload: the salt list of its "
+              + "data chunk " + decodedChunks + " is not valid");
+        }
+        final byte b = saltList[position];
+        value |= (b & VARIABLE_LENGTH_MASK) << shift;
+        if ((b & VARIABLE_LENGTH_MORE) == 0) {
+          saltListPosition = position + 1;
+          return value;
+        }
+      }
+      return -1;
+    }
+
+    /**
+     * Writes the original bytes of the given stream bytes into the sink
+     */
+    private void decode(final byte[] stream, final int from, final int length) {
+      if (codec == CODEC_STORED) {
+        final int count = (int) Math.min(length, originalSize - writtenSize);
+        if (count > 0) {
+          sink.write(stream, from, count);
+          writtenSize += count;
+        }
+        return;
+      }
+      if (inflater.finished()) {
+        return; // the rest of the stream is padding
+      }
+      inflater.setInput(stream, from, length);
+      try {
+        while (!inflater.needsInput() && !inflater.finished()) {
+          final int count = inflater.inflate(inflated);
+          if (count > originalSize - writtenSize) {
+            IOService.exit(VALIDATION_FAILED, "Corrupted compressed payload: it inflates beyond "
+                + "its original size (" + originalSize + " bytes)");
+          }
+          if (count > 0) {
+            sink.write(inflated, 0, count);
+            writtenSize += count;
+          } else if (inflater.needsDictionary()) {
+            IOService.exit(VALIDATION_FAILED, "Corrupted compressed payload: it needs a "
+                + "dictionary");
+          }
+        }
+      } catch (final DataFormatException e) {
+        IOService.exit(VALIDATION_FAILED, "Corrupted compressed payload: " + e.getMessage());
+      }
+    }
+  }
+
+  // private methods
+
+  private enum State {
+    HEADER, LEGACY, SEGMENT, SALT_LIST, DONE
+  }
+
+  /**
+   * Reads the data to be laid out as a stream (deflated, or as it is), a buffer at a time
+   */
+  private static final class Stream {
+    private final SegmentedBuffer data;
+    /**
+     * Null if the data is stored as it is
+     */
+    private final Deflater deflater;
+    private final byte[] input;
+    private long position;
+    private boolean finished;
+
+    private Stream(final SegmentedBuffer data, final int codec) {
+      this.data = data;
+      this.deflater = codec == CODEC_DEFLATE ? new Deflater(Deflater.BEST_COMPRESSION) : null;
+      this.input = codec == CODEC_DEFLATE ? new byte[STREAM_BUFFER_SIZE] : null;
+    }
+
+    /**
+     * @return the amount of stream bytes read into the given buffer; -1 if the stream is over
+     */
+    private int read(final byte[] buffer) {
+      if (deflater == null) {
+        if (position == data.size()) {
+          return -1;
+        }
+        final int count = (int) Math.min(buffer.length, data.size() - position);
+        data.get(position, buffer, 0, count);
+        position += count;
+        return count;
+      }
+      int count = 0;
+      while (count == 0 && !finished) {
+        if (deflater.needsInput()) {
+          if (position < data.size()) {
+            final int length = (int) Math.min(input.length, data.size() - position);
+            data.get(position, input, 0, length);
+            deflater.setInput(input, 0, length);
+            position += length;
+          }
+          if (position == data.size()) {
+            deflater.finish();
+          }
+        }
+        count = deflater.deflate(buffer, 0, buffer.length);
+        if (deflater.finished()) {
+          finished = true;
+          deflater.end();
+        }
+      }
+      return count > 0 ? count : -1;
+    }
+  }
+
+  /**
+   * Lays out a stream into the chunks of a payload, as specified in the class doc, and gives each
+   * chunk to its sink (null if they are only counted)
+   */
+  private static final class Layout {
+    private final int k;
+    /**
+     * Null if every data chunk is salted (and no salt lists are laid out)
+     */
+    private final int[][] matrixA;
+    private final Keystream keystream;
+    private final Sink sink;
+    /**
+     * The keystream of the following chunks
+     */
+    private final byte[] keys;
+    private int keysPosition;
+    /**
+     * The stream bytes of the following data chunk
+     */
+    private final byte[] chunk;
+    private int chunkSize;
+    private final byte[] arrayX;
+    private final byte[] arrayB;
+    private final byte[] laidOut;
+    /**
+     * The salted data chunks of the current segment, as in its salt list
+     */
+    private final ByteArrayOutputStream gaps = new ByteArrayOutputStream();
+    private int segmentChunks;
+    private int saltedChunks;
+    private int previousSalted = -1;
+    private long chunks;
+    private long dataChunks;
+    private long dataSize;
+
+    private Layout(final int k, final int[][] matrixA, final char seed, final Sink sink) {
+      this.k = k;
+      this.matrixA = matrixA;
+      this.keystream = new Keystream(seed);
+      this.sink = sink;
+      this.keys = new byte[KEYSTREAM_CHUNKS * k];
+      this.keysPosition = keys.length;
+      this.chunk = new byte[k];
+      this.arrayX = new byte[k];
+      this.arrayB = new byte[matrixA == null ? 0 : matrixA.length];
+      this.laidOut = new byte[k];
+    }
+
+    /**
+     * Lays out the given stream into consecutive salted chunks, padded with zeros
+     */
+    private void putSalted(final byte[] stream, final int from, final int length) {
+      for (int position = from, end = from + length ; position < end ; position += k - 1) {
+        final int count = Math.min(k - 1, end - position);
+        laidOut[0] = (byte) (keys[nextKeys()] ^ SALT_START_VALUE);
+        System.arraycopy(stream, position, laidOut, 1, count);
+        Arrays.fill(laidOut, 1 + count, k, (byte) 0);
+        emit();
+      }
+    }
+
+    /**
+     * Lays out the given stream bytes into the following data chunks. Up to k - 1 bytes are kept
+     * until the following ones (or {@link #finishData}) are given
+     */
+    private void putData(final byte[] stream, final int from, final int length) {
+      dataSize += length;
+      for (int position = from, end = from + length ; position < end ; ) {
+        final int count = Math.min(k - chunkSize, end - position);
+        System.arraycopy(stream, position, chunk, chunkSize, count);
+        chunkSize += count;
+        position += count;
+        if (chunkSize == k) {
+          layOutDataChunk();
+        }
+      }
+    }
+
+    /**
+     * Lays out the last data chunk (padded with zeros) & the last salt list
+     */
+    private void finishData() {
+      if (chunkSize > 0) {
+        // A salted chunk still holds the remaining bytes (up to k - 1), so the carry is padding
+        Arrays.fill(chunk, chunkSize, k, (byte) 0);
+        layOutDataChunk();
+        chunkSize = 0;
+      }
+      if (segmentChunks > 0) {
+        putSaltList();
+      }
+    }
+
+    private void layOutDataChunk() {
+      final int keysFrom = nextKeys();
+      boolean salt = matrixA == null;
+      if (!salt) {
+        for (int i = 0 ; i < k ; i++) {
+          arrayX[i] = (byte) (chunk[i] ^ keys[keysFrom + i]);
+        }
+        salt = !MatrixHelper.byteNoOverflowMultiply(matrixA, arrayX, MODULUS, arrayB);
+      }
+      if (salt) {
+        laidOut[0] = (byte) (keys[keysFrom] ^ SALT_START_VALUE);
+        System.arraycopy(chunk, 0, laidOut, 1, k - 1);
+        chunk[0] = chunk[k - 1]; // carried to the following chunk
+        chunkSize = 1;
+      } else {
+        System.arraycopy(chunk, 0, laidOut, 0, k);
+        chunkSize = 0;
+      }
+      emit();
+      dataChunks ++;
+      if (matrixA == null) {
+        return;
+      }
+      if (salt) {
+        putVariableLength(gaps, segmentChunks - previousSalted - 1);
+        previousSalted = segmentChunks;
+        saltedChunks ++;
+      }
+      if (++segmentChunks == SEGMENT_CHUNKS) {
+        putSaltList();
+      }
+    }
+
+    /**
+     * Lays out the salt list of the current segment, which is then over
+     */
+    private void putSaltList() {
+      final ByteArrayOutputStream saltList = new ByteArrayOutputStream(gaps.size() + Integer.BYTES);
+      putVariableLength(saltList, saltedChunks);
+      final byte[] gapBytes = gaps.toByteArray();
+      saltList.write(gapBytes, 0, gapBytes.length);
+      putSalted(saltList.toByteArray(), 0, saltList.size());
+      gaps.reset();
+      segmentChunks = 0;
+      saltedChunks = 0;
+      previousSalted = -1;
+    }
+
+    /**
+     * @return the position of the keystream of the following chunk in {@link #keys}
+     */
+    private int nextKeys() {
+      if (keysPosition == keys.length) {
+        Arrays.fill(keys, (byte) 0);
+        keystream.toggle(keys);
+        keysPosition = 0;
+      }
+      final int position = keysPosition;
+      keysPosition += k;
+      return position;
+    }
+
+    private void emit() {
+      chunks ++;
+      if (sink != null) {
+        sink.write(laidOut, 0, k);
+      }
+    }
+  }
+
+  private static void putVariableLength(final ByteArrayOutputStream out, final int value) {
+    int remaining = value;
+    while (remaining > VARIABLE_LENGTH_MASK) {
+      out.write(remaining & VARIABLE_LENGTH_MASK | VARIABLE_LENGTH_MORE);
+      remaining >>>= VARIABLE_LENGTH_BITS;
+    }
+    out.write(remaining);
+  }
+
+  private static long saltedChunksFor(final long streamSize, final int k) {
+    final int bytesPerChunk = k - 1;
+    return (streamSize + bytesPerChunk - 1) / bytesPerChunk;
+  }
+
+  /**
+   * Reads a value from the stream embedded in the salted chunks of a payload
+   */
+  private static long getValue(final byte[] payload, final int k, final int position,
+      final int size) {
+    final int bytesPerChunk = k - 1;
+    long value = 0;
+    for (int i = 0 ; i < size ; i++) {
+      final int streamIndex = position + i;
+      final int payloadIndex = streamIndex / bytesPerChunk * k + 1 + streamIndex % bytesPerChunk;
+      value |= (long) ByteHelper.byteToUnsignedInt(payload[payloadIndex]) << 8 * i;
+    }
+    return value;
+  }
+
+  /**
+   * Reads a value from a stream (e.g., the header, once collected from its salted chunks)
+   */
+  private static long getStreamValue(final byte[] stream, final int position, final int size) {
+    long value = 0;
+    for (int i = 0 ; i < size ; i++) {
+      value |= (long) ByteHelper.byteToUnsignedInt(stream[position + i]) << 8 * i;
+    }
+    return value;
+  }
+
+  private static void putValue(final byte[] stream, final long value, final int position,
+      final int size) {
+    for (int i = 0 ; i < size ; i++) {
+      stream[position + i] = (byte) (value >>> 8 * i);
+    }
+  }
+}
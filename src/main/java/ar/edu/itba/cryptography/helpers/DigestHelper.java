@@ -0,0 +1,254 @@
+package ar.edu.itba.cryptography.helpers;
+
+import ar.edu.itba.cryptography.services.BMPChannelService;
+import ar.edu.itba.cryptography.services.BMPService;
+import ar.edu.itba.cryptography.services.SegmentedBuffer;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Per-block digests (CRC32C) of an obfuscated secret, so as the blocks retrieved from a corrupted
+ * shadow can be detected.<p>
+ * The secret is split into blocks of {@value #BLOCK_CHUNKS} chunks (the last one may be
+ * shorter), and the digest table is hidden at the end of the pixel data of every shadow (one
+ * byte in the LSBs of each 8 bytes, as the k = 8 scheme hides the values), after the values of
+ * the secret:
+ * <pre>
+ * digest of block 0 | ... | digest of block B - 1 | chunks | digest of all the previous bytes
+ * </pre>
+ * with each field being a big-endian 4-byte int. As the table is at the end of the pixel data,
+ * it is found without knowing the size of the secret, and its own digest tells whether the copy
+ * of a shadow is intact.
+ */
+public abstract class DigestHelper {
+  /**
+   * Amount of chunks of each block, i.e., of chunks re-solved when one of them does not match
+   */
+  public static final int BLOCK_CHUNKS = 4096;
+  private static final int FIELD_BYTES = Integer.BYTES;
+  /**
+   * Chunks & digest of the table
+   */
+  private static final int TRAILER_BYTES = 2 * FIELD_BYTES;
+  private static final int SHADOW_BYTES_PER_TABLE_BYTE = Byte.SIZE;
+  /**
+   * Bytes copied at once out of a buffer that does not fit in a single array
+   */
+  private static final int STREAMED_BYTES = 64 * 1024;
+  /**
+   * Reflected Castagnoli polynomial
+   */
+  private static final int CRC32C_POLYNOMIAL = 0x82F63B78;
+  private static final int[] CRC32C_TABLE = new int[256];
+  static {
+    for (int i = 0 ; i < CRC32C_TABLE.length ; i++) {
+      int crc = i;
+      for (int bit = 0 ; bit < Byte.SIZE ; bit++) {
+        crc = (crc & 1) != 0 ? (crc >>> 1) ^ CRC32C_POLYNOMIAL : crc >>> 1;
+      }
+      CRC32C_TABLE[i] = crc;
+    }
+  }
+
+  /**
+   * The digests of a secret, as read from a shadow
+   */
+  public static final class Table {
+    private final int chunks;
+    private final int[] digests;
+
+    private Table(final int chunks, final int[] digests) {
+      this.chunks = chunks;
+      this.digests = digests;
+    }
+
+    /**
+     * @return the amount of chunks of the secret
+     */
+    public int getChunks() {
+      return chunks;
+    }
+
+    public int getBlocks() {
+      return digests.length;
+    }
+
+    /**
+     * @param block the index of the block
+     * @param data the obfuscated secret, with the given block at its chunks
+     * @param k the chunk size
+     * @return true if the given block of the data matches its digest
+     */
+    public boolean matches(final int block, final byte[] data, final int k) {
+      return matches(block, data, 0, k);
+    }
+
+    /**
+     * @param block the index of the block
+     * @param data obfuscated chunks of the secret, from {@code firstChunk} on, including the ones
+     *             of the given block
+     * @param firstChunk the index (in the secret) of the first chunk of the data
+     * @param k the chunk size
+     * @return true if the given block of the data matches its digest
+     */
+    public boolean matches(final int block, final byte[] data, final int firstChunk,
+        final int k) {
+      final int from = block * BLOCK_CHUNKS;
+      final int to = Math.min(chunks, from + BLOCK_CHUNKS);
+      return crc32c(data, (from - firstChunk) * k, (to - from) * k) == digests[block];
+    }
+  }
+
+  /**
+   * Reads the given region of a shadow, whether it is loaded or not
+   */
+  private interface RegionReader {
+    byte[] read(long position, int length);
+  }
+
+  /**
+   * @param chunks the amount of chunks of the secret
+   * @return the amount of blocks of the secret
+   */
+  public static int getBlocks(final int chunks) {
+    return (chunks + BLOCK_CHUNKS - 1) / BLOCK_CHUNKS;
+  }
+
+  /**
+   * @param chunks the amount of chunks of the secret
+   * @return the amount of bytes of each shadow taken by the table (at the end of its pixel data)
+   */
+  public static int getShadowBytes(final int chunks) {
+    return (getBlocks(chunks) * FIELD_BYTES + TRAILER_BYTES) * SHADOW_BYTES_PER_TABLE_BYTE;
+  }
+
+  /**
+   * @param obfData the obfuscated secret, exactly as it is retrieved (i.e., with the overflow
+   *                adjustments already applied)
+   * @param k the chunk size
+   * @return the table of the given secret, to be hidden at the end of each shadow (see
+   *         {@link ar.edu.itba.cryptography.services.BMPIOService#hideTrailingBytes})
+   */
+  public static byte[] createTable(final byte[] obfData, final int k) {
+    final int chunks = obfData.length / k;
+    final int blocks = getBlocks(chunks);
+    final byte[] table = new byte[blocks * FIELD_BYTES + TRAILER_BYTES];
+    for (int block = 0 ; block < blocks ; block++) {
+      final int from = block * BLOCK_CHUNKS;
+      final int to = Math.min(chunks, from + BLOCK_CHUNKS);
+      putInt(table, block * FIELD_BYTES, crc32c(obfData, from * k, (to - from) * k));
+    }
+    final int trailer = blocks * FIELD_BYTES;
+    putInt(table, trailer, chunks);
+    putInt(table, trailer + FIELD_BYTES, crc32c(table, 0, trailer + FIELD_BYTES));
+    return table;
+  }
+
+  /**
+   * @param image a whole shadow image
+   * @return the table hidden at the end of the pixel data of the given shadow; null if there is
+   *         none or if it does not match its own digest
+   */
+  public static Table readTable(final byte[] image) {
+    final int offset = BMPService.getBitmapOffset(image);
+    final int end = BMPService.getBitmapSize(image);
+    if (offset < 0 || end > image.length) {
+      return null;
+    }
+    return readTable(offset, end,
+        (position, length) -> Arrays.copyOfRange(image, (int) position, (int) position + length));
+  }
+
+  /**
+   * Same as {@link #readTable(byte[])}, reading only the end of the pixel data of the given shadow
+   * @param channelService the service the shadow was opened with
+   */
+  public static Table readTable(final BMPChannelService channelService, final Path path) {
+    final long offset = channelService.getBitmapOffset(path);
+    return readTable(offset, offset + channelService.getDataSize(path),
+        (position, length) -> channelService.read(path, position, length));
+  }
+
+  /**
+   * @return the CRC32C of the given bytes
+   */
+  public static int crc32c(final byte[] bytes, final int from, final int length) {
+    return ~update(~0, bytes, from, length);
+  }
+
+  /**
+   * @return the CRC32C of the whole given buffer, which may be beyond 2 GB
+   */
+  public static int crc32c(final SegmentedBuffer bytes) {
+    if (bytes.array() != null) {
+      return crc32c(bytes.array(), 0, bytes.array().length);
+    }
+    final byte[] streamed = new byte[STREAMED_BYTES];
+    int crc = ~0;
+    for (long position = 0 ; position < bytes.size() ; position += STREAMED_BYTES) {
+      final int length = (int) Math.min(STREAMED_BYTES, bytes.size() - position);
+      bytes.get(position, streamed, 0, length);
+      crc = update(crc, streamed, 0, length);
+    }
+    return ~crc;
+  }
+
+  // private methods
+
+  private static int update(final int initialCrc, final byte[] bytes, final int from,
+      final int length) {
+    int crc = initialCrc;
+    for (int i = from ; i < from + length ; i++) {
+      crc = (crc >>> Byte.SIZE) ^ CRC32C_TABLE[(crc ^ bytes[i]) & 0xFF];
+    }
+    return crc;
+  }
+
+  private static Table readTable(final long offset, final long end, final RegionReader reader) {
+    if (end - offset < TRAILER_BYTES * SHADOW_BYTES_PER_TABLE_BYTE) {
+      return null;
+    }
+    final byte[] trailer = readBytes(reader, end, TRAILER_BYTES);
+    final int chunks = getInt(trailer, 0);
+    if (chunks <= 0 || getShadowBytes(chunks) > end - offset) {
+      return null;
+    }
+    final int blocks = getBlocks(chunks);
+    final byte[] table = readBytes(reader, end, blocks * FIELD_BYTES + TRAILER_BYTES);
+    if (crc32c(table, 0, table.length - FIELD_BYTES) != getInt(trailer, FIELD_BYTES)) {
+      return null;
+    }
+    final int[] digests = new int[blocks];
+    for (int block = 0 ; block < blocks ; block++) {
+      digests[block] = getInt(table, block * FIELD_BYTES);
+    }
+    return new Table(chunks, digests);
+  }
+
+  /**
+   * @return the last {@code length} bytes hidden before {@code end}
+   */
+  private static byte[] readBytes(final RegionReader reader, final long end, final int length) {
+    final byte[] bytes = new byte[length];
+    final byte[] region = reader.read(end - (long) length * SHADOW_BYTES_PER_TABLE_BYTE,
+        length * SHADOW_BYTES_PER_TABLE_BYTE);
+    for (int i = 0 ; i < length ; i++) {
+      bytes[i] = BMPService.getValueInLSB(region, i * SHADOW_BYTES_PER_TABLE_BYTE);
+    }
+    return bytes;
+  }
+
+  private static void putInt(final byte[] bytes, final int position, final int value) {
+    for (int i = 0 ; i < FIELD_BYTES ; i++) {
+      bytes[position + i] = (byte) (value >>> (Byte.SIZE * (FIELD_BYTES - 1 - i)));
+    }
+  }
+
+  private static int getInt(final byte[] bytes, final int position) {
+    int value = 0;
+    for (int i = 0 ; i < FIELD_BYTES ; i++) {
+      value = (value << Byte.SIZE) | (bytes[position + i] & 0xFF);
+    }
+    return value;
+  }
+}
@@ -14,10 +14,39 @@ public class InputArgsHelper {
     HELP_PROGRAM("-h", ""),
     DISTRIBUTION_PROGRAM("-d", ""),
     RETRIEVE_PROGRAM("-r", ""),
+    EXTEND_PROGRAM("-e", ""),
+    AGENT_PROGRAM("-a", ""),
+    BATCH_PROGRAM("-b", ""),
+    TUNE_PROGRAM("-t", ""),
+    BENCHMARK_PROGRAM("-m", ""),
     SECRET("-secret", "</path/to/image>"),
     K("-k", "<number>"),
     N("-n", "<number>"),
-    IMAGES_DIR("-dir", "<images_directory>");
+    IMAGES_DIR("-dir", "<images_directory>"),
+    COVERS_DIR("-covers", "<covers_directory>"),
+    OLD_SECRET("-old", "</path/to/image>"),
+    SECRET_ID("-id", "<number>"),
+    OUTPUT_DIR("-out", "<output_directory>"),
+    SHADOW("-shadow", "</path/to/image>"),
+    CONNECT("-connect", "<host:port>"),
+    LISTEN("-listen", "<port>"),
+    PREVIEW("-preview", "<passes>"),
+    JOBS("-jobs", "</path/to/jobs_file>"),
+    BUDGET("-budget", "<megabytes>"),
+    BUNDLE("-bundle", "</path/to/shadows.zip|.tar|.tar.gz>"),
+    VERIFY("-verify", "<chunks>"),
+    SIZE("-size", "<kilobytes>"),
+    RUNS("-runs", "<number>"),
+    BASELINE("-baseline", "</path/to/baseline.csv>"),
+    THRESHOLD("-threshold", "<percent>"),
+    STATS("-stats", ""),
+    COMPRESS("-compress", ""),
+    UPDATE("-update", ""),
+    INTERLACE("-interlace", ""),
+    PIPELINE("-pipeline", ""),
+    DIGESTS("-digests", ""),
+    JOURNAL("-journal", ""),
+    PLAN("-plan", "");
 
     private final String type;
     private final String description;
@@ -35,6 +64,8 @@ public class InputArgsHelper {
     }
   }
 
+  private static final String FLAG_VALUE = Boolean.TRUE.toString();
+
   private static final Map<String, InputArgs> inputArgs;
   static {
     inputArgs = new HashMap<>();
@@ -42,6 +73,36 @@ public class InputArgsHelper {
     inputArgs.put(K.getType(), K);
     inputArgs.put(N.getType(), N);
     inputArgs.put(IMAGES_DIR.getType(), IMAGES_DIR);
+    inputArgs.put(COVERS_DIR.getType(), COVERS_DIR);
+    inputArgs.put(OLD_SECRET.getType(), OLD_SECRET);
+    inputArgs.put(SECRET_ID.getType(), SECRET_ID);
+    inputArgs.put(OUTPUT_DIR.getType(), OUTPUT_DIR);
+    inputArgs.put(SHADOW.getType(), SHADOW);
+    inputArgs.put(CONNECT.getType(), CONNECT);
+    inputArgs.put(LISTEN.getType(), LISTEN);
+    inputArgs.put(PREVIEW.getType(), PREVIEW);
+    inputArgs.put(JOBS.getType(), JOBS);
+    inputArgs.put(BUDGET.getType(), BUDGET);
+    inputArgs.put(BUNDLE.getType(), BUNDLE);
+    inputArgs.put(VERIFY.getType(), VERIFY);
+    inputArgs.put(SIZE.getType(), SIZE);
+    inputArgs.put(RUNS.getType(), RUNS);
+    inputArgs.put(BASELINE.getType(), BASELINE);
+    inputArgs.put(THRESHOLD.getType(), THRESHOLD);
+  }
+
+  // Arguments that are not followed by a value
+  private static final Map<String, InputArgs> flagArgs;
+  static {
+    flagArgs = new HashMap<>();
+    flagArgs.put(STATS.getType(), STATS);
+    flagArgs.put(COMPRESS.getType(), COMPRESS);
+    flagArgs.put(UPDATE.getType(), UPDATE);
+    flagArgs.put(INTERLACE.getType(), INTERLACE);
+    flagArgs.put(PIPELINE.getType(), PIPELINE);
+    flagArgs.put(DIGESTS.getType(), DIGESTS);
+    flagArgs.put(JOURNAL.getType(), JOURNAL);
+    flagArgs.put(PLAN.getType(), PLAN);
   }
 
   public static Map<InputArgs, String> parseArgs(final String[] args) {
@@ -50,7 +111,13 @@ public class InputArgsHelper {
     // Get main program
     parsedArgs.put(MAIN_PROGRAM, IOService.validArgsAccess(args, i++));
     // Get the other variables
-    while (i + 1 <= args.length) { // This + 1 is for also validating the param value access
+    while (i < args.length) {
+      final InputArgs flagArg = flagArgs.get(args[i]);
+      if (flagArg != null) {
+        parsedArgs.put(flagArg, FLAG_VALUE);
+        i ++; // We have just read 1 input arg
+        continue;
+      }
       final int paramTypeIndex = i, paramValueIndex = i + 1;
       final String paramType = IOService.validArgsAccess(args, paramTypeIndex);
       final String paramValue = IOService.validArgsAccess(args, paramValueIndex);
@@ -85,4 +152,13 @@ public class InputArgsHelper {
     }
     return parsedArg;
   }
+
+  /**
+   * @param parsedArgs all the parsed arguments
+   * @param flag the flag argument to be checked
+   * @return true if the flag was specified; false otherwise
+   */
+  public static boolean isFlagSet(final Map<InputArgs, String> parsedArgs, final InputArgs flag) {
+    return parsedArgs.containsKey(flag);
+  }
 }
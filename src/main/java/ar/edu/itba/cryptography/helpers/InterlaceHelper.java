@@ -0,0 +1,189 @@
+package ar.edu.itba.cryptography.helpers;
+
+import ar.edu.itba.cryptography.services.BMPService;
+import ar.edu.itba.cryptography.services.BufferPoolService;
+
+/**
+ * Adam7 interlaced order of the pixel data of a BMP image.<p>
+ * Pixels are taken in 7 passes, each of them over a finer grid than the previous ones:
+ * <pre>
+ * 1 6 4 6 2 6 4 6
+ * 7 7 7 7 7 7 7 7
+ * 5 6 5 6 5 6 5 6
+ * 7 7 7 7 7 7 7 7
+ * 3 6 4 6 3 6 4 6
+ * 7 7 7 7 7 7 7 7
+ * 5 6 5 6 5 6 5 6
+ * 7 7 7 7 7 7 7 7
+ * </pre>
+ * (rows are taken as they are stored in the file). The bytes of each pixel are kept together,
+ * and the bytes that belong to no pixel (row padding & trailing bytes) are taken at the end, in
+ * file order.<p>
+ * So, once the first passes of the interlaced data are known, a low resolution version of the
+ * image can be built (see {@link #preview}): after pass 1, 1 of each 64 pixels is known; after
+ * pass 3, 1 of each 16; after pass 5, 1 of each 4; and after pass 7, all of them.
+ */
+public abstract class InterlaceHelper {
+  public static final int PASSES = 7;
+
+  private static final int[] FIRST_COL = { 0, 4, 0, 2, 0, 1, 0 };
+  private static final int[] FIRST_ROW = { 0, 0, 4, 0, 2, 0, 1 };
+  private static final int[] COL_STEP = { 8, 8, 4, 4, 2, 2, 1 };
+  private static final int[] ROW_STEP = { 8, 8, 8, 4, 4, 2, 2 };
+  /**
+   * Size of the blocks of pixels that share the same known pixel after each pass
+   */
+  private static final int[] BLOCK_WIDTH = { 8, 4, 4, 2, 2, 1, 1 };
+  private static final int[] BLOCK_HEIGHT = { 8, 8, 4, 4, 2, 2, 1 };
+
+  /**
+   * @param header the header of the image
+   * @param dataLength the length of the pixel data of the image
+   * @return true if the pixels of the image can be interlaced, i.e., if each of them takes whole
+   *         bytes and all the rows are within the pixel data
+   */
+  public static boolean canInterlace(final byte[] header, final long dataLength) {
+    final int bitsPerPixel = BMPService.getBitsPerPixel(header) & 0xFFFF;
+    return bitsPerPixel > 0 && bitsPerPixel % Byte.SIZE == 0
+        && (long) getRowSize(header) * getHeight(header) <= dataLength;
+  }
+
+  /**
+   * @param data the pixel data of the image, in file order
+   * @param header the header of the image
+   * @return the pixel data, in interlaced order, leased from the {@link BufferPoolService}
+   */
+  public static byte[] interlace(final byte[] data, final byte[] header) {
+    final int[] order = getOrder(header, data.length);
+    final byte[] interlacedData = BufferPoolService.lease(data.length);
+    for (int i = 0 ; i < order.length ; i++) {
+      interlacedData[i] = data[order[i]];
+    }
+    return interlacedData;
+  }
+
+  /**
+   * @param interlacedData the pixel data of the image, in interlaced order
+   * @param header the header of the image
+   * @return the pixel data, in file order, leased from the {@link BufferPoolService}
+   */
+  public static byte[] deinterlace(final byte[] interlacedData, final byte[] header) {
+    final int[] order = getOrder(header, interlacedData.length);
+    final byte[] data = BufferPoolService.lease(interlacedData.length);
+    for (int i = 0 ; i < order.length ; i++) {
+      data[order[i]] = interlacedData[i];
+    }
+    return data;
+  }
+
+  /**
+   * @param header the header of the image
+   * @param passes the amount of passes, in [1, {@link #PASSES}]
+   * @return the amount of bytes of the interlaced data that hold the pixels of the first
+   *         {@code passes} passes
+   */
+  public static int getPassesSize(final byte[] header, final int passes) {
+    final int width = getWidth(header);
+    final int height = getHeight(header);
+    int pixels = 0;
+    for (int pass = 0 ; pass < passes ; pass++) {
+      pixels += countSteps(width, FIRST_COL[pass], COL_STEP[pass])
+          * countSteps(height, FIRST_ROW[pass], ROW_STEP[pass]);
+    }
+    return pixels * getBytesPerPixel(header);
+  }
+
+  /**
+   * Builds a low resolution version of the image, in which each block of pixels takes the value
+   * of its known pixel (the one at the block's first row & column).
+   * @param interlacedPrefix the first bytes of the interlaced data, holding at least the first
+   *                         {@code passes} passes
+   * @param header the header of the image
+   * @param passes the amount of known passes, in [1, {@link #PASSES}]
+   * @param dataLength the length of the whole pixel data
+   * @return the pixel data of the preview, in file order (bytes that belong to no pixel are 0)
+   */
+  public static byte[] preview(final byte[] interlacedPrefix, final byte[] header,
+      final int passes, final int dataLength) {
+    final int[] order = getOrder(header, dataLength);
+    final byte[] data = new byte[dataLength];
+    final int known = Math.min(interlacedPrefix.length, getPassesSize(header, passes));
+    for (int i = 0 ; i < known ; i++) {
+      data[order[i]] = interlacedPrefix[i];
+    }
+    final int width = getWidth(header);
+    final int height = getHeight(header);
+    final int bytesPerPixel = getBytesPerPixel(header);
+    final int rowSize = getRowSize(header);
+    final int blockWidth = BLOCK_WIDTH[passes - 1];
+    final int blockHeight = BLOCK_HEIGHT[passes - 1];
+    for (int row = 0 ; row < height ; row++) {
+      final int knownRow = row - row % blockHeight;
+      for (int col = 0 ; col < width ; col++) {
+        final int knownCol = col - col % blockWidth;
+        if (knownRow != row || knownCol != col) {
+          System.arraycopy(data, knownRow * rowSize + knownCol * bytesPerPixel,
+              data, row * rowSize + col * bytesPerPixel, bytesPerPixel);
+        }
+      }
+    }
+    return data;
+  }
+
+  /**
+   * @return order[i] = the position (in file order) of the i-th byte of the interlaced data
+   */
+  private static int[] getOrder(final byte[] header, final int dataLength) {
+    final int width = getWidth(header);
+    final int height = getHeight(header);
+    final int bytesPerPixel = getBytesPerPixel(header);
+    final int rowSize = getRowSize(header);
+    final int[] order = new int[dataLength];
+    final boolean[] taken = new boolean[dataLength];
+    int next = 0;
+    for (int pass = 0 ; pass < PASSES ; pass++) {
+      for (int row = FIRST_ROW[pass] ; row < height ; row += ROW_STEP[pass]) {
+        for (int col = FIRST_COL[pass] ; col < width ; col += COL_STEP[pass]) {
+          final int position = row * rowSize + col * bytesPerPixel;
+          for (int b = 0 ; b < bytesPerPixel ; b++) {
+            order[next++] = position + b;
+            taken[position + b] = true;
+          }
+        }
+      }
+    }
+    // Row padding & trailing bytes
+    for (int position = 0 ; position < dataLength ; position++) {
+      if (!taken[position]) {
+        order[next++] = position;
+      }
+    }
+    return order;
+  }
+
+  private static int countSteps(final int size, final int first, final int step) {
+    return size > first ? (size - first + step - 1) / step : 0;
+  }
+
+  private static int getWidth(final byte[] header) {
+    return BMPService.getHorizontalWidthInPixels(header);
+  }
+
+  /**
+   * Bottom-up images have a positive height, while top-down ones have a negative one
+   */
+  private static int getHeight(final byte[] header) {
+    return Math.abs(BMPService.getVerticalWidthInPixels(header));
+  }
+
+  private static int getBytesPerPixel(final byte[] header) {
+    return (BMPService.getBitsPerPixel(header) & 0xFFFF) / Byte.SIZE;
+  }
+
+  /**
+   * Rows are padded to a multiple of 4 bytes
+   */
+  private static int getRowSize(final byte[] header) {
+    return (getWidth(header) * getBytesPerPixel(header) + 3) / 4 * 4;
+  }
+}
@@ -4,6 +4,12 @@ import java.util.Arrays;
 
 public abstract class MatrixHelper {
   private static final int MAX_BYTE = 255;
+  /**
+   * Max terms of value up to 256 * 255 (mod 257 coefficient x unsigned byte) that can be added
+   * without int overflow
+   */
+  private static final int LAZY_REDUCTION_TERMS = 32768;
+
   public static int getCoefficient(final int x, final int coefficientPos, final int modulus) {
     int coefficient = 1;
 
@@ -28,22 +34,182 @@ public abstract class MatrixHelper {
    */
   public static byte[] byteNoOverflowMultiply(final int[][] matrixA, final byte[] arrayX,
       final int mod) {
+    final byte[] arrayB = new byte[matrixA.length];
+    return byteNoOverflowMultiply(matrixA, arrayX, mod, arrayB) ? arrayB : null;
+  }
+
+  /**
+   * Same as {@link #byteNoOverflowMultiply(int[][], byte[], int)}, but the result is saved into
+   * the given {@code arrayB}, so as it can be reused among calls.
+   * @param matrixA the n x k matrix, with all its values in [0, mod-1]
+   * @param arrayX the k x 1 array
+   * @param mod the modulus to be used during calculations
+   * @param arrayB the n x 1 array where the result is saved
+   * @return true if no byte overflow is detected; false otherwise
+   *         (and arrayB is left partially written)
+   * @implNote The modulus is not applied after each multiply-add but once per row
+   *           (lazy reduction), as every term is at most (mod-1) * MAX_BYTE and so up to
+   *           {@link #LAZY_REDUCTION_TERMS} terms (plus a reduced value) can be accumulated
+   *           without int overflow.
+   *           The result is the same as the one of reducing on each step.
+   */
+  public static boolean byteNoOverflowMultiply(final int[][] matrixA, final byte[] arrayX,
+      final int mod, final byte[] arrayB) {
     final int rows = matrixA.length;
     final int cols = arrayX.length;
-    final byte[] arrayB = new byte[rows];
     for (int i = 0 ; i < rows ; i++) {
+      final int[] rowA = matrixA[i];
       int sum = 0;
-      for (int j = 0 ; j < cols ; j++) {
-        // it is assumed that cols(matrixA) = cols
-        sum += (matrixA[i][j] * ByteHelper.byteToUnsignedInt(arrayX[j]));
-        sum %= mod; // perform mod operation on each step
+      // Only one block of terms unless k is really big
+      for (int from = 0 ; from < cols ; from += LAZY_REDUCTION_TERMS) {
+        final int to = Math.min(cols, from + LAZY_REDUCTION_TERMS);
+        for (int j = from ; j < to ; j++) {
+          // it is assumed that cols(matrixA) = cols
+          sum += rowA[j] * ByteHelper.byteToUnsignedInt(arrayX[j]);
+        }
+        sum %= mod; // perform the mod operation once per block of terms
       }
       if (sum > MAX_BYTE) { // byte overflow detected
-        return null;
+        return false;
       }
       arrayB[i] = (byte) sum; // safe cast (with no overflow)
     }
-    return arrayB;
+    return true;
+  }
+
+  /**
+   * Solves the coefficients of a polynomial of degree k-1 (mod `modulus`) from its values in k
+   * different points, in the same way as the retrieve program does
+   * @param xs the k different points where the polynomial is known
+   * @param values the k values of the polynomial, i.e., values[i] = p(xs[i])
+   * @param modulus a prime modulus
+   * @return the k coefficients, in the order [a0, ..., ak-1]
+   */
+  public static int[] solvePolynomial(final int[] xs, final int[] values, final int modulus) {
+    final int k = xs.length;
+    final int[][] matrix = new int[k][k + 1];
+    for (int row = 0 ; row < k ; row++) {
+      for (int col = 0 ; col < k ; col++) {
+        matrix[row][col] = getCoefficient(xs[row], col, modulus);
+      }
+      matrix[row][k] = values[row];
+    }
+    return GaussSolverHelper.solve(matrix, modulus);
+  }
+
+  /**
+   * Lagrange interpolation weights of a polynomial of degree k-1 (mod `modulus`), i.e.:
+   * p(x) = weights[0] * p(xs[0]) + ... + weights[k-1] * p(xs[k-1]) (mod `modulus`)
+   * for every such polynomial, without having to know its coefficients
+   * @param xs the k different points where the polynomial is known
+   * @param x the point where the polynomial is to be evaluated
+   * @param modulus a prime modulus
+   * @return the k weights, each of them in [0, modulus-1]
+   */
+  public static int[] getInterpolationWeights(final int[] xs, final int x, final int modulus) {
+    final int k = xs.length;
+    final int[] weights = new int[k];
+    for (int j = 0 ; j < k ; j++) {
+      long numerator = 1, denominator = 1;
+      for (int i = 0 ; i < k ; i++) {
+        if (i == j) continue;
+        numerator = numerator * Math.floorMod(x - xs[i], modulus) % modulus;
+        denominator = denominator * Math.floorMod(xs[j] - xs[i], modulus) % modulus;
+      }
+      weights[j] = (int) (numerator * modInverse((int) denominator, modulus) % modulus);
+    }
+    return weights;
+  }
+
+  /**
+   * Coefficients of the Lagrange basis polynomial of the j-th point, i.e., the j-th column of the
+   * inverse of the Vandermonde matrix of xs. Then, for every polynomial p of degree k-1:
+   * [a0, ..., ak-1] = sum over j of (basis(j) * p(xs[j])) (mod `modulus`),
+   * so each known value contributes to the coefficients without knowing the other values
+   * @param xs the k different points where the polynomial is known
+   * @param j the index of the point (in xs) whose basis polynomial is returned
+   * @param modulus a prime modulus
+   * @return the k coefficients of the basis polynomial, in the order [c0, ..., ck-1]
+   */
+  public static int[] getLagrangeBasisCoefficients(final int[] xs, final int j,
+      final int modulus) {
+    final int k = xs.length;
+    // Expand the product of (x - xs[i]) for every i != j, one factor at a time
+    final long[] numerator = new long[k];
+    numerator[0] = 1;
+    int degree = 0;
+    long denominator = 1;
+    for (int i = 0 ; i < k ; i++) {
+      if (i == j) continue;
+      final long root = Math.floorMod(-xs[i], modulus);
+      degree ++;
+      for (int col = degree ; col > 0 ; col--) {
+        numerator[col] = (numerator[col - 1] + numerator[col] * root) % modulus;
+      }
+      numerator[0] = numerator[0] * root % modulus;
+      denominator = denominator * Math.floorMod(xs[j] - xs[i], modulus) % modulus;
+    }
+    final long inverse = modInverse((int) denominator, modulus);
+    final int[] coefficients = new int[k];
+    for (int col = 0 ; col < k ; col++) {
+      coefficients[col] = (int) (numerator[col] * inverse % modulus);
+    }
+    return coefficients;
+  }
+
+  /**
+   * @param xs the k different points where the polynomial is known
+   * @param modulus a prime modulus
+   * @return the inverse of the Vandermonde matrix of xs, by columns, i.e., basis[j] are the
+   *         coefficients of the Lagrange basis polynomial of xs[j]
+   *         (see {@link #getLagrangeBasisCoefficients})
+   */
+  public static int[][] getLagrangeBasis(final int[] xs, final int modulus) {
+    final int[][] basis = new int[xs.length][];
+    for (int j = 0 ; j < xs.length ; j++) {
+      basis[j] = getLagrangeBasisCoefficients(xs, j, modulus);
+    }
+    return basis;
+  }
+
+  /**
+   * Solves the coefficients of a polynomial of degree k-1 (mod `modulus`) from its values in the
+   * k points of the given basis, with the same result as {@link #solvePolynomial}, but with k^2
+   * multiply-adds only (as the basis is computed once for all the polynomials)
+   * @param basis the basis of the points, as returned by {@link #getLagrangeBasis}
+   * @param values the k values of the polynomial, each of them in [0, 256]
+   * @param modulus the prime modulus of the basis (up to 257)
+   * @param coefficients where the k coefficients are saved, in the order [a0, ..., ak-1], as
+   *                     bytes (see {@link ByteHelper#intToByte})
+   * @param from the position of a0 in {@code coefficients}
+   */
+  public static void solvePolynomial(final int[][] basis, final int[] values, final int modulus,
+      final byte[] coefficients, final int from) {
+    final int k = basis.length;
+    for (int col = 0 ; col < k ; col++) {
+      // At most 257 different points (mod 257) of terms of at most 256 * 256 => no int overflow
+      int coefficient = 0;
+      for (int j = 0 ; j < k ; j++) {
+        coefficient += basis[j][col] * values[j];
+      }
+      coefficients[from + col] = ByteHelper.intToByte(coefficient % modulus);
+    }
+  }
+
+  /**
+   * @param a a value in [1, modulus-1]
+   * @param modulus a prime modulus
+   * @return the multiplicative inverse of a (mod `modulus`), by Fermat's little theorem
+   */
+  public static int modInverse(final int a, final int modulus) {
+    long result = 1, base = a % modulus;
+    for (int exponent = modulus - 2 ; exponent > 0 ; exponent >>= 1) {
+      if ((exponent & 1) == 1) {
+        result = result * base % modulus;
+      }
+      base = base * base % modulus;
+    }
+    return (int) result;
   }
 
   public static int[][] copyOf(final int[][] matrix) {
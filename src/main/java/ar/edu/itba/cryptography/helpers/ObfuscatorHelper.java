@@ -1,5 +1,8 @@
 package ar.edu.itba.cryptography.helpers;
 
+import ar.edu.itba.cryptography.services.BufferPoolService;
+import ar.edu.itba.cryptography.services.InstrumentationService;
+import ar.edu.itba.cryptography.services.InstrumentationService.Phase;
 import java.util.Random;
 
 public abstract class ObfuscatorHelper {
@@ -10,26 +13,57 @@ public abstract class ObfuscatorHelper {
     return (char) randomGenerator.nextInt();
   }
 
+  /**
+   * @return a copy of the given data with its obfuscation toggled, leased from the
+   *         {@link BufferPoolService} (the caller may release it once it is done with it)
+   */
   public static byte[] toggleObfuscation(final byte[] originalData, final int seed) {
+    final long obfuscateStart = InstrumentationService.start();
     final int length = originalData.length;
-    final byte[] permutationTable = createPermutationTable(length, seed);
-    final byte[] toggledObfuscationData = new byte[length];
+    final Random seededRandom = new Random();
+    seededRandom.setSeed(seed);
+    final byte[] toggledObfuscationData = BufferPoolService.lease(length);
+    // The permutation table is generated on the fly, so as it is not allocated as a whole
     for (int i = 0 ; i < length ; i ++) {
       toggledObfuscationData[i] =
           (byte) (ByteHelper.byteToUnsignedInt(originalData[i]) ^
-              ByteHelper.byteToUnsignedInt(permutationTable[i]));
+              seededRandom.nextInt(MAX_BYTE_EXCLUDED));  // generates a number in [0,255]
     }
+    InstrumentationService.record(Phase.OBFUSCATE, obfuscateStart, length);
     return toggledObfuscationData;
   }
 
-  private static byte[] createPermutationTable(final int length, final int seed) {
-    final byte[] permutationTable = new byte[length];
-    final Random seededRandom = new Random();
-    seededRandom.setSeed(seed);
-    for(int i=0; i < length; i++) {
-      int num = seededRandom.nextInt(MAX_BYTE_EXCLUDED); // generates a number in [0,255]
-      permutationTable[i] = (byte) num;
+  /**
+   * Toggles the obfuscation of consecutive parts of the data, one at a time, with the same result
+   * as toggling it as a whole with {@link #toggleObfuscation}, so as the data does not need to
+   * be available all at once
+   */
+  public static final class Keystream {
+    private final Random seededRandom;
+
+    public Keystream(final int seed) {
+      this.seededRandom = new Random();
+      this.seededRandom.setSeed(seed);
+    }
+
+    /**
+     * Toggles the obfuscation of the following {@code data.length} bytes of the data, in place
+     */
+    public void toggle(final byte[] data) {
+      final long obfuscateStart = InstrumentationService.start();
+      for (int i = 0 ; i < data.length ; i++) {
+        data[i] ^= (byte) seededRandom.nextInt(MAX_BYTE_EXCLUDED);
+      }
+      InstrumentationService.record(Phase.OBFUSCATE, obfuscateStart, data.length);
+    }
+
+    /**
+     * Skips the following {@code bytes} bytes of the data, as if their obfuscation was toggled
+     */
+    public void skip(final long bytes) {
+      for (long i = 0 ; i < bytes ; i++) {
+        seededRandom.nextInt(MAX_BYTE_EXCLUDED);
+      }
     }
-    return permutationTable;
   }
 }
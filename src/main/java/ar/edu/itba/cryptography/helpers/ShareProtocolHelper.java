@@ -0,0 +1,161 @@
+package ar.edu.itba.cryptography.helpers;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Messages exchanged between the share-holder agents and the retrieve coordinator, over a
+ * stream connection (all values are big-endian, as written by {@link DataOutputStream}):
+ * <pre>
+ * agent -> coordinator HELLO:    INT magic, SHORT shadow number, SHORT seed,
+ *                                INT available values, INT header size, header bytes
+ * coordinator -> agent SETUP:    SHORT k, k SHORTs with the shadow numbers of the agreed set
+ * coordinator -> agent REQUEST:  INT amount of chunks (0 once the secret is retrieved)
+ * agent -> coordinator VALUES:   amount values in [0, 256], {@value #VALUE_BITS} bits each,
+ *                                packed MSB first (the last byte is padded with zeros)
+ * </pre>
+ * For each requested chunk, the agent only sends the value y extracted from its shadow, i.e.,
+ * {@value #VALUE_BITS} bits instead of the 8 (or 9) shadow bytes that hide it. The coordinator
+ * applies the Lagrange basis of the agreed set (see {@link MatrixHelper#getLagrangeBasis}) to the
+ * k values of each chunk to get its coefficients.
+ */
+public abstract class ShareProtocolHelper {
+  private static final int MAGIC = 0x53474132; // 'SGA2'
+  private static final int VALUE_BITS = 9;
+  private static final int VALUE_MASK = (1 << VALUE_BITS) - 1;
+
+  public static final class Hello {
+    private final int shadowNumber;
+    private final char seed;
+    private final int availableValues;
+    private final byte[] header;
+
+    public Hello(final int shadowNumber, final char seed, final int availableValues,
+        final byte[] header) {
+      this.shadowNumber = shadowNumber;
+      this.seed = seed;
+      this.availableValues = availableValues;
+      this.header = header;
+    }
+
+    public int getShadowNumber() {
+      return shadowNumber;
+    }
+
+    public char getSeed() {
+      return seed;
+    }
+
+    /**
+     * @return the amount of values the shadow can hold, i.e., the max amount of chunks that
+     * can be requested
+     */
+    public int getAvailableValues() {
+      return availableValues;
+    }
+
+    /**
+     * @return the shadow header (up to the bitmap offset)
+     */
+    public byte[] getHeader() {
+      return header;
+    }
+  }
+
+  public static void writeHello(final DataOutputStream out, final Hello hello)
+      throws IOException {
+    out.writeInt(MAGIC);
+    out.writeShort(hello.getShadowNumber());
+    out.writeShort(hello.getSeed());
+    out.writeInt(hello.getAvailableValues());
+    out.writeInt(hello.getHeader().length);
+    out.write(hello.getHeader());
+    out.flush();
+  }
+
+  public static Hello readHello(final DataInputStream in) throws IOException {
+    if (in.readInt() != MAGIC) {
+      throw new IOException("Unknown agent protocol");
+    }
+    final int shadowNumber = in.readUnsignedShort();
+    final char seed = in.readChar();
+    final int availableValues = in.readInt();
+    final byte[] header = new byte[in.readInt()];
+    in.readFully(header);
+    return new Hello(shadowNumber, seed, availableValues, header);
+  }
+
+  public static void writeSetup(final DataOutputStream out, final int[] xs) throws IOException {
+    out.writeShort(xs.length);
+    for (final int x : xs) {
+      out.writeShort(x);
+    }
+    out.flush();
+  }
+
+  public static int[] readSetup(final DataInputStream in) throws IOException {
+    final int[] xs = new int[in.readUnsignedShort()];
+    for (int i = 0 ; i < xs.length ; i++) {
+      xs[i] = in.readUnsignedShort();
+    }
+    return xs;
+  }
+
+  public static void writeRequest(final DataOutputStream out, final int chunks)
+      throws IOException {
+    out.writeInt(chunks);
+    out.flush();
+  }
+
+  public static int readRequest(final DataInputStream in) throws IOException {
+    return in.readInt();
+  }
+
+  /**
+   * @return the size of the VALUES message of the given amount of chunks, in bytes
+   */
+  public static long getValuesSize(final int chunks) {
+    return ((long) chunks * VALUE_BITS + Byte.SIZE - 1) / Byte.SIZE;
+  }
+
+  /**
+   * Writes the first {@code chunks} values of a VALUES message (the stream is not flushed)
+   */
+  public static void writeValues(final DataOutputStream out, final int[] values,
+      final int chunks) throws IOException {
+    int buffer = 0;
+    int bits = 0;
+    for (int i = 0 ; i < chunks ; i++) {
+      buffer = buffer << VALUE_BITS | values[i];
+      bits += VALUE_BITS;
+      while (bits >= Byte.SIZE) {
+        bits -= Byte.SIZE;
+        out.write(buffer >>> bits);
+      }
+      buffer &= (1 << bits) - 1;
+    }
+    if (bits > 0) {
+      out.write(buffer << Byte.SIZE - bits);
+    }
+  }
+
+  /**
+   * Reads the values of a VALUES message of {@code chunks} chunks into {@code values} (starting
+   * at {@code from})
+   */
+  public static void readValues(final DataInputStream in, final int[] values, final int from,
+      final int chunks) throws IOException {
+    int buffer = 0;
+    int bits = 0;
+    for (int i = from ; i < from + chunks ; i++) {
+      while (bits < VALUE_BITS) {
+        buffer = buffer << Byte.SIZE | in.readUnsignedByte();
+        bits += Byte.SIZE;
+      }
+      bits -= VALUE_BITS;
+      values[i] = buffer >>> bits & VALUE_MASK;
+      buffer &= (1 << bits) - 1;
+    }
+  }
+}
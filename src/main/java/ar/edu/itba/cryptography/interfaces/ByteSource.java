@@ -0,0 +1,19 @@
+package ar.edu.itba.cryptography.interfaces;
+
+/**
+ * Bytes addressed with long positions, which may not be held as a whole (e.g.: they are mapped,
+ * or laid out on demand)
+ */
+public interface ByteSource {
+  /**
+   * @return the amount of bytes of this source
+   */
+  long size();
+
+  /**
+   * Copies {@code length} bytes of this source, starting at {@code position}, into
+   * {@code bytes}, starting at {@code from}. Sources laid out on demand are cheaper to read in
+   * ascending positions
+   */
+  void get(long position, byte[] bytes, int from, int length);
+}
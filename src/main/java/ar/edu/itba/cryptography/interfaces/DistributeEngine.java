@@ -0,0 +1,23 @@
+package ar.edu.itba.cryptography.interfaces;
+
+import ar.edu.itba.cryptography.services.BMPIOService;
+import java.nio.file.Path;
+import java.util.List;
+
+public interface DistributeEngine {
+  /**
+   * Evaluates the polynomial of each chunk of k bytes of {@code obfData} for all the shadow
+   * numbers, and hides each evaluation into its corresponding shadow.
+   * <p>
+   * All engines should produce byte-identical shadows for the same input.
+   * @param bmpIOService service managing all access & information of the specified shadows paths
+   * @param obfData the obfuscated secret data. Its length should be a multiple of k
+   * @param pathsToShadows the n shadows (should have been opened using the bmpIOService in
+   *                       OUTPUT mode and assigned a matrix row)
+   * @param matrixA the n x k matrix with the exponential evaluations of each shadow number
+   * @param k the amount of bytes of each chunk
+   * @param modulus the modulus to be used during calculations
+   */
+  void distribute(BMPIOService bmpIOService, byte[] obfData, List<Path> pathsToShadows,
+      int[][] matrixA, int k, int modulus);
+}
@@ -0,0 +1,33 @@
+package ar.edu.itba.cryptography.interfaces;
+
+import ar.edu.itba.cryptography.services.InstrumentationService.Counter;
+import ar.edu.itba.cryptography.services.InstrumentationService.Phase;
+
+public interface InstrumentationSink {
+  /**
+   * Called each time a measurement of the given phase is recorded
+   * @param phase the measured phase
+   * @param nanos the time spent on the phase for this measurement, in nanoseconds
+   * @param bytes the amount of bytes processed by the phase for this measurement
+   */
+  void phaseRecorded(Phase phase, long nanos, long bytes);
+
+  /**
+   * Called each time the given counter is updated
+   * @param counter the updated counter
+   * @param value the new value of the counter
+   */
+  void counterUpdated(Counter counter, long value);
+
+  /**
+   * Called each time the measurements of a pipeline stage are recorded. Does nothing by default
+   * @param stage the name of the stage
+   * @param items the amount of items the stage processed
+   * @param busyNanos the time spent processing those items, in nanoseconds
+   * @param starvedNanos the time spent waiting for items from the previous stage, in nanoseconds
+   * @param blockedNanos the time spent waiting for the following stage, in nanoseconds
+   */
+  default void stageRecorded(String stage, long items, long busyNanos, long starvedNanos,
+      long blockedNanos) {
+  }
+}
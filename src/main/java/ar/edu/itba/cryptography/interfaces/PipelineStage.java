@@ -0,0 +1,15 @@
+package ar.edu.itba.cryptography.interfaces;
+
+/**
+ * A stage of a {@link ar.edu.itba.cryptography.services.PipelineService}
+ * @param <T> the type of the items flowing through the pipeline
+ */
+public interface PipelineStage<T> {
+  /**
+   * Processes the given item, before it is handed to the following stage.
+   * Items are given to each stage in the same order they were produced, and a stage never
+   * processes two items at the same time
+   * @param item the item to be processed. Modifications are done directly over it
+   */
+  void process(T item);
+}
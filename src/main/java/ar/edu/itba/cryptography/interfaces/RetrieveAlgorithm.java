@@ -1,6 +1,8 @@
 package ar.edu.itba.cryptography.interfaces;
 
 import ar.edu.itba.cryptography.services.BMPIOService;
+import ar.edu.itba.cryptography.services.BufferPoolService;
+import ar.edu.itba.cryptography.services.IOService;
 import java.nio.file.Path;
 import java.util.List;
 
@@ -13,4 +15,20 @@ public interface RetrieveAlgorithm {
    * @return the secret, non-obfuscated bmp file data as string
    */
   byte[] run(BMPIOService bmpIOService, List<Path> shadowsPaths);
+
+  /**
+   * Runs the retrieve algorithm using the given resources, and writes the secret to the given
+   * path. By default, the whole secret is retrieved in memory before being written, and then
+   * released to the {@link BufferPoolService}
+   * @param bmpIOService service managing all access & information of the specified shadows paths
+   * @param shadowsPaths the shadows that will be used to retrieve the secret file.
+   *                     There should be k different shadows paths
+   * @param pathToOutput where the secret, non-obfuscated bmp file is written
+   */
+  default void run(final BMPIOService bmpIOService, final List<Path> shadowsPaths,
+      final Path pathToOutput) {
+    final byte[] secret = run(bmpIOService, shadowsPaths);
+    IOService.writeByteArrayToFile(pathToOutput, secret);
+    BufferPoolService.release(secret);
+  }
 }
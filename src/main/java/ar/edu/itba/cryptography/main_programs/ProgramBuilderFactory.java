@@ -1,9 +1,15 @@
 package ar.edu.itba.cryptography.main_programs;
 
+import ar.edu.itba.cryptography.helpers.InputArgsHelper.InputArgs;
 import ar.edu.itba.cryptography.interfaces.MainProgramBuilder;
+import ar.edu.itba.cryptography.main_programs.programs.agent.AgentProgram;
+import ar.edu.itba.cryptography.main_programs.programs.batch.BatchProgram;
+import ar.edu.itba.cryptography.main_programs.programs.benchmark.BenchmarkProgram;
 import ar.edu.itba.cryptography.main_programs.programs.distribute.DistributeProgram;
 import ar.edu.itba.cryptography.main_programs.programs.HelpProgram;
+import ar.edu.itba.cryptography.main_programs.programs.extend.ExtendProgram;
 import ar.edu.itba.cryptography.main_programs.programs.retrieve.RetrieveProgram;
+import ar.edu.itba.cryptography.main_programs.programs.tune.TuneProgram;
 
 public abstract class ProgramBuilderFactory {
   /*
@@ -11,6 +17,34 @@ public abstract class ProgramBuilderFactory {
    * it returns an instance of the specified program
    */
 
+  /**
+   * Creates the builder of the given main program only, so as the classes of the other programs
+   * are never loaded
+   * @return the builder of the given main program; null if it is not a main program
+   */
+  public static MainProgramBuilder builderFor(final InputArgs mainProgram) {
+    switch (mainProgram) {
+      case HELP_PROGRAM:
+        return helpProgramBuilder();
+      case DISTRIBUTION_PROGRAM:
+        return distProgramBuilder();
+      case RETRIEVE_PROGRAM:
+        return retrieveProgramBuilder();
+      case EXTEND_PROGRAM:
+        return extendProgramBuilder();
+      case AGENT_PROGRAM:
+        return agentProgramBuilder();
+      case BATCH_PROGRAM:
+        return batchProgramBuilder();
+      case TUNE_PROGRAM:
+        return tuneProgramBuilder();
+      case BENCHMARK_PROGRAM:
+        return benchmarkProgramBuilder();
+      default:
+        return null;
+    }
+  }
+
   public static MainProgramBuilder helpProgramBuilder() {
     return args -> new HelpProgram();
   }
@@ -22,4 +56,24 @@ public abstract class ProgramBuilderFactory {
   public static MainProgramBuilder retrieveProgramBuilder() {
     return RetrieveProgram::build;
   }
+
+  public static MainProgramBuilder extendProgramBuilder() {
+    return ExtendProgram::build;
+  }
+
+  public static MainProgramBuilder agentProgramBuilder() {
+    return AgentProgram::build;
+  }
+
+  public static MainProgramBuilder batchProgramBuilder() {
+    return BatchProgram::build;
+  }
+
+  public static MainProgramBuilder tuneProgramBuilder() {
+    return TuneProgram::build;
+  }
+
+  public static MainProgramBuilder benchmarkProgramBuilder() {
+    return BenchmarkProgram::build;
+  }
 }
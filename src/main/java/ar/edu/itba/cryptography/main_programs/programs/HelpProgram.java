@@ -13,7 +13,12 @@ public class HelpProgram implements MainProgram {
     "* -h : `help` that prints all available commands" + NL +
     "* " + DISTRIBUTION_PROGRAM.getDescription() + " " + SECRET.getDescription() + " "
     + K.getDescription() + " " +
-    N.getDescription() + " " + IMAGES_DIR.getDescription() + NL +
+    N.getDescription() + " " + IMAGES_DIR.getDescription() + " " + COMPRESS.getDescription() + " " +
+    UPDATE.getDescription() + " " + OLD_SECRET.getDescription() + " " +
+    SECRET_ID.getDescription() + " " + OUTPUT_DIR.getDescription() + " " +
+    INTERLACE.getDescription() + " " + PIPELINE.getDescription() + " " +
+    DIGESTS.getDescription() + " " + JOURNAL.getDescription() + " " +
+    VERIFY.getDescription() + " " + PLAN.getDescription() + NL +
     "     distributes a secret image into other images." + NL +
     "     - " + SECRET.getDescription() + ": the path to the secret image to be hidden." + NL +
     "     - " + K.getDescription() + ": the minimum number of shadows to recover the " + NL +
@@ -22,20 +27,152 @@ public class HelpProgram implements MainProgram {
     "       in a (k, n)-threshold scheme. If not specified, n will be the total " + NL +
     "       number of images in the specified directory." + NL +
     "     - " + IMAGES_DIR.getDescription() + ": OPTIONAL: the directory of the images " + NL +
-    "       to be used as shadows. If not specified, the program will look those " + NL +
-    "       images in the current working directory." + NL +
+    "       to be used as shadows (.bmp, or 8 bits grayscale .png). If not specified, " + NL +
+    "       the program will look those images in the current working directory." + NL +
+    "     - " + COMPRESS.getDescription() + ": OPTIONAL: deflate-compresses the secret image " + NL +
+    "       before distributing it, padding it to a multiple of k automatically (or " + NL +
+    "       stores it as it is, if deflate does not make it smaller)." + NL +
+    "       Not available for k = 8. The retrieve program inflates it automatically." + NL +
+    "     - " + UPDATE.getDescription() + ": OPTIONAL: updates the shadows of an already " + NL +
+    "       distributed secret with a new version of it (of the same size), keeping the " + NL +
+    "       seed and only re-distributing the k-byte chunks that changed. All the shadows " + NL +
+    "       of the directory are updated, so n should not be specified." + NL +
+    "     - " + OLD_SECRET.getDescription() + ": OPTIONAL: the old version of the secret, " + NL +
+    "       used by " + UPDATE.getType() + " to find the changed chunks. If not specified, it " + NL +
+    "       is retrieved from the shadows." + NL +
+    "     - " + SECRET_ID.getDescription() + ": OPTIONAL: adds the secret image to the " + NL +
+    "       container formed by all the images of the directory (they are turned into " + NL +
+    "       a container if they are not one yet), under the given id. Each secret of a " + NL +
+    "       container has its own k & seed. Only the container directory and the " + NL +
+    "       share region of the new secret are written, so n should not be specified." + NL +
+    "     - " + OUTPUT_DIR.getDescription() + ": OPTIONAL: the directory where the shadows " + NL +
+    "       are saved (with the same file names), leaving the images of the directory " + NL +
+    "       untouched. It is created if it does not exist. Not available with " + NL +
+    "       " + UPDATE.getType() + " nor " + SECRET_ID.getType() + "." + NL +
+    "     - " + INTERLACE.getDescription() + ": OPTIONAL: distributes the pixel data in " + NL +
+    "       interlaced order (Adam7 passes), so as a low resolution preview of the " + NL +
+    "       secret can be retrieved from the first passes (see " + PREVIEW.getType() + ")." + NL +
+    "       Only available for k = 8." + NL +
+    "     - " + PIPELINE.getDescription() + ": OPTIONAL: reads, distributes & writes the " + NL +
+    "       shadows region by region, in overlapping stages (same resulting shadows)." + NL +
+    "       Not available with " + UPDATE.getType() + ", " + SECRET_ID.getType() + " nor " +
+    OUTPUT_DIR.getType() + "." + NL +
+    "     - " + DIGESTS.getDescription() + ": OPTIONAL: hides the digests of the secret " + NL +
+    "       blocks at the end of each shadow, so as the retrieve program detects the " + NL +
+    "       blocks of a corrupted shadow, and re-solves them with another shadow of the " + NL +
+    "       directory. Not available for k = 8, nor with " + UPDATE.getType() + ", " + NL +
+    "       " + SECRET_ID.getType() + ", " + PIPELINE.getType() + " nor " +
+    JOURNAL.getType() + "." + NL +
+    "     - " + JOURNAL.getDescription() + ": OPTIONAL: distributes as " +
+    PIPELINE.getType() + " does, writing " + NL +
+    "       the shadows into copies of the images (.bmp.part) and saving a checkpoint " + NL +
+    "       into the directory as it goes. If it is interrupted, running it again " + NL +
+    "       resumes it from its last checkpoint. The images are only replaced once all " + NL +
+    "       the secret was distributed. Same restrictions as " + PIPELINE.getType() + "." + NL +
+    "     - " + VERIFY.getDescription() + ": OPTIONAL: once the shadows are written, reads " + NL +
+    "       the given amount of random chunks back from k random shadows, solves them " + NL +
+    "       and compares them with the distributed secret, failing if any of them " + NL +
+    "       differs. Not available with " + UPDATE.getType() + " nor " +
+    SECRET_ID.getType() + "." + NL +
+    "     - " + PLAN.getDescription() + ": OPTIONAL: reads only the headers of the images " + NL +
+    "       of the directory, and uses the n smallest ones the secret fits in (k of them, " + NL +
+    "       if n is not specified). If there are not enough of them, the combinations " + NL +
+    "       of k & n that fit the images are reported instead. Not available with " + NL +
+    "       " + UPDATE.getType() + " nor " + SECRET_ID.getType() + "." + NL +
     "* " + RETRIEVE_PROGRAM.getDescription() + " " + SECRET.getDescription() + " " +
-    K.getDescription() + " " + IMAGES_DIR.getDescription() + NL +
+    K.getDescription() + " " + IMAGES_DIR.getDescription() + " " + SECRET_ID.getDescription() + " " +
+    LISTEN.getDescription() + " " + PREVIEW.getDescription() + " " + PIPELINE.getDescription() +
+    " " + BUNDLE.getDescription() + NL +
     "     retrieves a secret image from shadow images." + NL +
     "     - " + SECRET.getDescription() + ": the path where the revealed secret image " + NL +
     "       will be saved." + NL +
     "     - " + K.getDescription() + ": the minimum number of shadows to recover the " + NL +
     "       secret image, in a (k, n)-threshold scheme." + NL +
     "     - " + IMAGES_DIR.getDescription() + ": OPTIONAL: the directory of the shadow  " + NL +
-    "       images containing the secret. If not specified, the program " + NL +
-    "       will look those images in the current working directory." + NL +
+    "       images containing the secret (.bmp or .png). If not specified, the " + NL +
+    "       program will look those images in the current working directory." + NL +
     "       It is important to note that the program will look for exactly k images; " + NL +
-    "       if more or less images are found, program will abort with an error." + NL;
+    "       if more or less images are found, program will abort with an error." + NL +
+    "     - " + SECRET_ID.getDescription() + ": OPTIONAL: retrieves the secret with the given " + NL +
+    "       id from a container, reading only its share region from the first k images " + NL +
+    "       of the directory." + NL +
+    "     - " + LISTEN.getDescription() + ": OPTIONAL: retrieves the secret from k agents " + NL +
+    "       (see " + AGENT_PROGRAM.getType() + ") instead of from local images, listening " + NL +
+    "       for them at the given port. Not available with " + IMAGES_DIR.getType() + "." + NL +
+    "     - " + PREVIEW.getDescription() + ": OPTIONAL: retrieves a low resolution preview " + NL +
+    "       of a secret distributed with " + INTERLACE.getType() + ", from its first passes " + NL +
+    "       only (1 to 7; after pass 1, 3 & 5, 1 of each 64, 16 & 4 pixels are known)." + NL +
+    "       Only available for k = 8." + NL +
+    "     - " + PIPELINE.getDescription() + ": OPTIONAL: reads the shadows region by region " + NL +
+    "       and retrieves the secret in overlapping stages (same resulting secret)." + NL +
+    "       Digests are verified, but a corrupted block fails the retrieval (other " + NL +
+    "       shadows are not tried). Not available with " + SECRET_ID.getType() + ", " + NL +
+    "       " + LISTEN.getType() + " nor " + PREVIEW.getType() + "." + NL +
+    "     - " + BUNDLE.getDescription() + ": OPTIONAL: retrieves the secret from the " + NL +
+    "       first k images of an archive (ZIP, TAR or gzipped TAR), reading it once as " + NL +
+    "       it is streamed, without extracting it. Not available with " + NL +
+    "       " + IMAGES_DIR.getType() + ", " + LISTEN.getType() + ", " + SECRET_ID.getType() + ", " +
+    PREVIEW.getType() + " nor " + PIPELINE.getType() + "." + NL +
+    "* " + EXTEND_PROGRAM.getDescription() + " " + K.getDescription() + " " +
+    N.getDescription() + " " + IMAGES_DIR.getDescription() + " " + COVERS_DIR.getDescription() + NL +
+    "     adds new shadows to an existing share set, without retrieving the secret" + NL +
+    "     nor modifying the existing shadows. Not available for k = 8." + NL +
+    "     - " + K.getDescription() + ": the minimum number of shadows to recover the " + NL +
+    "       secret image, in a (k, n)-threshold scheme." + NL +
+    "     - " + N.getDescription() + ": the current number of shadows of the share set. " + NL +
+    "       New shadows are numbered from n + 1 on (up to 256)." + NL +
+    "     - " + IMAGES_DIR.getDescription() + ": OPTIONAL: the directory of k existing " + NL +
+    "       shadow images. If not specified, the program will look those images " + NL +
+    "       in the current working directory." + NL +
+    "     - " + COVERS_DIR.getDescription() + ": the directory of the images to be " + NL +
+    "       turned into the new shadows. They hide each value in 9 bytes instead of 8." + NL +
+    "* " + AGENT_PROGRAM.getDescription() + " " + SHADOW.getDescription() + " " +
+    CONNECT.getDescription() + NL +
+    "     serves a shadow image to a retrieve program started with " + LISTEN.getType() + "," + NL +
+    "     sending only the values hidden in it, 9 bits each (not the image)." + NL +
+    "     - " + SHADOW.getDescription() + ": the path to the shadow image." + NL +
+    "     - " + CONNECT.getDescription() + ": the address of the retrieve program." + NL +
+    "* " + BATCH_PROGRAM.getDescription() + " " + JOBS.getDescription() + " " +
+    BUDGET.getDescription() + NL +
+    "     runs the distribute & retrieve jobs of a file concurrently, within a heap budget." + NL +
+    "     - " + JOBS.getDescription() + ": a file with one job per line, with the same " + NL +
+    "       arguments as above (e.g.: " + DISTRIBUTION_PROGRAM.getType() + " " +
+    SECRET.getType() + " s.bmp " + K.getType() + " 8 " + IMAGES_DIR.getType() + " dir)." + NL +
+    "       Empty lines & lines starting with # are skipped." + NL +
+    "     - " + BUDGET.getDescription() + ": OPTIONAL: the heap budget of all the jobs. " + NL +
+    "       Defaults to 3/4 of the maximum heap. A job that does not fit in what " + NL +
+    "       remains runs with " + PIPELINE.getType() + " (if it fits then) or waits." + NL +
+    "* " + TUNE_PROGRAM.getDescription() + " " + K.getDescription() + " " + N.getDescription() +
+    " " + SECRET.getDescription() + NL +
+    "     calibrates the distribution engine & tile size for a (k, n) scheme on this " + NL +
+    "     host, and saves the fastest ones into the tuning profile, so as the following " + NL +
+    "     distributions of the same k, n & size class use them automatically." + NL +
+    "     - " + SECRET.getDescription() + ": OPTIONAL: calibrates for the size of this " + NL +
+    "       secret. If not specified, for secrets of 64 KiB, 256 KiB & 1 MiB." + NL +
+    "* " + BENCHMARK_PROGRAM.getDescription() + " " + K.getDescription() + " " +
+    N.getDescription() + " " + SIZE.getDescription() + " " + RUNS.getDescription() + " " +
+    OUTPUT_DIR.getDescription() + " " + BASELINE.getDescription() + " " +
+    THRESHOLD.getDescription() + " " + PIPELINE.getDescription() + NL +
+    "     generates a synthetic secret & n covers into a temporary directory, and runs " + NL +
+    "     the distribute & retrieve programs on them (1 warm-up run + the given runs), " + NL +
+    "     saving their p50 & p95 wall time, throughput, peak RSS & GC time as CSV." + NL +
+    "     - " + N.getDescription() + ": OPTIONAL: the number of covers. Defaults to k." + NL +
+    "     - " + SIZE.getDescription() + ": OPTIONAL: the size of the pixel data of the " + NL +
+    "       secret. Defaults to 1024." + NL +
+    "     - " + RUNS.getDescription() + ": OPTIONAL: the measured runs. Defaults to 5." + NL +
+    "     - " + OUTPUT_DIR.getDescription() + ": OPTIONAL: the directory where the results " + NL +
+    "       are saved (benchmark.csv). Defaults to the current working directory." + NL +
+    "     - " + BASELINE.getDescription() + ": OPTIONAL: the results of a previous " + NL +
+    "       benchmark. The p50, p95 & peak RSS that grew beyond the threshold are " + NL +
+    "       reported, and the program fails if there is any of them." + NL +
+    "     - " + THRESHOLD.getDescription() + ": OPTIONAL: the growth that is reported " + NL +
+    "       as a regression. Defaults to 10." + NL +
+    "     - " + PIPELINE.getDescription() + ": OPTIONAL: benchmarks the pipeline instead." + NL +
+    "* " + STATS.getDescription() + ": OPTIONAL: may be appended to any of the above commands." + NL +
+    "     prints a JSON summary with the time & bytes spent on each phase " + NL +
+    "     (scan, read, obfuscate, evaluate, solve, embed, extract & write) and " + NL +
+    "     counters such as the overflow retries and bytes per shadow, and the " + NL +
+    "     distribution engine used (and whether it was taken from the tuning profile)." + NL;
 
   @Override
   public void run() {
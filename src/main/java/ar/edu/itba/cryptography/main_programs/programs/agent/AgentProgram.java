@@ -0,0 +1,163 @@
+package ar.edu.itba.cryptography.main_programs.programs.agent;
+
+import static ar.edu.itba.cryptography.helpers.InputArgsHelper.InputArgs.CONNECT;
+import static ar.edu.itba.cryptography.helpers.InputArgsHelper.InputArgs.SHADOW;
+import static ar.edu.itba.cryptography.services.BMPIOService.OpenMode.INPUT;
+import static ar.edu.itba.cryptography.services.IOService.ExitStatus.BAD_ARGUMENT;
+import static ar.edu.itba.cryptography.services.IOService.ExitStatus.CONNECTION_FAILED;
+import static ar.edu.itba.cryptography.services.IOService.ExitStatus.VALIDATION_FAILED;
+
+import ar.edu.itba.cryptography.helpers.InputArgsHelper;
+import ar.edu.itba.cryptography.helpers.InputArgsHelper.InputArgs;
+import ar.edu.itba.cryptography.helpers.ShareProtocolHelper;
+import ar.edu.itba.cryptography.helpers.ShareProtocolHelper.Hello;
+import ar.edu.itba.cryptography.interfaces.MainProgram;
+import ar.edu.itba.cryptography.services.BMPIOService;
+import ar.edu.itba.cryptography.services.BMPService;
+import ar.edu.itba.cryptography.services.IOService;
+import ar.edu.itba.cryptography.services.InstrumentationService;
+import ar.edu.itba.cryptography.services.InstrumentationService.Counter;
+import ar.edu.itba.cryptography.services.InstrumentationService.Phase;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Share-holder agent: serves the shadow it holds to a retrieve coordinator (see
+ * {@link ShareProtocolHelper}), so as the shadow file never leaves the host it is stored at.<p>
+ * The values hidden in the shadow are extracted locally, and only those values are sent.
+ */
+public class AgentProgram implements MainProgram {
+  /**
+   * The coordinator may not be listening yet when the agent is started
+   */
+  private static final long CONNECT_TIMEOUT_MILLIS = 10000;
+  private static final long CONNECT_RETRY_MILLIS = 100;
+
+  private final Path pathToShadow;
+  private final InetSocketAddress coordinator;
+  private final BMPIOService bmpIOService;
+
+  private AgentProgram(final Path pathToShadow, final InetSocketAddress coordinator,
+      final BMPIOService bmpIOService) {
+    this.pathToShadow = pathToShadow;
+    this.coordinator = coordinator;
+    this.bmpIOService = bmpIOService;
+  }
+
+  public static MainProgram build(final Map<InputArgs, String> parsedArgs) {
+    final String shadow = InputArgsHelper.validateArgAccess(parsedArgs, SHADOW, true);
+    final String connect = InputArgsHelper.validateArgAccess(parsedArgs, CONNECT, true);
+    final int separator = connect.lastIndexOf(':');
+    if (separator <= 0) {
+      IOService.exit(BAD_ARGUMENT, CONNECT.getDescription() + " should be <host:port>");
+    }
+    final int port = IOService.parseAsInt(connect.substring(separator + 1),
+        CONNECT.getDescription());
+    final InetSocketAddress coordinator =
+        new InetSocketAddress(connect.substring(0, separator), port);
+    final BMPIOService bmpIOService = new BMPIOService();
+    final Path pathToShadow = bmpIOService.openBmpFile(shadow, INPUT);
+    return new AgentProgram(pathToShadow, coordinator, bmpIOService);
+  }
+
+  @Override
+  public void run() {
+    try (final Socket socket = connect()) {
+      final DataInputStream in =
+          new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+      final DataOutputStream out =
+          new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+      final int x = bmpIOService.getShadowNumber(pathToShadow, INPUT);
+      final int bytesPerValue = bmpIOService.isWideShadow(pathToShadow, INPUT)
+          ? BMPService.WIDE_VALUE_BITS : Byte.SIZE;
+      final int availableValues = bmpIOService.getDataSize(pathToShadow, INPUT) / bytesPerValue;
+      ShareProtocolHelper.writeHello(out, new Hello(x,
+          bmpIOService.getSeedFromSample(Collections.singletonList(pathToShadow), INPUT),
+          availableValues, bmpIOService.getHeaderBytesOf(pathToShadow, INPUT)));
+      checkAgreedSet(ShareProtocolHelper.readSetup(in), x);
+      serveRequests(in, out, availableValues, bytesPerValue);
+    } catch (final IOException e) {
+      IOService.exit(CONNECTION_FAILED, e);
+    }
+    bmpIOService.closeBmpFile(pathToShadow, INPUT);
+  }
+
+  private Socket connect() throws IOException {
+    final long deadline = System.currentTimeMillis() + CONNECT_TIMEOUT_MILLIS;
+    while (true) {
+      final Socket socket = new Socket();
+      try {
+        socket.connect(coordinator);
+        return socket;
+      } catch (final IOException e) {
+        socket.close();
+        if (System.currentTimeMillis() > deadline) {
+          throw e;
+        }
+      }
+      try {
+        Thread.sleep(CONNECT_RETRY_MILLIS);
+      } catch (final InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted while connecting to " + coordinator, e);
+      }
+    }
+  }
+
+  private void checkAgreedSet(final int[] xs, final int x) {
+    for (final int agreedX : xs) {
+      if (agreedX == x) {
+        return;
+      }
+    }
+    IOService.exit(VALIDATION_FAILED, "Shadow number " + x + " is not part of the agreed set");
+  }
+
+  /**
+   * Sends the values of the requested chunks, in order, until the coordinator is done
+   */
+  private void serveRequests(final DataInputStream in, final DataOutputStream out,
+      final int availableValues, final int bytesPerValue) throws IOException {
+    int[] values = new int[0];
+    long extractNanos = 0;
+    long sentBytes = 0;
+    int sentChunks = 0;
+    int chunks;
+    while ((chunks = ShareProtocolHelper.readRequest(in)) > 0) {
+      if (sentChunks + chunks > availableValues) {
+        IOService.exit(VALIDATION_FAILED, "Shadow " + pathToShadow + " only holds "
+            + availableValues + " values, but " + (sentChunks + chunks) + " were requested");
+      }
+      if (values.length < chunks) {
+        values = new int[chunks];
+      }
+      final long extractStart = System.nanoTime();
+      for (int chunk = 0 ; chunk < chunks ; chunk++) {
+        values[chunk] = bmpIOService.getNextSecretValue(pathToShadow, INPUT);
+      }
+      extractNanos += System.nanoTime() - extractStart;
+      ShareProtocolHelper.writeValues(out, values, chunks);
+      out.flush();
+      sentBytes += ShareProtocolHelper.getValuesSize(chunks);
+      sentChunks += chunks;
+    }
+    // The values are sent instead of the shadow bytes that hide them
+    final long shadowBytes = (long) sentChunks * bytesPerValue;
+    IOService.print(String.format(Locale.ROOT, "Sent %d bytes for the %d values hidden in %d "
+        + "bytes of %s (%.1f%%)", sentBytes, sentChunks, shadowBytes, pathToShadow,
+        shadowBytes == 0 ? 0.0 : 100.0 * sentBytes / shadowBytes));
+    InstrumentationService.recordElapsed(Phase.EXTRACT, extractNanos, sentChunks);
+    InstrumentationService.set(Counter.CHUNKS, sentChunks);
+    InstrumentationService.set(Counter.BYTES_PER_SHADOW, sentChunks);
+    InstrumentationService.set(Counter.SENT_BYTES, sentBytes);
+  }
+}
@@ -0,0 +1,307 @@
+package ar.edu.itba.cryptography.main_programs.programs.batch;
+
+import static ar.edu.itba.cryptography.helpers.InputArgsHelper.InputArgs.BUDGET;
+import static ar.edu.itba.cryptography.helpers.InputArgsHelper.InputArgs.BUNDLE;
+import static ar.edu.itba.cryptography.helpers.InputArgsHelper.InputArgs.DISTRIBUTION_PROGRAM;
+import static ar.edu.itba.cryptography.helpers.InputArgsHelper.InputArgs.JOBS;
+import static ar.edu.itba.cryptography.helpers.InputArgsHelper.InputArgs.LISTEN;
+import static ar.edu.itba.cryptography.helpers.InputArgsHelper.InputArgs.MAIN_PROGRAM;
+import static ar.edu.itba.cryptography.helpers.InputArgsHelper.InputArgs.PIPELINE;
+import static ar.edu.itba.cryptography.helpers.InputArgsHelper.InputArgs.RETRIEVE_PROGRAM;
+import static ar.edu.itba.cryptography.services.IOService.ExitStatus.BAD_ARGUMENT;
+import static ar.edu.itba.cryptography.services.IOService.ExitStatus.COULD_NOT_OPEN_INPUT_FILE;
+import static ar.edu.itba.cryptography.services.IOService.ExitStatus.JOBS_FAILED;
+import static ar.edu.itba.cryptography.services.IOService.ExitStatus.UNEXPECTED_ERROR;
+import static ar.edu.itba.cryptography.services.IOService.ExitStatus.VALIDATION_FAILED;
+
+import ar.edu.itba.cryptography.helpers.InputArgsHelper;
+import ar.edu.itba.cryptography.helpers.InputArgsHelper.InputArgs;
+import ar.edu.itba.cryptography.interfaces.MainProgram;
+import ar.edu.itba.cryptography.main_programs.ProgramBuilderFactory;
+import ar.edu.itba.cryptography.main_programs.programs.batch.MemoryPlanner.Plan;
+import ar.edu.itba.cryptography.services.AdmissionService;
+import ar.edu.itba.cryptography.services.AdmissionService.Admission;
+import ar.edu.itba.cryptography.services.BufferPoolService;
+import ar.edu.itba.cryptography.services.ConcurrentBMPIOService;
+import ar.edu.itba.cryptography.services.IOService;
+import ar.edu.itba.cryptography.services.IOService.ExitException;
+import ar.edu.itba.cryptography.services.IOService.ExitStatus;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * Runs the distribute & retrieve jobs of a file (one job per line, with the same arguments as the
+ * program itself, e.g.: {@code -d -secret secret.bmp -k 8 -dir shadows}), concurrently, within a
+ * heap budget.<p>
+ * The peak memory of each job is predicted beforehand from the headers of its images (see
+ * {@link MemoryPlanner}), and jobs are admitted in order by an {@link AdmissionService}: a job that
+ * does not fit in the remaining budget is downgraded to its streaming mode (see
+ * {@link InputArgs#PIPELINE}) or queued until running jobs are done.<p>
+ * Once all the jobs are done, the predicted & the observed peaks are printed as JSON, together with
+ * the occupancy of the {@link BufferPoolService} the jobs share their large buffers through. The
+ * heap is sampled while the jobs run, so the observed peaks include the garbage not yet collected.
+ * <p>
+ * A job that fails (i.e., that would have exited the program) only fails itself: the others still
+ * run, its status is reported, and the batch exits with {@link ExitStatus#JOBS_FAILED} once all of
+ * them are done.<p>
+ * Jobs open their images through a {@link ConcurrentBMPIOService}, so as the ones that read the
+ * same images at the same time share them, and the ones that write an image wait for the ones
+ * that use it.
+ */
+public class BatchProgram implements MainProgram {
+  private static final long BYTES_PER_MEGABYTE = 1024 * 1024;
+  /**
+   * By default, jobs may take this fraction of the maximum heap; the rest is left to the JVM &
+   * to the garbage not yet collected
+   */
+  private static final double DEFAULT_BUDGET_FRACTION = 0.75;
+  private static final String COMMENT = "#";
+  private static final long SAMPLE_MILLIS = 5;
+  private static final String OK_STATUS = "ok", FAILED_STATUS = "failed";
+
+  private final List<Job> jobs;
+  private final AdmissionService admissionService;
+
+  private BatchProgram(final List<Job> jobs, final AdmissionService admissionService) {
+    this.jobs = jobs;
+    this.admissionService = admissionService;
+  }
+
+  public static MainProgram build(final Map<InputArgs, String> parsedArgs) {
+    final Path pathToJobs = Paths.get(InputArgsHelper.validateArgAccess(parsedArgs, JOBS, true));
+    final String budgetString = InputArgsHelper.validateArgAccess(parsedArgs, BUDGET, false);
+    final long budgetBytes;
+    if (budgetString == null) {
+      budgetBytes = (long) (Runtime.getRuntime().maxMemory() * DEFAULT_BUDGET_FRACTION);
+    } else {
+      budgetBytes = IOService.parseAsInt(budgetString, BUDGET.getDescription())
+          * BYTES_PER_MEGABYTE;
+    }
+    if (budgetBytes <= 0) {
+      IOService.exit(VALIDATION_FAILED, BUDGET.getDescription() + " should be positive");
+    }
+    final AdmissionService admissionService =
+        new AdmissionService(budgetBytes, Runtime.getRuntime().availableProcessors());
+    // All the jobs are validated & planned before any of them runs
+    final List<Job> jobs = new ArrayList<>();
+    final List<String> lines = readLines(pathToJobs);
+    for (int i = 0 ; i < lines.size() ; i++) {
+      final String line = lines.get(i).trim();
+      if (line.isEmpty() || line.startsWith(COMMENT)) {
+        continue;
+      }
+      final Map<InputArgs, String> jobArgs = InputArgsHelper.parseArgs(line.split("\\s+"));
+      final String program = jobArgs.get(MAIN_PROGRAM);
+      if (!DISTRIBUTION_PROGRAM.getType().equals(program)
+          && !RETRIEVE_PROGRAM.getType().equals(program)) {
+        IOService.exit(BAD_ARGUMENT, "Only " + DISTRIBUTION_PROGRAM.getType() + " & "
+            + RETRIEVE_PROGRAM.getType() + " jobs can be batched. Line " + (i + 1));
+      }
+      if (InputArgsHelper.validateArgAccess(jobArgs, LISTEN, false) != null) {
+        // Its shadows are not local, and it would wait for its agents
+        IOService.exit(BAD_ARGUMENT, LISTEN.getType() + " jobs cannot be batched. Line "
+            + (i + 1));
+      }
+      if (InputArgsHelper.validateArgAccess(jobArgs, BUNDLE, false) != null) {
+        // Its shadows are only known once the archive is read, so it cannot be planned
+        IOService.exit(BAD_ARGUMENT, BUNDLE.getType() + " jobs cannot be batched. Line "
+            + (i + 1));
+      }
+      final Plan plan = MemoryPlanner.plan(jobArgs);
+      if (!admissionService.fits(plan.getMemoryBytes(), plan.getStreamingBytes())) {
+        IOService.exit(VALIDATION_FAILED, "Line " + (i + 1) + " needs " + toMegabytes(
+            plan.canStream() ? plan.getStreamingBytes() : plan.getMemoryBytes())
+            + " MB, even when streaming, but the budget is " + toMegabytes(budgetBytes) + " MB");
+      }
+      jobs.add(new Job(i + 1, jobArgs, plan));
+    }
+    return new BatchProgram(jobs, admissionService);
+  }
+
+  @Override
+  public void run() {
+    final HeapSampler heapSampler = new HeapSampler();
+    final long baselineBytes = heapSampler.sample();
+    heapSampler.start();
+    final ExecutorService executor = Executors.newFixedThreadPool(admissionService.getMaxJobs());
+    final List<Future<?>> futures = new ArrayList<>();
+    ConcurrentBMPIOService.setEnabled(true);
+    try {
+      for (final Job job : jobs) {
+        final long queueStart = System.nanoTime();
+        job.admission = admissionService.admit(job.plan.getMemoryBytes(),
+            job.plan.getStreamingBytes());
+        job.queuedNanos = System.nanoTime() - queueStart;
+        futures.add(executor.submit(() -> runJob(job, heapSampler)));
+      }
+      for (final Future<?> future : futures) {
+        future.get();
+      }
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      IOService.exit(UNEXPECTED_ERROR, e);
+    } catch (final ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new IllegalStateException("Job failed", e.getCause());
+    } finally {
+      ConcurrentBMPIOService.setEnabled(false);
+      executor.shutdownNow();
+      heapSampler.interrupt();
+    }
+    IOService.print(reportAsJson(baselineBytes, heapSampler.peakBytes.get()));
+    final List<Integer> failedLines = jobs.stream().filter(job -> job.exitStatus != null)
+        .map(job -> job.line).collect(Collectors.toList());
+    if (!failedLines.isEmpty()) {
+      IOService.exit(JOBS_FAILED, failedLines);
+    }
+  }
+
+  private void runJob(final Job job, final HeapSampler heapSampler) {
+    final AtomicLong observedBytes = new AtomicLong(heapSampler.sample());
+    heapSampler.observers.add(observedBytes);
+    final long runStart = System.nanoTime();
+    // A job that fails only fails itself
+    IOService.setThrowOnExit(true);
+    try {
+      if (job.admission == Admission.STREAMING) {
+        job.args.put(PIPELINE, Boolean.TRUE.toString());
+      }
+      ProgramBuilderFactory.builderFor(getProgram(job)).build(job.args).run();
+    } catch (final ExitException e) {
+      // Already reported by the job
+      job.exitStatus = e.getExitStatus();
+      IOService.print("Line " + job.line + " failed");
+    } catch (final RuntimeException e) {
+      IOService.reportFailure(UNEXPECTED_ERROR, e);
+      job.exitStatus = UNEXPECTED_ERROR;
+      IOService.print("Line " + job.line + " failed");
+    } finally {
+      IOService.setThrowOnExit(false);
+      ConcurrentBMPIOService.releaseJobFiles();
+      job.runNanos = System.nanoTime() - runStart;
+      heapSampler.observers.remove(observedBytes);
+      job.observedBytes = Math.max(observedBytes.get(), heapSampler.sample());
+      admissionService.release(AdmissionService.getReservedBytes(job.admission,
+          job.plan.getMemoryBytes(), job.plan.getStreamingBytes()));
+    }
+  }
+
+  private String reportAsJson(final long baselineBytes, final long observedPeakBytes) {
+    final StringBuilder sb = new StringBuilder("{\"budget_bytes\":")
+        .append(admissionService.getBudgetBytes())
+        .append(",\"max_jobs\":").append(admissionService.getMaxJobs())
+        .append(",\"baseline_heap_bytes\":").append(baselineBytes)
+        .append(",\"jobs\":[");
+    for (int i = 0 ; i < jobs.size() ; i++) {
+      final Job job = jobs.get(i);
+      if (i > 0) sb.append(',');
+      sb.append("{\"line\":").append(job.line)
+          .append(",\"program\":\"").append(job.args.get(MAIN_PROGRAM)).append('"')
+          .append(",\"mode\":\"").append(job.admission.getName()).append('"')
+          .append(",\"status\":\"").append(job.exitStatus == null ? OK_STATUS : FAILED_STATUS)
+          .append('"')
+          .append(",\"exit_code\":").append(job.exitStatus == null ? 0
+              : job.exitStatus.getCode())
+          .append(",\"predicted_bytes\":").append(AdmissionService.getReservedBytes(job.admission,
+              job.plan.getMemoryBytes(), job.plan.getStreamingBytes()))
+          .append(",\"in_memory_bytes\":").append(job.plan.getMemoryBytes())
+          .append(",\"streaming_bytes\":").append(job.plan.getStreamingBytes())
+          .append(",\"observed_heap_bytes\":").append(job.observedBytes)
+          .append(",\"queued_millis\":").append(job.queuedNanos / 1_000_000)
+          .append(",\"run_millis\":").append(job.runNanos / 1_000_000)
+          .append('}');
+    }
+    return sb.append("],\"predicted_peak_bytes\":")
+        .append(admissionService.getPeakReservedBytes())
+        .append(",\"observed_peak_heap_bytes\":").append(observedPeakBytes)
+        .append(",\"buffers\":").append(BufferPoolService.statsAsJson())
+        .append('}').toString();
+  }
+
+  private static InputArgs getProgram(final Job job) {
+    return DISTRIBUTION_PROGRAM.getType().equals(job.args.get(MAIN_PROGRAM))
+        ? DISTRIBUTION_PROGRAM : RETRIEVE_PROGRAM;
+  }
+
+  private static List<String> readLines(final Path pathToJobs) {
+    if (!IOService.openInputFile(pathToJobs)) {
+      IOService.exit(COULD_NOT_OPEN_INPUT_FILE, pathToJobs);
+    }
+    final List<String> lines = IOService.readLines(pathToJobs).collect(Collectors.toList());
+    IOService.closeInputFile(pathToJobs);
+    return lines;
+  }
+
+  private static long toMegabytes(final long bytes) {
+    return (bytes + BYTES_PER_MEGABYTE - 1) / BYTES_PER_MEGABYTE;
+  }
+
+  private static class Job {
+    private final int line;
+    private final Map<InputArgs, String> args;
+    private final Plan plan;
+    // Set once the job is admitted & done
+    private volatile Admission admission;
+    private volatile long queuedNanos, runNanos, observedBytes;
+    /**
+     * Null unless the job failed
+     */
+    private volatile ExitStatus exitStatus;
+
+    private Job(final int line, final Map<InputArgs, String> args, final Plan plan) {
+      this.line = line;
+      this.args = args;
+      this.plan = plan;
+    }
+  }
+
+  /**
+   * Samples the used heap, keeping its peak (overall & while each running job runs)
+   */
+  private static class HeapSampler extends Thread {
+    private final AtomicLong peakBytes = new AtomicLong();
+    private final List<AtomicLong> observers = new CopyOnWriteArrayList<>();
+
+    private HeapSampler() {
+      super("heap-sampler");
+      setDaemon(true);
+    }
+
+    @Override
+    public void run() {
+      try {
+        while (!isInterrupted()) {
+          sample();
+          Thread.sleep(SAMPLE_MILLIS);
+        }
+      } catch (final InterruptedException e) {
+        // The batch is done
+      }
+    }
+
+    /**
+     * @return the used heap, after updating the peaks with it
+     */
+    private long sample() {
+      final Runtime runtime = Runtime.getRuntime();
+      final long usedBytes = runtime.totalMemory() - runtime.freeMemory();
+      peakBytes.accumulateAndGet(usedBytes, Math::max);
+      for (final AtomicLong observer : observers) {
+        observer.accumulateAndGet(usedBytes, Math::max);
+      }
+      return usedBytes;
+    }
+  }
+}
@@ -0,0 +1,211 @@
+package ar.edu.itba.cryptography.main_programs.programs.batch;
+
+import static ar.edu.itba.cryptography.helpers.InputArgsHelper.InputArgs.COMPRESS;
+import static ar.edu.itba.cryptography.helpers.InputArgsHelper.InputArgs.DIGESTS;
+import static ar.edu.itba.cryptography.helpers.InputArgsHelper.InputArgs.DISTRIBUTION_PROGRAM;
+import static ar.edu.itba.cryptography.helpers.InputArgsHelper.InputArgs.IMAGES_DIR;
+import static ar.edu.itba.cryptography.helpers.InputArgsHelper.InputArgs.INTERLACE;
+import static ar.edu.itba.cryptography.helpers.InputArgsHelper.InputArgs.JOURNAL;
+import static ar.edu.itba.cryptography.helpers.InputArgsHelper.InputArgs.K;
+import static ar.edu.itba.cryptography.helpers.InputArgsHelper.InputArgs.MAIN_PROGRAM;
+import static ar.edu.itba.cryptography.helpers.InputArgsHelper.InputArgs.N;
+import static ar.edu.itba.cryptography.helpers.InputArgsHelper.InputArgs.OUTPUT_DIR;
+import static ar.edu.itba.cryptography.helpers.InputArgsHelper.InputArgs.PIPELINE;
+import static ar.edu.itba.cryptography.helpers.InputArgsHelper.InputArgs.PLAN;
+import static ar.edu.itba.cryptography.helpers.InputArgsHelper.InputArgs.PREVIEW;
+import static ar.edu.itba.cryptography.helpers.InputArgsHelper.InputArgs.SECRET;
+import static ar.edu.itba.cryptography.helpers.InputArgsHelper.InputArgs.SECRET_ID;
+import static ar.edu.itba.cryptography.helpers.InputArgsHelper.InputArgs.UPDATE;
+
+import ar.edu.itba.cryptography.helpers.InputArgsHelper;
+import ar.edu.itba.cryptography.helpers.InputArgsHelper.InputArgs;
+import ar.edu.itba.cryptography.main_programs.programs.distribute.DistributePipelineAlgorithm;
+import ar.edu.itba.cryptography.main_programs.programs.retrieve.RetrievePipelineAlgorithm;
+import ar.edu.itba.cryptography.services.BMPChannelService;
+import ar.edu.itba.cryptography.services.BMPIOService;
+import ar.edu.itba.cryptography.services.BMPService;
+import ar.edu.itba.cryptography.services.IOService;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Predicts the peak heap memory of a distribute or retrieve job, from the headers of its images
+ * only (i.e., without loading them).<p>
+ * Only the arrays that scale with the images are taken into account:
+ * <ul>
+ *   <li>In memory, the whole secret, its bytes & the obfuscated copy of them, and all the images
+ *   the shadows are loaded from.</li>
+ *   <li>Streaming (see {@link DistributePipelineAlgorithm} & {@link RetrievePipelineAlgorithm}),
+ *   the whole secret & its bytes when distributing (or the retrieved data, if it is needed as a
+ *   whole to be restored), and the tiles in flight.</li>
+ * </ul>
+ * The size of a secret retrieved with k != 8 is not known from the headers, so the capacity of
+ * the shadows is taken instead, and whether it is compressed is not known either, so it is
+ * planned as an uncompressed one. The covers a job chooses with {@code -plan} are not known
+ * either (only how many of them: k, unless n is given), so the first ones found are taken instead.
+ */
+/* package-private */ abstract class MemoryPlanner {
+  private static final int K8 = 8;
+  /**
+   * Bytes of each shadow used per secret value (9 for wide shadows)
+   */
+  private static final int BYTES_PER_VALUE = Byte.SIZE;
+  /**
+   * {@link ar.edu.itba.cryptography.helpers.InterlaceHelper} keeps the position of each byte
+   * (an int) & whether it was taken (a boolean)
+   */
+  private static final int INTERLACE_BYTES_PER_BYTE = Integer.BYTES + 1;
+
+  /* package-private */ static final class Plan {
+    private final long memoryBytes;
+    private final long streamingBytes;
+
+    private Plan(final long memoryBytes, final long streamingBytes) {
+      this.memoryBytes = memoryBytes;
+      this.streamingBytes = streamingBytes;
+    }
+
+    /**
+     * @return the predicted peak of the job, as it was requested
+     */
+    /* package-private */ long getMemoryBytes() {
+      return memoryBytes;
+    }
+
+    /**
+     * @return the predicted peak of the job in streaming mode; -1 if it cannot stream
+     */
+    /* package-private */ long getStreamingBytes() {
+      return streamingBytes;
+    }
+
+    /* package-private */ boolean canStream() {
+      return streamingBytes >= 0;
+    }
+  }
+
+  /**
+   * @param parsedArgs the arguments of a distribute or retrieve job
+   * @return the predicted peaks of the job
+   */
+  /* package-private */ static Plan plan(final Map<InputArgs, String> parsedArgs) {
+    final int k = IOService.parseAsInt(InputArgsHelper.validateArgAccess(parsedArgs, K, true),
+        K.getDescription());
+    final Optional<String> dir =
+        Optional.ofNullable(InputArgsHelper.validateArgAccess(parsedArgs, IMAGES_DIR, false));
+    final Plan plan = DISTRIBUTION_PROGRAM.getType().equals(parsedArgs.get(MAIN_PROGRAM))
+        ? planDistribution(parsedArgs, k, dir) : planRetrieval(parsedArgs, k, dir);
+    if ((InputArgsHelper.isFlagSet(parsedArgs, PIPELINE)
+        || InputArgsHelper.isFlagSet(parsedArgs, JOURNAL)) && plan.canStream()) {
+      // The job was requested streaming already (a journaled distribution streams too)
+      return new Plan(plan.getStreamingBytes(), plan.getStreamingBytes());
+    }
+    if (plan.canStream() && plan.getStreamingBytes() >= plan.getMemoryBytes()) {
+      // Streaming would not save memory (e.g.: small k = 8 secrets, whose tiles in flight take
+      // more than their whole images), so the job is never downgraded to it
+      return new Plan(plan.getMemoryBytes(), -1);
+    }
+    return plan;
+  }
+
+  private static Plan planDistribution(final Map<InputArgs, String> parsedArgs, final int k,
+      final Optional<String> dir) {
+    final Path secret = Paths.get(InputArgsHelper.validateArgAccess(parsedArgs, SECRET, true));
+    final byte[] secretHeader = BMPChannelService.readHeaderBytes(secret);
+    final long secretSize = BMPService.getUnsignedBitmapSize(secretHeader);
+    final List<Path> covers = new BMPIOService().findBmpFilesFrom(dir, secret);
+    final String nString = InputArgsHelper.validateArgAccess(parsedArgs, N, false);
+    final int defaultN = InputArgsHelper.isFlagSet(parsedArgs, PLAN)
+        ? Math.min(covers.size(), k) : covers.size();
+    final int n = nString == null ? defaultN
+        : Math.max(0, Math.min(covers.size(), IOService.parseAsInt(nString, N.getDescription())));
+    final long coversSize = getFilesSize(covers.subList(0, n));
+    // k = 8 distributes a copy of the pixel data; any other k, the whole file (or its payload)
+    final long secretBytes;
+    final long secretCopies;
+    if (k == K8) {
+      secretBytes = secretSize - BMPService.getBitmapOffset(secretHeader);
+      // Pixel data (+ its interlaced copy & the order of its bytes)
+      secretCopies = InputArgsHelper.isFlagSet(parsedArgs, INTERLACE)
+          ? 2 * secretBytes + INTERLACE_BYTES_PER_BYTE * secretBytes : secretBytes;
+    } else {
+      secretBytes = secretSize;
+      secretCopies = InputArgsHelper.isFlagSet(parsedArgs, COMPRESS) ? secretBytes : 0;
+    }
+    // Secret + its bytes + obfuscated bytes + all the covers
+    final long memoryBytes = secretSize + secretCopies + secretBytes + coversSize;
+    final boolean canStream = !InputArgsHelper.isFlagSet(parsedArgs, UPDATE)
+        && !InputArgsHelper.isFlagSet(parsedArgs, DIGESTS)
+        && InputArgsHelper.validateArgAccess(parsedArgs, SECRET_ID, false) == null
+        && InputArgsHelper.validateArgAccess(parsedArgs, OUTPUT_DIR, false) == null;
+    if (!canStream) {
+      return new Plan(memoryBytes, -1);
+    }
+    final int chunks = (int) (secretBytes / Math.max(k, 1));
+    return new Plan(memoryBytes, secretSize + secretCopies
+        + DistributePipelineAlgorithm.getInFlightBytes(chunks, n, k));
+  }
+
+  private static Plan planRetrieval(final Map<InputArgs, String> parsedArgs, final int k,
+      final Optional<String> dir) {
+    final List<Path> shadows = new BMPIOService().findBmpFilesFrom(dir, null);
+    final List<Path> usedShadows = shadows.subList(0, Math.max(0, Math.min(k, shadows.size())));
+    if (usedShadows.isEmpty()) {
+      return new Plan(0, 0); // the job will fail its validations
+    }
+    final long shadowsSize = getFilesSize(usedShadows);
+    final byte[] firstHeader = BMPChannelService.readHeaderBytes(usedShadows.get(0));
+    final long dataBytes;
+    final long restoreBytes;
+    final long headerBytes;
+    if (k == K8) {
+      // The header of a shadow is the header of the secret
+      headerBytes = BMPService.getBitmapOffset(firstHeader);
+      dataBytes = BMPService.getUnsignedBitmapSize(firstHeader) - headerBytes;
+      // Deinterlaced copy + order of the bytes
+      restoreBytes = BMPService.isInterlacedShadow(firstHeader)
+          ? dataBytes + INTERLACE_BYTES_PER_BYTE * dataBytes : 0;
+    } else {
+      headerBytes = 0;
+      long capacity = Long.MAX_VALUE;
+      for (final Path path : usedShadows) {
+        final byte[] header = BMPChannelService.readHeaderBytes(path);
+        final int bytesPerValue =
+            BMPService.isWideShadow(header) ? BMPService.WIDE_VALUE_BITS : BYTES_PER_VALUE;
+        final long dataSize =
+            BMPService.getUnsignedBitmapSize(header) - BMPService.getBitmapOffset(header);
+        capacity = Math.min(capacity, dataSize / bytesPerValue * k);
+      }
+      dataBytes = capacity;
+      restoreBytes = 0;
+    }
+    // Shadows + obfuscated data + data + restored data + merged secret
+    final long memoryBytes = shadowsSize + 2 * dataBytes + restoreBytes + headerBytes + dataBytes;
+    // A pipelined retrieval fails on a corrupted block instead of trying other shadows, so a
+    // secret with digests is never pipelined unless it was requested so
+    final boolean canStream =
+        InputArgsHelper.validateArgAccess(parsedArgs, SECRET_ID, false) == null
+            && InputArgsHelper.validateArgAccess(parsedArgs, PREVIEW, false) == null
+            && !BMPService.hasDigests(firstHeader);
+    if (!canStream) {
+      return new Plan(memoryBytes, -1);
+    }
+    final long inFlightBytes =
+        RetrievePipelineAlgorithm.getInFlightBytes((int) (dataBytes / k), k);
+    // Interlaced secrets are restored as a whole: data + restored data + merged secret
+    final long wholeBytes = restoreBytes > 0 ? dataBytes + restoreBytes + headerBytes + dataBytes
+        : 0;
+    return new Plan(memoryBytes, inFlightBytes + wholeBytes);
+  }
+
+  private static long getFilesSize(final List<Path> paths) {
+    long size = 0;
+    for (final Path path : paths) {
+      size += BMPService.getUnsignedBitmapSize(BMPChannelService.readHeaderBytes(path));
+    }
+    return size;
+  }
+}
@@ -0,0 +1,457 @@
+package ar.edu.itba.cryptography.main_programs.programs.benchmark;
+
+import static ar.edu.itba.cryptography.helpers.InputArgsHelper.InputArgs.BASELINE;
+import static ar.edu.itba.cryptography.helpers.InputArgsHelper.InputArgs.DISTRIBUTION_PROGRAM;
+import static ar.edu.itba.cryptography.helpers.InputArgsHelper.InputArgs.IMAGES_DIR;
+import static ar.edu.itba.cryptography.helpers.InputArgsHelper.InputArgs.K;
+import static ar.edu.itba.cryptography.helpers.InputArgsHelper.InputArgs.N;
+import static ar.edu.itba.cryptography.helpers.InputArgsHelper.InputArgs.OUTPUT_DIR;
+import static ar.edu.itba.cryptography.helpers.InputArgsHelper.InputArgs.PIPELINE;
+import static ar.edu.itba.cryptography.helpers.InputArgsHelper.InputArgs.RETRIEVE_PROGRAM;
+import static ar.edu.itba.cryptography.helpers.InputArgsHelper.InputArgs.RUNS;
+import static ar.edu.itba.cryptography.helpers.InputArgsHelper.InputArgs.SECRET;
+import static ar.edu.itba.cryptography.helpers.InputArgsHelper.InputArgs.SIZE;
+import static ar.edu.itba.cryptography.helpers.InputArgsHelper.InputArgs.THRESHOLD;
+import static ar.edu.itba.cryptography.services.IOService.ExitStatus.COULD_NOT_OPEN_INPUT_FILE;
+import static ar.edu.itba.cryptography.services.IOService.ExitStatus.VALIDATION_FAILED;
+import static ar.edu.itba.cryptography.services.IOService.ExitStatus.WRITE_FILE_ERROR;
+
+import ar.edu.itba.cryptography.helpers.InputArgsHelper;
+import ar.edu.itba.cryptography.helpers.InputArgsHelper.InputArgs;
+import ar.edu.itba.cryptography.interfaces.MainProgram;
+import ar.edu.itba.cryptography.main_programs.ProgramBuilderFactory;
+import ar.edu.itba.cryptography.services.IOService;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Measures the distribute & retrieve programs end to end, as they are run from the command line
+ * (i.e., including the scan of the directory, and the reads & writes of whole images), on
+ * synthetic images generated into a temporary directory (see {@link SyntheticImages}).<p>
+ * Each program is run {@value #WARMUP_RUNS} time to warm the JVM up, and then the requested amount
+ * of times, each one on a fresh copy of the covers. The p50 & p95 wall times, the throughput (of
+ * the p50 run), the peak RSS & the mean GC time of each program are saved as CSV (see
+ * {@link Row}), and compared with the ones of a baseline file with the same format, if given: a
+ * program whose p50, p95 or peak RSS grew beyond the threshold is reported as a regression, and
+ * the benchmark fails once the results are saved.<p>
+ * The peak RSS is read from {@value #PROC_STATUS}, after resetting it before each run (Linux only;
+ * elsewhere, it is reported as -1).
+ */
+public class BenchmarkProgram implements MainProgram {
+  private static final int MIN_K_VALUE = 2;
+  /**
+   * Shadow numbers should be different (mod 257) and not 0
+   */
+  private static final int MAX_SHADOWS = 256;
+  private static final int WARMUP_RUNS = 1;
+  private static final int DEFAULT_RUNS = 5;
+  private static final int DEFAULT_KILOBYTES = 1024;
+  private static final double DEFAULT_THRESHOLD = 10;
+  private static final int P50 = 50;
+  private static final int P95 = 95;
+  private static final long BYTES_PER_KILOBYTE = 1024;
+  private static final double BYTES_PER_MEGABYTE = 1024 * 1024;
+  private static final double NANOS_PER_MILLI = 1_000_000d;
+  private static final double MILLIS_PER_SECOND = 1_000d;
+  private static final double PERCENT = 100;
+  private static final String TEMP_PREFIX = "steganography-benchmark";
+  private static final String REPORT_NAME = "benchmark.csv";
+  private static final String COVERS_DIR = "covers";
+  private static final String SHADOWS_DIR = "shadows";
+  private static final String RETRIEVED_NAME = "retrieved.bmp";
+  private static final String DEFAULT_MODE = "default";
+  private static final String PIPELINE_MODE = "pipeline";
+  private static final String PROC_STATUS = "/proc/self/status";
+  private static final String PROC_CLEAR_REFS = "/proc/self/clear_refs";
+  private static final String PEAK_RSS_FIELD = "VmHWM:";
+  /**
+   * Written to {@value #PROC_CLEAR_REFS}, resets the peak RSS to the current RSS
+   */
+  private static final String RESET_PEAK_RSS = "5";
+
+  private final int k;
+  private final int n;
+  private final long pixelBytes;
+  private final int runs;
+  private final boolean pipeline;
+  private final Path pathToReport;
+  /**
+   * The rows of the baseline, by their key (see {@link Row#getKey}); null if no baseline is given
+   */
+  private final Map<String, Row> baselineRows;
+  private final double threshold;
+
+  private BenchmarkProgram(final int k, final int n, final long pixelBytes, final int runs,
+      final boolean pipeline, final Path pathToReport, final Map<String, Row> baselineRows,
+      final double threshold) {
+    this.k = k;
+    this.n = n;
+    this.pixelBytes = pixelBytes;
+    this.runs = runs;
+    this.pipeline = pipeline;
+    this.pathToReport = pathToReport;
+    this.baselineRows = baselineRows;
+    this.threshold = threshold;
+  }
+
+  public static MainProgram build(final Map<InputArgs, String> parsedArgs) {
+    final int k = IOService.parseAsInt(InputArgsHelper.validateArgAccess(parsedArgs, K, true),
+        K.getDescription());
+    final String nString = InputArgsHelper.validateArgAccess(parsedArgs, N, false);
+    final int n = nString == null ? k : IOService.parseAsInt(nString, N.getDescription());
+    if (k < MIN_K_VALUE || k > n || n > MAX_SHADOWS) {
+      IOService.exit(VALIDATION_FAILED, MIN_K_VALUE + " <= k <= n <= " + MAX_SHADOWS + ". k = "
+          + k + "; n = " + n);
+    }
+    final int kilobytes = parseOrDefault(parsedArgs, SIZE, DEFAULT_KILOBYTES);
+    final int runs = parseOrDefault(parsedArgs, RUNS, DEFAULT_RUNS);
+    if (kilobytes <= 0 || runs <= 0) {
+      IOService.exit(VALIDATION_FAILED, SIZE.getDescription() + " & " + RUNS.getDescription()
+          + " should be positive");
+    }
+    final String thresholdString = InputArgsHelper.validateArgAccess(parsedArgs, THRESHOLD, false);
+    final double threshold = thresholdString == null ? DEFAULT_THRESHOLD
+        : IOService.parseAsDouble(thresholdString, THRESHOLD.getDescription());
+    if (threshold < 0) {
+      IOService.exit(VALIDATION_FAILED, THRESHOLD.getDescription() + " should not be negative");
+    }
+    final String baseline = InputArgsHelper.validateArgAccess(parsedArgs, BASELINE, false);
+    // Read beforehand, so as an invalid baseline fails before the benchmark runs
+    final Map<String, Row> baselineRows =
+        baseline == null ? null : readBaseline(Paths.get(baseline));
+    final String out = InputArgsHelper.validateArgAccess(parsedArgs, OUTPUT_DIR, false);
+    final Path pathToReport = (out == null ? Paths.get("") : Paths.get(out)).resolve(REPORT_NAME);
+    return new BenchmarkProgram(k, n, kilobytes * BYTES_PER_KILOBYTE, runs,
+        InputArgsHelper.isFlagSet(parsedArgs, PIPELINE), pathToReport, baselineRows, threshold);
+  }
+
+  @Override
+  public void run() {
+    final List<String> regressions;
+    Path workDir = null;
+    try {
+      workDir = Files.createTempDirectory(TEMP_PREFIX);
+      final Path coversDir = Files.createDirectory(workDir.resolve(COVERS_DIR));
+      final Path pathToSecret = SyntheticImages.generate(workDir, coversDir, k, n, pixelBytes);
+      final long secretBytes = Files.size(pathToSecret);
+      IOService.print("Benchmarking k = " + k + ", n = " + n + " with a " + secretBytes
+          + " bytes secret (" + WARMUP_RUNS + " warm-up + " + runs + " runs)");
+      final Path shadowsDir = workDir.resolve(SHADOWS_DIR);
+      final Path pathToRetrieved = workDir.resolve(RETRIEVED_NAME);
+      final List<Sample> distributions = new ArrayList<>();
+      final List<Sample> retrievals = new ArrayList<>();
+      for (int run = 0 ; run < WARMUP_RUNS + runs ; run++) {
+        // Every distribution hides the secret into the same, untouched, covers
+        FileUtils.deleteDirectory(shadowsDir.toFile());
+        FileUtils.copyDirectory(coversDir.toFile(), shadowsDir.toFile());
+        Files.deleteIfExists(pathToRetrieved);
+        final Sample distribution = measure(DISTRIBUTION_PROGRAM,
+            SECRET.getType(), pathToSecret.toString(), N.getType(), String.valueOf(n),
+            IMAGES_DIR.getType(), shadowsDir.toString());
+        final Sample retrieval = measure(RETRIEVE_PROGRAM,
+            SECRET.getType(), pathToRetrieved.toString(), IMAGES_DIR.getType(),
+            shadowsDir.toString());
+        if (run >= WARMUP_RUNS) {
+          distributions.add(distribution);
+          retrievals.add(retrieval);
+        }
+      }
+      final List<Row> rows = Arrays.asList(
+          toRow(DISTRIBUTION_PROGRAM, secretBytes, distributions),
+          toRow(RETRIEVE_PROGRAM, secretBytes, retrievals));
+      save(rows);
+      regressions = baselineRows == null ? Collections.emptyList() : compare(rows);
+    } catch (final IOException e) {
+      IOService.exit(WRITE_FILE_ERROR, e);
+      throw new IllegalStateException(); // Should never reach here
+    } finally {
+      deleteQuietly(workDir);
+    }
+    if (!regressions.isEmpty()) {
+      IOService.exit(VALIDATION_FAILED, regressions.size() + " regression(s) beyond "
+          + threshold + "%: " + String.join("; ", regressions));
+    }
+  }
+
+  // private methods
+
+  /**
+   * Runs the given program with the given arguments (k & the mode are added to them), as the
+   * command line does
+   */
+  private Sample measure(final InputArgs program, final String... args) {
+    final List<String> commandLine = new ArrayList<>();
+    commandLine.add(program.getType());
+    commandLine.addAll(Arrays.asList(args));
+    commandLine.add(K.getType());
+    commandLine.add(String.valueOf(k));
+    if (pipeline) {
+      commandLine.add(PIPELINE.getType());
+    }
+    final Map<InputArgs, String> parsedArgs =
+        InputArgsHelper.parseArgs(commandLine.toArray(new String[0]));
+    // So as the garbage of the previous run is not collected during this one
+    System.gc();
+    resetPeakRss();
+    final long gcStart = getGcMillis();
+    final long start = System.nanoTime();
+    ProgramBuilderFactory.builderFor(program).build(parsedArgs).run();
+    final long nanos = System.nanoTime() - start;
+    return new Sample(nanos, getGcMillis() - gcStart, getPeakRssBytes());
+  }
+
+  private Row toRow(final InputArgs program, final long secretBytes, final List<Sample> samples) {
+    final long[] nanos = new long[samples.size()];
+    long gcMillis = 0, peakRssBytes = -1;
+    for (int i = 0 ; i < nanos.length ; i++) {
+      final Sample sample = samples.get(i);
+      nanos[i] = sample.nanos;
+      gcMillis += sample.gcMillis;
+      peakRssBytes = Math.max(peakRssBytes, sample.peakRssBytes);
+    }
+    Arrays.sort(nanos);
+    final double p50Millis = percentile(nanos, P50) / NANOS_PER_MILLI;
+    return new Row(getProgramName(program), k, n, secretBytes,
+        pipeline ? PIPELINE_MODE : DEFAULT_MODE, samples.size(), p50Millis,
+        percentile(nanos, P95) / NANOS_PER_MILLI,
+        secretBytes / BYTES_PER_MEGABYTE / (p50Millis / MILLIS_PER_SECOND),
+        peakRssBytes < 0 ? -1 : peakRssBytes / BYTES_PER_MEGABYTE,
+        (double) gcMillis / samples.size());
+  }
+
+  private void save(final List<Row> rows) throws IOException {
+    final List<String> lines = new ArrayList<>();
+    lines.add(Row.CSV_HEADER);
+    for (final Row row : rows) {
+      lines.add(row.toCsv());
+      IOService.print(String.format(Locale.ROOT,
+          "  %-10s p50 %10.3f ms  p95 %10.3f ms %10.1f MB/s  peak RSS %8.1f MB  GC %8.1f ms",
+          row.program, row.p50Millis, row.p95Millis, row.throughput, row.peakRssMegabytes,
+          row.gcMillis));
+    }
+    final Path parent = pathToReport.toAbsolutePath().getParent();
+    if (parent != null) {
+      Files.createDirectories(parent);
+    }
+    Files.write(pathToReport, lines, StandardCharsets.UTF_8);
+    IOService.print("Saved to " + pathToReport);
+  }
+
+  /**
+   * @return the description of each metric that grew beyond the threshold, compared with the
+   *         baseline row of the same program, k, n, secret size & mode
+   */
+  private List<String> compare(final List<Row> rows) {
+    final List<String> regressions = new ArrayList<>();
+    for (final Row row : rows) {
+      final Row baselineRow = baselineRows.get(row.getKey());
+      if (baselineRow == null) {
+        IOService.print("  " + row.program + ": no baseline for " + row.getKey());
+        continue;
+      }
+      compare(row, "p50", row.p50Millis, baselineRow.p50Millis, regressions);
+      compare(row, "p95", row.p95Millis, baselineRow.p95Millis, regressions);
+      if (row.peakRssMegabytes >= 0 && baselineRow.peakRssMegabytes >= 0) {
+        compare(row, "peak RSS", row.peakRssMegabytes, baselineRow.peakRssMegabytes,
+            regressions);
+      }
+    }
+    return regressions;
+  }
+
+  private void compare(final Row row, final String metric, final double value,
+      final double baselineValue, final List<String> regressions) {
+    final double change = baselineValue > 0 ? (value / baselineValue - 1) * PERCENT : 0;
+    final boolean regression = change > threshold;
+    final String description = String.format(Locale.ROOT, "%s %s %+.1f%% (%.3f vs %.3f)",
+        row.program, metric, change, value, baselineValue);
+    IOService.print("  " + description + (regression ? "  REGRESSION" : ""));
+    if (regression) {
+      regressions.add(description);
+    }
+  }
+
+  /**
+   * @return the rows of the given baseline (a CSV file saved by a previous benchmark), by their key
+   */
+  private static Map<String, Row> readBaseline(final Path pathToBaseline) {
+    final List<String> lines;
+    try {
+      lines = Files.readAllLines(pathToBaseline, StandardCharsets.UTF_8);
+    } catch (final IOException e) {
+      IOService.exit(COULD_NOT_OPEN_INPUT_FILE, pathToBaseline);
+      throw new IllegalStateException(); // Should never reach here
+    }
+    final Map<String, Row> baselineRows = new HashMap<>();
+    for (int i = 1 ; i < lines.size() ; i++) { // the first line is the header
+      if (lines.get(i).trim().isEmpty()) {
+        continue;
+      }
+      final Row row = Row.parse(lines.get(i));
+      if (row == null) {
+        IOService.exit(VALIDATION_FAILED, "Line " + (i + 1) + " of the baseline "
+            + pathToBaseline + " is not a benchmark result");
+        throw new IllegalStateException(); // Should never reach here
+      }
+      baselineRows.put(row.getKey(), row);
+    }
+    return baselineRows;
+  }
+
+  private static int parseOrDefault(final Map<InputArgs, String> parsedArgs, final InputArgs arg,
+      final int defaultValue) {
+    final String value = InputArgsHelper.validateArgAccess(parsedArgs, arg, false);
+    return value == null ? defaultValue : IOService.parseAsInt(value, arg.getDescription());
+  }
+
+  /**
+   * @return the nearest-rank percentile of the given sorted values
+   */
+  private static long percentile(final long[] sortedValues, final int percentile) {
+    final int rank = (int) Math.ceil(percentile / PERCENT * sortedValues.length);
+    return sortedValues[Math.max(0, rank - 1)];
+  }
+
+  private static String getProgramName(final InputArgs program) {
+    return program == DISTRIBUTION_PROGRAM ? "distribute" : "retrieve";
+  }
+
+  private static long getGcMillis() {
+    long millis = 0;
+    for (final GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+      millis += Math.max(0, collector.getCollectionTime()); // -1 if not available
+    }
+    return millis;
+  }
+
+  /**
+   * If the peak RSS cannot be reset, the following ones are the peak of the whole process
+   */
+  private static void resetPeakRss() {
+    try {
+      Files.write(Paths.get(PROC_CLEAR_REFS), RESET_PEAK_RSS.getBytes(StandardCharsets.US_ASCII));
+    } catch (final IOException | SecurityException | UnsupportedOperationException e) {
+      // Not Linux, or not allowed
+    }
+  }
+
+  /**
+   * @return the peak RSS of this process, in bytes; -1 if it is not known
+   */
+  private static long getPeakRssBytes() {
+    try {
+      for (final String line : Files.readAllLines(Paths.get(PROC_STATUS),
+          StandardCharsets.US_ASCII)) {
+        if (line.startsWith(PEAK_RSS_FIELD)) {
+          // e.g.: "VmHWM:	  123456 kB"
+          final String kilobytes = line.substring(PEAK_RSS_FIELD.length()).trim().split("\\s+")[0];
+          return Long.parseLong(kilobytes) * BYTES_PER_KILOBYTE;
+        }
+      }
+    } catch (final IOException | SecurityException | NumberFormatException e) {
+      // Not Linux, or not allowed
+    }
+    return -1;
+  }
+
+  private static void deleteQuietly(final Path directory) {
+    if (directory != null && !FileUtils.deleteQuietly(directory.toFile())) {
+      IOService.print("Could not delete " + directory);
+    }
+  }
+
+  private static class Sample {
+    private final long nanos;
+    private final long gcMillis;
+    private final long peakRssBytes;
+
+    private Sample(final long nanos, final long gcMillis, final long peakRssBytes) {
+      this.nanos = nanos;
+      this.gcMillis = gcMillis;
+      this.peakRssBytes = peakRssBytes;
+    }
+  }
+
+  /**
+   * A line of the CSV results: the results of a program on a workload
+   */
+  private static class Row {
+    private static final String CSV_HEADER = "program,k,n,secret_bytes,mode,runs,p50_ms,p95_ms,"
+        + "throughput_mb_s,peak_rss_mb,gc_ms";
+    private static final String SEPARATOR = ",";
+    private static final int COLUMNS = 11;
+
+    private final String program;
+    private final int k;
+    private final int n;
+    private final long secretBytes;
+    private final String mode;
+    private final int runs;
+    private final double p50Millis;
+    private final double p95Millis;
+    private final double throughput;
+    private final double peakRssMegabytes;
+    private final double gcMillis;
+
+    private Row(final String program, final int k, final int n, final long secretBytes,
+        final String mode, final int runs, final double p50Millis, final double p95Millis,
+        final double throughput, final double peakRssMegabytes, final double gcMillis) {
+      this.program = program;
+      this.k = k;
+      this.n = n;
+      this.secretBytes = secretBytes;
+      this.mode = mode;
+      this.runs = runs;
+      this.p50Millis = p50Millis;
+      this.p95Millis = p95Millis;
+      this.throughput = throughput;
+      this.peakRssMegabytes = peakRssMegabytes;
+      this.gcMillis = gcMillis;
+    }
+
+    /**
+     * @return the row in the given line; null if it is not a row
+     */
+    private static Row parse(final String line) {
+      final String[] columns = line.trim().split(SEPARATOR);
+      if (columns.length != COLUMNS) {
+        return null;
+      }
+      try {
+        return new Row(columns[0], Integer.parseInt(columns[1]), Integer.parseInt(columns[2]),
+            Long.parseLong(columns[3]), columns[4], Integer.parseInt(columns[5]),
+            Double.parseDouble(columns[6]), Double.parseDouble(columns[7]),
+            Double.parseDouble(columns[8]), Double.parseDouble(columns[9]),
+            Double.parseDouble(columns[10]));
+      } catch (final NumberFormatException e) {
+        return null;
+      }
+    }
+
+    /**
+     * @return what identifies the workload of the row
+     */
+    private String getKey() {
+      return String.join(SEPARATOR, program, String.valueOf(k), String.valueOf(n),
+          String.valueOf(secretBytes), mode);
+    }
+
+    private String toCsv() {
+      return getKey() + String.format(Locale.ROOT, ",%d,%.3f,%.3f,%.3f,%.1f,%.1f", runs,
+          p50Millis, p95Millis, throughput, peakRssMegabytes, gcMillis);
+    }
+  }
+}
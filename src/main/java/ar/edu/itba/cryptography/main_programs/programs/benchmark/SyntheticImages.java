@@ -0,0 +1,103 @@
+package ar.edu.itba.cryptography.main_programs.programs.benchmark;
+
+import ar.edu.itba.cryptography.services.BMPService;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Generates the images of a benchmark: a secret & the n covers it fits in, as 8 bits grayscale
+ * bmp files with random pixels. The same arguments always generate the same images, so as the
+ * results of different builds can be compared.<p>
+ * The pixel data of the secret is (about) as large as requested. For k = 8, the covers have its
+ * same dimensions, as only its pixel data is distributed; otherwise, the whole secret is
+ * distributed, so its pixel data is preceded by a gap that makes its size a multiple of k, and the
+ * covers are as tall as needed to hide it.
+ */
+/* package-private */ final class SyntheticImages {
+  private static final int STANDARD_K_VALUE = 8;
+  private static final int SHADOW_BYTES_PER_SECRET_BYTE = 8;
+  private static final long SEED = 0x5EC12E7L;
+  private static final String SECRET_NAME = "secret.bmp";
+  private static final String COVER_NAME = "cover_%03d.bmp";
+  private static final byte[] MAGIC = { 'B', 'M' };
+  private static final int INFO_HEADER_SIZE = 40;
+  private static final int COLORS = 256;
+  private static final int BYTES_PER_COLOR = 4;
+  private static final int PIXEL_OFFSET =
+      BMPService.FILE_HEADER_SIZE + INFO_HEADER_SIZE + COLORS * BYTES_PER_COLOR;
+  private static final short PLANES = 1;
+  private static final short BITS_PER_PIXEL = 8;
+  private static final int PIXELS_PER_METER = 2835; // 72 DPI
+
+  private SyntheticImages() {
+  }
+
+  /**
+   * Writes the secret ({@value #SECRET_NAME}) into {@code secretDirectory}, and its n covers into
+   * {@code coversDirectory}
+   * @param pixelBytes the requested size of the pixel data of the secret
+   * @return the path to the secret
+   */
+  /* package-private */ static Path generate(final Path secretDirectory,
+      final Path coversDirectory, final int k, final int n, final long pixelBytes)
+      throws IOException {
+    final Random random = new Random(SEED);
+    // Width is a multiple of 8 => rows need no padding, and k = 8 secrets are made of whole chunks
+    final int width = (int) roundUp((long) Math.ceil(Math.sqrt(pixelBytes)), STANDARD_K_VALUE);
+    final int height = (int) ((pixelBytes + width - 1) / width);
+    final long secretPixels = (long) width * height;
+    final int gap = k == STANDARD_K_VALUE
+        ? 0 : (int) ((k - (PIXEL_OFFSET + secretPixels) % k) % k);
+    final Path pathToSecret = secretDirectory.resolve(SECRET_NAME);
+    write(pathToSecret, width, height, gap, random);
+    final int coverHeight;
+    if (k == STANDARD_K_VALUE) {
+      coverHeight = height;
+    } else {
+      final long secretBytes = PIXEL_OFFSET + gap + secretPixels;
+      coverHeight = (int) ((secretBytes / k * SHADOW_BYTES_PER_SECRET_BYTE + width - 1) / width);
+    }
+    for (int i = 1 ; i <= n ; i++) {
+      write(coversDirectory.resolve(String.format(Locale.ROOT, COVER_NAME, i)), width,
+          coverHeight, 0, random);
+    }
+    return pathToSecret;
+  }
+
+  // private methods
+
+  /**
+   * Writes an 8 bits grayscale bmp with random pixels, which are preceded by {@code gap} zeros
+   */
+  private static void write(final Path path, final int width, final int height, final int gap,
+      final Random random) throws IOException {
+    final int pixels = Math.multiplyExact(width, height);
+    final int offset = PIXEL_OFFSET + gap;
+    final ByteBuffer image = ByteBuffer.allocate(Math.addExact(offset, pixels))
+        .order(ByteOrder.LITTLE_ENDIAN);
+    // File header
+    image.put(MAGIC).putInt(image.capacity()).putInt(0).putInt(offset);
+    // Info header
+    image.putInt(INFO_HEADER_SIZE).putInt(width).putInt(height).putShort(PLANES)
+        .putShort(BITS_PER_PIXEL).putInt(0).putInt(pixels).putInt(PIXELS_PER_METER)
+        .putInt(PIXELS_PER_METER).putInt(COLORS).putInt(0);
+    // Grayscale palette: blue, green, red & reserved
+    for (int color = 0 ; color < COLORS ; color++) {
+      image.put((byte) color).put((byte) color).put((byte) color).put((byte) 0);
+    }
+    final byte[] bytes = image.array();
+    final byte[] pixelData = new byte[pixels];
+    random.nextBytes(pixelData);
+    System.arraycopy(pixelData, 0, bytes, offset, pixels);
+    Files.write(path, bytes);
+  }
+
+  private static long roundUp(final long value, final int multiple) {
+    return Math.max(multiple, (value + multiple - 1) / multiple * multiple);
+  }
+}
@@ -0,0 +1,21 @@
+package ar.edu.itba.cryptography.main_programs.programs.distribute;
+
+import ar.edu.itba.cryptography.interfaces.DistributeEngine;
+
+/**
+ * Factory of the SIMD accelerated engines.
+ * <p>
+ * This is the Java 8 version of the class, used whenever the running JVM does not pick the
+ * multi-release version at {@code META-INF/versions/17}, which is the one that actually
+ * implements the accelerated engines using the {@code jdk.incubator.vector} API.
+ */
+/* package-private */ abstract class AcceleratedEngines {
+  /**
+   * @param k the amount of bytes of each chunk
+   * @param tileChunks the amount of chunks to be evaluated on each tile
+   * @return the accelerated engine if the running JVM supports it; null otherwise
+   */
+  /* package-private */ static DistributeEngine create(final int k, final int tileChunks) {
+    return null; // No accelerated engines on Java 8
+  }
+}
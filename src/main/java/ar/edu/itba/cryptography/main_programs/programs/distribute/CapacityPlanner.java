@@ -0,0 +1,147 @@
+package ar.edu.itba.cryptography.main_programs.programs.distribute;
+
+import static ar.edu.itba.cryptography.services.IOService.ExitStatus.VALIDATION_FAILED;
+
+import ar.edu.itba.cryptography.helpers.DigestHelper;
+import ar.edu.itba.cryptography.services.BMPChannelService;
+import ar.edu.itba.cryptography.services.BMPService;
+import ar.edu.itba.cryptography.services.IOService;
+import ar.edu.itba.cryptography.services.InstrumentationService;
+import ar.edu.itba.cryptography.services.InstrumentationService.Phase;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Chooses the covers a secret is distributed into before any of them is loaded: only their
+ * headers are read, and the n smallest covers the secret fits in are chosen, so as the least
+ * bytes are read & written.<p>
+ * If there are not enough of them, the combinations of k & n that would fit the available covers
+ * are reported instead. Each value is always hidden in the LSBs of 8 cover bytes, so k & n are
+ * the only parameters of those combinations.<p>
+ * A compressed secret is planned with its uncompressed size, as it is not known until it is
+ * deflated (i.e., the chosen covers may be larger than needed, but the secret always fits them)
+ */
+/* package-private */ class CapacityPlanner {
+  private static final int STANDARD_K_VALUE = 8;
+  private static final int MIN_K_VALUE = 2;
+  private static final int SHADOW_BYTES_PER_SECRET_BYTE = 8;
+
+  private final byte[] secretHeader;
+  private final boolean digests;
+
+  /**
+   * @param secretHeader the header of the secret to be distributed
+   * @param digests true if the digests of the secret blocks are embedded after them (see
+   *                {@link DigestHelper}), so as they take room of the covers as well
+   */
+  /* package-private */ CapacityPlanner(final byte[] secretHeader, final boolean digests) {
+    this.secretHeader = secretHeader;
+    this.digests = digests;
+  }
+
+  /**
+   * Exits with a validation error, reporting the combinations of k & n that fit the covers, if
+   * the secret does not fit in enough of them
+   * @param pathsToCovers all the candidate covers, in the order they were found
+   * @param n the amount of covers to be chosen. If not given, k covers are chosen
+   * @return the n smallest covers the secret fits in, from the smallest one on
+   */
+  @SuppressWarnings("OptionalUsedAsFieldOrParameterType")
+  /* package-private */ List<Path> plan(final List<Path> pathsToCovers, final int k,
+      final Optional<Integer> n) {
+    final long scanStart = InstrumentationService.start();
+    final List<Cover> covers = new ArrayList<>();
+    for (final Path path : pathsToCovers) {
+      covers.add(new Cover(path, BMPChannelService.readHeaderBytes(path)));
+    }
+    InstrumentationService.record(Phase.SCAN, scanStart, 0);
+    // Stable => equally sized covers keep the order they were found in
+    covers.sort(Comparator.comparingLong(cover -> cover.dataSize));
+    final List<Path> fitting = new ArrayList<>();
+    for (final Cover cover : covers) {
+      if (fits(cover, k)) {
+        fitting.add(cover.path);
+      }
+    }
+    final int wanted = n.orElse(k);
+    if (fitting.size() < wanted) {
+      IOService.exit(VALIDATION_FAILED, "The secret fits in " + fitting.size() + " of the "
+          + covers.size() + " covers with k = " + k + ", but " + wanted + " are needed. "
+          + describeCombinations(covers));
+    }
+    final List<Path> chosen = fitting.subList(0, wanted);
+    IOService.print("Planned " + wanted + " of the " + covers.size() + " covers ("
+        + fitting.size() + " fit the secret with k = " + k + ")");
+    return chosen;
+  }
+
+  // private methods
+
+  /**
+   * @return the amount of bytes that are distributed with the given k: the pixel data for
+   *         k = 8, and the whole file otherwise
+   */
+  private long getSecretBytes(final int k) {
+    final long size = BMPService.getUnsignedBitmapSize(secretHeader);
+    return k == STANDARD_K_VALUE ? size - BMPService.getBitmapOffset(secretHeader) : size;
+  }
+
+  private boolean fits(final Cover cover, final int k) {
+    final long secretBytes = getSecretBytes(k);
+    if (secretBytes < k || secretBytes % k != 0) {
+      // The secret cannot be divided into chunks of k bytes => it does not fit any cover
+      return false;
+    }
+    if (k == STANDARD_K_VALUE
+        && (cover.width != BMPService.getHorizontalWidthInPixels(secretHeader)
+        || cover.height != BMPService.getVerticalWidthInPixels(secretHeader))) {
+      return false;
+    }
+    long requiredBytes = secretBytes * SHADOW_BYTES_PER_SECRET_BYTE / k;
+    if (digests) {
+      requiredBytes += DigestHelper.getShadowBytes((int) (secretBytes / k));
+    }
+    return cover.dataSize >= requiredBytes;
+  }
+
+  /**
+   * @return the range of n that fits the covers for each k, if any
+   */
+  private String describeCombinations(final List<Cover> covers) {
+    final List<String> combinations = new ArrayList<>();
+    for (int k = MIN_K_VALUE ; k <= covers.size() ; k++) {
+      if (digests && k == STANDARD_K_VALUE) {
+        continue; // The k = 8 shadows have no room left for the digests
+      }
+      int fitting = 0;
+      for (final Cover cover : covers) {
+        fitting += fits(cover, k) ? 1 : 0;
+      }
+      if (fitting >= k) {
+        combinations.add("k = " + k + " with " + k + " <= n <= " + fitting);
+      }
+    }
+    if (combinations.isEmpty()) {
+      return "There is no combination of k & n that fits the available covers";
+    }
+    return "Combinations that fit the available covers: " + String.join("; ", combinations);
+  }
+
+  private static class Cover {
+    private final Path path;
+    private final long dataSize;
+    private final int width;
+    private final int height;
+
+    private Cover(final Path path, final byte[] header) {
+      this.path = path;
+      this.dataSize =
+          BMPService.getUnsignedBitmapSize(header) - BMPService.getBitmapOffset(header);
+      this.width = BMPService.getHorizontalWidthInPixels(header);
+      this.height = BMPService.getVerticalWidthInPixels(header);
+    }
+  }
+}
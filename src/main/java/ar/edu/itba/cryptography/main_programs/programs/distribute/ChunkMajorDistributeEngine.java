@@ -0,0 +1,52 @@
+package ar.edu.itba.cryptography.main_programs.programs.distribute;
+
+import static ar.edu.itba.cryptography.services.BMPIOService.OpenMode.OUTPUT;
+
+import ar.edu.itba.cryptography.services.BMPIOService;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Evaluates each chunk for all the shadows and hides each evaluation right away, i.e.,
+ * each chunk touches all the n shadows.
+ */
+/* package-private */ class ChunkMajorDistributeEngine extends DistributeBaseEngine {
+
+  @Override
+  public void distribute(final BMPIOService bmpIOService, final byte[] obfData,
+      final List<Path> pathsToShadows, final int[][] matrixA, final int k, final int modulus) {
+    // If we are here, we know that obfData.length % k == 0
+    // Take chunks of k bytes from obfData to build and solve each polynomial, until all
+    // obfData bytes have been distributed
+    // Evaluation & embedding are interleaved => measure each of them on every iteration
+    long evaluateNanos = 0, embedNanos = 0, overflowRetries = 0;
+    // Both arrays are reused among chunks, as they are completely overwritten on each iteration
+    final byte[] arrayX = new byte[k];
+    final byte[] arrayB = new byte[matrixA.length];
+    for (int distributedBytes = 0 ; distributedBytes < obfData.length ; distributedBytes += k) {
+      final long evaluateStart = System.nanoTime();
+      // Get the next k bytes in the order a0, a1, ..., ak-1
+      getNextKBytes(obfData, distributedBytes, arrayX);
+      // Resolve the polynomial for all shadow numbers, i.e., perform Ax = b = P([1,n]), with
+      // n the max shadow number, taking int account the modulus arithmetic
+      overflowRetries += resolvePolynomialForAllShadowNumbers(matrixA, arrayX, modulus, arrayB);
+      final long embedStart = System.nanoTime();
+      // Distribute each polynomial evaluation to its corresponding shadow
+      distributePolynomialEvaluations(arrayB, bmpIOService, pathsToShadows);
+      embedNanos += System.nanoTime() - embedStart;
+      evaluateNanos += embedStart - evaluateStart;
+    }
+    recordDistribution(evaluateNanos, embedNanos, obfData.length, k, pathsToShadows.size(),
+        overflowRetries);
+  }
+
+  private void distributePolynomialEvaluations(final byte[] arrayB, final BMPIOService bmpIOService,
+      final List<Path> pathsToShadows) {
+    // Save each polynomial evaluation into it's corresponding shadow in a properly manner
+    // (i.e.: as specified by the paper)
+    for (final Path path : pathsToShadows) {
+      final int row = bmpIOService.getPathMatrixRow(path, OUTPUT);
+      bmpIOService.hideByte(path, OUTPUT, arrayB[row]);
+    }
+  }
+}
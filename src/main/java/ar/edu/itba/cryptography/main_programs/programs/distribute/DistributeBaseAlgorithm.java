@@ -3,54 +3,190 @@ package ar.edu.itba.cryptography.main_programs.programs.distribute;
 import static ar.edu.itba.cryptography.services.BMPIOService.OpenMode.OUTPUT;
 import static ar.edu.itba.cryptography.services.IOService.ExitStatus.VALIDATION_FAILED;
 
-import ar.edu.itba.cryptography.helpers.ByteHelper;
+import ar.edu.itba.cryptography.helpers.DigestHelper;
 import ar.edu.itba.cryptography.helpers.MatrixHelper;
 import ar.edu.itba.cryptography.helpers.ObfuscatorHelper;
+import ar.edu.itba.cryptography.interfaces.ByteSource;
 import ar.edu.itba.cryptography.interfaces.DistributeAlgorithm;
+import ar.edu.itba.cryptography.interfaces.DistributeEngine;
 import ar.edu.itba.cryptography.services.BMPIOService;
+import ar.edu.itba.cryptography.services.BMPService;
+import ar.edu.itba.cryptography.services.BufferPoolService;
 import ar.edu.itba.cryptography.services.IOService;
+import ar.edu.itba.cryptography.services.InstrumentationService;
+import ar.edu.itba.cryptography.services.SegmentedBuffer;
+import ar.edu.itba.cryptography.services.TuningService;
+import ar.edu.itba.cryptography.services.TuningService.Engine;
+import ar.edu.itba.cryptography.services.TuningService.Tuning;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Function;
 
 public abstract class DistributeBaseAlgorithm implements DistributeAlgorithm {
   private static final int SHADOW_BYTES_PER_SECRET_BYTE = 8;
-  private static final int FIRST_ELEM_INDEX = 0;
   private static final int MODULUS = 257;
+  private static final String PROFILE_SOURCE = "profile", DEFAULT_SOURCE = "default";
+
+  /**
+   * Verifies a sample of the distributed chunks once the shadows are written. Null if the
+   * distribution should not be verified
+   */
+  private DistributeVerifier verifier;
 
   /**
    *
    * @param bmpIOService service manager for the secret path
    * @param pathToSecret the path to the secret image. Use the given
    *                     bmpIOService instance to access image resources (identified by its path)
+   * @param k the amount of required shadows to retrieve the secret after distribution
    * @return the secret bytes to be distributed into the shadow images
    */
-  public abstract byte[] getSecretBytes(BMPIOService bmpIOService, Path pathToSecret);
+  public abstract byte[] getSecretBytes(BMPIOService bmpIOService, Path pathToSecret, int k);
+
+  /**
+   * Same as {@link #getSecretBytes}, for the distributions that access the secret bytes region
+   * by region (see {@link DistributePipelineAlgorithm}), so as secrets that do not fit in a
+   * single array can be distributed. By default, the secret bytes are wrapped
+   * @return the secret bytes, to be given back through {@link #releaseSecretBuffer}
+   */
+  /* package-private */ SegmentedBuffer getSecretBuffer(final BMPIOService bmpIOService,
+      final Path pathToSecret, final int k) {
+    return SegmentedBuffer.wrap(getSecretBytes(bmpIOService, pathToSecret, k));
+  }
 
   @Override
   public void run(final BMPIOService bmpIOService, final Path pathToSecret,
       final List<Path> pathsToShadows, final int k) {
     // Note: 'obf' stands for 'obfuscated'
-    // Get the secret bytes
-    final byte[] data = getSecretBytes(bmpIOService, pathToSecret);
-    // Validate all parameter (with exit code error, if any) according to the given secret data
-    validateParameters(bmpIOService, pathsToShadows, k, data, pathToSecret);
     // Generate a seed for the obfuscation
     final char seed = ObfuscatorHelper.generateSeed();
+    // Get the secret bytes, laid out for the generated seed & the shadow numbers, if needed
+    final byte[] data = encodeSecretBytes(getSecretBytes(bmpIOService, pathToSecret, k), k, seed,
+        getShadowNumbers(pathsToShadows.size()));
+    // Validate all parameter (with exit code error, if any) according to the given secret data
+    validateParameters(bmpIOService, path -> bmpIOService.getHeaderBytesOf(path, OUTPUT),
+        pathsToShadows, k, data.length, pathToSecret);
     // Obfuscate the data bytes using the generated seed
     final byte[] obfData = ObfuscatorHelper.toggleObfuscation(data, seed);
     // Generate the matrix A containing all the exponential evaluations of each shadow number
     // Also, assign each shadow a shadow number according to its position in the constructed matrix
     final int[][] matrixA = initializeMatrix(bmpIOService, pathsToShadows, k, MODULUS);
+    // Digest the blocks of the obfuscated data exactly as they will be retrieved, if requested
+    final byte[] digestTable;
+    if (embedsDigests()) {
+      settleOverflows(obfData, matrixA, k, MODULUS);
+      digestTable = DigestHelper.createTable(obfData, k);
+    } else {
+      digestTable = null;
+    }
     // Distribute the obfuscated data into the shadows in chunks of k bytes using the built matrix
     distributeData(bmpIOService, obfData, pathsToShadows, matrixA, k, MODULUS);
+    // Hide the digests after the distributed data, at the end of each shadow
+    if (digestTable != null) {
+      for (final Path path : pathsToShadows) {
+        bmpIOService.hideTrailingBytes(path, OUTPUT, digestTable);
+      }
+    }
     // Save the seed and persist the updated data (seed + shadowNumber + secretBytes) in all shadows
     saveSeedAndOverwriteShadows(bmpIOService, pathsToShadows, seed);
+    // Read a sample of the chunks back from the written shadows, if requested
+    if (verifier != null) {
+      final List<Path> writtenPaths = new ArrayList<>();
+      for (final Path path : pathsToShadows) {
+        writtenPaths.add(bmpIOService.getOutputPath(path));
+      }
+      verifier.verify(writtenPaths, matrixA, k, obfData.length / k, seed,
+          (chunk, arrayX) -> DistributeBaseEngine.getNextKBytes(obfData, chunk * k, arrayX));
+    }
+    // Give the large buffers back, so as the following runs reuse them
+    BufferPoolService.release(obfData);
+    releaseSecretBytes(data);
+  }
+
+  /**
+   * @param verifier verifies a sample of the distributed chunks once the shadows are written
+   *                 (see {@link DistributeVerifier}); null to skip the verification
+   */
+  /* package-private */ void setVerifier(final DistributeVerifier verifier) {
+    this.verifier = verifier;
+  }
+
+  /* package-private */ DistributeVerifier getVerifier() {
+    return verifier;
+  }
+
+  /**
+   * Hook to release the buffer returned by {@link #encodeSecretBytes} once it was distributed.
+   * By default, it is released to the {@link BufferPoolService}
+   * @param data the secret bytes, which are not accessed anymore
+   */
+  /* package-private */ void releaseSecretBytes(final byte[] data) {
+    BufferPoolService.release(data);
+  }
+
+  /**
+   * Releases the buffer returned by {@link #getSecretBuffer} once it was distributed: its array
+   * is released through {@link #releaseSecretBytes}, unless it is a view of the secret image
+   */
+  /* package-private */ void releaseSecretBuffer(final SegmentedBuffer data) {
+    if (data.array() != null) {
+      releaseSecretBytes(data.array());
+    }
   }
 
+  /**
+   * Hook to lay out the secret bytes for the seed & the shadow numbers of the distribution, once
+   * they are known. The secret bytes are returned as they are by default
+   * @param data the secret bytes returned by {@link #getSecretBytes}
+   * @param k the amount of required shadows to retrieve the secret after distribution
+   * @param seed the seed the returned bytes are going to be obfuscated with
+   * @param shadowNumbers the shadow numbers the returned bytes are going to be distributed to
+   * @return the bytes to be distributed, released through {@link #releaseSecretBytes}
+   */
+  /* package-private */ byte[] encodeSecretBytes(final byte[] data, final int k, final char seed,
+      final int[] shadowNumbers) {
+    return data;
+  }
+
+  /**
+   * Same as {@link #encodeSecretBytes}, for the buffer returned by {@link #getSecretBuffer}: the
+   * bytes to be distributed are read from the returned source in ascending positions, so as they
+   * may be laid out as they are read. The buffer is returned as it is by default
+   */
+  /* package-private */ ByteSource encodeSecretBuffer(final SegmentedBuffer data, final int k,
+      final char seed, final int[] shadowNumbers) {
+    return data;
+  }
+
+  /**
+   * Hook to flag the shadow numbers of all the shadows (e.g., with a layout the retrieve program
+   * should know about). No flags are set by default
+   * @return the flags to be set in the shadow number of each shadow
+   */
+  /* package-private */ char getShadowNumberFlags() {
+    return 0;
+  }
+
+  /**
+   * Hook to embed the digests of the secret blocks into the shadows (see {@link DigestHelper}),
+   * so as the retrieve program detects the blocks retrieved from corrupted shadows.
+   * No digests are embedded by default
+   */
+  /* package-private */ boolean embedsDigests() {
+    return false;
+  }
+
+  /**
+   * Validates (with exit code error, if any) the given secret data against the given shadows
+   * @param bmpIOService service manager for the secret path
+   * @param shadowHeaders gives the header of each shadow, as they may not have been opened
+   *                      using the bmpIOService
+   * @param length the amount of secret bytes, which may be beyond 2 GB
+   */
   /* package-private */ void validateParameters(final BMPIOService bmpIOService,
-      final List<Path> pathsToShadows, final int k, final byte[] data,
-      final Path pathToSecret) {
-    final int length = data.length;
+      final Function<Path, byte[]> shadowHeaders, final List<Path> pathsToShadows, final int k,
+      final long length, final Path pathToSecret) {
     // Validate that the secret data length can be divided into chunks of size k
     if (length < k ||  length % k != 0) {
       IOService.exit(VALIDATION_FAILED, "It should happen that secret.length >= k "
@@ -59,20 +195,50 @@ public abstract class DistributeBaseAlgorithm implements DistributeAlgorithm {
     }
     // Validate that the secret data fits in each of the given shadows
     for (final Path path : pathsToShadows) {
-      final int shadowDataSize = bmpIOService.getDataSize(path, OUTPUT);
+      final byte[] shadowHeader = shadowHeaders.apply(path);
+      final long shadowDataSize =
+          BMPService.getUnsignedBitmapSize(shadowHeader) - BMPService.getBitmapOffset(shadowHeader);
       if (!secretFitsInShadow(length, shadowDataSize, k)) {
         IOService.exit(VALIDATION_FAILED, "It should happen that 'shadowDataSize >= secretSize * "
             + SHADOW_BYTES_PER_SECRET_BYTE + " / k'. Current values: secretSize = " + length
             + "; shadowDataSize = " + shadowDataSize + "; k = " + k);
       }
+      // Digests are only embedded into whole shadows => the secret fits in an array
+      if (embedsDigests() && !secretFitsInShadow(length, shadowDataSize
+          - DigestHelper.getShadowBytes((int) (length / k)), k)) {
+        final int digestBytes = DigestHelper.getShadowBytes((int) (length / k));
+        IOService.exit(VALIDATION_FAILED, "There is no room for the digests at the end of "
+            + path + ": they take " + digestBytes + " bytes of "
+            + "each shadow, after the " + length / k * SHADOW_BYTES_PER_SECRET_BYTE
+            + " bytes of the secret. shadowDataSize = " + shadowDataSize);
+      }
     }
   }
 
-  private boolean secretFitsInShadow(final int secretSize, final int shadowDataSize,
+  private boolean secretFitsInShadow(final long secretSize, final long shadowDataSize,
       final int k) {
     return shadowDataSize >= secretSize * SHADOW_BYTES_PER_SECRET_BYTE / k;
   }
 
+  /**
+   * Applies the overflow adjustments of the engines (see
+   * {@link DistributeBaseEngine#resolvePolynomialForAllShadowNumbers}) in advance, so as the
+   * obfuscated data holds exactly the bytes that will be retrieved, and the engines do not need
+   * any retries
+   */
+  private static void settleOverflows(final byte[] obfData, final int[][] matrixA, final int k,
+      final int modulus) {
+    final byte[] arrayX = new byte[k];
+    final byte[] arrayB = new byte[matrixA.length];
+    for (int from = 0 ; from < obfData.length ; from += k) {
+      DistributeBaseEngine.getNextKBytes(obfData, from, arrayX);
+      if (DistributeBaseEngine.resolvePolynomialForAllShadowNumbers(matrixA, arrayX, modulus,
+          arrayB) > 0) {
+        System.arraycopy(arrayX, 0, obfData, from, k);
+      }
+    }
+  }
+
   private void saveSeedAndOverwriteShadows(final BMPIOService bmpIOService,
       final List<Path> pathsToShadows, final char seed) {
     for (final Path path : pathsToShadows) {
@@ -83,73 +249,60 @@ public abstract class DistributeBaseAlgorithm implements DistributeAlgorithm {
 
   private void distributeData(final BMPIOService bmpIOService, final byte[] obfData,
       final List<Path> pathsToShadows, final int[][] matrixA, final int k, final int modulus) {
-    // If we are here, we know that obfData.length % k == 0
-    // Take chunks of k bytes from obfData to build and solve each polynomial, until all
-    // obfData bytes have been distributed
-    for (int distributedBytes = 0 ; distributedBytes < obfData.length ; distributedBytes += k) {
-      // Get the next k bytes in the order a0, a1, ..., ak-1
-      final byte[] arrayX = getNextKBytes(obfData, distributedBytes, k);
-      // Resolve the polynomial for all shadow numbers, i.e., perform Ax = b = P([1,n]), with
-      // n the max shadow number, taking int account the modulus arithmetic
-      final byte[] arrayB = resolvePolynomialForAllShadowNumbers(matrixA, arrayX, modulus);
-      // Distribute each polynomial evaluation to its corresponding shadow
-      distributePolynomialEvaluations(arrayB, bmpIOService, pathsToShadows);
-    }
+    chooseDistributeEngine(pathsToShadows.size(), k, obfData.length)
+        .distribute(bmpIOService, obfData, pathsToShadows, matrixA, k, modulus);
   }
 
-  private void distributePolynomialEvaluations(final byte[] arrayB, final BMPIOService bmpIOService,
-      final List<Path> pathsToShadows) {
-    // Save each polynomial evaluation into it's corresponding shadow in a properly manner
-    // (i.e.: as specified by the paper)
-    for (final Path path : pathsToShadows) {
-      final int row = bmpIOService.getPathMatrixRow(path, OUTPUT);
-      bmpIOService.hideByte(path, OUTPUT, arrayB[row]);
+  private DistributeEngine chooseDistributeEngine(final int n, final int k,
+      final int secretBytes) {
+    // Use the settings calibrated for this job shape on this host, if any
+    final Tuning tuning = TuningService.find(k, n, secretBytes);
+    if (tuning != null) {
+      final DistributeEngine engine = createEngine(tuning, k);
+      if (engine != null) { // null if the SIMD engine is not available in this JVM
+        recordTuning(tuning, PROFILE_SOURCE);
+        return engine;
+      }
     }
+    final Tuning defaultTuning = getDefaultTuning(n, k);
+    recordTuning(defaultTuning, DEFAULT_SOURCE);
+    return createEngine(defaultTuning, k);
   }
 
   /**
-   * Solves matrixA x arrayX (mod `mod`) without byte overflow.<p>
-   * If overflow is detected during the operation,
-   * the first non-zero element (from a0, to ak-1) in arrayX is decremented by one and calculation
-   * is taken over again, until the calculation does not produce overflow. <p>
-   * IMPORTANT: this method directly modifies the arrayX
-   * @param matrixA the n x k matrix
-   * @param arrayX the k x 1 array, with constants in the order [a0, ..., ak-1].
-   *               Recall that it may be modified.
-   * @param mod the modulus to be used during calculations
-   * @return matrixA x arrayX' (mod n) with arrayX' being the original
-   *         arrayX or a modification of it such that the specified multiplication
-   *         does not produce byte overflow while it's being calculated
-   */
-  private byte[] resolvePolynomialForAllShadowNumbers(final int[][] matrixA, final byte[] arrayX,
-      final int mod) {
-    byte[] arrayB;
-    while (true) {
-      arrayB = MatrixHelper.byteNoOverflowMultiply(matrixA, arrayX, mod);
-      if (arrayB != null) {
-        return arrayB;
-      }
-      decrementFirstNonZeroElement(arrayX);
+   * @return the settings used when the job shape was not calibrated (see {@link TuningService})
+   */
+  /* package-private */ static Tuning getDefaultTuning(final int n, final int k) {
+    final int tileChunks = ShadowMajorDistributeEngine.defaultTileChunks(n);
+    // Use the SIMD engine whenever the running JVM supports it
+    if (AcceleratedEngines.create(k, tileChunks) != null) {
+      return new Tuning(Engine.VECTOR, tileChunks);
     }
+    // Shadow-major outperforms chunk-major for every n (see `-t`), as each tile of evaluations is
+    // embedded into a shadow with sequential writes, instead of writing to all of them per chunk
+    return new Tuning(Engine.SHADOW_MAJOR, tileChunks);
   }
 
-  private void decrementFirstNonZeroElement(final byte[] arrayX) {
-    // As arrayX is [a0, ..., ak-1]
-    for (int i = 0; i < arrayX.length ; i++) {
-      if (ByteHelper.byteToUnsignedInt(arrayX[i]) > 0) {
-        arrayX[i] -= ((byte) 1);
-        return;
-      }
+  /**
+   * @return the engine of the given settings; null if it is not available in the running JVM
+   */
+  /* package-private */ static DistributeEngine createEngine(final Tuning tuning, final int k) {
+    switch (tuning.getEngine()) {
+      case VECTOR:
+        return AcceleratedEngines.create(k, tuning.getTileChunks());
+      case SHADOW_MAJOR:
+        return new ShadowMajorDistributeEngine(tuning.getTileChunks());
+      default:
+        return new ChunkMajorDistributeEngine();
     }
-    // If this method was called, any byte in the array should have been greater than 0 (as
-    // demonstrated in the paper)
-    throw new IllegalStateException("decrementFirstNonZeroElement hasn't found a non-zero elem");
   }
 
-  private byte[] getNextKBytes(final byte[] obfData, final int distributedBytes, final int k) {
-    final byte[] arrayX = new byte[k];
-    System.arraycopy(obfData, distributedBytes, arrayX, FIRST_ELEM_INDEX, k);
-    return arrayX;
+  private static void recordTuning(final Tuning tuning, final String source) {
+    InstrumentationService.recordConfiguration("engine", tuning.getEngine().getName());
+    if (tuning.getEngine().isTiled()) {
+      InstrumentationService.recordConfiguration("tile_chunks", tuning.getTileChunks());
+    }
+    InstrumentationService.recordConfiguration("engine_source", source);
   }
 
   /**
@@ -173,12 +326,32 @@ public abstract class DistributeBaseAlgorithm implements DistributeAlgorithm {
    */
   private int[][] initializeMatrix(final BMPIOService bmpIOService, final List<Path> shadowsPaths,
       final int k, final int modulus) {
+    return initializeMatrix(bmpIOService, shadowsPaths, k, modulus, getShadowNumberFlags());
+  }
+
+  /**
+   * @return the shadow numbers assigned to n shadows: 1 to n, in the order of the shadows
+   */
+  /* package-private */ static int[] getShadowNumbers(final int n) {
+    final int[] shadowNumbers = new int[n];
+    for (int row = 0 ; row < n ; row ++) {
+      shadowNumbers[row] = row + 1;
+    }
+    return shadowNumbers;
+  }
+
+  /**
+   * Same as {@link #initializeMatrix(BMPIOService, List, int, int)}, with the given flags set in
+   * the shadow number of each shadow
+   */
+  /* package-private */ static int[][] initializeMatrix(final BMPIOService bmpIOService,
+      final List<Path> shadowsPaths, final int k, final int modulus, final char flags) {
     final int n = shadowsPaths.size(); // assumed that n <= char MAX_VALUE
     final int[][] matrix = new int[n][k];
     for (char row = 0 ; row < n ; row ++) {
       final Path path = shadowsPaths.get(row);
       final char x = (char) (row + 1);
-      bmpIOService.setShadowNumber(path, OUTPUT, x); // set for retrieving purposes only
+      bmpIOService.setShadowNumber(path, OUTPUT, (char) (x | flags)); // for retrieving purposes
       bmpIOService.setPathMatrixRow(path, OUTPUT, row); // set for distribution purposes
       for (int col = 0 ; col < k ; col ++) {
         matrix[row][col] = MatrixHelper.getCoefficient(x, col, modulus);
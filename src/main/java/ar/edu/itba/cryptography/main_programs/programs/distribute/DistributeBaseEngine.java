@@ -0,0 +1,73 @@
+package ar.edu.itba.cryptography.main_programs.programs.distribute;
+
+import ar.edu.itba.cryptography.helpers.ByteHelper;
+import ar.edu.itba.cryptography.helpers.MatrixHelper;
+import ar.edu.itba.cryptography.interfaces.DistributeEngine;
+import ar.edu.itba.cryptography.services.InstrumentationService;
+import ar.edu.itba.cryptography.services.InstrumentationService.Counter;
+import ar.edu.itba.cryptography.services.InstrumentationService.Phase;
+
+/* package-private */ abstract class DistributeBaseEngine implements DistributeEngine {
+  /* package-private */ static final int FIRST_ELEM_INDEX = 0;
+
+  /**
+   * Solves matrixA x arrayX (mod `mod`) without byte overflow.<p>
+   * If overflow is detected during the operation,
+   * the first non-zero element (from a0, to ak-1) in arrayX is decremented by one and calculation
+   * is taken over again, until the calculation does not produce overflow. <p>
+   * IMPORTANT: this method directly modifies the arrayX
+   * @param matrixA the n x k matrix
+   * @param arrayX the k x 1 array, with constants in the order [a0, ..., ak-1].
+   *               Recall that it may be modified.
+   * @param mod the modulus to be used during calculations
+   * @param arrayB the n x 1 array where matrixA x arrayX' (mod n) is saved, with arrayX' being the
+   *               original arrayX or a modification of it such that the specified multiplication
+   *               does not produce byte overflow while it's being calculated
+   * @return the number of overflow retries that were needed
+   */
+  /* package-private */ static int resolvePolynomialForAllShadowNumbers(final int[][] matrixA,
+      final byte[] arrayX, final int mod, final byte[] arrayB) {
+    int retries = 0;
+    while (true) {
+      if (MatrixHelper.byteNoOverflowMultiply(matrixA, arrayX, mod, arrayB)) {
+        return retries;
+      }
+      retries ++;
+      decrementFirstNonZeroElement(arrayX);
+    }
+  }
+
+  /* package-private */ static void getNextKBytes(final byte[] obfData,
+      final int distributedBytes, final byte[] arrayX) {
+    System.arraycopy(obfData, distributedBytes, arrayX, FIRST_ELEM_INDEX, arrayX.length);
+  }
+
+  /**
+   * Records the measurements of a whole distribution
+   */
+  /* package-private */ static void recordDistribution(final long evaluateNanos,
+      final long embedNanos, final int secretBytes, final int k, final int n,
+      final long overflowRetries) {
+    final int bytesPerShadow = secretBytes / k;
+    InstrumentationService.recordElapsed(Phase.EVALUATE, evaluateNanos, secretBytes);
+    InstrumentationService.recordElapsed(Phase.EMBED, embedNanos, (long) bytesPerShadow * n);
+    InstrumentationService.count(Counter.OVERFLOW_RETRIES, overflowRetries);
+    InstrumentationService.set(Counter.SHADOWS, n);
+    InstrumentationService.set(Counter.CHUNKS, bytesPerShadow);
+    InstrumentationService.set(Counter.SECRET_BYTES, secretBytes);
+    InstrumentationService.set(Counter.BYTES_PER_SHADOW, bytesPerShadow);
+  }
+
+  private static void decrementFirstNonZeroElement(final byte[] arrayX) {
+    // As arrayX is [a0, ..., ak-1]
+    for (int i = 0; i < arrayX.length ; i++) {
+      if (ByteHelper.byteToUnsignedInt(arrayX[i]) > 0) {
+        arrayX[i] -= ((byte) 1);
+        return;
+      }
+    }
+    // If this method was called, any byte in the array should have been greater than 0 (as
+    // demonstrated in the paper)
+    throw new IllegalStateException("decrementFirstNonZeroElement hasn't found a non-zero elem");
+  }
+}
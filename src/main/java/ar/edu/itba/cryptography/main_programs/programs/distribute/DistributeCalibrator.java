@@ -0,0 +1,173 @@
+package ar.edu.itba.cryptography.main_programs.programs.distribute;
+
+import static ar.edu.itba.cryptography.services.BMPIOService.OpenMode.OUTPUT;
+import static ar.edu.itba.cryptography.services.IOService.ExitStatus.WRITE_FILE_ERROR;
+
+import ar.edu.itba.cryptography.interfaces.DistributeEngine;
+import ar.edu.itba.cryptography.services.BMPIOService;
+import ar.edu.itba.cryptography.services.BMPService;
+import ar.edu.itba.cryptography.services.IOService;
+import ar.edu.itba.cryptography.services.TuningService.Engine;
+import ar.edu.itba.cryptography.services.TuningService.Tuning;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Measures each distribution engine (and tile size, for the tiled ones) on synthetic data of a
+ * given job shape, so as the best one can be saved into the tuning profile of the host (see
+ * {@link ar.edu.itba.cryptography.services.TuningService}).<p>
+ * The synthetic covers are written to a temporary directory, which is deleted once the
+ * calibration is done. Each candidate is run {@value #WARMUP_RUNS} times to warm it up, and then
+ * timed {@value #TIMED_RUNS} times, keeping its fastest run (the least disturbed by the host).
+ */
+public abstract class DistributeCalibrator {
+  private static final int MODULUS = 257;
+  private static final int SHADOW_BYTES_PER_SECRET_BYTE = 8;
+  private static final int WARMUP_RUNS = 3;
+  private static final int TIMED_RUNS = 5;
+  /**
+   * Width of the synthetic covers (a multiple of 4, so as their rows have no padding)
+   */
+  private static final int COVER_WIDTH = 1024;
+  /**
+   * Tile sizes tried around the default one: from 1/4 to 4 times it
+   */
+  private static final int TILE_SCALES = 2;
+  private static final int MIN_TILE_CHUNKS = 64;
+  private static final String TEMP_DIR_PREFIX = "steganography-tune";
+
+  /**
+   * The measurement of one candidate
+   */
+  public static final class Result {
+    private final Tuning tuning;
+    private final long nanos;
+
+    private Result(final Tuning tuning, final long nanos) {
+      this.tuning = tuning;
+      this.nanos = nanos;
+    }
+
+    public Tuning getTuning() {
+      return tuning;
+    }
+
+    /**
+     * @return the time of the fastest distribution with the candidate settings
+     */
+    public long getNanos() {
+      return nanos;
+    }
+  }
+
+  /**
+   * @param k the amount of required shadows
+   * @param n the amount of shadows
+   * @param secretBytes the amount of bytes of the synthetic secret (a multiple of k)
+   * @param random source of the synthetic secret & covers
+   * @return the measurement of every candidate available in the running JVM, the fastest first
+   */
+  public static List<Result> calibrate(final int k, final int n, final int secretBytes,
+      final Random random) {
+    final byte[] obfData = new byte[secretBytes];
+    random.nextBytes(obfData);
+    final int coverDataBytes = secretBytes / k * SHADOW_BYTES_PER_SECRET_BYTE;
+    final byte[] cover = BMPService.createGrayscaleImage(COVER_WIDTH,
+        (coverDataBytes + COVER_WIDTH - 1) / COVER_WIDTH, i -> random.nextInt());
+    Path directory = null;
+    try {
+      directory = Files.createTempDirectory(TEMP_DIR_PREFIX);
+      final List<Path> covers = new ArrayList<>();
+      for (int i = 0 ; i < n ; i++) {
+        covers.add(Files.write(directory.resolve("cover" + i + ".bmp"), cover));
+      }
+      final List<Result> results = new ArrayList<>();
+      for (final Tuning tuning : getCandidates(n, secretBytes / k)) {
+        final long nanos = measure(tuning, covers, obfData, k);
+        if (nanos >= 0) {
+          results.add(new Result(tuning, nanos));
+        }
+      }
+      results.sort(Comparator.comparingLong(Result::getNanos));
+      return results;
+    } catch (final IOException e) {
+      IOService.exit(WRITE_FILE_ERROR, e);
+      throw new IllegalStateException(); // Should never reach here
+    } finally {
+      deleteDirectory(directory);
+    }
+  }
+
+  // private methods
+
+  private static List<Tuning> getCandidates(final int n, final int chunks) {
+    final List<Tuning> candidates = new ArrayList<>();
+    candidates.add(new Tuning(Engine.CHUNK_MAJOR, 0));
+    final int defaultTileChunks = ShadowMajorDistributeEngine.defaultTileChunks(n);
+    final List<Integer> tiles = new ArrayList<>();
+    for (int scale = -TILE_SCALES ; scale <= TILE_SCALES ; scale++) {
+      final int tile = scale < 0 ? defaultTileChunks >> -scale : defaultTileChunks << scale;
+      final int boundedTile = Math.max(MIN_TILE_CHUNKS, Math.min(chunks, tile));
+      if (!tiles.contains(boundedTile)) {
+        tiles.add(boundedTile);
+      }
+    }
+    for (final Engine engine : new Engine[] { Engine.SHADOW_MAJOR, Engine.VECTOR }) {
+      for (final int tile : tiles) {
+        candidates.add(new Tuning(engine, tile));
+      }
+    }
+    return candidates;
+  }
+
+  /**
+   * @return the time of the fastest of the timed distributions with the given settings; -1 if
+   *         its engine is not available in the running JVM
+   */
+  private static long measure(final Tuning tuning, final List<Path> covers,
+      final byte[] obfData, final int k) {
+    final DistributeEngine engine = DistributeBaseAlgorithm.createEngine(tuning, k);
+    if (engine == null) {
+      return -1;
+    }
+    long bestNanos = Long.MAX_VALUE;
+    for (int run = 0 ; run < WARMUP_RUNS + TIMED_RUNS ; run++) {
+      // Covers are opened again on each run, so as the data is hidden from their beginning
+      final BMPIOService bmpIOService = new BMPIOService();
+      for (final Path cover : covers) {
+        bmpIOService.openBmpFile(cover.toString(), OUTPUT);
+      }
+      final int[][] matrixA =
+          DistributeBaseAlgorithm.initializeMatrix(bmpIOService, covers, k, MODULUS, (char) 0);
+      final long start = System.nanoTime();
+      engine.distribute(bmpIOService, obfData, covers, matrixA, k, MODULUS);
+      final long nanos = System.nanoTime() - start;
+      bmpIOService.closeBmpFiles(covers, OUTPUT);
+      if (run >= WARMUP_RUNS) {
+        bestNanos = Math.min(bestNanos, nanos);
+      }
+    }
+    return bestNanos;
+  }
+
+  private static void deleteDirectory(final Path directory) {
+    if (directory == null) {
+      return;
+    }
+    try (final Stream<Path> paths = Files.walk(directory)) {
+      for (final Path path : paths.sorted(Comparator.reverseOrder())
+          .collect(Collectors.toList())) {
+        Files.deleteIfExists(path);
+      }
+    } catch (final IOException e) {
+      // Left to the temporary directory of the system
+    }
+  }
+}
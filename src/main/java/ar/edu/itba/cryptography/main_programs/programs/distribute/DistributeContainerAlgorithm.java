@@ -0,0 +1,196 @@
+package ar.edu.itba.cryptography.main_programs.programs.distribute;
+
+import static ar.edu.itba.cryptography.services.BMPIOService.OpenMode.INPUT;
+import static ar.edu.itba.cryptography.services.IOService.ExitStatus.VALIDATION_FAILED;
+
+import ar.edu.itba.cryptography.helpers.CompressionHelper;
+import ar.edu.itba.cryptography.helpers.MatrixHelper;
+import ar.edu.itba.cryptography.helpers.ObfuscatorHelper;
+import ar.edu.itba.cryptography.interfaces.DistributeAlgorithm;
+import ar.edu.itba.cryptography.services.BMPChannelService;
+import ar.edu.itba.cryptography.services.BMPIOService;
+import ar.edu.itba.cryptography.services.BMPService;
+import ar.edu.itba.cryptography.services.ContainerService;
+import ar.edu.itba.cryptography.services.ContainerService.Entry;
+import ar.edu.itba.cryptography.services.IOService;
+import ar.edu.itba.cryptography.services.InstrumentationService;
+import ar.edu.itba.cryptography.services.InstrumentationService.Counter;
+import ar.edu.itba.cryptography.services.InstrumentationService.Phase;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Adds a secret to a container share set (see {@link ContainerService}), turning the given
+ * shadows into a container if they are not one yet.<p>
+ * The whole bmp file is distributed (as the custom algorithm does, for any k), with its own seed,
+ * into the share region that follows the last one of the container. Shadows are accessed with
+ * positional reads & writes of the directory and the new share region only (they are not opened
+ * with the given {@link BMPIOService}).
+ */
+public class DistributeContainerAlgorithm implements DistributeAlgorithm {
+  private static final int MODULUS = 257;
+
+  private final int secretId;
+  private final boolean compress;
+
+  /**
+   * @param secretId the id the secret is going to be retrieved with
+   * @param compress true if the bmp bytes should be deflate-compressed before being distributed
+   */
+  public DistributeContainerAlgorithm(final int secretId, final boolean compress) {
+    this.secretId = secretId;
+    this.compress = compress;
+  }
+
+  /**
+   * @param pathsToShadows all the shadows of the container (or the covers of a new one). They
+   *                       should NOT have been opened using the bmpIOService
+   */
+  @Override
+  public void run(final BMPIOService bmpIOService, final Path pathToSecret,
+      final List<Path> pathsToShadows, final int k) {
+    final BMPChannelService channelService = new BMPChannelService();
+    channelService.openBmpFiles(pathsToShadows);
+    final boolean newContainer = !isContainer(channelService, pathsToShadows);
+    final List<Entry> entries = newContainer ? new ArrayList<>()
+        : readDirectory(channelService, pathsToShadows);
+    // Get the secret bytes, padded with zeros up to a multiple of k (the real length is kept in
+    // the directory)
+    final byte[] bmp = bmpIOService.getBmp(pathToSecret, INPUT);
+    final char seed = ObfuscatorHelper.generateSeed();
+    // Shadow numbers are assigned once, and kept for all the secrets of the container
+    final int[] shadowNumbers = newContainer
+        ? DistributeBaseAlgorithm.getShadowNumbers(pathsToShadows.size())
+        : getShadowNumbers(channelService, pathsToShadows);
+    final byte[] payload = compress
+        ? CompressionHelper.deflate(bmp, k, seed, shadowNumbers) : bmp;
+    final Entry entry = new Entry(secretId, ContainerService.getFreeOffset(entries),
+        payload.length, k, seed);
+    validateParameters(channelService, pathsToShadows, entries, entry);
+    entries.add(entry);
+    if (newContainer) {
+      for (int row = 0 ; row < pathsToShadows.size() ; row ++) {
+        final Path path = pathsToShadows.get(row);
+        channelService.setShadowNumber(path,
+            (char) (shadowNumbers[row] | ContainerService.CONTAINER_SHADOW_FLAG));
+        channelService.writeHeader(path);
+      }
+    }
+    final byte[] obfData = ObfuscatorHelper.toggleObfuscation(
+        Arrays.copyOf(payload, entry.getChunks() * k), seed);
+    distributeData(channelService, pathsToShadows, entry, shadowNumbers, obfData);
+    for (final Path path : pathsToShadows) {
+      ContainerService.writeDirectory(channelService, path, entries);
+    }
+    channelService.closeBmpFiles(pathsToShadows);
+  }
+
+  /**
+   * @return true if all the given shadows are container shadows; false if none of them is
+   */
+  private boolean isContainer(final BMPChannelService channelService,
+      final List<Path> pathsToShadows) {
+    final boolean container =
+        ContainerService.isContainerShadow(channelService.getHeaderBytes(pathsToShadows.get(0)));
+    for (final Path path : pathsToShadows) {
+      if (ContainerService.isContainerShadow(channelService.getHeaderBytes(path)) != container) {
+        IOService.exit(VALIDATION_FAILED, "Either all or none of the given shadows should belong "
+            + "to a container, but " + path + " does not match the others");
+      }
+    }
+    return container;
+  }
+
+  private List<Entry> readDirectory(final BMPChannelService channelService,
+      final List<Path> pathsToShadows) {
+    final Path path = pathsToShadows.get(0);
+    final List<Entry> entries = ContainerService.readDirectory(channelService, path);
+    if (entries == null) {
+      IOService.exit(VALIDATION_FAILED, "No container directory found at " + path);
+      throw new IllegalStateException(); // Should never reach here
+    }
+    return entries;
+  }
+
+  private void validateParameters(final BMPChannelService channelService,
+      final List<Path> pathsToShadows, final List<Entry> entries, final Entry entry) {
+    if (ContainerService.findEntry(entries, entry.getId()) != null) {
+      IOService.exit(VALIDATION_FAILED, "The container already has a secret with id "
+          + entry.getId());
+    }
+    if (entries.size() == ContainerService.MAX_ENTRIES) {
+      IOService.exit(VALIDATION_FAILED, "The container cannot hold more than "
+          + ContainerService.MAX_ENTRIES + " secrets");
+    }
+    final List<Entry> allEntries = new ArrayList<>(entries);
+    allEntries.add(entry);
+    final long requiredDataSize = ContainerService.getRequiredDataSize(allEntries);
+    for (final Path path : pathsToShadows) {
+      final long shadowDataSize = channelService.getDataSize(path);
+      if (shadowDataSize < requiredDataSize) {
+        IOService.exit(VALIDATION_FAILED, "It should happen that 'shadowDataSize >= "
+            + requiredDataSize + "' (directory & share regions). Current values: shadowDataSize = "
+            + shadowDataSize + "; shadow = " + path);
+      }
+    }
+  }
+
+  /**
+   * @return the shadow numbers of the given container shadows, in the same order
+   */
+  private int[] getShadowNumbers(final BMPChannelService channelService,
+      final List<Path> pathsToShadows) {
+    final int[] shadowNumbers = new int[pathsToShadows.size()];
+    for (int row = 0 ; row < shadowNumbers.length ; row ++) {
+      shadowNumbers[row] = channelService.getShadowNumber(pathsToShadows.get(row));
+    }
+    return shadowNumbers;
+  }
+
+  private void distributeData(final BMPChannelService channelService,
+      final List<Path> pathsToShadows, final Entry entry, final int[] shadowNumbers,
+      final byte[] obfData) {
+    final int n = pathsToShadows.size();
+    final int k = entry.getK();
+    final int chunks = entry.getChunks();
+    final int[][] matrixA = new int[n][k];
+    for (int row = 0 ; row < n ; row ++) {
+      for (int col = 0 ; col < k ; col ++) {
+        matrixA[row][col] = MatrixHelper.getCoefficient(shadowNumbers[row], col, MODULUS);
+      }
+    }
+    final long evaluateStart = System.nanoTime();
+    final byte[] arrayX = new byte[k];
+    final byte[] arrayB = new byte[n];
+    final byte[][] values = new byte[n][chunks];
+    long overflowRetries = 0;
+    for (int chunk = 0 ; chunk < chunks ; chunk ++) {
+      DistributeBaseEngine.getNextKBytes(obfData, chunk * k, arrayX);
+      overflowRetries += DistributeBaseEngine.resolvePolynomialForAllShadowNumbers(matrixA, arrayX,
+          MODULUS, arrayB);
+      for (int s = 0 ; s < n ; s ++) {
+        values[s][chunk] = arrayB[s];
+      }
+    }
+    // Hide the values in the share region of each shadow, modifying only the LSBs
+    final long embedStart = System.nanoTime();
+    for (int s = 0 ; s < n ; s ++) {
+      final Path path = pathsToShadows.get(s);
+      final long position = ContainerService.getRegionPosition(channelService, path, entry);
+      final byte[] region = channelService.read(path, position, chunks * Byte.SIZE);
+      BMPService.putValuesInLSB(region, values[s], 0, chunks, 0);
+      channelService.write(path, position, region);
+    }
+    final long embedEnd = System.nanoTime();
+    InstrumentationService.recordElapsed(Phase.EVALUATE, embedStart - evaluateStart,
+        obfData.length);
+    InstrumentationService.recordElapsed(Phase.EMBED, embedEnd - embedStart, (long) chunks * n);
+    InstrumentationService.count(Counter.OVERFLOW_RETRIES, overflowRetries);
+    InstrumentationService.set(Counter.SHADOWS, n);
+    InstrumentationService.set(Counter.CHUNKS, chunks);
+    InstrumentationService.set(Counter.SECRET_BYTES, entry.getLength());
+    InstrumentationService.set(Counter.BYTES_PER_SHADOW, chunks);
+  }
+}
@@ -2,14 +2,94 @@ package ar.edu.itba.cryptography.main_programs.programs.distribute;
 
 import static ar.edu.itba.cryptography.services.BMPIOService.OpenMode.INPUT;
 
+import ar.edu.itba.cryptography.helpers.CompressionHelper;
+import ar.edu.itba.cryptography.helpers.DigestHelper;
+import ar.edu.itba.cryptography.interfaces.ByteSource;
 import ar.edu.itba.cryptography.services.BMPIOService;
+import ar.edu.itba.cryptography.services.BMPService;
+import ar.edu.itba.cryptography.services.SegmentedBuffer;
 import java.nio.file.Path;
 
 public class DistributeCustomAlgorithm extends DistributeBaseAlgorithm {
+  private final boolean compress;
+  private final boolean digests;
+
+  public DistributeCustomAlgorithm() {
+    this(false);
+  }
+
+  /**
+   * @param compress true if the bmp bytes should be deflate-compressed before being distributed
+   */
+  public DistributeCustomAlgorithm(final boolean compress) {
+    this(compress, false);
+  }
+
+  /**
+   * @param compress true if the bmp bytes should be deflate-compressed before being distributed
+   * @param digests true if the digests of the secret blocks should be embedded after them (see
+   *                {@link DigestHelper})
+   */
+  public DistributeCustomAlgorithm(final boolean compress, final boolean digests) {
+    this.compress = compress;
+    this.digests = digests;
+  }
 
   @Override
-  public byte[] getSecretBytes(final BMPIOService bmpIOService, final Path pathToSecret) {
-    // Return all the bmp bytes
+  public byte[] getSecretBytes(final BMPIOService bmpIOService, final Path pathToSecret,
+      final int k) {
+    // Return all the bmp bytes (compressed once the seed & the shadow numbers are known)
     return bmpIOService.getBmp(pathToSecret, INPUT);
   }
+
+  @Override
+  byte[] encodeSecretBytes(final byte[] data, final int k, final char seed,
+      final int[] shadowNumbers) {
+    if (compress) {
+      // Payload size is padded to a multiple of k
+      return CompressionHelper.deflate(data, k, seed, shadowNumbers);
+    }
+    return data;
+  }
+
+  @Override
+  SegmentedBuffer getSecretBuffer(final BMPIOService bmpIOService, final Path pathToSecret,
+      final int k) {
+    // The whole image, which may be beyond 2 GB
+    return bmpIOService.getBmpBuffer(pathToSecret, INPUT);
+  }
+
+  @Override
+  ByteSource encodeSecretBuffer(final SegmentedBuffer data, final int k, final char seed,
+      final int[] shadowNumbers) {
+    if (compress) {
+      // Compressed & laid out as it is read, tile by tile
+      return new CompressionHelper.Encoder(data, k, seed, shadowNumbers);
+    }
+    return data;
+  }
+
+  @Override
+  boolean embedsDigests() {
+    return digests;
+  }
+
+  @Override
+  char getShadowNumberFlags() {
+    return digests ? BMPService.DIGESTS_SHADOW_FLAG : 0;
+  }
+
+  @Override
+  void releaseSecretBuffer(final SegmentedBuffer data) {
+    // The image of the secret, released once it is closed
+  }
+
+  @Override
+  void releaseSecretBytes(final byte[] data) {
+    // Unless compressed, the secret bytes are the image of the secret, released once it is closed.
+    // Otherwise, they are the compressed payload
+    if (compress) {
+      super.releaseSecretBytes(data);
+    }
+  }
 }
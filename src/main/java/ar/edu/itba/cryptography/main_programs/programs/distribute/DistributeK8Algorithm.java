@@ -1,37 +1,80 @@
 package ar.edu.itba.cryptography.main_programs.programs.distribute;
 
 import static ar.edu.itba.cryptography.services.BMPIOService.OpenMode.INPUT;
-import static ar.edu.itba.cryptography.services.BMPIOService.OpenMode.OUTPUT;
 import static ar.edu.itba.cryptography.services.IOService.ExitStatus.K8_MISMATCHING_SIZE;
+import static ar.edu.itba.cryptography.services.IOService.ExitStatus.VALIDATION_FAILED;
 
+import ar.edu.itba.cryptography.helpers.InterlaceHelper;
 import ar.edu.itba.cryptography.services.BMPIOService;
 import ar.edu.itba.cryptography.services.BMPService;
+import ar.edu.itba.cryptography.services.BufferPoolService;
 import ar.edu.itba.cryptography.services.IOService;
+import ar.edu.itba.cryptography.services.SegmentedBuffer;
 import java.nio.file.Path;
 import java.util.List;
+import java.util.function.Function;
 
 public class DistributeK8Algorithm extends DistributeBaseAlgorithm {
+  private final boolean interlaced;
+
+  /**
+   * @param interlaced whether the pixel data is distributed in interlaced order (see
+   *                   {@link InterlaceHelper}), so as a preview of the secret can be retrieved
+   *                   from the first chunks only
+   */
+  public DistributeK8Algorithm(final boolean interlaced) {
+    this.interlaced = interlaced;
+  }
 
   @Override
-  public byte[] getSecretBytes(final BMPIOService bmpIOService, final Path pathToSecret) {
+  public byte[] getSecretBytes(final BMPIOService bmpIOService, final Path pathToSecret,
+      final int k) {
     // Extract the data bytes only
-    return bmpIOService.getDataBytes(pathToSecret, INPUT);
+    final byte[] data = bmpIOService.getDataBytes(pathToSecret, INPUT);
+    if (!interlaced) {
+      return data;
+    }
+    final byte[] header = bmpIOService.getHeaderBytesOf(pathToSecret, INPUT);
+    if (!InterlaceHelper.canInterlace(header, data.length)) {
+      IOService.exit(VALIDATION_FAILED, "Only the pixel data of images with whole byte pixels "
+          + "can be interlaced. Bits per pixel: " + (BMPService.getBitsPerPixel(header) & 0xFFFF));
+    }
+    final byte[] interlacedData = InterlaceHelper.interlace(data, header);
+    BufferPoolService.release(data);
+    return interlacedData;
+  }
+
+  @Override
+  SegmentedBuffer getSecretBuffer(final BMPIOService bmpIOService, final Path pathToSecret,
+      final int k) {
+    if (interlaced) {
+      return super.getSecretBuffer(bmpIOService, pathToSecret, k);
+    }
+    // A view of the pixel data (instead of a copy), so as it may be beyond 2 GB
+    return bmpIOService.getDataBuffer(pathToSecret, INPUT);
+  }
+
+  @Override
+  char getShadowNumberFlags() {
+    return interlaced ? BMPService.INTERLACED_SHADOW_FLAG : 0;
   }
 
   @Override
-  void validateParameters(final BMPIOService bmpIOService, final List<Path> pathsToShadows,
-      final int k, final byte[] data, final Path pathToSecret) {
+  void validateParameters(final BMPIOService bmpIOService,
+      final Function<Path, byte[]> shadowHeaders, final List<Path> pathsToShadows, final int k,
+      final long length, final Path pathToSecret) {
     final byte[] secretHeaderBytes = bmpIOService.getHeaderBytesOf(pathToSecret, INPUT);
     final int width = BMPService.getHorizontalWidthInPixels(secretHeaderBytes);
     final int height = BMPService.getVerticalWidthInPixels(secretHeaderBytes);
     for (final Path path : pathsToShadows) {
-      final byte[] shadowHeaderBytes = bmpIOService.getHeaderBytesOf(path, OUTPUT);
+      final byte[] shadowHeaderBytes = shadowHeaders.apply(path);
       final int shadowWidth = BMPService.getHorizontalWidthInPixels(shadowHeaderBytes);
       final int shadowHeight = BMPService.getVerticalWidthInPixels(shadowHeaderBytes);
       if (shadowWidth != width || shadowHeight != height) {
         IOService.exit(K8_MISMATCHING_SIZE, path);
       }
     }
-    super.validateParameters(bmpIOService, pathsToShadows, k, data, pathToSecret);
+    super.validateParameters(bmpIOService, shadowHeaders, pathsToShadows, k, length,
+        pathToSecret);
   }
 }
@@ -0,0 +1,303 @@
+package ar.edu.itba.cryptography.main_programs.programs.distribute;
+
+import static ar.edu.itba.cryptography.services.IOService.ExitStatus.BAD_FILE_FORMAT;
+
+import ar.edu.itba.cryptography.helpers.CompressionHelper;
+import ar.edu.itba.cryptography.helpers.MatrixHelper;
+import ar.edu.itba.cryptography.helpers.ObfuscatorHelper;
+import ar.edu.itba.cryptography.helpers.ObfuscatorHelper.Keystream;
+import ar.edu.itba.cryptography.interfaces.ByteSource;
+import ar.edu.itba.cryptography.interfaces.DistributeAlgorithm;
+import ar.edu.itba.cryptography.services.BMPChannelService;
+import ar.edu.itba.cryptography.services.BMPIOService;
+import ar.edu.itba.cryptography.services.BMPService;
+import ar.edu.itba.cryptography.services.InstrumentationService;
+import ar.edu.itba.cryptography.services.InstrumentationService.Counter;
+import ar.edu.itba.cryptography.services.InstrumentationService.Phase;
+import ar.edu.itba.cryptography.services.IOService;
+import ar.edu.itba.cryptography.services.JournalService;
+import ar.edu.itba.cryptography.services.PNGService;
+import ar.edu.itba.cryptography.services.PipelineService;
+import ar.edu.itba.cryptography.services.SegmentedBuffer;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Distributes a secret as the given algorithm does (same secret bytes, validations, shadow
+ * numbers & resulting shadows), but through a staged pipeline (see {@link PipelineService}),
+ * tile by tile:
+ * <pre>
+ * read -> obfuscate -> evaluate -> embed -> write
+ * </pre>
+ * Each shadow is accessed with positional reads & writes of the region where the tile is hidden
+ * (they are not loaded in memory as a whole), so reading the covers & writing the shadows
+ * overlap with the obfuscation & the evaluation of the polynomials.<p>
+ * If journaled, the shadows are written into copies of the covers, and a checkpoint is saved
+ * every {@value #CHECKPOINT_TILES} tiles (see {@link JournalService}), so as a distribution that
+ * dies halfway resumes from its last checkpoint, with the same seed & shadow numbers.<p>
+ * The secret is only accessed tile by tile as well (see {@link SegmentedBuffer}), so as secrets &
+ * shadows beyond 2 GB (up to the 4 GB of the unsigned size field of the bmp header) are supported.
+ * A compressed secret is deflated & laid out as its tiles are read (see
+ * {@link CompressionHelper.Encoder}).
+ */
+public class DistributePipelineAlgorithm implements DistributeAlgorithm {
+  private static final int MODULUS = 257;
+  /**
+   * Amount of chunks of each tile, i.e., of values hidden into each shadow region at once
+   */
+  private static final int TILE_CHUNKS = 4096;
+  /**
+   * Amount of tiles each queue between two stages can hold
+   */
+  private static final int QUEUE_CAPACITY = 2;
+  /**
+   * Amount of stages of the pipeline (see {@link #run})
+   */
+  private static final int STAGES = 5;
+  /**
+   * Amount of tiles written between two checkpoints of a journaled distribution
+   */
+  private static final int CHECKPOINT_TILES = 16;
+
+  private final DistributeBaseAlgorithm algorithm;
+  private final boolean journaled;
+
+  /**
+   * @param algorithm the algorithm whose secret bytes, validations & shadow numbers are used
+   */
+  public DistributePipelineAlgorithm(final DistributeBaseAlgorithm algorithm) {
+    this(algorithm, false);
+  }
+
+  /**
+   * @param algorithm the algorithm whose secret bytes, validations & shadow numbers are used
+   * @param journaled true if the distribution should be journaled, so as it can be resumed
+   */
+  public DistributePipelineAlgorithm(final DistributeBaseAlgorithm algorithm,
+      final boolean journaled) {
+    this.algorithm = algorithm;
+    this.journaled = journaled;
+  }
+
+  /**
+   * @param pathsToShadows the n shadows. They should NOT have been opened using the bmpIOService
+   */
+  @Override
+  public void run(final BMPIOService bmpIOService, final Path pathToSecret,
+      final List<Path> pathsToCovers, final int k) {
+    // Same seed generation & shadow numbers as the given algorithm. A resumed distribution keeps
+    // its seed, so as the secret bytes are laid out exactly as they were
+    final Character journaledSeed = journaled ? JournalService.findSeed(pathsToCovers) : null;
+    final char seed = journaledSeed != null ? journaledSeed : ObfuscatorHelper.generateSeed();
+    final SegmentedBuffer secret = algorithm.getSecretBuffer(bmpIOService, pathToSecret, k);
+    final ByteSource data = algorithm.encodeSecretBuffer(secret, k, seed,
+        DistributeBaseAlgorithm.getShadowNumbers(pathsToCovers.size()));
+    // Each shadow holds a value per chunk in up to 4 GB => the chunks always fit in an int
+    final int totalChunks = (int) Math.min(data.size() / k, Integer.MAX_VALUE);
+    // Validated before any journal is started, so as an invalid distribution leaves no copies
+    for (final Path path : pathsToCovers) {
+      if (PNGService.isPNGFile(path)) { // compressed => values cannot be written in place
+        IOService.exit(BAD_FILE_FORMAT, path);
+      }
+    }
+    algorithm.validateParameters(bmpIOService, BMPChannelService::readHeaderBytes, pathsToCovers,
+        k, data.size(), pathToSecret);
+    final JournalService journal = journaled ? JournalService.start(pathsToCovers, secret,
+        data.size(), k, algorithm.getShadowNumberFlags(), seed) : null;
+    if (journal != null && journal.isCommitting()) {
+      // All the chunks were hidden => only the remaining covers should be replaced
+      IOService.print("Resuming the commit of the distribution journaled at "
+          + journal.getCheckpointPath());
+      journal.commit();
+      algorithm.releaseSecretBuffer(secret);
+      return;
+    }
+    final List<Path> pathsToShadows = journal != null ? journal.getPartPaths() : pathsToCovers;
+    final int firstChunk = journal != null ? journal.getCompletedChunks() : 0;
+    if (firstChunk > 0) {
+      IOService.print("Resuming the distribution journaled at " + journal.getCheckpointPath()
+          + " from chunk " + firstChunk + " of " + totalChunks);
+    }
+    final BMPChannelService channelService = new BMPChannelService();
+    channelService.openBmpFiles(pathsToShadows);
+    final int n = pathsToShadows.size();
+    final int[][] matrixA = initializeMatrix(channelService, pathsToShadows, k);
+    final long[] offsets = new long[n];
+    for (int s = 0 ; s < n ; s++) {
+      offsets[s] = channelService.getBitmapOffset(pathsToShadows.get(s));
+    }
+    final Keystream keystream = new Keystream(seed);
+    keystream.skip((long) firstChunk * k); // the obfuscation of the already hidden chunks
+    final ShadowMajorDistributeEngine engine = new ShadowMajorDistributeEngine(TILE_CHUNKS);
+    final long[] overflowRetries = new long[1]; // only updated by the evaluate stage
+    final int[] writtenTiles = new int[1]; // only updated by the write stage
+    new PipelineService<Tile>(QUEUE_CAPACITY)
+        .addStage("read", tile -> {
+          tile.regions = new byte[n][];
+          for (int s = 0 ; s < n ; s++) {
+            tile.regions[s] = channelService.read(pathsToShadows.get(s),
+                offsets[s] + (long) tile.firstChunk * Byte.SIZE, tile.chunks * Byte.SIZE);
+          }
+        })
+        .addStage("obfuscate", tile -> {
+          tile.obfData = new byte[tile.chunks * k];
+          data.get((long) tile.firstChunk * k, tile.obfData, 0, tile.obfData.length);
+          keystream.toggle(tile.obfData);
+        })
+        .addStage("evaluate", tile -> {
+          final long evaluateStart = InstrumentationService.start();
+          tile.evaluations = new byte[n * tile.chunks];
+          overflowRetries[0] += engine.evaluateTile(tile.obfData, 0, tile.chunks, matrixA, k,
+              MODULUS, tile.evaluations, tile.chunks);
+          InstrumentationService.record(Phase.EVALUATE, evaluateStart, tile.obfData.length);
+        })
+        .addStage("embed", tile -> {
+          final long embedStart = InstrumentationService.start();
+          for (int s = 0 ; s < n ; s++) {
+            BMPService.putValuesInLSB(tile.regions[s], tile.evaluations, s * tile.chunks,
+                tile.chunks, 0);
+          }
+          InstrumentationService.record(Phase.EMBED, embedStart, (long) tile.chunks * n);
+        })
+        .addStage("write", tile -> {
+          for (int s = 0 ; s < n ; s++) {
+            channelService.write(pathsToShadows.get(s),
+                offsets[s] + (long) tile.firstChunk * Byte.SIZE, tile.regions[s]);
+          }
+          tile.regions = null; // the tile is done => release its buffers
+          tile.obfData = null;
+          tile.evaluations = null;
+          // Tiles are written in order => all the chunks up to this tile are hidden
+          if (journal != null && ++writtenTiles[0] % CHECKPOINT_TILES == 0) {
+            journal.checkpoint(channelService, tile.firstChunk + tile.chunks);
+          }
+        })
+        .run(new TileIterator(firstChunk, totalChunks));
+    // Save the seed & the shadow number in all shadows
+    for (final Path path : pathsToShadows) {
+      channelService.setSeed(path, seed);
+      channelService.writeHeader(path);
+    }
+    channelService.closeBmpFiles(pathsToShadows);
+    if (journal != null) {
+      journal.commit();
+    }
+    final int bytesPerShadow = totalChunks;
+    InstrumentationService.count(Counter.OVERFLOW_RETRIES, overflowRetries[0]);
+    InstrumentationService.set(Counter.SHADOWS, n);
+    InstrumentationService.set(Counter.CHUNKS, bytesPerShadow);
+    InstrumentationService.set(Counter.SECRET_BYTES, data.size());
+    InstrumentationService.set(Counter.BYTES_PER_SHADOW, bytesPerShadow);
+    // Read a sample of the chunks back from the written shadows, if requested
+    final DistributeVerifier verifier = algorithm.getVerifier();
+    if (verifier != null) {
+      verifier.verify(pathsToCovers, matrixA, k, totalChunks, seed,
+          new ObfuscatedChunkSource(data, k, seed));
+    }
+    algorithm.releaseSecretBuffer(secret);
+  }
+
+  /**
+   * @param totalChunks the amount of chunks of the secret
+   * @param n the amount of shadows
+   * @param k the chunk size
+   * @return the maximum amount of bytes held at the same time by the tiles in flight
+   */
+  public static long getInFlightBytes(final int totalChunks, final int n, final int k) {
+    final long chunks = Math.min(totalChunks,
+        (long) PipelineService.getMaxItemsInFlight(STAGES, QUEUE_CAPACITY) * TILE_CHUNKS);
+    // Shadow regions (8 bytes per value) + obfuscated data + evaluations
+    return chunks * ((long) n * Byte.SIZE + k + n);
+  }
+
+  /**
+   * Same matrix & shadow numbers as the ones of {@link DistributeBaseAlgorithm}: the i-th shadow
+   * takes the shadow number i + 1 and the i-th row
+   */
+  private int[][] initializeMatrix(final BMPChannelService channelService,
+      final List<Path> pathsToShadows, final int k) {
+    final int n = pathsToShadows.size();
+    final char flags = algorithm.getShadowNumberFlags();
+    final int[][] matrix = new int[n][k];
+    for (int row = 0 ; row < n ; row ++) {
+      final char x = (char) (row + 1);
+      channelService.setShadowNumber(pathsToShadows.get(row), (char) (x | flags));
+      for (int col = 0 ; col < k ; col ++) {
+        matrix[row][col] = MatrixHelper.getCoefficient(x, col, MODULUS);
+      }
+    }
+    return matrix;
+  }
+
+  /**
+   * Obfuscates the sampled chunks on the fly, as the secret is not obfuscated as a whole (nor laid
+   * out as a whole, if it is compressed)
+   */
+  private class ObfuscatedChunkSource implements DistributeVerifier.ChunkSource {
+    private final ByteSource data;
+    private final int k;
+    private final Keystream keystream;
+    /**
+     * Position of the keystream in the data
+     */
+    private long position;
+
+    private ObfuscatedChunkSource(final ByteSource data, final int k, final char seed) {
+      this.data = data;
+      this.k = k;
+      this.keystream = new Keystream(seed);
+    }
+
+    @Override
+    public void getChunk(final int chunk, final byte[] arrayX) {
+      final long from = (long) chunk * k;
+      keystream.skip(from - position);
+      data.get(from, arrayX, 0, k);
+      keystream.toggle(arrayX);
+      position = from + k;
+    }
+  }
+
+  private static class Tile {
+    private final int firstChunk;
+    private final int chunks;
+    private byte[][] regions;
+    private byte[] obfData;
+    private byte[] evaluations;
+
+    private Tile(final int firstChunk, final int chunks) {
+      this.firstChunk = firstChunk;
+      this.chunks = chunks;
+    }
+  }
+
+  /**
+   * Creates the tiles lazily, so as only the ones in flight are kept in memory
+   */
+  private static class TileIterator implements Iterator<Tile> {
+    private final int totalChunks;
+    private int nextChunk;
+
+    private TileIterator(final int firstChunk, final int totalChunks) {
+      this.totalChunks = totalChunks;
+      this.nextChunk = firstChunk;
+    }
+
+    @Override
+    public boolean hasNext() {
+      return nextChunk < totalChunks;
+    }
+
+    @Override
+    public Tile next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      final Tile tile = new Tile(nextChunk, Math.min(TILE_CHUNKS, totalChunks - nextChunk));
+      nextChunk += tile.chunks;
+      return tile;
+    }
+  }
+}
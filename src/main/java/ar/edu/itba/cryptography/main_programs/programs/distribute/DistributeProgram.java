@@ -1,9 +1,20 @@
 package ar.edu.itba.cryptography.main_programs.programs.distribute;
 
+import static ar.edu.itba.cryptography.helpers.InputArgsHelper.InputArgs.COMPRESS;
+import static ar.edu.itba.cryptography.helpers.InputArgsHelper.InputArgs.DIGESTS;
 import static ar.edu.itba.cryptography.helpers.InputArgsHelper.InputArgs.IMAGES_DIR;
+import static ar.edu.itba.cryptography.helpers.InputArgsHelper.InputArgs.INTERLACE;
+import static ar.edu.itba.cryptography.helpers.InputArgsHelper.InputArgs.JOURNAL;
 import static ar.edu.itba.cryptography.helpers.InputArgsHelper.InputArgs.K;
 import static ar.edu.itba.cryptography.helpers.InputArgsHelper.InputArgs.N;
+import static ar.edu.itba.cryptography.helpers.InputArgsHelper.InputArgs.OLD_SECRET;
+import static ar.edu.itba.cryptography.helpers.InputArgsHelper.InputArgs.OUTPUT_DIR;
+import static ar.edu.itba.cryptography.helpers.InputArgsHelper.InputArgs.PIPELINE;
+import static ar.edu.itba.cryptography.helpers.InputArgsHelper.InputArgs.PLAN;
 import static ar.edu.itba.cryptography.helpers.InputArgsHelper.InputArgs.SECRET;
+import static ar.edu.itba.cryptography.helpers.InputArgsHelper.InputArgs.SECRET_ID;
+import static ar.edu.itba.cryptography.helpers.InputArgsHelper.InputArgs.UPDATE;
+import static ar.edu.itba.cryptography.helpers.InputArgsHelper.InputArgs.VERIFY;
 import static ar.edu.itba.cryptography.services.BMPIOService.OpenMode.INPUT;
 import static ar.edu.itba.cryptography.services.BMPIOService.OpenMode.OUTPUT;
 import static ar.edu.itba.cryptography.services.IOService.ExitStatus.VALIDATION_FAILED;
@@ -14,12 +25,16 @@ import ar.edu.itba.cryptography.interfaces.DistributeAlgorithm;
 import ar.edu.itba.cryptography.interfaces.MainProgram;
 import ar.edu.itba.cryptography.services.BMPIOService;
 import ar.edu.itba.cryptography.services.IOService;
+import ar.edu.itba.cryptography.services.IOService.ExitStatus;
 import java.nio.file.FileSystems;
 import java.nio.file.Path;
 import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 
 public class DistributeProgram implements MainProgram {
   private static final int STANDARD_K_VALUE = 8;
@@ -30,13 +45,38 @@ public class DistributeProgram implements MainProgram {
   private final int k;
   private final List<Path> pathsToShadows;
   private final BMPIOService bmpIOService;
+  private final boolean compress;
+  private final boolean update;
+  private final boolean interlace;
+  private final boolean pipeline;
+  private final boolean digests;
+  private final boolean journal;
+  @SuppressWarnings("OptionalUsedAsFieldOrParameterType")
+  private final Optional<Path> pathToOldSecret;
+  @SuppressWarnings("OptionalUsedAsFieldOrParameterType")
+  private final Optional<Integer> secretId;
+  @SuppressWarnings("OptionalUsedAsFieldOrParameterType")
+  private final Optional<Integer> verifiedChunks;
 
+  @SuppressWarnings("OptionalUsedAsFieldOrParameterType")
   private DistributeProgram(final Path pathToSecret, final int k,
-      final List<Path> pathsToShadows, final BMPIOService bmpIOService) {
+      final List<Path> pathsToShadows, final BMPIOService bmpIOService, final boolean compress,
+      final boolean update, final boolean interlace, final boolean pipeline,
+      final boolean digests, final boolean journal, final Optional<Path> pathToOldSecret,
+      final Optional<Integer> secretId, final Optional<Integer> verifiedChunks) {
     this.pathToSecret = pathToSecret;
     this.k = k;
     this.pathsToShadows = pathsToShadows;
     this.bmpIOService = bmpIOService;
+    this.compress = compress;
+    this.update = update;
+    this.interlace = interlace;
+    this.pipeline = pipeline;
+    this.digests = digests;
+    this.journal = journal;
+    this.pathToOldSecret = pathToOldSecret;
+    this.secretId = secretId;
+    this.verifiedChunks = verifiedChunks;
   }
 
   public static MainProgram build(final Map<InputArgs, String> parsedArgs) {
@@ -44,9 +84,90 @@ public class DistributeProgram implements MainProgram {
     final String kString = InputArgsHelper.validateArgAccess(parsedArgs, K, true);
     final String nString = InputArgsHelper.validateArgAccess(parsedArgs, N, false);
     final String dirString = InputArgsHelper.validateArgAccess(parsedArgs, IMAGES_DIR, false);
-    final BMPIOService bmpIOService = new BMPIOService();
+    final boolean compress = InputArgsHelper.isFlagSet(parsedArgs, COMPRESS);
+    final boolean update = InputArgsHelper.isFlagSet(parsedArgs, UPDATE);
+    final boolean interlace = InputArgsHelper.isFlagSet(parsedArgs, INTERLACE);
+    final boolean journal = InputArgsHelper.isFlagSet(parsedArgs, JOURNAL);
+    // A journaled distribution is written through the pipeline
+    final boolean pipeline = journal || InputArgsHelper.isFlagSet(parsedArgs, PIPELINE);
+    final boolean digests = InputArgsHelper.isFlagSet(parsedArgs, DIGESTS);
+    final boolean plan = InputArgsHelper.isFlagSet(parsedArgs, PLAN);
+    final String oldSecret = InputArgsHelper.validateArgAccess(parsedArgs, OLD_SECRET, false);
+    final String secretIdString = InputArgsHelper.validateArgAccess(parsedArgs, SECRET_ID, false);
+    final String outString = InputArgsHelper.validateArgAccess(parsedArgs, OUTPUT_DIR, false);
+    final String verifyString = InputArgsHelper.validateArgAccess(parsedArgs, VERIFY, false);
+    if (update && (compress || nString != null)) {
+      // All the shadows of the share set are updated, keeping the way they were distributed
+      IOService.exit(ExitStatus.BAD_ARGUMENT, UPDATE.getType() + " cannot be used with "
+          + COMPRESS.getType() + " nor " + N.getDescription());
+    }
+    if (!update && oldSecret != null) {
+      IOService.exit(ExitStatus.BAD_ARGUMENT, OLD_SECRET.getDescription() + " requires "
+          + UPDATE.getType());
+    }
+    if (secretIdString != null && (update || nString != null)) {
+      // A secret is added to all the shadows of a container, at the end of their share regions
+      IOService.exit(ExitStatus.BAD_ARGUMENT, SECRET_ID.getType() + " cannot be used with "
+          + UPDATE.getType() + " nor " + N.getDescription());
+    }
+    if (outString != null && (update || secretIdString != null)) {
+      // Both of them write only the modified regions of the existing shadows, in place
+      IOService.exit(ExitStatus.BAD_ARGUMENT, OUTPUT_DIR.getType() + " cannot be used with "
+          + UPDATE.getType() + " nor " + SECRET_ID.getType());
+    }
+    if (interlace && (update || secretIdString != null)) {
+      // An update keeps the layout the shadows were distributed with
+      IOService.exit(ExitStatus.BAD_ARGUMENT, INTERLACE.getType() + " cannot be used with "
+          + UPDATE.getType() + " nor " + SECRET_ID.getType());
+    }
+    if (pipeline && (update || secretIdString != null || outString != null)) {
+      // The pipeline distributes a whole secret into the shadows, in place
+      final InputArgs arg = journal ? JOURNAL : PIPELINE;
+      IOService.exit(ExitStatus.BAD_ARGUMENT, arg.getType() + " cannot be used with "
+          + UPDATE.getType() + ", " + SECRET_ID.getType() + " nor " + OUTPUT_DIR.getType());
+    }
+    if (digests && (update || secretIdString != null || pipeline)) {
+      // The digests are embedded when a whole secret is distributed into whole shadows
+      IOService.exit(ExitStatus.BAD_ARGUMENT, DIGESTS.getType() + " cannot be used with "
+          + UPDATE.getType() + ", " + SECRET_ID.getType() + ", " + PIPELINE.getType() + " nor "
+          + JOURNAL.getType());
+    }
+    if (verifyString != null && (update || secretIdString != null)) {
+      // Only the distribution of a whole secret into whole shadows is verified
+      IOService.exit(ExitStatus.BAD_ARGUMENT, VERIFY.getType() + " cannot be used with "
+          + UPDATE.getType() + " nor " + SECRET_ID.getType());
+    }
+    if (plan && (update || secretIdString != null)) {
+      // Both of them write into all the shadows of an existing share set
+      IOService.exit(ExitStatus.BAD_ARGUMENT, PLAN.getType() + " cannot be used with "
+          + UPDATE.getType() + " nor " + SECRET_ID.getType());
+    }
+    final Optional<Integer> secretId = Optional.ofNullable(secretIdString)
+        .map(id -> IOService.parseAsInt(id, SECRET_ID.getDescription()));
+    final Optional<Integer> verifiedChunks = Optional.ofNullable(verifyString)
+        .map(chunks -> IOService.parseAsInt(chunks, VERIFY.getDescription()));
+    if (verifiedChunks.isPresent() && verifiedChunks.get() <= 0) {
+      IOService.exit(ExitStatus.BAD_ARGUMENT, VERIFY.getDescription() + " should be positive");
+    }
+    final BMPIOService bmpIOService = BMPIOService.newInstance();
     final Path pathToInput = bmpIOService.openBmpFile(secret, INPUT);
     final int k = IOService.parseAsInt(kString, K.getDescription());
+    if (compress && k == STANDARD_K_VALUE && !secretId.isPresent()) {
+      // The k = 8 scheme only distributes the pixel data, using the shadows headers as the
+      // secret header => the payload cannot be replaced with a compressed one
+      IOService.exit(VALIDATION_FAILED, COMPRESS.getType() + " is not available for k = "
+          + STANDARD_K_VALUE);
+    }
+    if (digests && k == STANDARD_K_VALUE) {
+      // The k = 8 shadows are as large as the secret => there is no room left for the digests
+      IOService.exit(VALIDATION_FAILED, DIGESTS.getType() + " is not available for k = "
+          + STANDARD_K_VALUE);
+    }
+    if (interlace && k != STANDARD_K_VALUE) {
+      // Only the k = 8 scheme distributes the pixel data alone
+      IOService.exit(VALIDATION_FAILED, INTERLACE.getType() + " is only available for k = "
+          + STANDARD_K_VALUE);
+    }
     final Optional<Integer> n;
     if (nString != null) {
       n = Optional.of(IOService.parseAsInt(nString, N.getDescription()));
@@ -54,8 +175,37 @@ public class DistributeProgram implements MainProgram {
       n = Optional.empty();
     }
     final Optional<String> dir = Optional.ofNullable(dirString);
-    // n validation is performed inside the `bmpIOService.openBmpFilesFrom` method
-    final List<Path> pathsToShadows = bmpIOService.openBmpFilesFrom(dir, n, OUTPUT, pathToInput);
+    final List<Path> pathsToShadows;
+    final Optional<Path> pathToOldSecret;
+    if (update || secretId.isPresent()) {
+      // Shadows are only partially accessed when updating or adding a secret to a container =>
+      // they are not opened here
+      pathsToShadows = bmpIOService.findBmpFilesFrom(dir, pathToInput);
+      pathToOldSecret = Optional.ofNullable(oldSecret)
+          .map(path -> bmpIOService.openBmpFile(path, INPUT));
+    } else if (plan) {
+      // Only the headers of the covers are read to choose them => only the chosen ones are
+      // opened (unless distributed through the pipeline, which reads them region by region)
+      final CapacityPlanner planner =
+          new CapacityPlanner(bmpIOService.getHeaderBytesOf(pathToInput, INPUT), digests);
+      final List<Path> chosen =
+          planner.plan(bmpIOService.findBmpFilesFrom(dir, pathToInput), k, n);
+      pathsToShadows = pipeline ? chosen : bmpIOService.openBmpFiles(chosen, OUTPUT);
+      pathToOldSecret = Optional.empty();
+    } else if (pipeline) {
+      // The pipeline reads & writes the shadows region by region => they are not opened here
+      pathsToShadows = selectShadows(bmpIOService.findBmpFilesFrom(dir, pathToInput), n);
+      pathToOldSecret = Optional.empty();
+    } else {
+      // n validation is performed inside the `bmpIOService.openBmpFilesFrom` method
+      pathsToShadows = bmpIOService.openBmpFilesFrom(dir, n, OUTPUT, pathToInput);
+      pathToOldSecret = Optional.empty();
+    }
+    if (outString != null) {
+      // Covers are only read, and each shadow is written into the output directory
+      bmpIOService.setOutputDirectory(Paths.get(outString));
+      validateOutputPaths(bmpIOService, pathsToShadows, pathToInput);
+    }
     final int nShadows = pathsToShadows.size();
     if (nShadows > MAX_SHADOWS) {
       IOService.exit(VALIDATION_FAILED, "#shadows <= " + MAX_SHADOWS + ". #shadows = " + nShadows);
@@ -63,7 +213,43 @@ public class DistributeProgram implements MainProgram {
     if (k > nShadows || k < MIN_K_VALUE) {
       IOService.exit(VALIDATION_FAILED, MIN_K_VALUE + " <= k <= #shadows. #shadows = " + nShadows);
     }
-    return new DistributeProgram(pathToInput, k, pathsToShadows, bmpIOService);
+    return new DistributeProgram(pathToInput, k, pathsToShadows, bmpIOService, compress, update,
+        interlace, pipeline, digests, journal, pathToOldSecret, secretId, verifiedChunks);
+  }
+
+  /**
+   * Same selection as the one performed when opening the shadows: the first n found ones, if n
+   * is given, or all of them otherwise
+   */
+  @SuppressWarnings("OptionalUsedAsFieldOrParameterType")
+  private static List<Path> selectShadows(final List<Path> paths, final Optional<Integer> n) {
+    if (!n.isPresent()) {
+      return paths;
+    }
+    if (n.get() > paths.size()) {
+      IOService.exit(VALIDATION_FAILED, "There are not enough shadow files in "
+          + "the specified directory");
+    }
+    return paths.subList(0, Math.max(n.get(), 0));
+  }
+
+  /**
+   * Validates that no shadow would be written over one of the covers (nor over the secret)
+   */
+  private static void validateOutputPaths(final BMPIOService bmpIOService,
+      final List<Path> pathsToShadows, final Path pathToSecret) {
+    final Set<Path> inputPaths = new HashSet<>();
+    inputPaths.add(pathToSecret.toAbsolutePath().normalize());
+    for (final Path path : pathsToShadows) {
+      inputPaths.add(path.toAbsolutePath().normalize());
+    }
+    for (final Path path : pathsToShadows) {
+      final Path outputPath = bmpIOService.getOutputPath(path).toAbsolutePath().normalize();
+      if (inputPaths.contains(outputPath)) {
+        IOService.exit(ExitStatus.BAD_ARGUMENT, OUTPUT_DIR.getType() + " should not contain "
+            + "the covers nor the secret, but " + outputPath + " is one of them");
+      }
+    }
   }
 
   @Override
@@ -72,16 +258,37 @@ public class DistributeProgram implements MainProgram {
     final DistributeAlgorithm algorithm = chooseDistributeAlgorithm(this.k);
     // Distribute the secret among all the shadows using the correct algorithm
     algorithm.run(this.bmpIOService, this.pathToSecret, this.pathsToShadows, this.k);
-    // Close the secret file path
+    // Close the secret file paths
     bmpIOService.closeBmpFile(this.pathToSecret, INPUT);
+    pathToOldSecret.ifPresent(path -> bmpIOService.closeBmpFile(path, INPUT));
     // Close all the shadows files paths
     bmpIOService.closeBmpFiles(this.pathsToShadows, OUTPUT);
   }
 
   private DistributeAlgorithm chooseDistributeAlgorithm(final int k) {
+    if (pipeline) {
+      return new DistributePipelineAlgorithm(chooseLayoutAlgorithm(k), journal);
+    }
+    if (update) {
+      return new DistributeUpdateAlgorithm(pathToOldSecret);
+    }
+    if (secretId.isPresent()) {
+      return new DistributeContainerAlgorithm(secretId.get(), compress);
+    }
+    return chooseLayoutAlgorithm(k);
+  }
+
+  /**
+   * @return the algorithm that defines how a whole secret is laid out among the shadows
+   */
+  private DistributeBaseAlgorithm chooseLayoutAlgorithm(final int k) {
+    final DistributeBaseAlgorithm algorithm;
     if (k == STANDARD_K_VALUE) {
-      return new DistributeK8Algorithm();
+      algorithm = new DistributeK8Algorithm(interlace);
+    } else {
+      algorithm = new DistributeCustomAlgorithm(compress, digests);
     }
-    return new DistributeCustomAlgorithm();
+    verifiedChunks.ifPresent(chunks -> algorithm.setVerifier(new DistributeVerifier(chunks)));
+    return algorithm;
   }
 }
@@ -0,0 +1,338 @@
+package ar.edu.itba.cryptography.main_programs.programs.distribute;
+
+import static ar.edu.itba.cryptography.services.BMPIOService.OpenMode.INPUT;
+import static ar.edu.itba.cryptography.services.IOService.ExitStatus.K8_MISMATCHING_SIZE;
+import static ar.edu.itba.cryptography.services.IOService.ExitStatus.VALIDATION_FAILED;
+
+import ar.edu.itba.cryptography.helpers.ByteHelper;
+import ar.edu.itba.cryptography.helpers.CompressionHelper;
+import ar.edu.itba.cryptography.helpers.InterlaceHelper;
+import ar.edu.itba.cryptography.helpers.MatrixHelper;
+import ar.edu.itba.cryptography.helpers.ObfuscatorHelper;
+import ar.edu.itba.cryptography.interfaces.DistributeAlgorithm;
+import ar.edu.itba.cryptography.interfaces.RetrieveAlgorithm;
+import ar.edu.itba.cryptography.main_programs.programs.retrieve.RetrieveCustomAlgorithm;
+import ar.edu.itba.cryptography.main_programs.programs.retrieve.RetrieveK8Algorithm;
+import ar.edu.itba.cryptography.services.BMPChannelService;
+import ar.edu.itba.cryptography.services.BMPIOService;
+import ar.edu.itba.cryptography.services.BMPService;
+import ar.edu.itba.cryptography.services.BufferPoolService;
+import ar.edu.itba.cryptography.services.IOService;
+import ar.edu.itba.cryptography.services.InstrumentationService;
+import ar.edu.itba.cryptography.services.InstrumentationService.Counter;
+import ar.edu.itba.cryptography.services.InstrumentationService.Phase;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Updates the shadows of an already distributed secret with a new version of it, re-distributing
+ * only the k-byte chunks that changed.<p>
+ * The old secret is either the given one or the one retrieved from the first k shadows. The
+ * existing seed is kept, so each unchanged chunk keeps its polynomial, and each changed chunk is
+ * re-evaluated and hidden at its fixed position in each shadow, i.e., at
+ * {@code offset + chunkIndex * 8} (or 9, for wide shadows).<p>
+ * Shadows are accessed with positional reads & writes of the changed regions only
+ * (they are not opened with the given {@link BMPIOService}), so, if the old secret is given, the
+ * update cost scales with the changed area.
+ */
+public class DistributeUpdateAlgorithm implements DistributeAlgorithm {
+  private static final int STANDARD_K_VALUE = 8;
+  private static final int MODULUS = 257;
+  /**
+   * Max amount of consecutive changed chunks that are re-distributed at once
+   */
+  private static final int MAX_RUN_CHUNKS = 4096;
+
+  @SuppressWarnings("OptionalUsedAsFieldOrParameterType")
+  private final Optional<Path> pathToOldSecret;
+
+  /**
+   * @param pathToOldSecret the path to the old version of the secret (should have been opened
+   *                        using the bmpIOService in INPUT mode). If empty, it is retrieved from
+   *                        the shadows
+   */
+  @SuppressWarnings("OptionalUsedAsFieldOrParameterType")
+  public DistributeUpdateAlgorithm(final Optional<Path> pathToOldSecret) {
+    this.pathToOldSecret = pathToOldSecret;
+  }
+
+  /**
+   * @param pathsToShadows all the shadows of the share set. They should NOT have been opened
+   *                       using the bmpIOService
+   */
+  @Override
+  public void run(final BMPIOService bmpIOService, final Path pathToSecret,
+      final List<Path> pathsToShadows, final int k) {
+    final BMPChannelService channelService = new BMPChannelService();
+    channelService.openBmpFiles(pathsToShadows);
+    final char seed = getSeed(channelService, pathsToShadows);
+    // Get the secret bytes, as the distribute algorithm of the same k does
+    final byte[] data = getSecretBytes(bmpIOService, pathToSecret, k);
+    validateParameters(bmpIOService, channelService, pathToSecret, pathsToShadows, k, data, seed);
+    final byte[] oldData = getOldSecretBytes(bmpIOService, pathsToShadows, k, data.length);
+    if (oldData.length != data.length) {
+      IOService.exit(VALIDATION_FAILED, "The old secret should have the same size as the new one."
+          + " Old size: " + oldData.length + "; new size: " + data.length);
+    }
+    // Compare both versions in the order they were distributed in
+    final boolean interlaced =
+        k == STANDARD_K_VALUE && channelService.isInterlacedShadow(pathsToShadows.get(0));
+    final byte[] header = bmpIOService.getHeaderBytesOf(pathToSecret, INPUT);
+    final byte[] distributedData = interlaced ? interlace(data, header) : data;
+    final byte[] oldDistributedData = interlaced ? interlace(oldData, header) : oldData;
+    // Obfuscate the data bytes using the existing seed
+    final byte[] obfData = ObfuscatorHelper.toggleObfuscation(distributedData, seed);
+    updateChangedChunks(channelService, pathsToShadows, k, distributedData, oldDistributedData,
+        obfData);
+    BufferPoolService.release(obfData);
+    channelService.closeBmpFiles(pathsToShadows);
+  }
+
+  private byte[] getSecretBytes(final BMPIOService bmpIOService, final Path path, final int k) {
+    if (k == STANDARD_K_VALUE) {
+      return bmpIOService.getDataBytes(path, INPUT);
+    }
+    return bmpIOService.getBmp(path, INPUT);
+  }
+
+  private byte[] interlace(final byte[] data, final byte[] header) {
+    if (!InterlaceHelper.canInterlace(header, data.length)) {
+      IOService.exit(VALIDATION_FAILED, "The shadows hold an interlaced secret, but the pixel "
+          + "data of the new one cannot be interlaced");
+    }
+    return InterlaceHelper.interlace(data, header);
+  }
+
+  private char getSeed(final BMPChannelService channelService, final List<Path> pathsToShadows) {
+    final char seed = channelService.getSeed(pathsToShadows.get(0));
+    for (final Path path : pathsToShadows) {
+      if (channelService.getSeed(path) != seed) {
+        IOService.exit(VALIDATION_FAILED, "All shadows should belong to the same share set, but "
+            + path + " has a different seed");
+      }
+    }
+    return seed;
+  }
+
+  private void validateParameters(final BMPIOService bmpIOService,
+      final BMPChannelService channelService, final Path pathToSecret,
+      final List<Path> pathsToShadows, final int k, final byte[] data, final char seed) {
+    if (k == STANDARD_K_VALUE) {
+      final byte[] secretHeaderBytes = bmpIOService.getHeaderBytesOf(pathToSecret, INPUT);
+      final int width = BMPService.getHorizontalWidthInPixels(secretHeaderBytes);
+      final int height = BMPService.getVerticalWidthInPixels(secretHeaderBytes);
+      for (final Path path : pathsToShadows) {
+        final byte[] shadowHeaderBytes = channelService.getHeaderBytes(path);
+        if (BMPService.getHorizontalWidthInPixels(shadowHeaderBytes) != width
+            || BMPService.getVerticalWidthInPixels(shadowHeaderBytes) != height) {
+          IOService.exit(K8_MISMATCHING_SIZE, path);
+        }
+      }
+    } else {
+      // An update would not match the digests of the distributed secret anymore
+      for (final Path path : pathsToShadows) {
+        if (BMPService.hasDigests(channelService.getHeaderBytes(path))) {
+          IOService.exit(VALIDATION_FAILED, "Secrets distributed with digests cannot be updated");
+        }
+      }
+      // The distributed payload should be a plain secret of the same size (a compressed payload
+      // changes as a whole, so there is no point in updating it partially)
+      final byte[] nonObfHeaderChunk = solveHeaderChunk(channelService, pathsToShadows, k, seed);
+      if (CompressionHelper.isCompressed(nonObfHeaderChunk, k)) {
+        IOService.exit(VALIDATION_FAILED, "Compressed secrets cannot be updated");
+      }
+      final int distributedSize = RetrieveCustomAlgorithm.getSecretSize(nonObfHeaderChunk, k);
+      if (distributedSize != data.length) {
+        IOService.exit(VALIDATION_FAILED, "The new secret should have the same size as the "
+            + "distributed one. Distributed size: " + distributedSize + "; new size: "
+            + data.length);
+      }
+    }
+    if (data.length < k || data.length % k != 0) {
+      IOService.exit(VALIDATION_FAILED, "It should happen that secret.length >= k "
+          + "&& secret.length % k == 0. Current values: secret.length = " + data.length
+          + "; k = " + k);
+    }
+    final int chunks = data.length / k;
+    for (final Path path : pathsToShadows) {
+      final long requiredDataSize = (long) chunks * getBytesPerValue(channelService, path);
+      if (channelService.getDataSize(path) < requiredDataSize) {
+        IOService.exit(VALIDATION_FAILED, "Shadow " + path + " cannot hold " + chunks + " values");
+      }
+    }
+  }
+
+  /**
+   * Solves the first chunks of the distributed secret (as the retrieve program does) from the
+   * first k shadows, reading only the bytes where those chunks are hidden
+   * @return the solved chunks, with no obfuscation
+   */
+  private byte[] solveHeaderChunk(final BMPChannelService channelService,
+      final List<Path> pathsToShadows, final int k, final char seed) {
+    final int headerChunks = RetrieveCustomAlgorithm.getMinHeaderChunkSize(k) / k;
+    final int[] xs = new int[k];
+    final int[][] values = new int[headerChunks][k];
+    for (int i = 0 ; i < k ; i++) {
+      final Path path = pathsToShadows.get(i);
+      xs[i] = channelService.getShadowNumber(path);
+      final int bytesPerValue = getBytesPerValue(channelService, path);
+      final byte[] hidden = channelService.read(path, channelService.getBitmapOffset(path),
+          headerChunks * bytesPerValue);
+      for (int chunk = 0 ; chunk < headerChunks ; chunk++) {
+        values[chunk][i] = getHiddenValue(hidden, chunk * bytesPerValue, bytesPerValue);
+      }
+    }
+    final byte[] obfHeaderChunk = new byte[headerChunks * k];
+    for (int chunk = 0 ; chunk < headerChunks ; chunk++) {
+      final int[] coefficients = MatrixHelper.solvePolynomial(xs, values[chunk], MODULUS);
+      for (int col = 0 ; col < k ; col++) {
+        obfHeaderChunk[chunk * k + col] = ByteHelper.intToByte(coefficients[col]);
+      }
+    }
+    return ObfuscatorHelper.toggleObfuscation(obfHeaderChunk, seed);
+  }
+
+  private byte[] getOldSecretBytes(final BMPIOService bmpIOService,
+      final List<Path> pathsToShadows, final int k, final int dataLength) {
+    if (pathToOldSecret.isPresent()) {
+      return getSecretBytes(bmpIOService, pathToOldSecret.get(), k);
+    }
+    // Retrieve the old secret from the first k shadows.
+    // Note that chunks whose polynomial was adjusted because of overflow are retrieved with a
+    // slight difference, so they will be considered as changed (and re-distributed with the
+    // same result)
+    final List<Path> pathsToRetrieve = pathsToShadows.subList(0, k);
+    for (final Path path : pathsToRetrieve) {
+      bmpIOService.openBmpFile(path.toString(), INPUT);
+    }
+    final RetrieveAlgorithm retrieveAlgorithm = k == STANDARD_K_VALUE ? new RetrieveK8Algorithm()
+        : new RetrieveCustomAlgorithm();
+    final byte[] oldSecret = retrieveAlgorithm.run(bmpIOService, pathsToRetrieve);
+    bmpIOService.closeBmpFiles(pathsToRetrieve, INPUT);
+    if (k == STANDARD_K_VALUE) {
+      // Only the data bytes were distributed (the retrieved header is the one of a shadow, whose
+      // dimensions were already validated to be the ones of the secret)
+      return Arrays.copyOfRange(oldSecret, oldSecret.length - dataLength, oldSecret.length);
+    }
+    return oldSecret;
+  }
+
+  private void updateChangedChunks(final BMPChannelService channelService,
+      final List<Path> pathsToShadows, final int k, final byte[] data, final byte[] oldData,
+      final byte[] obfData) {
+    final int n = pathsToShadows.size();
+    final int chunks = data.length / k;
+    // Narrow shadows take part in the overflow check (as in a regular distribution), while
+    // wide ones can hold any evaluation
+    final int[][] narrowMatrix = buildMatrix(channelService, pathsToShadows, k, false);
+    final int[][] wideMatrix = buildMatrix(channelService, pathsToShadows, k, true);
+    final byte[] arrayX = new byte[k];
+    final byte[] arrayB = new byte[narrowMatrix.length];
+    final int[][] values = new int[n][MAX_RUN_CHUNKS];
+    long evaluateNanos = 0, embedNanos = 0, overflowRetries = 0, changedChunks = 0;
+    int chunk = 0;
+    while (chunk < chunks) {
+      if (!chunkChanged(data, oldData, chunk, k)) {
+        chunk ++;
+        continue;
+      }
+      // Evaluate the whole run of consecutive changed chunks
+      final long evaluateStart = System.nanoTime();
+      final int firstChunk = chunk;
+      while (chunk < chunks && chunk - firstChunk < MAX_RUN_CHUNKS
+          && chunkChanged(data, oldData, chunk, k)) {
+        DistributeBaseEngine.getNextKBytes(obfData, chunk * k, arrayX);
+        overflowRetries += DistributeBaseEngine.resolvePolynomialForAllShadowNumbers(narrowMatrix,
+            arrayX, MODULUS, arrayB);
+        int narrowRow = 0, wideRow = 0;
+        for (int s = 0 ; s < n ; s++) {
+          final int value;
+          if (channelService.isWideShadow(pathsToShadows.get(s))) {
+            value = evaluate(wideMatrix[wideRow++], arrayX);
+          } else {
+            value = ByteHelper.byteToUnsignedInt(arrayB[narrowRow++]);
+          }
+          values[s][chunk - firstChunk] = value;
+        }
+        chunk ++;
+      }
+      final int runChunks = chunk - firstChunk;
+      changedChunks += runChunks;
+      // Hide the run at its fixed position in each shadow
+      final long embedStart = System.nanoTime();
+      for (int s = 0 ; s < n ; s++) {
+        embedRun(channelService, pathsToShadows.get(s), values[s], firstChunk, runChunks);
+      }
+      embedNanos += System.nanoTime() - embedStart;
+      evaluateNanos += embedStart - evaluateStart;
+    }
+    InstrumentationService.recordElapsed(Phase.EVALUATE, evaluateNanos, changedChunks * k);
+    InstrumentationService.recordElapsed(Phase.EMBED, embedNanos, changedChunks * n);
+    InstrumentationService.count(Counter.OVERFLOW_RETRIES, overflowRetries);
+    InstrumentationService.set(Counter.SHADOWS, n);
+    InstrumentationService.set(Counter.CHUNKS, changedChunks);
+    InstrumentationService.set(Counter.SECRET_BYTES, data.length);
+    InstrumentationService.set(Counter.BYTES_PER_SHADOW, changedChunks);
+  }
+
+  private void embedRun(final BMPChannelService channelService, final Path path,
+      final int[] values, final int firstChunk, final int runChunks) {
+    final int bytesPerValue = getBytesPerValue(channelService, path);
+    final long position = channelService.getBitmapOffset(path) + (long) firstChunk * bytesPerValue;
+    // Read the region first, so as only the LSBs are modified
+    final byte[] region = channelService.read(path, position, runChunks * bytesPerValue);
+    for (int i = 0 ; i < runChunks ; i++) {
+      if (bytesPerValue == BMPService.WIDE_VALUE_BITS) {
+        BMPService.putWideValueInLSB(region, values[i], i * bytesPerValue);
+      } else {
+        BMPService.putValueInLSB(region, (byte) values[i], i * bytesPerValue);
+      }
+    }
+    channelService.write(path, position, region);
+  }
+
+  private boolean chunkChanged(final byte[] data, final byte[] oldData, final int chunk,
+      final int k) {
+    for (int i = chunk * k ; i < (chunk + 1) * k ; i++) {
+      if (data[i] != oldData[i]) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private int[][] buildMatrix(final BMPChannelService channelService,
+      final List<Path> pathsToShadows, final int k, final boolean wide) {
+    return pathsToShadows.stream()
+        .filter(path -> channelService.isWideShadow(path) == wide)
+        .map(path -> {
+          final int x = channelService.getShadowNumber(path);
+          final int[] row = new int[k];
+          for (int col = 0 ; col < k ; col ++) {
+            row[col] = MatrixHelper.getCoefficient(x, col, MODULUS);
+          }
+          return row;
+        }).toArray(int[][]::new);
+  }
+
+  private int evaluate(final int[] row, final byte[] arrayX) {
+    long sum = 0;
+    for (int col = 0 ; col < row.length ; col++) {
+      sum += row[col] * ByteHelper.byteToUnsignedInt(arrayX[col]);
+    }
+    return (int) (sum % MODULUS);
+  }
+
+  private int getBytesPerValue(final BMPChannelService channelService, final Path path) {
+    return channelService.isWideShadow(path) ? BMPService.WIDE_VALUE_BITS : Byte.SIZE;
+  }
+
+  private int getHiddenValue(final byte[] hidden, final int position, final int bytesPerValue) {
+    if (bytesPerValue == BMPService.WIDE_VALUE_BITS) {
+      return BMPService.getWideValueInLSB(hidden, position);
+    }
+    return ByteHelper.byteToUnsignedInt(BMPService.getValueInLSB(hidden, position));
+  }
+}
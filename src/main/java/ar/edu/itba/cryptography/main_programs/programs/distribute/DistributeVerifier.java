@@ -0,0 +1,233 @@
+package ar.edu.itba.cryptography.main_programs.programs.distribute;
+
+import static ar.edu.itba.cryptography.services.IOService.ExitStatus.VALIDATION_FAILED;
+
+import ar.edu.itba.cryptography.helpers.ByteHelper;
+import ar.edu.itba.cryptography.helpers.MatrixHelper;
+import ar.edu.itba.cryptography.services.BMPChannelService;
+import ar.edu.itba.cryptography.services.BMPService;
+import ar.edu.itba.cryptography.services.IOService;
+import ar.edu.itba.cryptography.services.InstrumentationService;
+import ar.edu.itba.cryptography.services.InstrumentationService.Counter;
+import ar.edu.itba.cryptography.services.InstrumentationService.Phase;
+import ar.edu.itba.cryptography.services.PNGService;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+/**
+ * Verifies a distribution right after its shadows were written, instead of retrieving the whole
+ * secret: a random sample of chunks is read back from k random shadows (with positional reads of
+ * the bytes each value is hidden in), solved, and compared with the obfuscated secret.<p>
+ * Each sampled chunk is compared with the coefficients it was actually distributed with, i.e.,
+ * after the overflow adjustments of the engines (see
+ * {@link DistributeBaseEngine#resolvePolynomialForAllShadowNumbers}), so as a verified chunk is
+ * retrieved exactly as expected. If a fraction p of the chunks could not be retrieved, a sample
+ * of s chunks misses all of them with a probability of (1 - p)^s.
+ */
+/* package-private */ class DistributeVerifier {
+  private static final int MODULUS = 257;
+  /**
+   * Fraction of unretrievable chunks the reported miss probability refers to
+   */
+  private static final double REPORTED_CORRUPTION = 0.01;
+  private static final double PERCENT = 100;
+
+  /**
+   * Gives the obfuscated bytes each chunk was distributed from
+   */
+  @FunctionalInterface
+  /* package-private */ interface ChunkSource {
+    /**
+     * Called for the sampled chunks in ascending order (so as sources that generate the
+     * obfuscation on the fly only move forward)
+     * @param arrayX where the k bytes of the chunk are saved, in the order [a0, ..., ak-1]
+     */
+    void getChunk(int chunk, byte[] arrayX);
+  }
+
+  private final int samples;
+  private final Random random;
+
+  /**
+   * @param samples the amount of chunks to be verified (all of them, if the secret has less)
+   */
+  /* package-private */ DistributeVerifier(final int samples) {
+    this.samples = samples;
+    this.random = new Random();
+  }
+
+  /**
+   * Exits with a validation error if any of the sampled chunks is not retrieved from the written
+   * shadows as it was distributed
+   * @param pathsToShadows the written shadows, in the order of the rows of matrixA (i.e., of
+   *                       their shadow numbers)
+   * @param matrixA the matrix the chunks were evaluated with
+   * @param totalChunks the amount of distributed chunks
+   * @param seed the seed the shadows should hold
+   */
+  /* package-private */ void verify(final List<Path> pathsToShadows, final int[][] matrixA,
+      final int k, final int totalChunks, final char seed, final ChunkSource source) {
+    final List<Integer> rows = chooseShadows(pathsToShadows.size(), k);
+    final SortedSet<Integer> chunks = chooseChunks(totalChunks);
+    final List<Shadow> shadows = new ArrayList<>();
+    final int[] xs = new int[k];
+    for (int i = 0 ; i < k ; i++) {
+      final int row = rows.get(i);
+      final Shadow shadow = new Shadow(pathsToShadows.get(row));
+      shadows.add(shadow);
+      xs[i] = row + 1;
+      if (shadow.getShadowNumber() != xs[i] || BMPService.recoverSeed(shadow.header) != seed) {
+        shadow.close();
+        IOService.exit(VALIDATION_FAILED, "Verification failed: " + shadow.path + " does not "
+            + "hold the seed & shadow number it was distributed with");
+      }
+    }
+    final int[][] basis = MatrixHelper.getLagrangeBasis(xs, MODULUS);
+    final byte[] arrayX = new byte[k];
+    final byte[] arrayB = new byte[matrixA.length];
+    final byte[] solved = new byte[k];
+    final int[] values = new int[k];
+    long solveNanos = 0;
+    int mismatches = 0, firstMismatch = -1;
+    for (final int chunk : chunks) {
+      for (int i = 0 ; i < k ; i++) {
+        values[i] = shadows.get(i).readValue(chunk);
+      }
+      final long solveStart = System.nanoTime();
+      MatrixHelper.solvePolynomial(basis, values, MODULUS, solved, 0);
+      solveNanos += System.nanoTime() - solveStart;
+      source.getChunk(chunk, arrayX);
+      DistributeBaseEngine.resolvePolynomialForAllShadowNumbers(matrixA, arrayX, MODULUS, arrayB);
+      if (!Arrays.equals(solved, arrayX)) {
+        mismatches++;
+        firstMismatch = firstMismatch < 0 ? chunk : firstMismatch;
+      }
+    }
+    for (final Shadow shadow : shadows) {
+      shadow.close();
+    }
+    InstrumentationService.recordElapsed(Phase.SOLVE, solveNanos, (long) chunks.size() * k);
+    InstrumentationService.set(Counter.VERIFIED_CHUNKS, chunks.size());
+    if (mismatches > 0) {
+      IOService.exit(VALIDATION_FAILED, "Verification failed: " + mismatches + " of the "
+          + chunks.size() + " sampled chunks (e.g.: chunk " + firstMismatch + ") are not "
+          + "retrieved as distributed from " + describe(shadows));
+    }
+    IOService.print(describeConfidence(chunks.size(), totalChunks) + " (from "
+        + describe(shadows) + ")");
+  }
+
+  // private methods
+
+  /**
+   * @return k different random rows of the n shadows
+   */
+  private List<Integer> chooseShadows(final int n, final int k) {
+    final List<Integer> rows = new ArrayList<>();
+    for (int row = 0 ; row < n ; row++) {
+      rows.add(row);
+    }
+    Collections.shuffle(rows, random);
+    return rows.subList(0, k);
+  }
+
+  /**
+   * @return {@link #samples} different random chunks (by Floyd's algorithm), in ascending order
+   */
+  private SortedSet<Integer> chooseChunks(final int totalChunks) {
+    final SortedSet<Integer> chunks = new TreeSet<>();
+    final int sampled = Math.min(samples, totalChunks);
+    for (int j = totalChunks - sampled ; j < totalChunks ; j++) {
+      final int chunk = random.nextInt(j + 1);
+      chunks.add(chunks.contains(chunk) ? j : chunk);
+    }
+    return chunks;
+  }
+
+  private static String describeConfidence(final int verifiedChunks, final int totalChunks) {
+    if (verifiedChunks == totalChunks) {
+      return "Verified all the " + totalChunks + " chunks";
+    }
+    final double miss = Math.pow(1 - REPORTED_CORRUPTION, verifiedChunks);
+    return String.format(Locale.ROOT, "Verified %d of %d chunks: had %.0f%% of the chunks been "
+        + "unretrievable, the sample would have missed them with a probability of %.2g",
+        verifiedChunks, totalChunks, REPORTED_CORRUPTION * PERCENT, miss);
+  }
+
+  private static String describe(final List<Shadow> shadows) {
+    final List<String> names = new ArrayList<>();
+    for (final Shadow shadow : shadows) {
+      names.add(String.valueOf(shadow.path.getFileName()));
+    }
+    return String.join(", ", names);
+  }
+
+  /**
+   * A written shadow, whose values are read one at a time: with positional reads or, for the
+   * PNG ones (which are compressed as a whole), from their decoded image
+   */
+  private static class Shadow {
+    private final Path path;
+    private final byte[] header;
+    private final BMPChannelService channelService;
+    private final byte[] image;
+    private final int bytesPerValue;
+
+    private Shadow(final Path path) {
+      this.path = path;
+      if (PNGService.isPNGFile(path)) {
+        channelService = null;
+        try {
+          image = PNGService.read(path);
+        } catch (final IOException e) {
+          IOService.exit(VALIDATION_FAILED, "Verification failed: " + path + " cannot be read ("
+              + e.getMessage() + ")");
+          throw new IllegalStateException(); // Should never reach here
+        }
+        header = image;
+      } else {
+        channelService = new BMPChannelService();
+        channelService.openBmpFile(path);
+        image = null;
+        header = channelService.getHeaderBytes(path);
+      }
+      bytesPerValue = BMPService.isWideShadow(header) ? BMPService.WIDE_VALUE_BITS : Byte.SIZE;
+    }
+
+    private int getShadowNumber() {
+      return BMPService.recoverShadowNumber(header) & BMPService.SHADOW_NUMBER_MASK;
+    }
+
+    private int readValue(final int chunk) {
+      final int offset = BMPService.getBitmapOffset(header);
+      final long position = offset + (long) chunk * bytesPerValue;
+      final byte[] hidden;
+      final int from;
+      if (image != null) {
+        hidden = image;
+        from = (int) position;
+      } else {
+        hidden = channelService.read(path, position, bytesPerValue);
+        from = 0;
+      }
+      if (bytesPerValue == BMPService.WIDE_VALUE_BITS) {
+        return BMPService.getWideValueInLSB(hidden, from);
+      }
+      return ByteHelper.byteToUnsignedInt(BMPService.getValueInLSB(hidden, from));
+    }
+
+    private void close() {
+      if (channelService != null) {
+        channelService.closeBmpFiles(Collections.singletonList(path));
+      }
+    }
+  }
+}
@@ -0,0 +1,111 @@
+package ar.edu.itba.cryptography.main_programs.programs.distribute;
+
+import static ar.edu.itba.cryptography.services.BMPIOService.OpenMode.OUTPUT;
+
+import ar.edu.itba.cryptography.services.BMPIOService;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Two-phase engine. For each tile of chunks:
+ * <ol>
+ *   <li>the evaluations of all the tile chunks for all the shadows are saved into a compact
+ *   n x tile shadow-major buffer</li>
+ *   <li>each shadow's run of evaluations is hidden contiguously with the bulk LSB kernel</li>
+ * </ol>
+ * This way, memory access is sequential per shadow instead of jumping among the n shadows for
+ * each chunk, which pays off for big n values.
+ */
+/* package-private */ class ShadowMajorDistributeEngine extends DistributeBaseEngine {
+  /**
+   * Default size of the tile buffer, so as it fits in the CPU cache
+   */
+  private static final int DEFAULT_TILE_BYTES = 256 * 1024;
+  private static final int MIN_TILE_CHUNKS = 64;
+
+  private final int tileChunks;
+
+  /* package-private */ ShadowMajorDistributeEngine(final int tileChunks) {
+    this.tileChunks = tileChunks;
+  }
+
+  /* package-private */ static int defaultTileChunks(final int n) {
+    return Math.max(MIN_TILE_CHUNKS, DEFAULT_TILE_BYTES / n);
+  }
+
+  @Override
+  public void distribute(final BMPIOService bmpIOService, final byte[] obfData,
+      final List<Path> pathsToShadows, final int[][] matrixA, final int k, final int modulus) {
+    final int n = matrixA.length;
+    final int totalChunks = obfData.length / k; // we know that obfData.length % k == 0
+    final int tile = Math.min(tileChunks, totalChunks);
+    // shadow-major buffer: the evaluations for the shadow at matrix row `row` are at
+    // [row * tile, (row + 1) * tile)
+    final byte[] tileBuffer = new byte[n * tile];
+    final int[] rows = getMatrixRows(bmpIOService, pathsToShadows);
+    long evaluateNanos = 0, embedNanos = 0, overflowRetries = 0;
+    for (int firstChunk = 0 ; firstChunk < totalChunks ; firstChunk += tile) {
+      final long evaluateStart = System.nanoTime();
+      final int chunks = Math.min(tile, totalChunks - firstChunk);
+      // Phase 1: evaluate all the tile chunks for all the shadows
+      overflowRetries += evaluateTile(obfData, firstChunk, chunks, matrixA, k, modulus,
+          tileBuffer, tile);
+      final long embedStart = System.nanoTime();
+      // Phase 2: hide each shadow's run contiguously
+      for (int i = 0 ; i < rows.length ; i ++) {
+        embedRun(bmpIOService, pathsToShadows.get(i), tileBuffer, rows[i] * tile, chunks);
+      }
+      embedNanos += System.nanoTime() - embedStart;
+      evaluateNanos += embedStart - evaluateStart;
+    }
+    recordDistribution(evaluateNanos, embedNanos, obfData.length, k, n, overflowRetries);
+  }
+
+  /**
+   * Saves the evaluations of chunks [firstChunk, firstChunk + chunks) for all the shadows into
+   * the shadow-major {@code tileBuffer}
+   * @return the number of overflow retries that were needed
+   */
+  /* package-private */ int evaluateTile(final byte[] obfData, final int firstChunk,
+      final int chunks, final int[][] matrixA, final int k, final int modulus,
+      final byte[] tileBuffer, final int tile) {
+    final byte[] arrayX = new byte[k];
+    final byte[] arrayB = new byte[matrixA.length];
+    int overflowRetries = 0;
+    for (int chunk = 0 ; chunk < chunks ; chunk ++) {
+      overflowRetries += evaluateChunk(obfData, firstChunk + chunk, matrixA, k, modulus,
+          arrayX, arrayB);
+      for (int row = 0 ; row < arrayB.length ; row ++) {
+        tileBuffer[row * tile + chunk] = arrayB[row];
+      }
+    }
+    return overflowRetries;
+  }
+
+  /**
+   * Evaluates the given chunk for all the shadows (with overflow retries) into {@code arrayB}
+   * @return the number of overflow retries that were needed
+   */
+  /* package-private */ static int evaluateChunk(final byte[] obfData, final int chunk,
+      final int[][] matrixA, final int k, final int modulus, final byte[] arrayX,
+      final byte[] arrayB) {
+    getNextKBytes(obfData, chunk * k, arrayX);
+    return resolvePolynomialForAllShadowNumbers(matrixA, arrayX, modulus, arrayB);
+  }
+
+  /**
+   * Hides the {@code length} evaluations starting at {@code from} into the given shadow
+   */
+  /* package-private */ void embedRun(final BMPIOService bmpIOService, final Path path,
+      final byte[] tileBuffer, final int from, final int length) {
+    bmpIOService.hideBytes(path, OUTPUT, tileBuffer, from, length);
+  }
+
+  private int[] getMatrixRows(final BMPIOService bmpIOService, final List<Path> pathsToShadows) {
+    final int[] rows = new int[pathsToShadows.size()];
+    for (int i = 0 ; i < rows.length ; i ++) {
+      rows[i] = bmpIOService.getPathMatrixRow(pathsToShadows.get(i), OUTPUT);
+    }
+    return rows;
+  }
+}
@@ -0,0 +1,213 @@
+package ar.edu.itba.cryptography.main_programs.programs.extend;
+
+import static ar.edu.itba.cryptography.helpers.InputArgsHelper.InputArgs.COVERS_DIR;
+import static ar.edu.itba.cryptography.helpers.InputArgsHelper.InputArgs.IMAGES_DIR;
+import static ar.edu.itba.cryptography.helpers.InputArgsHelper.InputArgs.K;
+import static ar.edu.itba.cryptography.helpers.InputArgsHelper.InputArgs.N;
+import static ar.edu.itba.cryptography.services.BMPIOService.OpenMode.INPUT;
+import static ar.edu.itba.cryptography.services.BMPIOService.OpenMode.OUTPUT;
+import static ar.edu.itba.cryptography.services.IOService.ExitStatus.VALIDATION_FAILED;
+
+import ar.edu.itba.cryptography.helpers.ByteHelper;
+import ar.edu.itba.cryptography.helpers.InputArgsHelper;
+import ar.edu.itba.cryptography.helpers.InputArgsHelper.InputArgs;
+import ar.edu.itba.cryptography.helpers.MatrixHelper;
+import ar.edu.itba.cryptography.helpers.ObfuscatorHelper;
+import ar.edu.itba.cryptography.interfaces.MainProgram;
+import ar.edu.itba.cryptography.main_programs.programs.retrieve.RetrieveCustomAlgorithm;
+import ar.edu.itba.cryptography.services.BMPIOService;
+import ar.edu.itba.cryptography.services.BMPService;
+import ar.edu.itba.cryptography.services.IOService;
+import ar.edu.itba.cryptography.services.InstrumentationService;
+import ar.edu.itba.cryptography.services.InstrumentationService.Counter;
+import ar.edu.itba.cryptography.services.InstrumentationService.Phase;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Adds new shadows to an existing share set, using k of its shadows and without retrieving the
+ * secret (nor modifying the existing shadows).<p>
+ * For each chunk, the value of each new shadow is interpolated from the values of the k given
+ * shadows, so the cost is proportional to the amount of new shadows only.<p>
+ * The coefficients of the existing polynomials were only adjusted so as their evaluations in the
+ * original shadow numbers do not overflow a byte, so evaluations in the new shadow numbers may be
+ * 256. That is why new shadows are wide shadows (see {@link BMPService#WIDE_SHADOW_FLAG}).
+ */
+public class ExtendProgram implements MainProgram {
+  private static final int STANDARD_K_VALUE = 8;
+  private static final int MIN_K_VALUE = 2;
+  private static final int MODULUS = 257;
+  /**
+   * Shadow numbers should be different (mod MODULUS) and not 0
+   */
+  private static final int MAX_SHADOW_NUMBER = MODULUS - 1;
+
+  private final int k;
+  private final int n;
+  private final List<Path> pathsToShadows;
+  private final List<Path> pathsToCovers;
+  private final BMPIOService bmpIOService;
+
+  private ExtendProgram(final int k, final int n, final List<Path> pathsToShadows,
+      final List<Path> pathsToCovers, final BMPIOService bmpIOService) {
+    this.k = k;
+    this.n = n;
+    this.pathsToShadows = pathsToShadows;
+    this.pathsToCovers = pathsToCovers;
+    this.bmpIOService = bmpIOService;
+  }
+
+  public static MainProgram build(final Map<InputArgs, String> parsedArgs) {
+    final String kString = InputArgsHelper.validateArgAccess(parsedArgs, K, true);
+    final String nString = InputArgsHelper.validateArgAccess(parsedArgs, N, true);
+    final String dirString = InputArgsHelper.validateArgAccess(parsedArgs, IMAGES_DIR, false);
+    final String coversString = InputArgsHelper.validateArgAccess(parsedArgs, COVERS_DIR, true);
+    final int k = IOService.parseAsInt(kString, K.getDescription());
+    final int n = IOService.parseAsInt(nString, N.getDescription());
+    if (k < MIN_K_VALUE || k > n) {
+      IOService.exit(VALIDATION_FAILED, MIN_K_VALUE + " <= k <= n. k = " + k + "; n = " + n);
+    }
+    if (k == STANDARD_K_VALUE) {
+      // k = 8 shadows have the same size as the secret, so there is no room for the 9 LSBs values
+      // of new shadows in covers of that same size (and they must have the same size)
+      IOService.exit(VALIDATION_FAILED, "k = " + STANDARD_K_VALUE + " share sets cannot be extended");
+    }
+    final BMPIOService bmpIOService = new BMPIOService();
+    final List<Path> pathsToShadows =
+        bmpIOService.openBmpFilesFrom(Optional.ofNullable(dirString), Optional.of(k), INPUT, null);
+    final List<Path> pathsToCovers =
+        bmpIOService.openBmpFilesFrom(Optional.of(coversString), Optional.empty(), OUTPUT, null);
+    if (pathsToCovers.isEmpty()) {
+      IOService.exit(VALIDATION_FAILED, "No cover images found at " + coversString);
+    }
+    if (!Collections.disjoint(pathsToShadows, pathsToCovers)) {
+      IOService.exit(VALIDATION_FAILED, "Existing shadows cannot be used as covers");
+    }
+    if (n + pathsToCovers.size() > MAX_SHADOW_NUMBER) {
+      IOService.exit(VALIDATION_FAILED, "n + #covers <= " + MAX_SHADOW_NUMBER + ". n = " + n
+          + "; #covers = " + pathsToCovers.size());
+    }
+    for (final Path path : pathsToShadows) {
+      final int shadowNumber = bmpIOService.getShadowNumber(path, INPUT);
+      if (shadowNumber > n) {
+        IOService.exit(VALIDATION_FAILED, "n should be the current amount of shadows, but "
+            + path + " has shadow number " + shadowNumber);
+      }
+    }
+    return new ExtendProgram(k, n, pathsToShadows, pathsToCovers, bmpIOService);
+  }
+
+  @Override
+  public void run() {
+    final int[] xs = new int[k];
+    for (int i = 0 ; i < k ; i++) {
+      xs[i] = bmpIOService.getShadowNumber(pathsToShadows.get(i), INPUT);
+    }
+    // New shadows take the following shadow numbers
+    final int m = pathsToCovers.size();
+    final int[][] weights = new int[m][];
+    for (int t = 0 ; t < m ; t++) {
+      weights[t] = MatrixHelper.getInterpolationWeights(xs, n + 1 + t, MODULUS);
+    }
+    final char seed = bmpIOService.getSeedFromSample(pathsToShadows, INPUT);
+    // The secret size is only known after solving its first chunks
+    final int headerChunks = RetrieveCustomAlgorithm.getMinHeaderChunkSize(k) / k;
+    final int[][] headerValues = new int[headerChunks][];
+    for (int chunk = 0 ; chunk < headerChunks ; chunk++) {
+      headerValues[chunk] = readNextValues();
+    }
+    final int secretSize = getSecretSize(xs, headerValues, seed);
+    final int chunks = secretSize / k;
+    validateCovers(chunks);
+    // Extend the already read chunks first, then the rest of them
+    long extractNanos = 0, evaluateNanos = 0, embedNanos = 0;
+    final int[] newValues = new int[m];
+    for (int chunk = 0 ; chunk < chunks ; chunk++) {
+      final long extractStart = System.nanoTime();
+      final int[] values = chunk < headerChunks ? headerValues[chunk] : readNextValues();
+      final long evaluateStart = System.nanoTime();
+      for (int t = 0 ; t < m ; t++) {
+        newValues[t] = interpolate(weights[t], values);
+      }
+      final long embedStart = System.nanoTime();
+      for (int t = 0 ; t < m ; t++) {
+        bmpIOService.hideWideValue(pathsToCovers.get(t), OUTPUT, newValues[t]);
+      }
+      embedNanos += System.nanoTime() - embedStart;
+      evaluateNanos += embedStart - evaluateStart;
+      extractNanos += evaluateStart - extractStart;
+    }
+    InstrumentationService.recordElapsed(Phase.EXTRACT, extractNanos, (long) chunks * k);
+    InstrumentationService.recordElapsed(Phase.EVALUATE, evaluateNanos, (long) chunks * m);
+    InstrumentationService.recordElapsed(Phase.EMBED, embedNanos, (long) chunks * m);
+    InstrumentationService.set(Counter.SHADOWS, m);
+    InstrumentationService.set(Counter.CHUNKS, chunks);
+    InstrumentationService.set(Counter.SECRET_BYTES, secretSize);
+    InstrumentationService.set(Counter.BYTES_PER_SHADOW, chunks);
+    // Save the seed & the (wide) shadow number, and persist the new shadows
+    for (int t = 0 ; t < m ; t++) {
+      final Path path = pathsToCovers.get(t);
+      bmpIOService.setSeed(path, OUTPUT, seed);
+      bmpIOService.setShadowNumber(path, OUTPUT, (char) (n + 1 + t | BMPService.WIDE_SHADOW_FLAG));
+      bmpIOService.writeDataToDisk(path, OUTPUT);
+    }
+    bmpIOService.closeBmpFiles(pathsToShadows, INPUT);
+    bmpIOService.closeBmpFiles(pathsToCovers, OUTPUT);
+  }
+
+  /**
+   * @return the next value of each of the k shadows, in the same order as {@code pathsToShadows}
+   */
+  private int[] readNextValues() {
+    final int[] values = new int[k];
+    for (int i = 0 ; i < k ; i++) {
+      values[i] = bmpIOService.getNextSecretValue(pathsToShadows.get(i), INPUT);
+    }
+    return values;
+  }
+
+  private int interpolate(final int[] weights, final int[] values) {
+    // Each term is at most 256 * 256 and k <= 256, so there is no int overflow
+    int sum = 0;
+    for (int i = 0 ; i < k ; i++) {
+      sum += weights[i] * values[i];
+    }
+    return sum % MODULUS;
+  }
+
+  /**
+   * Solves the first chunks of the secret (as the retrieve program does) to get its size.
+   * The solved bytes are only kept in memory
+   */
+  private int getSecretSize(final int[] xs, final int[][] headerValues, final char seed) {
+    final byte[] obfHeaderChunk = new byte[headerValues.length * k];
+    for (int chunk = 0 ; chunk < headerValues.length ; chunk++) {
+      final int[] coefficients = MatrixHelper.solvePolynomial(xs, headerValues[chunk], MODULUS);
+      for (int col = 0 ; col < k ; col++) {
+        obfHeaderChunk[chunk * k + col] = ByteHelper.intToByte(coefficients[col]);
+      }
+    }
+    final byte[] nonObfHeaderChunk = ObfuscatorHelper.toggleObfuscation(obfHeaderChunk, seed);
+    final int secretSize = RetrieveCustomAlgorithm.getSecretSize(nonObfHeaderChunk, k);
+    if (secretSize < obfHeaderChunk.length || secretSize % k != 0) {
+      IOService.exit(VALIDATION_FAILED, "The given shadows do not belong to a (" + k + ", n) "
+          + "share set. Secret size read: " + secretSize);
+    }
+    return secretSize;
+  }
+
+  private void validateCovers(final int chunks) {
+    final long requiredDataSize = (long) chunks * BMPService.WIDE_VALUE_BITS;
+    for (final Path path : pathsToCovers) {
+      final int coverDataSize = bmpIOService.getDataSize(path, OUTPUT);
+      if (coverDataSize < requiredDataSize) {
+        IOService.exit(VALIDATION_FAILED, "It should happen that 'coverDataSize >= chunks * "
+            + BMPService.WIDE_VALUE_BITS + "'. Current values: chunks = " + chunks
+            + "; coverDataSize = " + coverDataSize + "; cover = " + path);
+      }
+    }
+  }
+}
@@ -1,13 +1,25 @@
 package ar.edu.itba.cryptography.main_programs.programs.retrieve;
 
 import static ar.edu.itba.cryptography.services.BMPIOService.OpenMode.INPUT;
+import static ar.edu.itba.cryptography.services.IOService.ExitStatus.VALIDATION_FAILED;
 
 import ar.edu.itba.cryptography.helpers.ByteHelper;
+import ar.edu.itba.cryptography.helpers.DigestHelper;
 import ar.edu.itba.cryptography.helpers.GaussSolverHelper;
 import ar.edu.itba.cryptography.helpers.MatrixHelper;
 import ar.edu.itba.cryptography.interfaces.RetrieveAlgorithm;
 import ar.edu.itba.cryptography.services.BMPIOService;
+import ar.edu.itba.cryptography.services.BMPService;
+import ar.edu.itba.cryptography.services.BufferPoolService;
+import ar.edu.itba.cryptography.services.IOService;
+import ar.edu.itba.cryptography.services.InstrumentationService;
+import ar.edu.itba.cryptography.services.InstrumentationService.Counter;
+import ar.edu.itba.cryptography.services.InstrumentationService.Phase;
+import ar.edu.itba.cryptography.services.SegmentedBuffer;
 import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
 import java.util.List;
 
 /*
@@ -20,6 +32,20 @@ import java.util.List;
 
   /* package-private */ static final int FIRST_ELEM_INDEX = 0;
 
+  /**
+   * Exits with a validation error if a secret of the given length does not fit in a single array,
+   * which is needed to retrieve it whole (only the pipeline streams it to its output file)
+   * @return the given length, as an int
+   */
+  /* package-private */ static int toArrayLength(final long length) {
+    if (length > SegmentedBuffer.MAX_ARRAY_SIZE) {
+      IOService.exit(VALIDATION_FAILED, "The secret has " + length + " bytes, and only up to "
+          + SegmentedBuffer.MAX_ARRAY_SIZE + " bytes can be retrieved whole. "
+          + "Retrieve it with -pipeline instead");
+    }
+    return (int) length;
+  }
+
   /**
    * Retrieves dataLength bytes from the shadowPaths shadows (managed through the bmpIOService).
    * <p>
@@ -34,29 +60,131 @@ import java.util.List;
    *                     There should be k shadows paths
    * @param dataLength   the number of secret bytes to be retrieved
    * @return an array with the obfuscated bytes of the secret image
-   *         being retrieved from the given shadows
+   *         being retrieved from the given shadows, leased from the {@link BufferPoolService}
    */
   /* package-private */ byte[] retrieveData(final BMPIOService bmpIOService,
       final List<Path> shadowsPaths, final int dataLength) {
     final int k = shadowsPaths.size();
     final int[][] matrix = initializeMatrix(bmpIOService, shadowsPaths, k, MODULUS);
-    final byte[] data = new byte[dataLength];
+    final byte[] data = BufferPoolService.lease(dataLength);
+    // Extraction & solving are interleaved => measure each of them on every iteration
+    long extractNanos = 0, solveNanos = 0;
     // For each group of k bytes to retrieve
     for (int i = 0 ; i < dataLength ; i += k) {
+      final long extractStart = System.nanoTime();
       // For each shadow file (shadow number = j, with 1 <= j <= n)
       for (final Path shadowPath : shadowsPaths) {
         final int shadowNumber = bmpIOService.getPathMatrixRow(shadowPath, INPUT);
-        // Get byte = p(shadowNumber) (recall that this byte is hidden among several shadow's bytes)
-        final byte b = bmpIOService.getNextSecretByte(shadowPath, INPUT);
-        matrix[shadowNumber][k] = ByteHelper.byteToUnsignedInt(b);
+        // Get value = p(shadowNumber) (recall that it is hidden among several shadow's bytes)
+        matrix[shadowNumber][k] = bmpIOService.getNextSecretValue(shadowPath, INPUT);
       }
+      final long solveStart = System.nanoTime();
       // Solve the equation system to get the k chunk bytes of current iteration
       // Make a copy of the current matrix so as not to be modified during the solving
       final byte[] kDataByteChunk = solveEquationSystem(MatrixHelper.copyOf(matrix), MODULUS);
       if (kDataByteChunk.length != k) throw new IllegalStateException("kDataByteChunk.length != k");
       // Copy the k bytes to the data array
       System.arraycopy(kDataByteChunk, FIRST_ELEM_INDEX, data, i, k);
+      solveNanos += System.nanoTime() - solveStart;
+      extractNanos += solveStart - extractStart;
+    }
+    final int bytesPerShadow = dataLength / k;
+    InstrumentationService.recordElapsed(Phase.EXTRACT, extractNanos, (long) bytesPerShadow * k);
+    InstrumentationService.recordElapsed(Phase.SOLVE, solveNanos, dataLength);
+    return data;
+  }
+
+  /**
+   * Sets the counters of a retrieved secret, as the distribute program sets them (i.e., to the
+   * totals of the whole secret, once it was retrieved)
+   * @param dataLength the amount of secret bytes that were retrieved
+   */
+  /* package-private */ static void recordSecretCounters(final int k, final long dataLength) {
+    final long bytesPerShadow = dataLength / k;
+    InstrumentationService.set(Counter.SHADOWS, k);
+    InstrumentationService.set(Counter.CHUNKS, bytesPerShadow);
+    InstrumentationService.set(Counter.SECRET_BYTES, dataLength);
+    InstrumentationService.set(Counter.BYTES_PER_SHADOW, bytesPerShadow);
+  }
+
+  /**
+   * Retrieves the whole obfuscated secret described by the given digests table (see
+   * {@link DigestHelper}), checking each block of {@link DigestHelper#BLOCK_CHUNKS} chunks against
+   * its digest.<p>
+   * When a block does not match, one of the shadows is corrupted: each spare shadow (i.e., other
+   * shadow of the same secret) is tried in place of each of the shadows until the block matches,
+   * and the replacement is kept for the following blocks. Only the corrupted blocks are solved
+   * more than once.
+   * @param bmpIOService shadowsPath manager
+   * @param shadowsPaths the k shadows, already opened in INPUT mode using the bmpIOService
+   * @param sparePaths the shadows that may replace the corrupted ones, not opened (they are
+   *                   opened only if needed, and closed before returning)
+   * @param table the digests of the secret
+   * @param seed the seed of the secret, so as spare shadows of other secrets are discarded
+   * @return an array with the obfuscated bytes of the secret, leased from the
+   *         {@link BufferPoolService}
+   */
+  /* package-private */ byte[] retrieveVerifiedData(final BMPIOService bmpIOService,
+      final List<Path> shadowsPaths, final List<Path> sparePaths, final DigestHelper.Table table,
+      final char seed) {
+    final int k = shadowsPaths.size();
+    final int chunks = table.getChunks();
+    final byte[] data = BufferPoolService.lease(chunks * k);
+    final Share[] shares = new Share[k];
+    for (int i = 0 ; i < k ; i++) {
+      shares[i] = new Share(shadowsPaths.get(i), bmpIOService.getBmp(shadowsPaths.get(i), INPUT));
     }
+    int[][] basis = getBasis(shares);
+    final Deque<Path> spares = new ArrayDeque<>(sparePaths);
+    final List<Path> openedSpares = new ArrayList<>();
+    final int[] values = new int[k];
+    int corruptedBlocks = 0, substitutedShadows = 0;
+    final long solveStart = InstrumentationService.start();
+    for (int block = 0 ; block < table.getBlocks() ; block++) {
+      if (solveBlock(shares, basis, block, table, data, values)) {
+        continue;
+      }
+      corruptedBlocks ++;
+      boolean matches = false;
+      final List<Path> triedSpares = new ArrayList<>();
+      while (!matches && !spares.isEmpty()) {
+        final Path sparePath = spares.poll();
+        final Share spare = openSpare(bmpIOService, sparePath, seed, openedSpares);
+        if (spare == null) {
+          continue; // Not a shadow of this secret => discarded
+        }
+        for (int i = 0 ; i < k && !matches ; i++) {
+          final Share replaced = shares[i];
+          shares[i] = spare;
+          final int[][] spareBasis = getBasis(shares);
+          matches = solveBlock(shares, spareBasis, block, table, data, values);
+          if (matches) {
+            basis = spareBasis;
+            substitutedShadows ++;
+            IOService.print("Block " + block + " did not match its digest: shadow "
+                + replaced.path + " was replaced by " + sparePath);
+          } else {
+            shares[i] = replaced;
+          }
+        }
+        if (!matches) {
+          triedSpares.add(sparePath); // It may still replace the shadow of another block
+        }
+      }
+      spares.addAll(triedSpares);
+      if (!matches) {
+        bmpIOService.closeBmpFiles(openedSpares, INPUT);
+        BufferPoolService.release(data);
+        IOService.exit(VALIDATION_FAILED, "Block " + block + " of the secret does not match its "
+            + "digest, and no spare shadow fixes it");
+      }
+    }
+    bmpIOService.closeBmpFiles(openedSpares, INPUT);
+    final int dataLength = chunks * k;
+    InstrumentationService.record(Phase.SOLVE, solveStart, dataLength);
+    recordSecretCounters(k, dataLength);
+    InstrumentationService.set(Counter.CORRUPTED_BLOCKS, corruptedBlocks);
+    InstrumentationService.set(Counter.SUBSTITUTED_SHADOWS, substitutedShadows);
     return data;
   }
 
@@ -106,4 +234,96 @@ import java.util.List;
     }
     return matrix;
   }
+
+  /**
+   * A shadow whose values are read directly from its image, so as it can be replaced at any block
+   */
+  private static final class Share {
+    private final Path path;
+    private final byte[] bmp;
+    private final int offset;
+    private final boolean wide;
+    private final int x;
+
+    private Share(final Path path, final byte[] bmp) {
+      this.path = path;
+      this.bmp = bmp;
+      this.offset = BMPService.getBitmapOffset(bmp);
+      this.wide = BMPService.isWideShadow(bmp);
+      this.x = BMPService.recoverShadowNumber(bmp) & BMPService.SHADOW_NUMBER_MASK;
+    }
+
+    /**
+     * @return the value hidden for the given chunk, in [0, 256]
+     */
+    private int getValue(final int chunk) {
+      if (wide) {
+        return BMPService.getWideValueInLSB(bmp, offset + chunk * BMPService.WIDE_VALUE_BITS);
+      }
+      return BMPService.getValueInLSB(bmp, offset + chunk * Byte.SIZE) & 0xFF;
+    }
+
+    /**
+     * @return true if the given amount of chunks are hidden in the pixel data of this shadow
+     */
+    private boolean holds(final int chunks) {
+      final long bytes = (long) chunks * (wide ? BMPService.WIDE_VALUE_BITS : Byte.SIZE);
+      return offset + bytes <= Math.min(bmp.length, BMPService.getBitmapSize(bmp));
+    }
+  }
+
+  /**
+   * @return the Lagrange basis of the shadow numbers of the given shares; null if two of them are
+   *         the same point (mod {@value #MODULUS}), as no polynomial can be solved from them
+   */
+  private static int[][] getBasis(final Share[] shares) {
+    final int[] xs = new int[shares.length];
+    for (int i = 0 ; i < shares.length ; i++) {
+      xs[i] = shares[i].x % MODULUS;
+      if (xs[i] == 0) return null;
+      for (int j = 0 ; j < i ; j++) {
+        if (xs[j] == xs[i]) return null;
+      }
+    }
+    return MatrixHelper.getLagrangeBasis(xs, MODULUS);
+  }
+
+  /**
+   * Solves the chunks of the given block into {@code data}
+   * @return true if the solved block matches its digest
+   */
+  private static boolean solveBlock(final Share[] shares, final int[][] basis, final int block,
+      final DigestHelper.Table table, final byte[] data, final int[] values) {
+    final int k = shares.length;
+    final int from = block * DigestHelper.BLOCK_CHUNKS;
+    final int to = Math.min(table.getChunks(), from + DigestHelper.BLOCK_CHUNKS);
+    if (basis == null) {
+      return false;
+    }
+    for (final Share share : shares) {
+      if (!share.holds(to)) return false;
+    }
+    for (int chunk = from ; chunk < to ; chunk++) {
+      for (int i = 0 ; i < k ; i++) {
+        values[i] = shares[i].getValue(chunk);
+      }
+      MatrixHelper.solvePolynomial(basis, values, MODULUS, data, chunk * k);
+    }
+    return table.matches(block, data, k);
+  }
+
+  /**
+   * Opens the given spare shadow
+   * @return the share of the spare; null if it is not a shadow of the secret with the given seed
+   */
+  private static Share openSpare(final BMPIOService bmpIOService, final Path sparePath,
+      final char seed, final List<Path> openedSpares) {
+    bmpIOService.openBmpFile(sparePath.toString(), INPUT);
+    openedSpares.add(sparePath);
+    final byte[] bmp = bmpIOService.getBmp(sparePath, INPUT);
+    if (!BMPService.isBMPFile(bmp) || BMPService.recoverSeed(bmp) != seed) {
+      return null;
+    }
+    return new Share(sparePath, bmp);
+  }
 }
@@ -0,0 +1,107 @@
+package ar.edu.itba.cryptography.main_programs.programs.retrieve;
+
+import static ar.edu.itba.cryptography.services.IOService.ExitStatus.VALIDATION_FAILED;
+
+import ar.edu.itba.cryptography.helpers.ByteHelper;
+import ar.edu.itba.cryptography.helpers.CompressionHelper;
+import ar.edu.itba.cryptography.helpers.MatrixHelper;
+import ar.edu.itba.cryptography.helpers.ObfuscatorHelper;
+import ar.edu.itba.cryptography.interfaces.RetrieveAlgorithm;
+import ar.edu.itba.cryptography.services.BMPChannelService;
+import ar.edu.itba.cryptography.services.BMPIOService;
+import ar.edu.itba.cryptography.services.BMPService;
+import ar.edu.itba.cryptography.services.ContainerService;
+import ar.edu.itba.cryptography.services.ContainerService.Entry;
+import ar.edu.itba.cryptography.services.IOService;
+import ar.edu.itba.cryptography.services.InstrumentationService;
+import ar.edu.itba.cryptography.services.InstrumentationService.Counter;
+import ar.edu.itba.cryptography.services.InstrumentationService.Phase;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Retrieves one secret of a container share set (see {@link ContainerService}) from the first k
+ * given shadows, reading only the directory and the share region of that secret.
+ */
+public class RetrieveContainerAlgorithm implements RetrieveAlgorithm {
+  private static final int MODULUS = 257;
+
+  private final int secretId;
+  private final int k;
+
+  public RetrieveContainerAlgorithm(final int secretId, final int k) {
+    this.secretId = secretId;
+    this.k = k;
+  }
+
+  /**
+   * @param shadowsPaths at least k shadows of the container. They should NOT have been opened
+   *                     using the bmpIOService
+   */
+  @Override
+  public byte[] run(final BMPIOService bmpIOService, final List<Path> shadowsPaths) {
+    final List<Path> paths = shadowsPaths.subList(0, k);
+    final BMPChannelService channelService = new BMPChannelService();
+    channelService.openBmpFiles(paths);
+    final Entry entry = findEntry(channelService, paths);
+    final int chunks = entry.getChunks();
+    // Read the share region of each shadow
+    final long extractStart = System.nanoTime();
+    final int[] xs = new int[k];
+    final int[][] values = new int[chunks][k];
+    for (int i = 0 ; i < k ; i++) {
+      final Path path = paths.get(i);
+      xs[i] = channelService.getShadowNumber(path);
+      final byte[] region = channelService.read(path,
+          ContainerService.getRegionPosition(channelService, path, entry), chunks * Byte.SIZE);
+      for (int chunk = 0 ; chunk < chunks ; chunk++) {
+        values[chunk][i] =
+            ByteHelper.byteToUnsignedInt(BMPService.getValueInLSB(region, chunk * Byte.SIZE));
+      }
+    }
+    channelService.closeBmpFiles(paths);
+    // Solve each chunk polynomial
+    final long solveStart = System.nanoTime();
+    final byte[] obfData = new byte[chunks * k];
+    for (int chunk = 0 ; chunk < chunks ; chunk++) {
+      final int[] coefficients = MatrixHelper.solvePolynomial(xs, values[chunk], MODULUS);
+      for (int col = 0 ; col < k ; col++) {
+        obfData[chunk * k + col] = ByteHelper.intToByte(coefficients[col]);
+      }
+    }
+    final long solveEnd = System.nanoTime();
+    InstrumentationService.recordElapsed(Phase.EXTRACT, solveStart - extractStart,
+        (long) chunks * k);
+    InstrumentationService.recordElapsed(Phase.SOLVE, solveEnd - solveStart, chunks);
+    InstrumentationService.set(Counter.SHADOWS, k);
+    InstrumentationService.set(Counter.CHUNKS, chunks);
+    InstrumentationService.set(Counter.SECRET_BYTES, entry.getLength());
+    // Remove the padding & the obfuscation
+    final byte[] payload = Arrays.copyOf(ObfuscatorHelper.toggleObfuscation(obfData,
+        entry.getSeed()), entry.getLength());
+    if (CompressionHelper.isCompressed(payload, k)) {
+      return CompressionHelper.inflate(payload, k);
+    }
+    return payload;
+  }
+
+  private Entry findEntry(final BMPChannelService channelService, final List<Path> paths) {
+    for (final Path path : paths) {
+      if (!ContainerService.isContainerShadow(channelService.getHeaderBytes(path))) {
+        IOService.exit(VALIDATION_FAILED, path + " is not a container shadow");
+      }
+    }
+    final List<Entry> entries = ContainerService.readDirectory(channelService, paths.get(0));
+    final Entry entry = entries == null ? null : ContainerService.findEntry(entries, secretId);
+    if (entry == null) {
+      IOService.exit(VALIDATION_FAILED, "The container has no secret with id " + secretId);
+      throw new IllegalStateException(); // Should never reach here
+    }
+    if (entry.getK() != k) {
+      IOService.exit(VALIDATION_FAILED, "Secret " + secretId + " was distributed with k = "
+          + entry.getK() + ", not with k = " + k);
+    }
+    return entry;
+  }
+}
@@ -0,0 +1,205 @@
+package ar.edu.itba.cryptography.main_programs.programs.retrieve;
+
+import static ar.edu.itba.cryptography.services.IOService.ExitStatus.CONNECTION_FAILED;
+import static ar.edu.itba.cryptography.services.IOService.ExitStatus.VALIDATION_FAILED;
+
+import ar.edu.itba.cryptography.helpers.ByteHelper;
+import ar.edu.itba.cryptography.helpers.CompressionHelper;
+import ar.edu.itba.cryptography.helpers.InterlaceHelper;
+import ar.edu.itba.cryptography.helpers.MatrixHelper;
+import ar.edu.itba.cryptography.helpers.ObfuscatorHelper;
+import ar.edu.itba.cryptography.helpers.ShareProtocolHelper;
+import ar.edu.itba.cryptography.helpers.ShareProtocolHelper.Hello;
+import ar.edu.itba.cryptography.interfaces.RetrieveAlgorithm;
+import ar.edu.itba.cryptography.services.BMPIOService;
+import ar.edu.itba.cryptography.services.BMPService;
+import ar.edu.itba.cryptography.services.IOService;
+import ar.edu.itba.cryptography.services.InstrumentationService;
+import ar.edu.itba.cryptography.services.InstrumentationService.Counter;
+import ar.edu.itba.cryptography.services.InstrumentationService.Phase;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Retrieves a secret from k share-holder agents (see
+ * {@link ar.edu.itba.cryptography.main_programs.programs.agent.AgentProgram}), instead of from k
+ * local shadow files.<p>
+ * The first k agents that connect form the agreed shadow set. Each of them only sends the values
+ * hidden in its shadow (see {@link ShareProtocolHelper}), so the coordinator applies the Lagrange
+ * basis of the set to get the obfuscated secret, which is then handled as the K8 or custom
+ * algorithm would do.
+ */
+public class RetrieveCoordinatorAlgorithm implements RetrieveAlgorithm {
+  private static final int STANDARD_K_VALUE = 8;
+  private static final int MODULUS = 257;
+  /**
+   * Max amount of chunks requested to the agents at once
+   */
+  private static final int MAX_REQUEST_CHUNKS = 4096;
+  private static final int ACCEPT_TIMEOUT_MILLIS = 60000;
+
+  private final int port;
+  private final int k;
+
+  public RetrieveCoordinatorAlgorithm(final int port, final int k) {
+    this.port = port;
+    this.k = k;
+  }
+
+  /**
+   * @param shadowsPaths ignored (shadows are held by the agents)
+   */
+  @Override
+  public byte[] run(final BMPIOService bmpIOService, final List<Path> shadowsPaths) {
+    final List<Agent> agents = new ArrayList<>(k);
+    try (final ServerSocket serverSocket = new ServerSocket(port)) {
+      serverSocket.setSoTimeout(ACCEPT_TIMEOUT_MILLIS);
+      while (agents.size() < k) {
+        agents.add(new Agent(serverSocket.accept()));
+      }
+      final byte[] secret = retrieve(agents);
+      for (final Agent agent : agents) {
+        ShareProtocolHelper.writeRequest(agent.out, 0);
+      }
+      return secret;
+    } catch (final IOException e) {
+      IOService.exit(CONNECTION_FAILED, e);
+      throw new IllegalStateException(); // Should never reach here
+    } finally {
+      for (final Agent agent : agents) {
+        agent.close();
+      }
+    }
+  }
+
+  private byte[] retrieve(final List<Agent> agents) throws IOException {
+    // Agents connect in any order => sort them, so as the result does not depend on that order
+    agents.sort(Comparator.comparingInt(agent -> agent.hello.getShadowNumber()));
+    final int[] xs = new int[k];
+    final char seed = agents.get(0).hello.getSeed();
+    for (int i = 0 ; i < k ; i++) {
+      final Hello hello = agents.get(i).hello;
+      xs[i] = hello.getShadowNumber();
+      if (hello.getSeed() != seed) {
+        IOService.exit(VALIDATION_FAILED, "All agents should hold shadows of the same share set, "
+            + "but shadow " + xs[i] + " has a different seed");
+      }
+      for (int j = 0 ; j < i ; j++) {
+        if (xs[j] == xs[i]) {
+          IOService.exit(VALIDATION_FAILED, "Two agents hold the shadow number " + xs[i]);
+        }
+      }
+    }
+    for (final Agent agent : agents) {
+      ShareProtocolHelper.writeSetup(agent.out, xs);
+    }
+    final int[][] basis = MatrixHelper.getLagrangeBasis(xs, MODULUS);
+    if (k == STANDARD_K_VALUE) {
+      // As the K8 algorithm does, the header of a shadow (the one with the lowest shadow number)
+      // is the header of the secret
+      final byte[] header = agents.get(0).hello.getHeader();
+      final int dataBytes = BMPService.getBitmapSize(header) - BMPService.getBitmapOffset(header);
+      final byte[] obfData = retrieveData(agents, basis, dataBytes / k);
+      RetrieveBaseAlgorithm.recordSecretCounters(k, dataBytes);
+      final byte[] data = ObfuscatorHelper.toggleObfuscation(obfData, seed);
+      return ByteHelper.merge(header, BMPService.isInterlacedShadow(header)
+          ? InterlaceHelper.deinterlace(data, header) : data);
+    }
+    // As the custom algorithm does, solve the first chunks to know the size of the secret
+    final int minHeaderChunkSize = RetrieveCustomAlgorithm.getMinHeaderChunkSize(k);
+    final byte[] obfHeaderChunk = retrieveData(agents, basis, minHeaderChunkSize / k);
+    final byte[] nonObfHeaderChunk = ObfuscatorHelper.toggleObfuscation(obfHeaderChunk, seed);
+    final boolean compressed = CompressionHelper.isCompressed(nonObfHeaderChunk, k);
+    final int totalSize = RetrieveCustomAlgorithm.getSecretSize(nonObfHeaderChunk, k);
+    if (totalSize < minHeaderChunkSize || totalSize % k != 0) {
+      IOService.exit(VALIDATION_FAILED, "The agents shadows do not belong to a (" + k + ", n) "
+          + "share set. Secret size read: " + totalSize);
+    }
+    final byte[] obfRemainingData = retrieveData(agents, basis, (totalSize - minHeaderChunkSize) / k);
+    RetrieveBaseAlgorithm.recordSecretCounters(k, totalSize);
+    final byte[] nonObfFullData = ObfuscatorHelper.toggleObfuscation(
+        ByteHelper.merge(obfHeaderChunk, obfRemainingData), seed);
+    if (compressed) {
+      return CompressionHelper.inflate(nonObfFullData, k);
+    }
+    return nonObfFullData;
+  }
+
+  /**
+   * Requests the following {@code chunks} chunks to all the agents, and solves them with their
+   * values
+   * @param basis the Lagrange basis of the agreed set, in the order of the agents
+   * @return the obfuscated secret bytes of those chunks
+   */
+  private byte[] retrieveData(final List<Agent> agents, final int[][] basis, final int chunks)
+      throws IOException {
+    for (final Agent agent : agents) {
+      if (agent.requestedChunks + chunks > agent.hello.getAvailableValues()) {
+        IOService.exit(VALIDATION_FAILED, "Shadow " + agent.hello.getShadowNumber()
+            + " cannot hold " + (agent.requestedChunks + chunks) + " values");
+      }
+    }
+    final byte[] data = new byte[chunks * k];
+    // values[j][chunk]: the value of the chunk sent by the j-th agent
+    final int[][] values = new int[k][Math.min(MAX_REQUEST_CHUNKS, chunks)];
+    final int[] chunkValues = new int[k];
+    long solveNanos = 0;
+    long receivedBytes = 0;
+    for (int from = 0 ; from < chunks ; from += MAX_REQUEST_CHUNKS) {
+      final int requestChunks = Math.min(MAX_REQUEST_CHUNKS, chunks - from);
+      // All the agents work on the same request at the same time
+      for (final Agent agent : agents) {
+        ShareProtocolHelper.writeRequest(agent.out, requestChunks);
+        agent.requestedChunks += requestChunks;
+      }
+      final long solveStart = System.nanoTime();
+      for (int j = 0 ; j < k ; j++) {
+        ShareProtocolHelper.readValues(agents.get(j).in, values[j], 0, requestChunks);
+        receivedBytes += ShareProtocolHelper.getValuesSize(requestChunks);
+      }
+      for (int chunk = 0 ; chunk < requestChunks ; chunk++) {
+        for (int j = 0 ; j < k ; j++) {
+          chunkValues[j] = values[j][chunk];
+        }
+        MatrixHelper.solvePolynomial(basis, chunkValues, MODULUS, data, (from + chunk) * k);
+      }
+      solveNanos += System.nanoTime() - solveStart;
+    }
+    InstrumentationService.recordElapsed(Phase.SOLVE, solveNanos, data.length);
+    InstrumentationService.count(Counter.SENT_BYTES, receivedBytes);
+    return data;
+  }
+
+  private static class Agent {
+    private final Socket socket;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+    private final Hello hello;
+    private int requestedChunks;
+
+    private Agent(final Socket socket) throws IOException {
+      this.socket = socket;
+      this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+      this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+      this.hello = ShareProtocolHelper.readHello(in);
+      this.requestedChunks = 0;
+    }
+
+    private void close() {
+      try {
+        socket.close();
+      } catch (final IOException e) {
+        // Nothing else to do with this agent
+      }
+    }
+  }
+}
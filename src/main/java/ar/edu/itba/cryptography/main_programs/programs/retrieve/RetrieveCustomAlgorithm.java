@@ -4,44 +4,131 @@ import static ar.edu.itba.cryptography.services.BMPIOService.OpenMode.INPUT;
 import static ar.edu.itba.cryptography.services.BMPService.MIN_HEADER_SIZE;
 
 import ar.edu.itba.cryptography.helpers.ByteHelper;
+import ar.edu.itba.cryptography.helpers.CompressionHelper;
+import ar.edu.itba.cryptography.helpers.DigestHelper;
 import ar.edu.itba.cryptography.helpers.ObfuscatorHelper;
 import ar.edu.itba.cryptography.services.BMPIOService;
 import ar.edu.itba.cryptography.services.BMPService;
+import ar.edu.itba.cryptography.services.BufferPoolService;
 import java.nio.file.Path;
+import java.util.Collections;
 import java.util.List;
 
 public class RetrieveCustomAlgorithm extends RetrieveBaseAlgorithm {
+  private final List<Path> sparePaths;
+
+  public RetrieveCustomAlgorithm() {
+    this(Collections.emptyList());
+  }
+
+  /**
+   * @param sparePaths the shadows (not opened) that may replace the corrupted ones, if the secret
+   *                   was distributed with digests (see {@link DigestHelper})
+   */
+  public RetrieveCustomAlgorithm(final List<Path> sparePaths) {
+    this.sparePaths = sparePaths;
+  }
+
   @Override
   public byte[] run(final BMPIOService bmpIOService, final List<Path> shadowsPaths) {
     // Note: 'obf' stands for 'obfuscated'
     final int k = shadowsPaths.size();
+    // If the secret was distributed with digests, every block is verified
+    for (final Path path : shadowsPaths) {
+      // Only the shadows with digests are needed whole (i.e., larger ones may be mapped)
+      final byte[] header = bmpIOService.getHeaderBytesOf(path, INPUT);
+      final DigestHelper.Table table = BMPService.hasDigests(header)
+          ? DigestHelper.readTable(bmpIOService.getBmp(path, INPUT)) : null;
+      if (table != null) {
+        return runVerified(bmpIOService, shadowsPaths, table,
+            bmpIOService.getSeedFromSample(Collections.singletonList(path), INPUT));
+      }
+    }
     // Get the min necessary header information respecting the k size of each chunk
-    final int minHeaderChunkSize = calculateMinHeaderChunkSize(k);
+    final int minHeaderChunkSize = getMinHeaderChunkSize(k);
     final byte[] obfHeaderChunk = retrieveData(bmpIOService, shadowsPaths, minHeaderChunkSize);
     // Remove obfuscation from the retrieve data
     final char seed = bmpIOService.getSeedFromSample(shadowsPaths, INPUT);
     final byte[] nonObfHeaderChunk = ObfuscatorHelper.toggleObfuscation(obfHeaderChunk, seed);
-    // Retrieve the total size of the secret file
-    final int totalSize = BMPService.getBitmapSize(nonObfHeaderChunk);
+    // Retrieve the total size of the secret file (or of the compressed payload)
+    final boolean compressed = CompressionHelper.isCompressed(nonObfHeaderChunk, k);
+    final int totalSize = getSecretSize(nonObfHeaderChunk, k);
     // Only remains to read what it hasn't already been read.
     // Remaining size should already be divisible by k.
     // It it weren't so, this secret couldn't have been ever distributed.
     final int remainingDataSize = totalSize - minHeaderChunkSize;
     final byte[] obfRemainingData = retrieveData(bmpIOService, shadowsPaths, remainingDataSize);
+    recordSecretCounters(k, totalSize);
     // Merge all the read bytes to remove obfuscation from the full data
     final byte[] obfFullData = ByteHelper.merge(obfHeaderChunk, obfRemainingData);
+    BufferPoolService.release(obfRemainingData);
     // Remove obfuscation of the full data using the already obtained seed
     final byte[] nonObfFullData = ObfuscatorHelper.toggleObfuscation(obfFullData, seed);
+    BufferPoolService.release(obfFullData);
+    // If the secret was compressed before being distributed, inflate it
+    if (compressed) {
+      final byte[] secret = CompressionHelper.inflate(nonObfFullData, k);
+      BufferPoolService.release(nonObfFullData);
+      return secret;
+    }
     // Return the secret image bytes as a string
     return nonObfFullData;
   }
 
+  private byte[] runVerified(final BMPIOService bmpIOService, final List<Path> shadowsPaths,
+      final DigestHelper.Table table, final char seed) {
+    final int k = shadowsPaths.size();
+    final byte[] obfFullData =
+        retrieveVerifiedData(bmpIOService, shadowsPaths, sparePaths, table, seed);
+    final byte[] nonObfFullData = ObfuscatorHelper.toggleObfuscation(obfFullData, seed);
+    BufferPoolService.release(obfFullData);
+    if (CompressionHelper.isCompressed(nonObfFullData, k)) {
+      final byte[] secret = CompressionHelper.inflate(nonObfFullData, k);
+      BufferPoolService.release(nonObfFullData);
+      return secret;
+    }
+    return nonObfFullData;
+  }
+
+  /**
+   * @param k the chunk size
+   * @return the amount of secret bytes (multiple of k) that should be retrieved to know the size
+   * of the whole secret, whether it is a plain bmp file or a compressed payload
+   */
+  public static int getMinHeaderChunkSize(final int k) {
+    return Math.max(calculateMinHeaderChunkSize(k), CompressionHelper.getMinHeaderChunkSize(k));
+  }
+
+  /**
+   * @param nonObfHeaderChunk the first {@link #getMinHeaderChunkSize(int)} bytes of the secret,
+   *                          with no obfuscation
+   * @param k the chunk size
+   * @return the total amount of bytes that were distributed. Exits with a validation error if
+   *         they do not fit in a single array (see {@link #getSecretLength})
+   */
+  public static int getSecretSize(final byte[] nonObfHeaderChunk, final int k) {
+    return toArrayLength(getSecretLength(nonObfHeaderChunk, k));
+  }
+
+  /**
+   * @param nonObfHeaderChunk the first {@link #getMinHeaderChunkSize(int)} bytes of the secret,
+   *                          with no obfuscation
+   * @param k the chunk size
+   * @return the total amount of bytes that were distributed, up to 4 GB
+   */
+  public static long getSecretLength(final byte[] nonObfHeaderChunk, final int k) {
+    if (CompressionHelper.isCompressed(nonObfHeaderChunk, k)) {
+      return CompressionHelper.getPayloadSize(nonObfHeaderChunk, k);
+    }
+    return BMPService.getUnsignedBitmapSize(nonObfHeaderChunk);
+  }
+
   /**
    *
    * @param k integer to me used for modulus calculation
    * @return x = MIN_HEADER_SIZE + j  such as x == 0 mod(k), j in [0, k-1]
    */
-  private int calculateMinHeaderChunkSize(final int k) {
+  private static int calculateMinHeaderChunkSize(final int k) {
     final int minHeaderSizeModK = MIN_HEADER_SIZE % k;
     if (minHeaderSizeModK == 0) return MIN_HEADER_SIZE;
     return MIN_HEADER_SIZE - (minHeaderSizeModK - k); // [OK]
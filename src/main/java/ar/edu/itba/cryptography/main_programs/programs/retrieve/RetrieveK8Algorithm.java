@@ -3,9 +3,11 @@ package ar.edu.itba.cryptography.main_programs.programs.retrieve;
 import static ar.edu.itba.cryptography.services.BMPIOService.OpenMode.INPUT;
 
 import ar.edu.itba.cryptography.helpers.ByteHelper;
+import ar.edu.itba.cryptography.helpers.InterlaceHelper;
 import ar.edu.itba.cryptography.helpers.ObfuscatorHelper;
 import ar.edu.itba.cryptography.services.BMPIOService;
 import ar.edu.itba.cryptography.services.BMPService;
+import ar.edu.itba.cryptography.services.BufferPoolService;
 import java.nio.file.Path;
 import java.util.List;
 
@@ -15,16 +17,28 @@ public class RetrieveK8Algorithm extends RetrieveBaseAlgorithm {
     // Retrieve the secret image header
     final byte[] header = retrieveHeader(bmpIOService, shadowsPaths);
     // Get the total data bytes to be retrieved (size - offset)
-    final int size = BMPService.getBitmapSize(header);
+    final long size = BMPService.getUnsignedBitmapSize(header);
     final int offset = BMPService.getBitmapOffset(header);
-    final int dataBytes = size - offset;
+    final int dataBytes = toArrayLength(size - offset);
     // Retrieve the obfuscated secret image data
     final byte[] obfuscatedData = retrieveData(bmpIOService, shadowsPaths, dataBytes);
+    recordSecretCounters(shadowsPaths.size(), dataBytes);
     // Remove obfuscation
     final int seed = BMPService.recoverSeed(header);
-    final byte[] originalData = ObfuscatorHelper.toggleObfuscation(obfuscatedData, seed);
+    final byte[] nonObfuscatedData = ObfuscatorHelper.toggleObfuscation(obfuscatedData, seed);
+    BufferPoolService.release(obfuscatedData);
+    // Restore the file order of the pixel data, if it was distributed in interlaced order
+    final byte[] originalData;
+    if (BMPService.isInterlacedShadow(header)) {
+      originalData = InterlaceHelper.deinterlace(nonObfuscatedData, header);
+      BufferPoolService.release(nonObfuscatedData);
+    } else {
+      originalData = nonObfuscatedData;
+    }
     // Return the retrieved secret (header + data)
-    return ByteHelper.merge(header, originalData);
+    final byte[] secret = ByteHelper.merge(header, originalData);
+    BufferPoolService.release(originalData);
+    return secret;
   }
 
   private byte[] retrieveHeader(final BMPIOService bmpIOService,
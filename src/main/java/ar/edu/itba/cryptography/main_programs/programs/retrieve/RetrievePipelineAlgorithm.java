@@ -0,0 +1,464 @@
+package ar.edu.itba.cryptography.main_programs.programs.retrieve;
+
+import static ar.edu.itba.cryptography.helpers.InputArgsHelper.InputArgs.PIPELINE;
+import static ar.edu.itba.cryptography.services.IOService.ExitStatus.VALIDATION_FAILED;
+import static ar.edu.itba.cryptography.services.IOService.ExitStatus.WRITE_FILE_ERROR;
+
+import ar.edu.itba.cryptography.helpers.ByteHelper;
+import ar.edu.itba.cryptography.helpers.CompressionHelper;
+import ar.edu.itba.cryptography.helpers.DigestHelper;
+import ar.edu.itba.cryptography.helpers.InterlaceHelper;
+import ar.edu.itba.cryptography.helpers.MatrixHelper;
+import ar.edu.itba.cryptography.helpers.ObfuscatorHelper;
+import ar.edu.itba.cryptography.helpers.ObfuscatorHelper.Keystream;
+import ar.edu.itba.cryptography.interfaces.PipelineStage;
+import ar.edu.itba.cryptography.interfaces.RetrieveAlgorithm;
+import ar.edu.itba.cryptography.services.BMPChannelService;
+import ar.edu.itba.cryptography.services.BMPIOService;
+import ar.edu.itba.cryptography.services.BMPService;
+import ar.edu.itba.cryptography.services.BufferPoolService;
+import ar.edu.itba.cryptography.services.IOService;
+import ar.edu.itba.cryptography.services.InstrumentationService;
+import ar.edu.itba.cryptography.services.InstrumentationService.Counter;
+import ar.edu.itba.cryptography.services.InstrumentationService.Phase;
+import ar.edu.itba.cryptography.services.PipelineService;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.function.Consumer;
+
+/**
+ * Retrieves a secret as {@link RetrieveK8Algorithm} (k = 8) or {@link RetrieveCustomAlgorithm}
+ * (any other k) do, but through a staged pipeline (see {@link PipelineService}), tile by tile:
+ * <pre>
+ * read -> extract -> solve -> deobfuscate -> write
+ * </pre>
+ * Each shadow is accessed with positional reads of the region where the tile is hidden (they are
+ * not loaded in memory as a whole), and the polynomials are solved with the inverse of the
+ * Vandermonde matrix, computed once.<p>
+ * When the secret is written to a file, each tile is written as soon as it is deobfuscated,
+ * unless the whole secret is needed to restore it (i.e., if it was interlaced). A compressed
+ * secret is inflated as its tiles are deobfuscated (see {@link CompressionHelper.Decoder}), so it
+ * is written on the fly as well. The file only replaces the given output once the whole secret was
+ * written.
+ */
+public class RetrievePipelineAlgorithm implements RetrieveAlgorithm {
+  private static final int K8 = 8;
+  private static final int MODULUS = 257;
+  /**
+   * Amount of chunks of each tile, i.e., of values read from each shadow region at once. A tile is
+   * a block of the digests of the secret, if it has any (see {@link DigestHelper})
+   */
+  private static final int TILE_CHUNKS = DigestHelper.BLOCK_CHUNKS;
+  /**
+   * Amount of tiles each queue between two stages can hold
+   */
+  private static final int QUEUE_CAPACITY = 2;
+  /**
+   * Amount of stages of the pipeline (see {@link #retrieve})
+   */
+  private static final int STAGES = 5;
+  /**
+   * Usual size of the header of an array in a 64-bit JVM
+   */
+  private static final int ARRAY_HEADER_BYTES = 16;
+  private static final String TEMP_SUFFIX = ".tmp";
+
+  private final int k;
+
+  /**
+   * @param k the amount of shadows used to retrieve the secret
+   */
+  public RetrievePipelineAlgorithm(final int k) {
+    this.k = k;
+  }
+
+  /**
+   * @param shadowsPaths at least k shadows. They should NOT have been opened using the
+   *                     bmpIOService
+   */
+  @Override
+  public byte[] run(final BMPIOService bmpIOService, final List<Path> shadowsPaths) {
+    final Shares shares = openShares(shadowsPaths);
+    if (shares.compressed) {
+      // Inflated straight into an array of exactly the original size
+      final byte[] secret = new byte[RetrieveBaseAlgorithm.toArrayLength(shares.originalSize)];
+      final int[] size = new int[1];
+      inflate(shares, (bytes, from, length) -> {
+        System.arraycopy(bytes, from, secret, size[0], length);
+        size[0] += length;
+      });
+      return secret;
+    }
+    final byte[] data = BufferPoolService.lease(
+        RetrieveBaseAlgorithm.toArrayLength(shares.dataLength));
+    retrieve(shares, tile ->
+        System.arraycopy(tile.data, 0, data, tile.firstChunk * k, tile.data.length));
+    return restoreSecret(shares, data);
+  }
+
+  /**
+   * @param shadowsPaths at least k shadows. They should NOT have been opened using the
+   *                     bmpIOService
+   */
+  @Override
+  public void run(final BMPIOService bmpIOService, final List<Path> shadowsPaths,
+      final Path pathToOutput) {
+    final Shares shares = openShares(shadowsPaths);
+    if (shares.compressed) {
+      writeAtomically(pathToOutput, output -> {
+        final long[] position = new long[1];
+        inflate(shares, (bytes, from, length) -> {
+          write(output, position[0], bytes, from, length);
+          position[0] += length;
+        });
+      });
+      return;
+    }
+    if (shares.interlaced) {
+      // The whole secret is needed to restore it
+      final byte[] data = BufferPoolService.lease(
+          RetrieveBaseAlgorithm.toArrayLength(shares.dataLength));
+      retrieve(shares, tile ->
+          System.arraycopy(tile.data, 0, data, tile.firstChunk * k, tile.data.length));
+      final byte[] secret = restoreSecret(shares, data);
+      writeAtomically(pathToOutput, output -> write(output, 0, secret));
+      BufferPoolService.release(secret);
+      return;
+    }
+    writeAtomically(pathToOutput, output -> {
+      write(output, 0, shares.prefix);
+      retrieve(shares, tile ->
+          write(output, shares.prefix.length + (long) tile.firstChunk * k, tile.data));
+    });
+  }
+
+  /**
+   * @param totalChunks the amount of chunks of the secret
+   * @param k the chunk size
+   * @return the maximum amount of bytes held at the same time by the tiles in flight
+   */
+  public static long getInFlightBytes(final int totalChunks, final int k) {
+    final long chunks = Math.min(totalChunks,
+        (long) PipelineService.getMaxItemsInFlight(STAGES, QUEUE_CAPACITY) * TILE_CHUNKS);
+    // Shadow regions (up to 9 bytes per value) + values (an array per chunk) + data
+    return chunks * ((long) k * BMPService.WIDE_VALUE_BITS
+        + ARRAY_HEADER_BYTES + (long) k * Integer.BYTES + k);
+  }
+
+  /**
+   * Opens the first k shadows and recovers what is needed to retrieve the secret data from them
+   */
+  private Shares openShares(final List<Path> shadowsPaths) {
+    final Shares shares = new Shares(shadowsPaths.subList(0, k), k);
+    final Path firstPath = shares.paths.get(0);
+    if (k == K8) {
+      // As the K8 algorithm does, the header of a shadow is the header of the secret
+      shares.prefix = shares.channelService.read(firstPath, 0,
+          shares.channelService.getBitmapOffset(firstPath));
+      shares.dataLength = BMPService.getUnsignedBitmapSize(shares.prefix)
+          - BMPService.getBitmapOffset(shares.prefix);
+      shares.interlaced = BMPService.isInterlacedShadow(shares.prefix);
+      checkCapacity(shares);
+      return shares;
+    }
+    // As the custom algorithm does, the size of the secret is in its first chunks (as well as the
+    // original size of a compressed one)
+    final int minHeaderChunkSize = RetrieveCustomAlgorithm.getMinHeaderChunkSize(k);
+    final int headerChunks =
+        Math.max(minHeaderChunkSize, CompressionHelper.getHeaderChunkSize(k)) / k;
+    final byte[] headerChunk = new byte[headerChunks * k];
+    final int[][] values = new int[headerChunks][k];
+    for (int s = 0 ; s < k ; s++) {
+      final byte[] region = shares.readRegion(s, 0, headerChunks);
+      for (int chunk = 0 ; chunk < headerChunks ; chunk++) {
+        values[chunk][s] = shares.getValue(s, region, chunk);
+      }
+    }
+    for (int chunk = 0 ; chunk < headerChunks ; chunk++) {
+      MatrixHelper.solvePolynomial(shares.basis, values[chunk], MODULUS, headerChunk, chunk * k);
+    }
+    final byte[] nonObfHeaderChunk = ObfuscatorHelper.toggleObfuscation(headerChunk, shares.seed);
+    shares.prefix = new byte[0];
+    shares.compressed = CompressionHelper.isCompressed(nonObfHeaderChunk, k);
+    if (shares.compressed) {
+      shares.originalSize = CompressionHelper.getOriginalSize(nonObfHeaderChunk, k);
+    }
+    // If the secret was distributed with digests, its size is in their table, and every tile is
+    // verified (as the first one is, the header chunk cannot be corrupted unnoticed)
+    for (final Path path : shares.paths) {
+      if (shares.table == null
+          && BMPService.hasDigests(shares.channelService.getHeaderBytes(path))) {
+        shares.table = DigestHelper.readTable(shares.channelService, path);
+      }
+    }
+    shares.dataLength = shares.table != null ? (long) shares.table.getChunks() * k
+        : RetrieveCustomAlgorithm.getSecretLength(nonObfHeaderChunk, k);
+    // A wrong shadow (or a wrong set of them) yields a meaningless size: check it before any tile
+    // is allocated or read
+    if (shares.dataLength < minHeaderChunkSize || shares.dataLength % k != 0) {
+      IOService.exit(VALIDATION_FAILED, "The retrieved secret size (" + shares.dataLength
+          + " bytes) is not valid for k = " + k + ". Check that the shadows belong to the same "
+          + "secret");
+    }
+    checkCapacity(shares);
+    return shares;
+  }
+
+  /**
+   * Exits with a validation error if the secret data do not fit in the shadows
+   */
+  private void checkCapacity(final Shares shares) {
+    final long chunks = shares.dataLength / k;
+    for (int s = 0 ; s < k ; s++) {
+      final Path path = shares.paths.get(s);
+      if (shares.channelService.getDataSize(path) / shares.bytesPerValue[s] < chunks) {
+        IOService.exit(VALIDATION_FAILED, "The retrieved secret size (" + shares.dataLength
+            + " bytes) exceeds the capacity of the shadow " + path);
+      }
+    }
+  }
+
+  /**
+   * Retrieves the secret data of the given shares, tile by tile, and gives each of them (in
+   * order) to the given output. The shares are closed afterwards
+   */
+  private void retrieve(final Shares shares, final PipelineStage<Tile> output) {
+    final Keystream keystream = new Keystream(shares.seed);
+    new PipelineService<Tile>(QUEUE_CAPACITY)
+        .addStage("read", tile -> {
+          tile.regions = new byte[k][];
+          for (int s = 0 ; s < k ; s++) {
+            tile.regions[s] = shares.readRegion(s, tile.firstChunk, tile.chunks);
+          }
+        })
+        .addStage("extract", tile -> {
+          final long extractStart = InstrumentationService.start();
+          tile.values = new int[tile.chunks][k];
+          for (int s = 0 ; s < k ; s++) {
+            for (int chunk = 0 ; chunk < tile.chunks ; chunk++) {
+              tile.values[chunk][s] = shares.getValue(s, tile.regions[s], chunk);
+            }
+          }
+          tile.regions = null;
+          InstrumentationService.record(Phase.EXTRACT, extractStart, (long) tile.chunks * k);
+        })
+        .addStage("solve", tile -> {
+          final long solveStart = InstrumentationService.start();
+          tile.data = new byte[tile.chunks * k];
+          for (int chunk = 0 ; chunk < tile.chunks ; chunk++) {
+            MatrixHelper.solvePolynomial(shares.basis, tile.values[chunk], MODULUS, tile.data,
+                chunk * k);
+          }
+          tile.values = null;
+          InstrumentationService.record(Phase.SOLVE, solveStart, tile.data.length);
+          final int block = tile.firstChunk / TILE_CHUNKS;
+          if (shares.table != null && !shares.table.matches(block, tile.data, tile.firstChunk, k)) {
+            // Unlike the retrieve algorithms, the pipeline does not try other shadows
+            IOService.exit(VALIDATION_FAILED, "Block " + block + " of the secret does not match "
+                + "its digest. Retrieve it without " + PIPELINE.getType() + ", so as "
+                + "the other shadows of the directory are tried in place of the corrupted one");
+          }
+        })
+        .addStage("deobfuscate", tile -> keystream.toggle(tile.data))
+        .addStage("write", tile -> {
+          output.process(tile);
+          tile.data = null; // the tile is done => release its buffer
+        })
+        .run(new TileIterator((int) (shares.dataLength / k)));
+    shares.channelService.closeBmpFiles(shares.paths);
+    RetrieveBaseAlgorithm.recordSecretCounters(k, shares.dataLength);
+    if (shares.table != null) {
+      InstrumentationService.set(Counter.CORRUPTED_BLOCKS, 0);
+      InstrumentationService.set(Counter.SUBSTITUTED_SHADOWS, 0);
+    }
+  }
+
+  /**
+   * Retrieves the payload of the given compressed shares, and inflates each tile into the given
+   * sink as soon as it is deobfuscated
+   */
+  private void inflate(final Shares shares, final CompressionHelper.Sink sink) {
+    final CompressionHelper.Decoder decoder = new CompressionHelper.Decoder(k, sink);
+    retrieve(shares, tile -> decoder.write(tile.data, 0, tile.data.length));
+    decoder.finish();
+  }
+
+  /**
+   * @param data the whole non-obfuscated secret data. It is released to the
+   *             {@link BufferPoolService}
+   * @return the secret, as the K8 & custom algorithms return it
+   */
+  private byte[] restoreSecret(final Shares shares, final byte[] data) {
+    final byte[] secret;
+    if (shares.interlaced) {
+      final byte[] originalData = InterlaceHelper.deinterlace(data, shares.prefix);
+      secret = ByteHelper.merge(shares.prefix, originalData);
+      BufferPoolService.release(originalData);
+    } else {
+      secret = ByteHelper.merge(shares.prefix, data);
+    }
+    BufferPoolService.release(data);
+    return secret;
+  }
+
+  /**
+   * Writes the secret into a temporary file next to the given path, which is then synced & moved
+   * onto it, so as a failed (or interrupted) retrieval never leaves a truncated secret behind, nor
+   * destroys a previous one. The temporary file is deleted on failure
+   */
+  private static void writeAtomically(final Path pathToOutput,
+      final Consumer<FileChannel> writer) {
+    final Path target = pathToOutput.toAbsolutePath();
+    Path tempPath = null;
+    boolean moved = false;
+    try {
+      final Path parent = target.getParent();
+      Files.createDirectories(parent);
+      tempPath = Files.createTempFile(parent, "." + target.getFileName(), TEMP_SUFFIX);
+      tempPath.toFile().deleteOnExit(); // in case the retrieval exits halfway
+      try (final FileChannel output = FileChannel.open(tempPath, StandardOpenOption.WRITE)) {
+        writer.accept(output);
+        output.force(true);
+      }
+      IOService.moveAtomically(tempPath, target);
+      moved = true;
+    } catch (final IOException | UncheckedIOException e) {
+      IOService.exit(WRITE_FILE_ERROR, e);
+    } finally {
+      if (tempPath != null && !moved) {
+        try {
+          Files.deleteIfExists(tempPath);
+        } catch (final IOException e) {
+          // Already failing: the temporary file is left for deleteOnExit
+        }
+      }
+    }
+  }
+
+  private static void write(final FileChannel output, final long position, final byte[] bytes) {
+    write(output, position, bytes, 0, bytes.length);
+  }
+
+  private static void write(final FileChannel output, final long position, final byte[] bytes,
+      final int from, final int length) {
+    final long writeStart = InstrumentationService.start();
+    final ByteBuffer buffer = ByteBuffer.wrap(bytes, from, length);
+    try {
+      while (buffer.hasRemaining()) {
+        output.write(buffer, position + buffer.position() - from);
+      }
+    } catch (final IOException e) {
+      throw new UncheckedIOException(e); // see writeAtomically
+    }
+    InstrumentationService.record(Phase.WRITE, writeStart, length);
+  }
+
+  /**
+   * The k shadows a secret is retrieved from, and what is known about the secret
+   */
+  private static class Shares {
+    private final List<Path> paths;
+    private final BMPChannelService channelService;
+    private final int[] bytesPerValue;
+    private final long[] offsets;
+    private final int[][] basis;
+    private final char seed;
+    /**
+     * Bytes written before the retrieved data (i.e., the header of a k = 8 secret)
+     */
+    private byte[] prefix;
+    /**
+     * Up to 4 GB: only the secrets that are written straight to a file may not fit in an array
+     */
+    private long dataLength;
+    private boolean interlaced;
+    private boolean compressed;
+    /**
+     * The size of a compressed secret, once inflated
+     */
+    private long originalSize;
+    /**
+     * The digests of the secret; null if it was distributed without them
+     */
+    private DigestHelper.Table table;
+
+    private Shares(final List<Path> paths, final int k) {
+      this.paths = paths;
+      this.channelService = new BMPChannelService();
+      channelService.openBmpFiles(paths);
+      this.bytesPerValue = new int[k];
+      this.offsets = new long[k];
+      final int[] xs = new int[k];
+      for (int s = 0 ; s < k ; s++) {
+        final Path path = paths.get(s);
+        bytesPerValue[s] = channelService.isWideShadow(path) ? BMPService.WIDE_VALUE_BITS
+            : Byte.SIZE;
+        offsets[s] = channelService.getBitmapOffset(path);
+        xs[s] = channelService.getShadowNumber(path);
+      }
+      this.basis = MatrixHelper.getLagrangeBasis(xs, MODULUS);
+      this.seed = channelService.getSeed(paths.get(0));
+    }
+
+    private byte[] readRegion(final int s, final int firstChunk, final int chunks) {
+      return channelService.read(paths.get(s), offsets[s] + (long) firstChunk * bytesPerValue[s],
+          chunks * bytesPerValue[s]);
+    }
+
+    private int getValue(final int s, final byte[] region, final int chunk) {
+      if (bytesPerValue[s] == BMPService.WIDE_VALUE_BITS) {
+        return BMPService.getWideValueInLSB(region, chunk * BMPService.WIDE_VALUE_BITS);
+      }
+      return ByteHelper.byteToUnsignedInt(BMPService.getValueInLSB(region, chunk * Byte.SIZE));
+    }
+  }
+
+  private static class Tile {
+    private final int firstChunk;
+    private final int chunks;
+    private byte[][] regions;
+    private int[][] values;
+    private byte[] data;
+
+    private Tile(final int firstChunk, final int chunks) {
+      this.firstChunk = firstChunk;
+      this.chunks = chunks;
+    }
+  }
+
+  /**
+   * Creates the tiles lazily, so as only the ones in flight are kept in memory
+   */
+  private static class TileIterator implements Iterator<Tile> {
+    private final int totalChunks;
+    private int nextChunk;
+
+    private TileIterator(final int totalChunks) {
+      this.totalChunks = totalChunks;
+      this.nextChunk = 0;
+    }
+
+    @Override
+    public boolean hasNext() {
+      return nextChunk < totalChunks;
+    }
+
+    @Override
+    public Tile next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      final Tile tile = new Tile(nextChunk, Math.min(TILE_CHUNKS, totalChunks - nextChunk));
+      nextChunk += tile.chunks;
+      return tile;
+    }
+  }
+}
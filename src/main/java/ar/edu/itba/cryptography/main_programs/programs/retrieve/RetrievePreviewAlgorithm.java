@@ -0,0 +1,102 @@
+package ar.edu.itba.cryptography.main_programs.programs.retrieve;
+
+import static ar.edu.itba.cryptography.services.IOService.ExitStatus.VALIDATION_FAILED;
+
+import ar.edu.itba.cryptography.helpers.ByteHelper;
+import ar.edu.itba.cryptography.helpers.InterlaceHelper;
+import ar.edu.itba.cryptography.helpers.MatrixHelper;
+import ar.edu.itba.cryptography.helpers.ObfuscatorHelper;
+import ar.edu.itba.cryptography.interfaces.RetrieveAlgorithm;
+import ar.edu.itba.cryptography.services.BMPChannelService;
+import ar.edu.itba.cryptography.services.BMPIOService;
+import ar.edu.itba.cryptography.services.BMPService;
+import ar.edu.itba.cryptography.services.IOService;
+import ar.edu.itba.cryptography.services.InstrumentationService;
+import ar.edu.itba.cryptography.services.InstrumentationService.Counter;
+import ar.edu.itba.cryptography.services.InstrumentationService.Phase;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Retrieves a low resolution preview of a k = 8 secret distributed in interlaced order (see
+ * {@link InterlaceHelper}), from the first chunks only.<p>
+ * Only the header and the bytes where those chunks are hidden are read from each shadow, so the
+ * cost is the one of the requested passes (e.g., 1/64 of the pixels for the first pass), instead
+ * of the one of the whole secret.
+ */
+public class RetrievePreviewAlgorithm implements RetrieveAlgorithm {
+  private static final int K = 8;
+  private static final int MODULUS = 257;
+
+  private final int passes;
+
+  /**
+   * @param passes the amount of interlaced passes to be retrieved, in
+   *               [1, {@link InterlaceHelper#PASSES}]
+   */
+  public RetrievePreviewAlgorithm(final int passes) {
+    this.passes = passes;
+  }
+
+  /**
+   * @param shadowsPaths at least k shadows. They should NOT have been opened using the
+   *                     bmpIOService
+   */
+  @Override
+  public byte[] run(final BMPIOService bmpIOService, final List<Path> shadowsPaths) {
+    final List<Path> paths = shadowsPaths.subList(0, K);
+    final BMPChannelService channelService = new BMPChannelService();
+    channelService.openBmpFiles(paths);
+    for (final Path path : paths) {
+      if (!channelService.isInterlacedShadow(path)) {
+        IOService.exit(VALIDATION_FAILED, path + " does not hold an interlaced secret");
+      }
+    }
+    // As the K8 algorithm does, the header of a shadow is the header of the secret
+    final Path firstPath = paths.get(0);
+    final byte[] header = channelService.read(firstPath, 0,
+        channelService.getBitmapOffset(firstPath));
+    final long dataBytes = channelService.getDataSize(firstPath);
+    if (!InterlaceHelper.canInterlace(header, dataBytes)) {
+      IOService.exit(VALIDATION_FAILED, firstPath + " does not hold an interlaced secret");
+    }
+    // Only the chunks of the requested passes are read
+    final int chunks = (int) Math.min((InterlaceHelper.getPassesSize(header, passes) + K - 1) / K,
+        dataBytes / K);
+    final long extractStart = System.nanoTime();
+    final int[] xs = new int[K];
+    final int[][] values = new int[chunks][K];
+    for (int i = 0 ; i < K ; i++) {
+      final Path path = paths.get(i);
+      xs[i] = channelService.getShadowNumber(path);
+      final byte[] region = channelService.read(path, channelService.getBitmapOffset(path),
+          chunks * Byte.SIZE);
+      for (int chunk = 0 ; chunk < chunks ; chunk++) {
+        values[chunk][i] =
+            ByteHelper.byteToUnsignedInt(BMPService.getValueInLSB(region, chunk * Byte.SIZE));
+      }
+    }
+    final char seed = channelService.getSeed(firstPath);
+    channelService.closeBmpFiles(paths);
+    // Solve each chunk polynomial, with the inverse of the Vandermonde matrix (computed once)
+    final long solveStart = System.nanoTime();
+    final int[][] basis = MatrixHelper.getLagrangeBasis(xs, MODULUS);
+    final byte[] obfData = new byte[chunks * K];
+    for (int chunk = 0 ; chunk < chunks ; chunk++) {
+      MatrixHelper.solvePolynomial(basis, values[chunk], MODULUS, obfData, chunk * K);
+    }
+    final long solveEnd = System.nanoTime();
+    InstrumentationService.recordElapsed(Phase.EXTRACT, solveStart - extractStart,
+        (long) chunks * K);
+    InstrumentationService.recordElapsed(Phase.SOLVE, solveEnd - solveStart, chunks);
+    InstrumentationService.set(Counter.SHADOWS, K);
+    InstrumentationService.set(Counter.CHUNKS, chunks);
+    InstrumentationService.set(Counter.SECRET_BYTES, obfData.length);
+    InstrumentationService.set(Counter.BYTES_PER_SHADOW, chunks);
+    // The obfuscation of a prefix of the data only depends on that prefix
+    final byte[] interlacedPrefix = ObfuscatorHelper.toggleObfuscation(obfData, seed);
+    // Secrets are interlaced whole => an interlaced one always fits in an array
+    return ByteHelper.merge(header,
+        InterlaceHelper.preview(interlacedPrefix, header, passes, (int) dataBytes));
+  }
+}
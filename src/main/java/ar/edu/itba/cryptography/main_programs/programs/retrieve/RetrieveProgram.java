@@ -1,24 +1,33 @@
 package ar.edu.itba.cryptography.main_programs.programs.retrieve;
 
+import static ar.edu.itba.cryptography.helpers.InputArgsHelper.InputArgs.BUNDLE;
 import static ar.edu.itba.cryptography.helpers.InputArgsHelper.InputArgs.IMAGES_DIR;
 import static ar.edu.itba.cryptography.helpers.InputArgsHelper.InputArgs.K;
+import static ar.edu.itba.cryptography.helpers.InputArgsHelper.InputArgs.LISTEN;
 import static ar.edu.itba.cryptography.helpers.InputArgsHelper.InputArgs.N;
+import static ar.edu.itba.cryptography.helpers.InputArgsHelper.InputArgs.PIPELINE;
+import static ar.edu.itba.cryptography.helpers.InputArgsHelper.InputArgs.PREVIEW;
 import static ar.edu.itba.cryptography.helpers.InputArgsHelper.InputArgs.SECRET;
+import static ar.edu.itba.cryptography.helpers.InputArgsHelper.InputArgs.SECRET_ID;
 import static ar.edu.itba.cryptography.services.BMPIOService.OpenMode.INPUT;
 import static ar.edu.itba.cryptography.services.IOService.ExitStatus.VALIDATION_FAILED;
 
 import ar.edu.itba.cryptography.helpers.InputArgsHelper;
 import ar.edu.itba.cryptography.helpers.InputArgsHelper.InputArgs;
+import ar.edu.itba.cryptography.helpers.InterlaceHelper;
 import ar.edu.itba.cryptography.interfaces.MainProgram;
 import ar.edu.itba.cryptography.interfaces.RetrieveAlgorithm;
+import ar.edu.itba.cryptography.services.ArchiveService;
 import ar.edu.itba.cryptography.services.BMPIOService;
 import ar.edu.itba.cryptography.services.IOService;
 import ar.edu.itba.cryptography.services.IOService.ExitStatus;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.stream.Collectors;
 
 public class RetrieveProgram implements MainProgram {
   private static final int STANDARD_K_VALUE = 8;
@@ -27,14 +36,33 @@ public class RetrieveProgram implements MainProgram {
   private final Path pathToOutput;
   private final int k;
   private final List<Path> pathsToShadows;
+  /**
+   * Shadows that are not used, but that may replace a corrupted one
+   */
+  private final List<Path> sparePaths;
   private final BMPIOService bmpIOService;
+  @SuppressWarnings("OptionalUsedAsFieldOrParameterType")
+  private final Optional<Integer> secretId;
+  @SuppressWarnings("OptionalUsedAsFieldOrParameterType")
+  private final Optional<Integer> listenPort;
+  @SuppressWarnings("OptionalUsedAsFieldOrParameterType")
+  private final Optional<Integer> previewPasses;
+  private final boolean pipeline;
 
+  @SuppressWarnings("OptionalUsedAsFieldOrParameterType")
   private RetrieveProgram(final Path pathToOutput, final int k, final List<Path> pathsToShadows,
-      final BMPIOService bmpIOService) {
+      final List<Path> sparePaths, final BMPIOService bmpIOService, final Optional<Integer> secretId,
+      final Optional<Integer> listenPort, final Optional<Integer> previewPasses,
+      final boolean pipeline) {
     this.pathToOutput = pathToOutput;
     this.k = k;
     this.pathsToShadows = pathsToShadows;
+    this.sparePaths = sparePaths;
     this.bmpIOService = bmpIOService;
+    this.secretId = secretId;
+    this.listenPort = listenPort;
+    this.previewPasses = previewPasses;
+    this.pipeline = pipeline;
   }
 
   public static MainProgram build(final Map<InputArgs, String> parsedArgs) {
@@ -47,30 +75,109 @@ public class RetrieveProgram implements MainProgram {
     final Optional<String> dir = Optional.ofNullable(dirString);
     final Path pathToOutput = Paths.get(secret);
     final int k = IOService.parseAsInt(kString, K.getDescription());
-    final BMPIOService bmpIOService = new BMPIOService();
-    final List<Path> pathsToShadows =
-        bmpIOService.openBmpFilesFrom(dir, Optional.of(k), INPUT, null);
+    final Optional<Integer> secretId =
+        Optional.ofNullable(InputArgsHelper.validateArgAccess(parsedArgs, SECRET_ID, false))
+            .map(id -> IOService.parseAsInt(id, SECRET_ID.getDescription()));
+    final Optional<Integer> listenPort =
+        Optional.ofNullable(InputArgsHelper.validateArgAccess(parsedArgs, LISTEN, false))
+            .map(port -> IOService.parseAsInt(port, LISTEN.getDescription()));
+    final Optional<Integer> previewPasses =
+        Optional.ofNullable(InputArgsHelper.validateArgAccess(parsedArgs, PREVIEW, false))
+            .map(passes -> IOService.parseAsInt(passes, PREVIEW.getDescription()));
+    final boolean pipeline = InputArgsHelper.isFlagSet(parsedArgs, PIPELINE);
+    final String bundle = InputArgsHelper.validateArgAccess(parsedArgs, BUNDLE, false);
+    if (bundle != null && (dirString != null || listenPort.isPresent() || secretId.isPresent()
+        || previewPasses.isPresent() || pipeline)) {
+      // The shadows of a bundle are read whole, as the archive is streamed
+      IOService.exit(ExitStatus.BAD_ARGUMENT, BUNDLE.getType() + " cannot be used with "
+          + IMAGES_DIR.getType() + ", " + LISTEN.getType() + ", " + SECRET_ID.getType() + ", "
+          + PREVIEW.getType() + " nor " + PIPELINE.getType());
+    }
+    if (bundle != null && !ArchiveService.isArchive(Paths.get(bundle))) {
+      IOService.exit(ExitStatus.BAD_FILE_FORMAT, bundle);
+    }
+    if (pipeline && (listenPort.isPresent() || secretId.isPresent() || previewPasses.isPresent())) {
+      // The pipeline retrieves a whole secret from the local shadows
+      IOService.exit(ExitStatus.BAD_ARGUMENT, PIPELINE.getType() + " cannot be used with "
+          + LISTEN.getType() + ", " + SECRET_ID.getType() + " nor " + PREVIEW.getType());
+    }
+    if (previewPasses.isPresent()) {
+      // Only k = 8 secrets distributed in interlaced order can be previewed
+      if (listenPort.isPresent() || secretId.isPresent()) {
+        IOService.exit(ExitStatus.BAD_ARGUMENT, PREVIEW.getType() + " cannot be used with "
+            + LISTEN.getType() + " nor " + SECRET_ID.getType());
+      }
+      if (k != STANDARD_K_VALUE) {
+        IOService.exit(VALIDATION_FAILED, PREVIEW.getType() + " is only available for k = "
+            + STANDARD_K_VALUE);
+      }
+      final int passes = previewPasses.get();
+      if (passes < 1 || passes > InterlaceHelper.PASSES) {
+        IOService.exit(VALIDATION_FAILED, "1 <= passes <= " + InterlaceHelper.PASSES
+            + ". passes = " + passes);
+      }
+    }
+    final BMPIOService bmpIOService = BMPIOService.newInstance();
+    if (listenPort.isPresent()) {
+      // Shadows are held by the agents, which connect to this program
+      if (dirString != null || secretId.isPresent()) {
+        IOService.exit(ExitStatus.BAD_ARGUMENT, LISTEN.getType() + " cannot be used with "
+            + IMAGES_DIR.getType() + " nor " + SECRET_ID.getType());
+      }
+      if (k < MIN_K_VALUE) IOService.exit(VALIDATION_FAILED, "k < " + MIN_K_VALUE);
+      return new RetrieveProgram(pathToOutput, k, Collections.emptyList(),
+          Collections.emptyList(), bmpIOService, secretId, listenPort, previewPasses, pipeline);
+    }
+    final List<Path> pathsToShadows;
+    final List<Path> sparePaths;
+    if (bundle != null) {
+      // Only the first k shadows of the archive are read => there are no spares
+      pathsToShadows =
+          bmpIOService.openBmpFilesFromArchive(Paths.get(bundle), Optional.of(k), INPUT);
+      sparePaths = Collections.emptyList();
+    } else if (secretId.isPresent() || previewPasses.isPresent() || pipeline) {
+      // Only the directory & the share region of the secret (or the first passes of it, or one
+      // region at a time) are read => shadows are not opened
+      pathsToShadows = bmpIOService.findBmpFilesFrom(dir, null);
+      sparePaths = Collections.emptyList();
+    } else {
+      pathsToShadows = bmpIOService.openBmpFilesFrom(dir, Optional.of(k), INPUT, null);
+      // The rest of the shadows are only opened if any of the used ones is corrupted
+      sparePaths = bmpIOService.findBmpFilesFrom(dir, null).stream()
+          .filter(path -> !pathsToShadows.contains(path)).collect(Collectors.toList());
+    }
     if (k < MIN_K_VALUE) IOService.exit(VALIDATION_FAILED, "k < " + MIN_K_VALUE);
     if (k > pathsToShadows.size()) IOService.exit(VALIDATION_FAILED, "k > pathsToShadows.size()");
-    return new RetrieveProgram(pathToOutput, k, pathsToShadows, bmpIOService);
+    return new RetrieveProgram(pathToOutput, k, pathsToShadows, sparePaths, bmpIOService,
+        secretId, listenPort, previewPasses, pipeline);
   }
 
   @Override
   public void run() {
     // Choose the retrieve algorithm based on the k number
     final RetrieveAlgorithm algorithm = chooseRetrieveAlgorithm(this.k);
-    // Get the bmp file data
-    final byte[] bmp = algorithm.run(this.bmpIOService, this.pathsToShadows);
-    // Write the bmp file to the specified output path
-    IOService.writeByteArrayToFile(this.pathToOutput, bmp);
+    // Get the bmp file data & write it to the specified output path
+    algorithm.run(this.bmpIOService, this.pathsToShadows, this.pathToOutput);
     // Close all the shadows files paths
     bmpIOService.closeBmpFiles(this.pathsToShadows, INPUT);
   }
 
   private RetrieveAlgorithm chooseRetrieveAlgorithm(final int k) {
+    if (listenPort.isPresent()) {
+      return new RetrieveCoordinatorAlgorithm(listenPort.get(), k);
+    }
+    if (pipeline) {
+      return new RetrievePipelineAlgorithm(k);
+    }
+    if (previewPasses.isPresent()) {
+      return new RetrievePreviewAlgorithm(previewPasses.get());
+    }
+    if (secretId.isPresent()) {
+      return new RetrieveContainerAlgorithm(secretId.get(), k);
+    }
     if (k == STANDARD_K_VALUE) {
       return new RetrieveK8Algorithm();
     }
-    return new RetrieveCustomAlgorithm();
+    return new RetrieveCustomAlgorithm(sparePaths);
   }
 }
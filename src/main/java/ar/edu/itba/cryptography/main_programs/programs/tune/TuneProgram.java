@@ -0,0 +1,121 @@
+package ar.edu.itba.cryptography.main_programs.programs.tune;
+
+import static ar.edu.itba.cryptography.helpers.InputArgsHelper.InputArgs.K;
+import static ar.edu.itba.cryptography.helpers.InputArgsHelper.InputArgs.N;
+import static ar.edu.itba.cryptography.helpers.InputArgsHelper.InputArgs.SECRET;
+import static ar.edu.itba.cryptography.services.IOService.ExitStatus.VALIDATION_FAILED;
+
+import ar.edu.itba.cryptography.helpers.InputArgsHelper;
+import ar.edu.itba.cryptography.helpers.InputArgsHelper.InputArgs;
+import ar.edu.itba.cryptography.interfaces.MainProgram;
+import ar.edu.itba.cryptography.main_programs.programs.distribute.DistributeCalibrator;
+import ar.edu.itba.cryptography.main_programs.programs.distribute.DistributeCalibrator.Result;
+import ar.edu.itba.cryptography.services.BMPChannelService;
+import ar.edu.itba.cryptography.services.BMPService;
+import ar.edu.itba.cryptography.services.IOService;
+import ar.edu.itba.cryptography.services.TuningService;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Calibrates the distribution settings (engine & tile size) for a (k, n) job shape on this host,
+ * and saves the fastest ones into the tuning profile (see {@link TuningService}), so as the
+ * following distributions of the same shape (and size class) use them automatically.<p>
+ * The calibration runs on synthetic data of the size class of the given secret or, if none is
+ * given, of each of the {@link #DEFAULT_SIZE_CLASSES}. So as it stays short, the synthetic
+ * secrets are capped to {@value #MAX_CALIBRATION_BYTES} bytes: the engines differ in the way they
+ * walk the cache, so their ranking holds for bigger secrets of the same shape.
+ */
+public class TuneProgram implements MainProgram {
+  private static final int STANDARD_K_VALUE = 8;
+  private static final int MIN_K_VALUE = 2;
+  /**
+   * Shadow numbers should be different (mod 257) and not 0
+   */
+  private static final int MAX_SHADOWS = 256;
+  /**
+   * 64 KiB, 256 KiB & 1 MiB secrets
+   */
+  private static final List<Integer> DEFAULT_SIZE_CLASSES = Arrays.asList(16, 18, 20);
+  private static final int MAX_CALIBRATION_BYTES = 1024 * 1024;
+  private static final double NANOS_PER_MILLI = 1_000_000d;
+  private static final double BYTES_PER_MEGABYTE = 1024 * 1024;
+  private static final double NANOS_PER_SECOND = 1_000_000_000d;
+
+  private final int k;
+  private final int n;
+  /**
+   * For each size class to be calibrated, the amount of bytes of its synthetic secret
+   */
+  private final Map<Integer, Integer> calibrationBytes;
+
+  private TuneProgram(final int k, final int n, final Map<Integer, Integer> calibrationBytes) {
+    this.k = k;
+    this.n = n;
+    this.calibrationBytes = calibrationBytes;
+  }
+
+  public static MainProgram build(final Map<InputArgs, String> parsedArgs) {
+    final int k = IOService.parseAsInt(InputArgsHelper.validateArgAccess(parsedArgs, K, true),
+        K.getDescription());
+    final int n = IOService.parseAsInt(InputArgsHelper.validateArgAccess(parsedArgs, N, true),
+        N.getDescription());
+    if (k < MIN_K_VALUE || k > n || n > MAX_SHADOWS) {
+      IOService.exit(VALIDATION_FAILED, MIN_K_VALUE + " <= k <= n <= " + MAX_SHADOWS + ". k = "
+          + k + "; n = " + n);
+    }
+    final String secret = InputArgsHelper.validateArgAccess(parsedArgs, SECRET, false);
+    final Map<Integer, Integer> calibrationBytes = new LinkedHashMap<>();
+    if (secret != null) {
+      // k = 8 distributes the pixel data; any other k, the whole file
+      final byte[] header = BMPChannelService.readHeaderBytes(Paths.get(secret));
+      final long secretBytes = k == STANDARD_K_VALUE
+          ? BMPService.getBitmapSize(header) - BMPService.getBitmapOffset(header)
+          : BMPService.getBitmapSize(header);
+      calibrationBytes.put(TuningService.getSizeClass(secretBytes),
+          getCalibrationBytes(secretBytes, k));
+    } else {
+      for (final int sizeClass : DEFAULT_SIZE_CLASSES) {
+        calibrationBytes.put(sizeClass, getCalibrationBytes(1L << sizeClass, k));
+      }
+    }
+    return new TuneProgram(k, n, Collections.unmodifiableMap(calibrationBytes));
+  }
+
+  @Override
+  public void run() {
+    for (final Map.Entry<Integer, Integer> entry : calibrationBytes.entrySet()) {
+      final int sizeClass = entry.getKey();
+      final int secretBytes = entry.getValue();
+      IOService.print("Calibrating k = " + k + ", n = " + n + ", size class " + sizeClass
+          + " (" + secretBytes + " bytes)");
+      final List<Result> results =
+          DistributeCalibrator.calibrate(k, n, secretBytes, new Random(sizeClass));
+      for (final Result result : results) {
+        IOService.print(String.format(Locale.ROOT, "  %-24s %10.3f ms %10.1f MB/s",
+            result.getTuning(), result.getNanos() / NANOS_PER_MILLI,
+            secretBytes / BYTES_PER_MEGABYTE / (result.getNanos() / NANOS_PER_SECOND)));
+      }
+      final Result best = results.get(0); // the chunk-major engine is always available
+      TuningService.save(k, n, sizeClass, best.getTuning());
+      IOService.print("  best: " + best.getTuning());
+    }
+    IOService.print("Saved to " + TuningService.getProfilePath());
+  }
+
+  // private methods
+
+  /**
+   * @return the amount of bytes of the synthetic secret of the given size (a multiple of k)
+   */
+  private static int getCalibrationBytes(final long secretBytes, final int k) {
+    final long bytes = Math.min(secretBytes, MAX_CALIBRATION_BYTES);
+    return (int) Math.max(k, bytes - bytes % k);
+  }
+}
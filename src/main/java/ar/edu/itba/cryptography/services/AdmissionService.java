@@ -0,0 +1,117 @@
+package ar.edu.itba.cryptography.services;
+
+import java.util.Locale;
+
+/**
+ * This class is in charge of admitting concurrent jobs so as the sum of their predicted peak
+ * memory stays within a heap budget.<p>
+ * Jobs are admitted in the order they ask for it (a job waits while the previous one is waiting,
+ * so none of them starves). A job runs in memory if its peak fits in the remaining budget;
+ * otherwise, it is downgraded to its streaming mode if that one fits. If none of them fits, the
+ * job waits until running jobs release their memory.
+ */
+public class AdmissionService {
+  public enum Admission {
+    IN_MEMORY, STREAMING;
+
+    public String getName() {
+      return name().toLowerCase(Locale.ROOT);
+    }
+  }
+
+  private final long budgetBytes;
+  private final int maxJobs;
+  private long reservedBytes;
+  private long peakReservedBytes;
+  private int runningJobs;
+  /**
+   * Tickets of the jobs, so as they are admitted in order
+   */
+  private long nextTicket;
+  private long admittedTickets;
+
+  /**
+   * @param budgetBytes the heap budget shared by all the running jobs
+   * @param maxJobs the maximum amount of jobs running at the same time
+   */
+  public AdmissionService(final long budgetBytes, final int maxJobs) {
+    this.budgetBytes = budgetBytes;
+    this.maxJobs = maxJobs;
+  }
+
+  /**
+   * @param memoryBytes the predicted peak of the job, in memory
+   * @param streamingBytes the predicted peak of the job, streaming; -1 if it cannot stream
+   * @return true if the job fits in the budget when running alone
+   */
+  public boolean fits(final long memoryBytes, final long streamingBytes) {
+    return memoryBytes <= budgetBytes || (streamingBytes >= 0 && streamingBytes <= budgetBytes);
+  }
+
+  /**
+   * Waits until the job can be admitted (see this class doc), and reserves its memory. Once it
+   * is done, {@link #release} should be called with {@link #getReservedBytes} of the admission.
+   * The job should {@link #fits} in the budget
+   * @param memoryBytes the predicted peak of the job, in memory
+   * @param streamingBytes the predicted peak of the job, streaming; -1 if it cannot stream
+   * @return how the job should run
+   */
+  public synchronized Admission admit(final long memoryBytes, final long streamingBytes)
+      throws InterruptedException {
+    final long ticket = nextTicket++;
+    while (true) {
+      if (ticket == admittedTickets && runningJobs < maxJobs) {
+        final long availableBytes = budgetBytes - reservedBytes;
+        final Admission admission;
+        if (memoryBytes <= availableBytes) {
+          admission = Admission.IN_MEMORY;
+        } else if (streamingBytes >= 0 && streamingBytes <= availableBytes) {
+          admission = Admission.STREAMING;
+        } else {
+          admission = null;
+        }
+        if (admission != null) {
+          reservedBytes += getReservedBytes(admission, memoryBytes, streamingBytes);
+          peakReservedBytes = Math.max(peakReservedBytes, reservedBytes);
+          runningJobs ++;
+          admittedTickets ++;
+          notifyAll(); // the following job may be admitted as well
+          return admission;
+        }
+      }
+      wait();
+    }
+  }
+
+  /**
+   * Releases the memory reserved by a job that is done
+   */
+  public synchronized void release(final long bytes) {
+    reservedBytes -= bytes;
+    runningJobs --;
+    notifyAll();
+  }
+
+  /**
+   * @return the memory reserved by an admission
+   */
+  public static long getReservedBytes(final Admission admission, final long memoryBytes,
+      final long streamingBytes) {
+    return admission == Admission.IN_MEMORY ? memoryBytes : streamingBytes;
+  }
+
+  public long getBudgetBytes() {
+    return budgetBytes;
+  }
+
+  public int getMaxJobs() {
+    return maxJobs;
+  }
+
+  /**
+   * @return the maximum sum of the predicted peaks of the jobs that ran at the same time
+   */
+  public synchronized long getPeakReservedBytes() {
+    return peakReservedBytes;
+  }
+}
@@ -0,0 +1,342 @@
+package ar.edu.itba.cryptography.services;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * This class is in charge of reading the entries of the archives shadows are handed in (ZIP, TAR
+ * or gzipped TAR), sequentially & only once, without extracting them to disk.<p>
+ * TAR archives are read by the reader of this class: POSIX ustar entries (with their name
+ * prefix), GNU long names & pax paths are supported; entries other than regular files are
+ * skipped.
+ */
+public final class ArchiveService {
+  private static final String ZIP_EXT = ".zip";
+  private static final String TAR_EXT = ".tar";
+  private static final String[] TGZ_EXTS = { ".tar.gz", ".tgz" };
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  /**
+   * Receives each entry of an archive, in the order they were archived
+   */
+  @FunctionalInterface
+  public interface EntryVisitor {
+    /**
+     * @param name the name of the entry (its path within the archive)
+     * @param in the data of the entry, only valid during this call. It should not be closed
+     * @return true to keep reading the archive; false to stop
+     */
+    boolean visit(String name, InputStream in) throws IOException;
+  }
+
+  private ArchiveService() {
+  }
+
+  /**
+   * @return true if the given file is an archive that can be read by this class (by its extension)
+   */
+  public static boolean isArchive(final Path path) {
+    final String name = getLowerCaseName(path);
+    return name.endsWith(ZIP_EXT) || name.endsWith(TAR_EXT) || isGzippedTar(name);
+  }
+
+  /**
+   * Reads the regular files of the given archive, passing each of them to the visitor until it
+   * asks to stop or the archive ends
+   */
+  public static void readEntries(final Path archive, final EntryVisitor visitor)
+      throws IOException {
+    final String name = getLowerCaseName(archive);
+    try (final InputStream in =
+        new BufferedInputStream(Files.newInputStream(archive), BUFFER_SIZE)) {
+      if (name.endsWith(ZIP_EXT)) {
+        readZipEntries(in, visitor);
+      } else if (isGzippedTar(name)) {
+        readTarEntries(new GZIPInputStream(in, BUFFER_SIZE), visitor);
+      } else {
+        readTarEntries(in, visitor);
+      }
+    }
+  }
+
+  // private methods
+
+  private static String getLowerCaseName(final Path path) {
+    return String.valueOf(path.getFileName()).toLowerCase(Locale.ROOT);
+  }
+
+  private static boolean isGzippedTar(final String name) {
+    for (final String ext : TGZ_EXTS) {
+      if (name.endsWith(ext)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static void readZipEntries(final InputStream in, final EntryVisitor visitor)
+      throws IOException {
+    final ZipInputStream zip = new ZipInputStream(in);
+    ZipEntry entry;
+    while ((entry = zip.getNextEntry()) != null) {
+      if (!entry.isDirectory() && !visitor.visit(entry.getName(), new UnclosableInputStream(zip))) {
+        return;
+      }
+    }
+  }
+
+  private static void readTarEntries(final InputStream in, final EntryVisitor visitor)
+      throws IOException {
+    final TarReader tar = new TarReader(in);
+    while (tar.nextEntry()) {
+      if (!visitor.visit(tar.name, tar.entryStream())) {
+        return;
+      }
+    }
+  }
+
+  /**
+   * Reads a TAR stream, one regular file at a time
+   */
+  private static class TarReader {
+    private static final int BLOCK_SIZE = 512;
+    private static final int NAME_OFFSET = 0, NAME_SIZE = 100;
+    private static final int SIZE_OFFSET = 124, SIZE_SIZE = 12;
+    private static final int TYPE_OFFSET = 156;
+    private static final int MAGIC_OFFSET = 257;
+    private static final String USTAR_MAGIC = "ustar";
+    private static final int PREFIX_OFFSET = 345, PREFIX_SIZE = 155;
+    private static final char REGULAR = '0', OLD_REGULAR = '\0', CONTIGUOUS = '7';
+    private static final char GNU_LONG_NAME = 'L', PAX_HEADER = 'x';
+    private static final String PAX_PATH = "path";
+
+    private final InputStream in;
+    private final byte[] header = new byte[BLOCK_SIZE];
+    private String name;
+    /**
+     * Bytes of the current entry (& its padding) not consumed yet
+     */
+    private long remaining;
+    private long padding;
+
+    private TarReader(final InputStream in) {
+      this.in = in;
+    }
+
+    /**
+     * Moves to the next regular file
+     * @return false if the archive ended
+     */
+    private boolean nextEntry() throws IOException {
+      String longName = null;
+      while (true) {
+        skipFully(remaining + padding);
+        remaining = padding = 0;
+        if (!readHeader()) {
+          return false;
+        }
+        final long size = parseOctal(header, SIZE_OFFSET, SIZE_SIZE);
+        remaining = size;
+        padding = (BLOCK_SIZE - size % BLOCK_SIZE) % BLOCK_SIZE;
+        final char type = (char) header[TYPE_OFFSET];
+        if (type == GNU_LONG_NAME || type == PAX_HEADER) {
+          final String data = readString(size);
+          longName = type == GNU_LONG_NAME ? trimNul(data) : parsePaxPath(data, longName);
+          continue;
+        }
+        if (type != REGULAR && type != OLD_REGULAR && type != CONTIGUOUS) {
+          longName = null; // directories, links, ... are skipped
+          continue;
+        }
+        name = longName != null ? longName : getHeaderName();
+        return true;
+      }
+    }
+
+    /**
+     * @return the data of the current entry
+     */
+    private InputStream entryStream() {
+      return new FilterInputStream(in) {
+        @Override
+        public int read() throws IOException {
+          if (remaining <= 0) {
+            return -1;
+          }
+          final int b = in.read();
+          if (b >= 0) {
+            remaining--;
+          }
+          return b;
+        }
+
+        @Override
+        public int read(final byte[] bytes, final int off, final int len) throws IOException {
+          if (remaining <= 0) {
+            return -1;
+          }
+          final int read = in.read(bytes, off, (int) Math.min(len, remaining));
+          if (read > 0) {
+            remaining -= read;
+          }
+          return read;
+        }
+
+        @Override
+        public long skip(final long n) throws IOException {
+          final long skipped = in.skip(Math.min(n, remaining));
+          remaining -= skipped;
+          return skipped;
+        }
+
+        @Override
+        public int available() throws IOException {
+          return (int) Math.min(in.available(), remaining);
+        }
+
+        @Override
+        public void close() {
+          // The archive is closed by its reader
+        }
+      };
+    }
+
+    /**
+     * @return false if the archive ended (end-of-archive block, or no more bytes)
+     */
+    private boolean readHeader() throws IOException {
+      int read = 0;
+      while (read < BLOCK_SIZE) {
+        final int n = in.read(header, read, BLOCK_SIZE - read);
+        if (n < 0) {
+          if (read == 0) {
+            return false;
+          }
+          throw new EOFException("Truncated TAR header");
+        }
+        read += n;
+      }
+      for (final byte b : header) {
+        if (b != 0) {
+          return true;
+        }
+      }
+      return false; // a zero block marks the end of the archive
+    }
+
+    private String getHeaderName() {
+      final String name = parseString(header, NAME_OFFSET, NAME_SIZE);
+      final String magic = parseString(header, MAGIC_OFFSET, USTAR_MAGIC.length());
+      if (USTAR_MAGIC.equals(magic)) {
+        final String prefix = parseString(header, PREFIX_OFFSET, PREFIX_SIZE);
+        if (!prefix.isEmpty()) {
+          return prefix + "/" + name;
+        }
+      }
+      return name;
+    }
+
+    private String readString(final long size) throws IOException {
+      if (size > Integer.MAX_VALUE) {
+        throw new IOException("TAR extended header too large: " + size + " bytes");
+      }
+      final byte[] bytes = new byte[(int) size];
+      int read = 0;
+      while (read < bytes.length) {
+        final int n = in.read(bytes, read, bytes.length - read);
+        if (n < 0) {
+          throw new EOFException("Truncated TAR entry");
+        }
+        read += n;
+      }
+      remaining = 0;
+      return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private void skipFully(final long bytes) throws IOException {
+      long left = bytes;
+      while (left > 0) {
+        final long skipped = in.skip(left);
+        if (skipped > 0) {
+          left -= skipped;
+        } else if (in.read() >= 0) {
+          left--;
+        } else {
+          throw new EOFException("Truncated TAR entry");
+        }
+      }
+    }
+
+    /**
+     * @param data pax records ({@code "<length> <key>=<value>\n"})
+     * @return the path of the records; the given name if there is none
+     */
+    private static String parsePaxPath(final String data, final String name) {
+      String path = name;
+      for (final String record : data.split("\n")) {
+        final int space = record.indexOf(' ');
+        final int equals = record.indexOf('=');
+        if (space >= 0 && equals > space && PAX_PATH.equals(record.substring(space + 1, equals))) {
+          path = record.substring(equals + 1);
+        }
+      }
+      return path;
+    }
+
+    private static String trimNul(final String s) {
+      final int nul = s.indexOf('\0');
+      return nul < 0 ? s : s.substring(0, nul);
+    }
+
+    private static String parseString(final byte[] bytes, final int offset, final int size) {
+      int end = offset;
+      while (end < offset + size && bytes[end] != 0) {
+        end++;
+      }
+      return new String(bytes, offset, end - offset, StandardCharsets.UTF_8);
+    }
+
+    private static long parseOctal(final byte[] bytes, final int offset, final int size)
+        throws IOException {
+      long value = 0;
+      for (int i = offset ; i < offset + size ; i++) {
+        final byte b = bytes[i];
+        if (b == 0 || b == ' ') {
+          if (value != 0) {
+            break;
+          }
+          continue; // leading spaces (or an empty field)
+        }
+        if (b < '0' || b > '7') {
+          throw new IOException("Bad TAR header: invalid octal field");
+        }
+        value = (value << 3) + (b - '0');
+      }
+      return value;
+    }
+  }
+
+  /**
+   * Keeps the visitors from closing the ZIP stream, which would close the whole archive
+   */
+  private static class UnclosableInputStream extends FilterInputStream {
+    private UnclosableInputStream(final InputStream in) {
+      super(in);
+    }
+
+    @Override
+    public void close() {
+      // The archive is closed by its reader
+    }
+  }
+}
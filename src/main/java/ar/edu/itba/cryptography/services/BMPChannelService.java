@@ -0,0 +1,219 @@
+package ar.edu.itba.cryptography.services;
+
+import static ar.edu.itba.cryptography.services.IOService.ExitStatus.BAD_FILE_DATA;
+import static ar.edu.itba.cryptography.services.IOService.ExitStatus.BAD_FILE_FORMAT;
+import static ar.edu.itba.cryptography.services.IOService.ExitStatus.COULD_NOT_OPEN_INPUT_FILE;
+import static ar.edu.itba.cryptography.services.IOService.ExitStatus.COULD_NOT_OPEN_OUTPUT_FILE;
+import static ar.edu.itba.cryptography.services.IOService.ExitStatus.WRITE_FILE_ERROR;
+import static ar.edu.itba.cryptography.services.IOService.exit;
+
+import ar.edu.itba.cryptography.services.InstrumentationService.Phase;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class is in charge of handling bmp files through positional reads & writes, so as only
+ * the accessed regions of each file are transferred (as opposed to {@link BMPIOService}, which
+ * loads the whole files in memory).<p>
+ * Only the header of each file is read when it is opened.
+ */
+public class BMPChannelService {
+  /**
+   * Bytes of the header that are read when a file is opened.
+   * It includes all the fields accessed through {@link BMPService}
+   */
+  /* package-private */ static final int HEADER_SIZE = 0x0036;
+  /**
+   * Reserved words of the header, used to store the seed & the shadow number
+   */
+  private static final int RESERVED_POSITION = 0x0006;
+  private static final int RESERVED_SIZE = 4;
+
+  private final Map<Path, BMPChannel> files;
+
+  public BMPChannelService() {
+    files = new HashMap<>();
+  }
+
+  public void openBmpFiles(final List<Path> paths) {
+    for (final Path path : paths) {
+      openBmpFile(path);
+    }
+  }
+
+  public void openBmpFile(final Path path) {
+    try {
+      final FileChannel channel =
+          FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+      files.put(path, BMPChannel.build(path, channel));
+    } catch (final IOException e) {
+      exit(COULD_NOT_OPEN_OUTPUT_FILE, path);
+    }
+  }
+
+  public void closeBmpFiles(final List<Path> paths) {
+    for (final Path path : paths) {
+      final BMPChannel bmpChannel = files.remove(path);
+      try {
+        bmpChannel.channel.close();
+      } catch (final IOException e) {
+        exit(WRITE_FILE_ERROR, e);
+      }
+    }
+  }
+
+  /**
+   * Reads (and validates) the header of the given file, without keeping it open
+   * @return the first bytes of the header, including all the fields accessed through
+   *         {@link BMPService} (for PNG images, the header of the bmp image they are decoded
+   *         into, see {@link PNGService})
+   */
+  public static byte[] readHeaderBytes(final Path path) {
+    if (PNGService.isPNGFile(path)) {
+      return PNGService.readHeader(path);
+    }
+    try (final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      return BMPChannel.build(path, channel).header;
+    } catch (final IOException e) {
+      exit(COULD_NOT_OPEN_INPUT_FILE, path);
+      throw new IllegalStateException(); // Should never reach here
+    }
+  }
+
+  public byte[] getHeaderBytes(final Path path) {
+    return files.get(path).header; // assuming path != null & path opened
+  }
+
+  public int getShadowNumber(final Path path) {
+    return BMPService.recoverShadowNumber(getHeaderBytes(path)) & BMPService.SHADOW_NUMBER_MASK;
+  }
+
+  public boolean isWideShadow(final Path path) {
+    return BMPService.isWideShadow(getHeaderBytes(path));
+  }
+
+  public boolean isInterlacedShadow(final Path path) {
+    return BMPService.isInterlacedShadow(getHeaderBytes(path));
+  }
+
+  public char getSeed(final Path path) {
+    return BMPService.recoverSeed(getHeaderBytes(path));
+  }
+
+  public int getBitmapOffset(final Path path) {
+    return BMPService.getBitmapOffset(getHeaderBytes(path));
+  }
+
+  /**
+   * @return the size of the pixel data of the given file, which may be beyond 2 GB
+   */
+  public long getDataSize(final Path path) {
+    final byte[] header = getHeaderBytes(path);
+    return BMPService.getUnsignedBitmapSize(header) - BMPService.getBitmapOffset(header);
+  }
+
+  public void setSeed(final Path path, final char seed) {
+    BMPService.saveSeed(getHeaderBytes(path), seed);
+  }
+
+  public void setShadowNumber(final Path path, final char shadowNumber) {
+    BMPService.saveShadowNumber(getHeaderBytes(path), shadowNumber);
+  }
+
+  /**
+   * Persists the reserved words of the header (i.e., the seed & the shadow number), as the other
+   * fields are never modified
+   */
+  public void writeHeader(final Path path) {
+    final byte[] header = getHeaderBytes(path);
+    write(path, RESERVED_POSITION,
+        Arrays.copyOfRange(header, RESERVED_POSITION, RESERVED_POSITION + RESERVED_SIZE));
+  }
+
+  /**
+   * Reads {@code length} bytes of the given file, starting at {@code position}
+   */
+  public byte[] read(final Path path, final long position, final int length) {
+    final long readStart = InstrumentationService.start();
+    final byte[] bytes = new byte[length];
+    final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+    final FileChannel channel = files.get(path).channel;
+    try {
+      while (buffer.hasRemaining()) {
+        if (channel.read(buffer, position + buffer.position()) < 0) {
+          throw new IOException("Unexpected end of file");
+        }
+      }
+    } catch (final IOException e) {
+      exit(COULD_NOT_OPEN_INPUT_FILE, e);
+    }
+    InstrumentationService.record(Phase.READ, readStart, length);
+    return bytes;
+  }
+
+  /**
+   * Writes the given bytes into the given file, starting at {@code position}
+   */
+  public void write(final Path path, final long position, final byte[] bytes) {
+    final long writeStart = InstrumentationService.start();
+    final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+    final FileChannel channel = files.get(path).channel;
+    try {
+      while (buffer.hasRemaining()) {
+        channel.write(buffer, position + buffer.position());
+      }
+    } catch (final IOException e) {
+      exit(WRITE_FILE_ERROR, e);
+    }
+    InstrumentationService.record(Phase.WRITE, writeStart, bytes.length);
+  }
+
+  /**
+   * Flushes the bytes written into the given file to the storage device
+   */
+  public void force(final Path path) {
+    try {
+      files.get(path).channel.force(false);
+    } catch (final IOException e) {
+      exit(WRITE_FILE_ERROR, e);
+    }
+  }
+
+  private static class BMPChannel {
+    private final FileChannel channel;
+    private final byte[] header;
+
+    /* package-private */ static BMPChannel build(final Path path, final FileChannel channel)
+        throws IOException {
+      final ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE);
+      while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+        // keep reading until the header is complete or the file ends
+      }
+      final byte[] header = buffer.array();
+      // Same validations as the ones performed when loading the whole file
+      if (buffer.hasRemaining() || !BMPService.isBMPFile(header)) {
+        exit(BAD_FILE_FORMAT, path);
+      }
+      final long size = BMPService.getUnsignedBitmapSize(header);
+      final int offset = BMPService.getBitmapOffset(header);
+      final int width = BMPService.getHorizontalWidthInPixels(header);
+      final int height = BMPService.getVerticalWidthInPixels(header);
+      if ((size - offset) != ((long) width * height) || channel.size() < size) {
+        exit(BAD_FILE_DATA, new Object[] { path, size, offset, width, height});
+      }
+      return new BMPChannel(channel, header);
+    }
+
+    private BMPChannel(final FileChannel channel, final byte[] header) {
+      this.channel = channel;
+      this.header = header;
+    }
+  }
+}
@@ -6,23 +6,39 @@ import static ar.edu.itba.cryptography.services.IOService.ExitStatus.VALIDATION_
 import static ar.edu.itba.cryptography.services.IOService.exit;
 
 import ar.edu.itba.cryptography.services.IOService.ExitStatus;
+import ar.edu.itba.cryptography.services.InstrumentationService.Phase;
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.PathMatcher;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 /**
  * This class is in charge of handling input & output files and references to where
- * each file should be written to or read from
+ * each file should be written to or read from.<p>
+ * Each instance belongs to one job: the cursors of its opened files (next value to be hidden or
+ * retrieved & matrix row) are its own. Jobs running at the same time in one JVM should use
+ * {@link #newInstance}, so as they share the images they read (see
+ * {@link ConcurrentBMPIOService}).<p>
+ * Files that do not fit in a single array (up to the 4 GB of the unsigned size field) are only
+ * opened as {@link OpenMode#INPUT}: they are mapped read-only (see {@link SegmentedBuffer}) and
+ * their values are retrieved with long positions, while the other files are loaded as a whole.
+ * Such files are written region by region instead (see {@link BMPChannelService}).
  */
 public class BMPIOService {
   public enum OpenMode {
@@ -31,24 +47,98 @@ public class BMPIOService {
   private static final String CWD = System.getProperty("user.dir");
   private static final int MAX_DIR_DEPTH = 1;
   private static final int FIRST_ELEM_INDEX = 0;
-  private static final String BMP_EXT = "glob:**.bmp";
+  private static final String BMP_EXT = "glob:**.{bmp,png}";
   private static final PathMatcher bmpExtMatcher = FileSystems.getDefault().getPathMatcher(BMP_EXT);
 
   private final Map<Path, BMPData> inputFiles;
   private final Map<Path, BMPData> outputFiles;
+  /**
+   * Directory where OUTPUT files are written to. If null, they are overwritten in place
+   */
+  private Path outputDirectory;
 
   public BMPIOService() {
-    inputFiles= new HashMap<>();
-    outputFiles= new HashMap<>();
+    this(false);
+  }
+
+  /**
+   * @param concurrent true if the opened files may be accessed by several threads of the job
+   *                   (each file by one of them at a time)
+   */
+  /* package-private */ BMPIOService(final boolean concurrent) {
+    inputFiles = concurrent ? new ConcurrentHashMap<>() : new HashMap<>();
+    outputFiles = concurrent ? new ConcurrentHashMap<>() : new HashMap<>();
+    outputDirectory = null;
+  }
+
+  /**
+   * @return a service for a new job: a {@link ConcurrentBMPIOService} if it is enabled (i.e.,
+   *         if jobs run at the same time in this JVM), or a plain one otherwise
+   */
+  public static BMPIOService newInstance() {
+    return ConcurrentBMPIOService.isEnabled() ? new ConcurrentBMPIOService() : new BMPIOService();
+  }
+
+  /**
+   * Makes {@link #writeDataToDisk} write each file into the given directory (with the same file
+   * name) instead of overwriting it, so as the opened files are only read.
+   * The directory is created if it does not exist
+   */
+  public void setOutputDirectory(final Path directory) {
+    try {
+      Files.createDirectories(directory);
+    } catch (final IOException e) {
+      exit(ExitStatus.MKDIRS_FAILED, directory);
+    }
+    this.outputDirectory = directory;
+  }
+
+  /**
+   * @return the path where the given file is written to by {@link #writeDataToDisk}
+   */
+  public Path getOutputPath(final Path path) {
+    if (outputDirectory == null) {
+      return path;
+    }
+    return outputDirectory.resolve(path.getFileName());
   }
 
   @SuppressWarnings("OptionalUsedAsFieldOrParameterType")
   public List<Path> openBmpFilesFrom(final Optional<String> optionalDir,
       final Optional<Integer> optionalN, final OpenMode mode,
       final Path secretPath) {
-    List<Path> paths;
+    final List<Path> paths = findBmpFilesFrom(optionalDir, secretPath);
+    try {
+      return loadPathsBasedOn(mode, optionalN, paths);
+    } catch (final IOException e) {
+      exit(ExitStatus.COULD_NOT_OPEN_INPUT_FILE, e);
+      throw new IllegalStateException(); // Should never return from the above method
+    }
+  }
+
+  /**
+   * Same as {@link #openBmpFilesFrom}, but only the given files are opened (e.g., the ones
+   * chosen out of {@link #findBmpFilesFrom})
+   */
+  public List<Path> openBmpFiles(final List<Path> paths, final OpenMode mode) {
+    try {
+      return loadPathsBasedOn(mode, Optional.empty(), paths);
+    } catch (final IOException e) {
+      exit(ExitStatus.COULD_NOT_OPEN_INPUT_FILE, e);
+      throw new IllegalStateException(); // Should never return from the above method
+    }
+  }
+
+  /**
+   * Same as {@link #openBmpFilesFrom}, but the found files are neither opened nor read
+   * @return all the bmp files paths found at the given directory, except for the secret one
+   */
+  @SuppressWarnings("OptionalUsedAsFieldOrParameterType")
+  public List<Path> findBmpFilesFrom(final Optional<String> optionalDir, final Path secretPath) {
+    final List<Path> paths;
     final String dir = optionalDir.orElse(CWD);
     final Path fullSecretPath = secretPath == null ? null : Paths.get(dir, secretPath.toString());
+    final long scanStart = InstrumentationService.start();
     try (final Stream<Path> pathsStream = Files.walk(Paths.get(dir), MAX_DIR_DEPTH)) {
       paths = pathsStream.filter(path -> {
         boolean rejected = false;
@@ -57,7 +147,7 @@ public class BMPIOService {
         }
         return Files.isRegularFile(path) && bmpExtMatcher.matches(path) && !rejected;
       }).collect(Collectors.toList());
-      paths = loadPathsBasedOn(mode, optionalN, paths);
+      InstrumentationService.record(Phase.SCAN, scanStart, 0);
     } catch (final IOException e) {
       exit(ExitStatus.COULD_NOT_OPEN_INPUT_FILE, e);
       throw new IllegalStateException(); // Should never return from the above method
@@ -65,6 +155,39 @@ public class BMPIOService {
     return paths;
   }
 
+  /**
+   * Same as {@link #openBmpFilesFrom}, but the files are read from an archive (see
+   * {@link ArchiveService}) as it is streamed, without extracting them to disk. Only the first n
+   * bmp entries are read (each of them once), or all of them if n is not given.
+   * @return the paths the opened files are referenced by: the path of the archive, followed by
+   *         the name of their entry. They do not exist in the file system
+   */
+  @SuppressWarnings("OptionalUsedAsFieldOrParameterType")
+  public List<Path> openBmpFilesFromArchive(final Path archive,
+      final Optional<Integer> optionalN, final OpenMode mode) {
+    final Map<Path, BMPData> map = chooseMapBasedOn(mode);
+    final List<Path> paths = new ArrayList<>();
+    // Entries are scanned as they are read => only the reads are recorded
+    try {
+      ArchiveService.readEntries(archive, (name, in) -> {
+        final Path path = archive.resolve(name);
+        if (bmpExtMatcher.matches(path)) {
+          final byte[] image = PNGService.isPNGFile(path) ? PNGService.read(path, in)
+              : readImage(path, in);
+          map.put(path, BMPData.build(path, image));
+          paths.add(path);
+        }
+        return !optionalN.isPresent() || paths.size() < optionalN.get();
+      });
+    } catch (final IOException e) {
+      exit(ExitStatus.COULD_NOT_OPEN_INPUT_FILE, e);
+      throw new IllegalStateException(); // Should never return from the above method
+    }
+    if (optionalN.isPresent() && optionalN.get() > paths.size()) {
+      IOService.exit(VALIDATION_FAILED, "There are not enough shadow files in " + archive);
+    }
+    return paths;
+  }
 
   public Path openBmpFile(final String filePathString, final OpenMode mode) {
     final Path pathToFile = Paths.get(filePathString);
@@ -74,7 +197,7 @@ public class BMPIOService {
     }
     final Map<Path, BMPData> map = chooseMapBasedOn(mode);
     try {
-      map.put(pathToFile, createBmpData(pathToFile));
+      map.put(pathToFile, createBmpData(pathToFile, mode));
     } catch (IOException e) {
       exit(ExitStatus.COULD_NOT_OPEN_INPUT_FILE, e);
       throw new IllegalStateException(); // Should never return from the above method
@@ -82,15 +205,24 @@ public class BMPIOService {
     return pathToFile;
   }
 
+  /**
+   * Closes the given files, releasing their images to the {@link BufferPoolService}, so as the
+   * arrays returned by {@link #getBmp} should not be accessed anymore
+   */
   public void closeBmpFiles(final List<Path> paths, final OpenMode mode) {
-    final Map<Path, BMPData> map = chooseMapBasedOn(mode);
     for (final Path path : paths) {
-      map.remove(path);
+      closeBmpFile(path, mode);
     }
   }
 
+  /**
+   * Same as {@link #closeBmpFiles}, for a single file
+   */
   public void closeBmpFile(final Path path, final OpenMode mode) {
-    chooseMapBasedOn(mode).remove(path);
+    final BMPData bmpData = chooseMapBasedOn(mode).remove(path);
+    if (bmpData != null && !bmpData.isMapped()) {
+      releaseImage(path, mode, bmpData.getBmp());
+    }
   }
 
   public byte[] getHeaderBytesOf(final Path path, final OpenMode mode) {
@@ -107,19 +239,40 @@ public class BMPIOService {
 
   public int getShadowNumber(final Path path, final OpenMode mode) {
     // assuming path != null & path opened
-    return BMPService.recoverShadowNumber(chooseMapBasedOn(mode).get(path).getHeaderBytes());
+    final byte[] header = chooseMapBasedOn(mode).get(path).getHeader();
+    return BMPService.recoverShadowNumber(header) & BMPService.SHADOW_NUMBER_MASK;
+  }
+
+  public boolean isWideShadow(final Path path, final OpenMode mode) {
+    return chooseMapBasedOn(mode).get(path).isWide();
   }
 
   public byte getNextSecretByte(final Path path, final OpenMode mode) {
     // assuming path != null & path opened
     final BMPData bmpData = chooseMapBasedOn(mode).get(path);
-    return BMPService.getValueInLSB(bmpData.getBmp(), bmpData.getNext8BytesOffset());
+    return BMPService.getValueInLSB(bmpData.getImage(), bmpData.getNext8BytesOffset());
+  }
+
+  /**
+   * @return the next hidden value of the given shadow, in [0, 256] (i.e.: as an unsigned byte,
+   * unless it is a wide shadow)
+   */
+  public int getNextSecretValue(final Path path, final OpenMode mode) {
+    // assuming path != null & path opened
+    final BMPData bmpData = chooseMapBasedOn(mode).get(path);
+    if (bmpData.isWide()) {
+      return BMPService.getWideValueInLSB(bmpData.getImage(), bmpData.getNextWideValueOffset());
+    }
+    return BMPService.getValueInLSB(bmpData.getImage(), bmpData.getNext8BytesOffset()) & 0xFF;
   }
 
   public char getSeedFromSample(final List<Path> shadowsPaths, final OpenMode mode) {
     return chooseMapBasedOn(mode).get(shadowsPaths.get(FIRST_ELEM_INDEX)).getSeed();
   }
 
+  /**
+   * @return a copy of the pixel data of the given file, leased from the {@link BufferPoolService}
+   */
   public byte[] getDataBytes(final Path pathToSecret, final OpenMode mode) {
     return chooseMapBasedOn(mode).get(pathToSecret).getDataBytes();
   }
@@ -128,10 +281,30 @@ public class BMPIOService {
     return chooseMapBasedOn(mode).get(path).getDataSize();
   }
 
+  /**
+   * Exits with a validation error if the file does not fit in a single array (see
+   * {@link #getBmpBuffer})
+   */
   public byte[] getBmp(final Path path, final OpenMode mode) {
     return chooseMapBasedOn(mode).get(path).getBmp();
   }
 
+  /**
+   * @return the whole given file, even if it does not fit in a single array (see
+   *         {@link SegmentedBuffer#array})
+   */
+  public SegmentedBuffer getBmpBuffer(final Path path, final OpenMode mode) {
+    return chooseMapBasedOn(mode).get(path).getImage();
+  }
+
+  /**
+   * @return a view of the pixel data of the given file, even if it does not fit in a single array
+   */
+  public SegmentedBuffer getDataBuffer(final Path path, final OpenMode mode) {
+    final BMPData bmpData = chooseMapBasedOn(mode).get(path);
+    return bmpData.getImage().slice(BMPService.getBitmapOffset(bmpData.getHeader()));
+  }
+
   public void setShadowNumber(final Path path, final OpenMode mode, final char x) {
     chooseMapBasedOn(mode).get(path).setShadowNumber(x);
   }
@@ -142,12 +315,92 @@ public class BMPIOService {
 
   public void hideByte(final Path path, final OpenMode mode, final byte b) {
     final BMPData bmpData = chooseMapBasedOn(mode).get(path);
-    BMPService.putValueInLSB(bmpData.getBmp(), b, bmpData.getNext8BytesOffset());
+    BMPService.putValueInLSB(bmpData.getBmp(), b, (int) bmpData.getNext8BytesOffset());
+  }
+
+  /**
+   * Hides a value in [0, 256] into the following {@link BMPService#WIDE_VALUE_BITS} bytes of the
+   * given path. The shadow should be marked as wide for the value to be properly retrieved
+   */
+  public void hideWideValue(final Path path, final OpenMode mode, final int value) {
+    final BMPData bmpData = chooseMapBasedOn(mode).get(path);
+    BMPService.putWideValueInLSB(bmpData.getBmp(), value,
+        (int) bmpData.getNextWideValueOffset());
+  }
+
+  /**
+   * Hides {@code length} values from {@code values}, starting at {@code from}, into the
+   * following 8 * length bytes of the given path
+   */
+  public void hideBytes(final Path path, final OpenMode mode, final byte[] values, final int from,
+      final int length) {
+    final BMPData bmpData = chooseMapBasedOn(mode).get(path);
+    BMPService.putValuesInLSB(bmpData.getBmp(), values, from, length,
+        bmpData.getNextBytesOffset(length));
+  }
+
+  /**
+   * Hides the given bytes (each of them in the LSBs of 8 bytes) at the end of the pixel data of
+   * the given file, so as they can be found without knowing what was hidden before them
+   */
+  public void hideTrailingBytes(final Path path, final OpenMode mode, final byte[] bytes) {
+    final BMPData bmpData = chooseMapBasedOn(mode).get(path);
+    final byte[] bmp = bmpData.getBmp();
+    final int end = BMPService.getBitmapSize(bmp);
+    BMPService.putValuesInLSB(bmp, bytes, FIRST_ELEM_INDEX, bytes.length,
+        end - bytes.length * Byte.SIZE);
+    bmpData.setModifiedUpTo(end);
   }
 
+  /**
+   * Reserves the following 8 * values bytes of the given path for hiding {@code values} values
+   * with an external LSB kernel (the image is accessible through {@link #getBmp})
+   * @return the position of the first reserved byte
+   */
+  public int reserveHiddenBytes(final Path path, final OpenMode mode, final int values) {
+    return chooseMapBasedOn(mode).get(path).getNextBytesOffset(values);
+  }
+
+  /**
+   * Persists the given file. If an output directory was set, the file is written there: only the
+   * bytes up to the last hidden value are written from memory, and the rest of them (which were
+   * not modified) are transferred from the original file, without copying them to user space
+   */
   public void writeDataToDisk(final Path path, final OpenMode mode) {
-    final byte[] bmp = chooseMapBasedOn(mode).get(path).getBmp();
-    IOService.writeByteArrayToFile(path, bmp);
+    final BMPData bmpData = chooseMapBasedOn(mode).get(path);
+    if (PNGService.isPNGFile(path)) {
+      // Compressed => the whole image is encoded again
+      PNGService.write(getOutputPath(path), bmpData.getBmp());
+      return;
+    }
+    if (outputDirectory == null) {
+      IOService.writeByteArrayToFile(path, bmpData.getBmp());
+      return;
+    }
+    final Path outputPath = getOutputPath(path);
+    final byte[] bmp = bmpData.getBmp();
+    final int modifiedBytes = (int) Math.min(bmpData.getModifiedBytes(), bmp.length);
+    final long writeStart = InstrumentationService.start();
+    try (final FileChannel source = FileChannel.open(path, StandardOpenOption.READ);
+        final FileChannel target = FileChannel.open(outputPath, StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+      final ByteBuffer prefix = ByteBuffer.wrap(bmp, FIRST_ELEM_INDEX, modifiedBytes);
+      while (prefix.hasRemaining()) {
+        target.write(prefix);
+      }
+      final long size = source.size();
+      long position = modifiedBytes;
+      while (position < size) {
+        final long transferred = source.transferTo(position, size - position, target);
+        if (transferred <= 0) {
+          throw new IOException("Could not transfer " + path + " into " + outputPath);
+        }
+        position += transferred;
+      }
+      InstrumentationService.record(Phase.WRITE, writeStart, size);
+    } catch (final IOException e) {
+      exit(ExitStatus.WRITE_FILE_ERROR, e);
+    }
   }
 
   // private methods
@@ -168,21 +421,107 @@ public class BMPIOService {
       for (int i = 0 ; i < n ; i++) {
         final Path path = paths.get(i);
         // IOService.print("Using shadow file: " + path);
-        map.put(path, createBmpData(path));
+        map.put(path, createBmpData(path, mode));
         inUsePaths.add(path);
       }
       return inUsePaths;
     } else {
       // Use all paths found
       for (final Path path : paths) {
-        map.put(path, createBmpData(path));
+        map.put(path, createBmpData(path, mode));
       }
       return paths;
     }
   }
 
-  private BMPData createBmpData(final Path path) throws IOException {
-    return BMPData.build(path, Files.readAllBytes(path));
+  private BMPData createBmpData(final Path path, final OpenMode mode) throws IOException {
+    if (!PNGService.isPNGFile(path) && Files.size(path) > SegmentedBuffer.MAX_ARRAY_SIZE) {
+      if (mode == OpenMode.OUTPUT) {
+        // Shadows are written as a whole => they should fit in a single array
+        IOService.exit(VALIDATION_FAILED, path + " does not fit in memory as a whole ("
+            + Files.size(path) + " bytes): distribute it with -pipeline");
+      }
+      final long mapStart = InstrumentationService.start();
+      final SegmentedBuffer image = SegmentedBuffer.map(path);
+      InstrumentationService.record(Phase.READ, mapStart, 0);
+      return BMPData.build(path, image);
+    }
+    return BMPData.build(path, loadImage(path, mode));
+  }
+
+  /**
+   * Reads the whole given file into a buffer leased from the {@link BufferPoolService}
+   * @return the image of the file, to be given back through {@link #releaseImage} once the file
+   *         is closed
+   */
+  /* package-private */ byte[] loadImage(final Path path, final OpenMode mode)
+      throws IOException {
+    if (PNGService.isPNGFile(path)) {
+      return PNGService.read(path);
+    }
+    final long readStart = InstrumentationService.start();
+    final byte[] image;
+    try (final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      final long size = channel.size();
+      if (size > Integer.MAX_VALUE) {
+        throw new IOException(path + " is too large: " + size + " bytes");
+      }
+      // The image is read into a pooled buffer, released once the file is closed
+      image = BufferPoolService.lease((int) size);
+      final ByteBuffer buffer = ByteBuffer.wrap(image);
+      while (buffer.hasRemaining()) {
+        if (channel.read(buffer) < 0) {
+          BufferPoolService.release(image);
+          throw new IOException(path + " was truncated while being read");
+        }
+      }
+    }
+    InstrumentationService.record(Phase.READ, readStart, image.length);
+    return image;
+  }
+
+  /**
+   * Reads an image from a stream: its size is taken from its header, so as it is read straight
+   * into a buffer of that size, leased from the {@link BufferPoolService}
+   */
+  private static byte[] readImage(final Path path, final InputStream in) throws IOException {
+    final long readStart = InstrumentationService.start();
+    final byte[] fileHeader = new byte[BMPService.FILE_HEADER_SIZE];
+    readFully(in, fileHeader, 0, fileHeader.length, path);
+    final int size = BMPService.getBitmapSize(fileHeader);
+    if (!BMPService.isBMPFile(fileHeader) || size < BMPService.FILE_HEADER_SIZE) {
+      exit(BAD_FILE_FORMAT, path);
+    }
+    final byte[] image = BufferPoolService.lease(size);
+    System.arraycopy(fileHeader, 0, image, 0, fileHeader.length);
+    try {
+      readFully(in, image, fileHeader.length, size - fileHeader.length, path);
+    } catch (final IOException e) {
+      BufferPoolService.release(image);
+      throw e;
+    }
+    InstrumentationService.record(Phase.READ, readStart, size);
+    return image;
+  }
+
+  private static void readFully(final InputStream in, final byte[] bytes, final int from,
+      final int length, final Path path) throws IOException {
+    int read = 0;
+    while (read < length) {
+      final int n = in.read(bytes, from + read, length - read);
+      if (n < 0) {
+        throw new EOFException(path + " was truncated while being read");
+      }
+      read += n;
+    }
+  }
+
+  /**
+   * Gives back the image of a closed file, loaded by {@link #loadImage}
+   */
+  /* package-private */ void releaseImage(final Path path, final OpenMode mode,
+      final byte[] image) {
+    BufferPoolService.release(image);
   }
 
   private Map<Path, BMPData> chooseMapBasedOn(final OpenMode mode) {
@@ -192,59 +531,156 @@ public class BMPIOService {
     return outputFiles;
   }
 
+  /**
+   * An opened file: its image (a single array, unless it is mapped) & its cursors.
+   * Files opened as {@link OpenMode#OUTPUT} always fit in a single array (see
+   * {@link #createBmpData}), so the positions of the hidden values are ints for them
+   */
   private static class BMPData {
+    private final Path path;
+    private final SegmentedBuffer image;
+    /**
+     * The image, if it fits in a single array; null if it is mapped
+     */
     private final byte[] bmp;
-    private int nextByte;
+    /**
+     * The image itself, or a copy of its header if it is mapped
+     */
+    private final byte[] header;
+    private final boolean wide;
+    private long nextByte;
+    private long modifiedUpTo;
     private int matrixRow;
 
     /* package-private */ static BMPData build(final Path path, final byte[] image) {
+      return build(path, SegmentedBuffer.wrap(image));
+    }
+
+    /* package-private */ static BMPData build(final Path path, final SegmentedBuffer image) {
+      final byte[] header = image.array() != null ? image.array()
+          : readHeader(image, path);
       // validations before initialization
-      if (!BMPService.isBMPFile(image)) {
+      if (!BMPService.isBMPFile(header)) {
         IOService.exit(BAD_FILE_FORMAT, path);
       }
-      final int size = BMPService.getBitmapSize(image);
-      final int offset = BMPService.getBitmapOffset(image);
-      final int width = BMPService.getHorizontalWidthInPixels(image);
-      final int height = BMPService.getVerticalWidthInPixels(image);
-      if ((size - offset) != (width * height)) {
+      final long size = BMPService.getUnsignedBitmapSize(header);
+      final int offset = BMPService.getBitmapOffset(header);
+      final int width = BMPService.getHorizontalWidthInPixels(header);
+      final int height = BMPService.getVerticalWidthInPixels(header);
+      if ((size - offset) != ((long) width * height) || size > image.size()) {
         IOService.exit(BAD_FILE_DATA, new Object[] { path, size, offset, width, height});
       }
       // If here, all validations passed (recall `exit` aborts the program)
-      return new BMPData(image);
+      return new BMPData(path, image, header);
     }
 
-    private BMPData(final byte[] bmp) {
-      this.bmp = bmp;
-      this.nextByte = BMPService.getBitmapOffset(bmp);
+    private BMPData(final Path path, final SegmentedBuffer image, final byte[] header) {
+      this.path = path;
+      this.image = image;
+      this.bmp = image.array();
+      this.header = header;
+      this.wide = BMPService.isWideShadow(header);
+      this.nextByte = BMPService.getBitmapOffset(header);
+      this.modifiedUpTo = 0;
       this.matrixRow = 0;
     }
 
+    /**
+     * @return the header of a mapped image, up to its pixel data
+     */
+    private static byte[] readHeader(final SegmentedBuffer image, final Path path) {
+      final byte[] fileHeader = new byte[BMPService.FILE_HEADER_SIZE];
+      image.get(0, fileHeader, FIRST_ELEM_INDEX, fileHeader.length);
+      final int offset = BMPService.getBitmapOffset(fileHeader);
+      if (!BMPService.isBMPFile(fileHeader) || offset < BMPChannelService.HEADER_SIZE
+          || offset > image.size()) {
+        IOService.exit(BAD_FILE_FORMAT, path);
+      }
+      final byte[] header = new byte[offset];
+      image.get(0, header, FIRST_ELEM_INDEX, offset);
+      return header;
+    }
+
+    /**
+     * Exits with a validation error if the image is mapped, as it does not fit in an array
+     */
     /* package-private */ byte[] getBmp() {
+      if (bmp == null) {
+        IOService.exit(VALIDATION_FAILED, path + " does not fit in memory as a whole ("
+            + image.size() + " bytes): access it with -pipeline");
+      }
       return this.bmp;
     }
 
+    /* package-private */ SegmentedBuffer getImage() {
+      return this.image;
+    }
+
+    /* package-private */ boolean isMapped() {
+      return this.bmp == null;
+    }
+
+    /**
+     * @return the image itself, or a copy of its header if it is mapped (so as only the header
+     *         fields should be accessed)
+     */
+    /* package-private */ byte[] getHeader() {
+      return this.header;
+    }
+
     /* package-private */ byte[] getHeaderBytes() {
-      final int offset = BMPService.getBitmapOffset(bmp);
-      final byte[] header = new byte[offset];
-      System.arraycopy(bmp, FIRST_ELEM_INDEX, header, FIRST_ELEM_INDEX, offset);
-      return header;
+      final int offset = BMPService.getBitmapOffset(header);
+      final byte[] headerBytes = new byte[offset];
+      System.arraycopy(header, FIRST_ELEM_INDEX, headerBytes, FIRST_ELEM_INDEX, offset);
+      return headerBytes;
     }
 
     /* package-private */ byte[] getDataBytes() {
-      final int totalSize = BMPService.getBitmapSize(bmp);
-      final int offset = BMPService.getBitmapOffset(bmp);
-      final int dataSize = totalSize - offset;
-      final byte[] data = new byte[dataSize];
-      System.arraycopy(bmp, offset, data, FIRST_ELEM_INDEX, dataSize);
+      final int offset = BMPService.getBitmapOffset(header);
+      final int dataSize = getDataSize();
+      final byte[] data = BufferPoolService.lease(dataSize);
+      image.get(offset, data, FIRST_ELEM_INDEX, dataSize);
       return data;
     }
 
-    /* package-private */ int getNext8BytesOffset() {
-      final int aux = this.nextByte;
+    /* package-private */ long getNext8BytesOffset() {
+      final long aux = this.nextByte;
       this.nextByte += 8; // 8 bytes will be consumed if this method is called
       return aux;
     }
 
+    /* package-private */ long getNextWideValueOffset() {
+      final long aux = this.nextByte;
+      this.nextByte += BMPService.WIDE_VALUE_BITS;
+      return aux;
+    }
+
+    /**
+     * @return the amount of bytes (from the beginning of the file) that may have been modified,
+     * i.e., the header & the bytes of the already hidden values
+     */
+    /* package-private */ long getModifiedBytes() {
+      return Math.max(this.nextByte, this.modifiedUpTo);
+    }
+
+    /**
+     * Marks the bytes up to the given position as modified, even if they are beyond the bytes of
+     * the already hidden values
+     */
+    /* package-private */ void setModifiedUpTo(final long position) {
+      this.modifiedUpTo = Math.max(this.modifiedUpTo, position);
+    }
+
+    /* package-private */ boolean isWide() {
+      return this.wide;
+    }
+
+    /* package-private */ int getNextBytesOffset(final int values) {
+      final int aux = (int) this.nextByte;
+      this.nextByte += 8L * values; // 8 bytes will be consumed for each value
+      return aux;
+    }
+
     /* package-private */ void setMatrixRow(final int matrixIndex) {
       this.matrixRow = matrixIndex;
     }
@@ -254,21 +690,28 @@ public class BMPIOService {
     }
 
     /* package-private */ char getSeed() {
-      return BMPService.recoverSeed(this.bmp);
+      return BMPService.recoverSeed(this.header);
     }
 
     /* package-private */ void setShadowNumber(final char shadowNumber) {
-      BMPService.saveShadowNumber(bmp, shadowNumber);
+      BMPService.saveShadowNumber(header, shadowNumber);
     }
 
     /* package-private */ void setSeed(final char seed) {
-      BMPService.saveSeed(bmp, seed);
+      BMPService.saveSeed(header, seed);
     }
 
+    /**
+     * Exits with a validation error if the pixel data does not fit in an array
+     */
     /* package-private */ int getDataSize() {
-      final int totalSize = BMPService.getBitmapSize(bmp);
-      final int offset = BMPService.getBitmapOffset(bmp);
-      return totalSize - offset;
+      final long dataSize =
+          BMPService.getUnsignedBitmapSize(header) - BMPService.getBitmapOffset(header);
+      if (dataSize > SegmentedBuffer.MAX_ARRAY_SIZE) {
+        IOService.exit(VALIDATION_FAILED, "The pixel data of " + path + " does not fit in memory "
+            + "as a whole (" + dataSize + " bytes): access it with -pipeline");
+      }
+      return (int) dataSize;
     }
   }
 }
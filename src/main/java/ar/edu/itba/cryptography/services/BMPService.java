@@ -2,6 +2,8 @@ package ar.edu.itba.cryptography.services;
 
 import static ar.edu.itba.cryptography.services.BMPService.BMP_OFFSET.*;
 
+import java.util.function.IntUnaryOperator;
+
 /**
  * Reference: http://www.fileformat.info/format/bmp/corion.htm
  */
@@ -13,7 +15,40 @@ public final class BMPService {
    */
   public static final int MIN_HEADER_SIZE = RESERVED.position;
 
+  /**
+   * Flag set in the shadow number of the shadows that hide each value in 9 LSBs instead of 8
+   * (the ones added to an existing share set, whose values may be up to 256)
+   */
+  public static final char WIDE_SHADOW_FLAG = 0x8000;
+  /**
+   * Flag set in the shadow number of the k = 8 shadows whose pixel data was distributed in
+   * interlaced order (see {@link ar.edu.itba.cryptography.helpers.InterlaceHelper})
+   */
+  public static final char INTERLACED_SHADOW_FLAG = 0x4000;
+  /**
+   * Flag set in the shadow number of the shadows that hide the digests of the secret blocks at
+   * the end of their pixel data (see {@link ar.edu.itba.cryptography.helpers.DigestHelper})
+   */
+  public static final char DIGESTS_SHADOW_FLAG = 0x2000;
+  /**
+   * Bits of the shadow number field that hold the shadow number itself (the others are flags)
+   */
+  public static final char SHADOW_NUMBER_MASK = 0x0FFF;
+  /**
+   * Amount of LSBs used to hide each value in a wide shadow
+   */
+  public static final int WIDE_VALUE_BITS = 9;
+  /**
+   * Bytes of the file header (i.e., up to the info header), which include the size of the file
+   */
+  public static final int FILE_HEADER_SIZE = 0x000E;
+
   private static final int BMP_ID = 0x4D42;
+  private static final int INFO_HEADER_BYTES = 40;
+  private static final int GRAYSCALE_LEVELS = 256;
+  private static final int PALETTE_ENTRY_BYTES = 4;
+  private static final int GRAYSCALE_IMAGE_OFFSET =
+      PALETTE.position + GRAYSCALE_LEVELS * PALETTE_ENTRY_BYTES;
 
   /**
    * Represent size in byte units
@@ -41,9 +76,14 @@ public final class BMPService {
     SHADOW_NUMBER(0x0008),
     // -------------------------------------
     BITMAP_OFFSET(0x000A),
+    INFO_HEADER_SIZE(0x000E),
     HOR_WIDTH_PIXELS(0x0012),
     VER_WIDTH_PIXELS(0x0016),
-    BITS_PER_PIXEL(0x001C);
+    PLANES(0x001A),
+    BITS_PER_PIXEL(0x001C),
+    IMAGE_SIZE(0x0022),
+    // the palette follows the info header
+    PALETTE(0x0036);
 
     private final int position;
 
@@ -52,6 +92,54 @@ public final class BMPService {
     }
   }
 
+  /**
+   * Creates an 8 bits per pixel grayscale image (i.e., with the same layout as the images of the
+   * project), e.g.: to be used as a synthetic cover
+   * @param width the width in pixels. It should be a multiple of 4, so as rows have no padding
+   * @param height the height in pixels
+   * @param pixels gives the value of each byte of the pixel data
+   * @return the whole image file
+   */
+  public static byte[] createGrayscaleImage(final int width, final int height,
+      final IntUnaryOperator pixels) {
+    final int offset = GRAYSCALE_IMAGE_OFFSET;
+    final int dataSize = width * height;
+    final byte[] image = new byte[offset + dataSize];
+    putGrayscaleHeader(image, width, height);
+    for (int i = 0 ; i < dataSize ; i++) {
+      image[offset + i] = (byte) pixels.applyAsInt(i);
+    }
+    return image;
+  }
+
+  /**
+   * @return the header (& palette) of the image {@link #createGrayscaleImage} would create with
+   *         the given dimensions, without its pixel data
+   */
+  public static byte[] createGrayscaleHeader(final int width, final int height) {
+    final byte[] header = new byte[GRAYSCALE_IMAGE_OFFSET];
+    putGrayscaleHeader(header, width, height);
+    return header;
+  }
+
+  private static void putGrayscaleHeader(final byte[] image, final int width, final int height) {
+    final int offset = GRAYSCALE_IMAGE_OFFSET;
+    final int dataSize = width * height;
+    putValue(image, BMP_ID, ID, BYTES.WORD);
+    putValue(image, offset + dataSize, SIZE, BYTES.DWORD);
+    putValue(image, offset, BITMAP_OFFSET, BYTES.DWORD);
+    putValue(image, INFO_HEADER_BYTES, INFO_HEADER_SIZE, BYTES.DWORD);
+    putValue(image, width, HOR_WIDTH_PIXELS, BYTES.DWORD);
+    putValue(image, height, VER_WIDTH_PIXELS, BYTES.DWORD);
+    putValue(image, 1, PLANES, BYTES.WORD);
+    putValue(image, Byte.SIZE, BITS_PER_PIXEL, BYTES.WORD);
+    putValue(image, dataSize, IMAGE_SIZE, BYTES.DWORD);
+    for (int level = 0 ; level < GRAYSCALE_LEVELS ; level++) {
+      final int entry = PALETTE.position + level * PALETTE_ENTRY_BYTES;
+      image[entry] = image[entry + 1] = image[entry + 2] = (byte) level; // blue, green & red
+    }
+  }
+
   public static boolean isBMPFile(final byte[] image) {
     // 0x4D42 represent BM backwards because of the way the value is retrieved
     return getValue(image, ID, BYTES.WORD) == BMP_ID;
@@ -61,6 +149,14 @@ public final class BMPService {
     return getValue(image, SIZE, BYTES.DWORD);
   }
 
+  /**
+   * @return the size of the file as the unsigned 32-bit field it is stored in, so as files beyond
+   *         2 GB (which do not fit in a single array, see {@link SegmentedBuffer}) are sized right
+   */
+  public static long getUnsignedBitmapSize(final byte[] image) {
+    return getBitmapSize(image) & 0xFFFFFFFFL;
+  }
+
   public static int getBitmapOffset(final byte[] image) {
     return getValue(image, BITMAP_OFFSET, BYTES.DWORD);
   }
@@ -93,6 +189,18 @@ public final class BMPService {
     return (char) getValue(image, BMP_OFFSET.SHADOW_NUMBER, BYTES.WORD);
   }
 
+  public static boolean isWideShadow(final byte[] image) {
+    return (recoverShadowNumber(image) & WIDE_SHADOW_FLAG) != 0;
+  }
+
+  public static boolean isInterlacedShadow(final byte[] image) {
+    return (recoverShadowNumber(image) & INTERLACED_SHADOW_FLAG) != 0;
+  }
+
+  public static boolean hasDigests(final byte[] image) {
+    return (recoverShadowNumber(image) & DIGESTS_SHADOW_FLAG) != 0;
+  }
+
   /**
    * Get the value of size "bytes" from the starting offset in the image
    * @param image file to retrieve the value
@@ -165,6 +273,33 @@ public final class BMPService {
     }
   }
 
+  /**
+   * Bulk version of {@link #putValueInLSB}: stores {@code length} consecutive values,
+   * each of them into the LSB of the following 8 bytes of the image, in the same order
+   * as {@link #putValueInLSB} does.
+   * @param image the file where to store the values
+   * @param values the array containing the values to hide
+   * @param from the position in {@code values} of the first value to hide
+   * @param length the amount of values to hide
+   * @param startingPosition the position from where to start hiding the bits of the first value
+   */
+  public static void putValuesInLSB(final byte[] image, final byte[] values, final int from,
+      final int length, final int startingPosition) {
+    int position = startingPosition;
+    for (int i = from ; i < from + length ; i ++) {
+      final int value = values[i];
+      image[position] = (byte) ((image[position] & 0xFE) | ((value >>> 7) & 0x01));
+      image[position + 1] = (byte) ((image[position + 1] & 0xFE) | ((value >>> 6) & 0x01));
+      image[position + 2] = (byte) ((image[position + 2] & 0xFE) | ((value >>> 5) & 0x01));
+      image[position + 3] = (byte) ((image[position + 3] & 0xFE) | ((value >>> 4) & 0x01));
+      image[position + 4] = (byte) ((image[position + 4] & 0xFE) | ((value >>> 3) & 0x01));
+      image[position + 5] = (byte) ((image[position + 5] & 0xFE) | ((value >>> 2) & 0x01));
+      image[position + 6] = (byte) ((image[position + 6] & 0xFE) | ((value >>> 1) & 0x01));
+      image[position + 7] = (byte) ((image[position + 7] & 0xFE) | (value & 0x01));
+      position += 8;
+    }
+  }
+
   /**
    * Obtain a hidden value of size 1 byte by obtaining each bit of the value from the LSB of the 8 bytes of the image
    * starting from the startingPosition.
@@ -184,4 +319,65 @@ public final class BMPService {
 
     return value;
   }
+
+  /**
+   * Same as {@link #getValueInLSB(byte[], int)}, for images that may not fit in a single array
+   */
+  public static byte getValueInLSB(final SegmentedBuffer image, final long startingPosition) {
+    final byte[] array = image.array();
+    if (array != null) {
+      return getValueInLSB(array, (int) startingPosition);
+    }
+    int value = 0;
+    for (int i = 0 ; i < Byte.SIZE ; i++) {
+      value = (value << 1) | (image.get(startingPosition + i) & 0x01);
+    }
+    return (byte) value;
+  }
+
+  /**
+   * Same as {@link #putValueInLSB}, but for values up to 256, which are stored in the LSB of
+   * each of the following {@link #WIDE_VALUE_BITS} bytes (most significant bit first)
+   * @param image the file where to store the value
+   * @param value the value to hide in the image, in [0, 511]
+   * @param startingPosition the position from where to start hiding the bits of the value
+   */
+  public static void putWideValueInLSB(final byte[] image, final int value,
+      final int startingPosition) {
+    for (int i = 0 ; i < WIDE_VALUE_BITS ; i++) {
+      final int position = startingPosition + i;
+      final int bit = (value >>> (WIDE_VALUE_BITS - 1 - i)) & 0x01;
+      image[position] = (byte) ((image[position] & 0xFE) | bit);
+    }
+  }
+
+  /**
+   * Inverse operation of {@link #putWideValueInLSB}
+   * @param image the file from which to obtain the hidden value
+   * @param startingPosition the position from where to start obtaining the bits of the value
+   * @return the value hidden in the LSB of the {@link #WIDE_VALUE_BITS} bytes in the image since
+   * startingPosition
+   */
+  public static int getWideValueInLSB(final byte[] image, final int startingPosition) {
+    int value = 0;
+    for (int i = 0 ; i < WIDE_VALUE_BITS ; i++) {
+      value = (value << 1) | (image[startingPosition + i] & 0x01);
+    }
+    return value;
+  }
+
+  /**
+   * Same as {@link #getWideValueInLSB(byte[], int)}, for images that may not fit in a single array
+   */
+  public static int getWideValueInLSB(final SegmentedBuffer image, final long startingPosition) {
+    final byte[] array = image.array();
+    if (array != null) {
+      return getWideValueInLSB(array, (int) startingPosition);
+    }
+    int value = 0;
+    for (int i = 0 ; i < WIDE_VALUE_BITS ; i++) {
+      value = (value << 1) | (image.get(startingPosition + i) & 0x01);
+    }
+    return value;
+  }
 }
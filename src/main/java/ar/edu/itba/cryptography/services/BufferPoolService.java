@@ -0,0 +1,177 @@
+package ar.edu.itba.cryptography.services;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * This class is in charge of reusing the large buffers (loaded images, secret bytes & their
+ * obfuscated copies) across the programs run by the same JVM (e.g.: the jobs of a batch), so as
+ * steady-state runs do not allocate a new image-sized array (a humongous object for G1) each time.
+ * <p>
+ * Buffers are {@code byte[]}, as the whole engine works on arrays whose length is the size of the
+ * data, so each size class holds the buffers of one exact length. Buffers smaller than
+ * {@value #MIN_POOLED_BYTES} bytes are neither pooled nor tracked.
+ * <p>
+ * A buffer is leased with {@link #lease}, and given back with {@link #release} once it is not
+ * referenced anymore (e.g.: {@link BMPIOService} releases the image of a file when it is
+ * closed). Released buffers are kept idle up to {@value #MAX_IDLE_MEGABYTES_PROPERTY} megabytes
+ * (1/4 of the maximum heap by default); beyond it, the least recently used size classes are
+ * evicted (i.e., left to the garbage collector).
+ */
+public final class BufferPoolService {
+  public static final String MAX_IDLE_MEGABYTES_PROPERTY = "steganography.pool.megabytes";
+  private static final int MIN_POOLED_BYTES = 64 * 1024;
+  private static final long BYTES_PER_MEGABYTE = 1024 * 1024;
+  private static final long MAX_IDLE_BYTES = getMaxIdleBytes();
+
+  /**
+   * Idle buffers of each size class, the least recently used class first
+   */
+  private static final LinkedHashMap<Integer, ArrayDeque<byte[]>> idle =
+      new LinkedHashMap<>(16, 0.75f, true);
+  /**
+   * Identity sets, so as a buffer released twice is pooled once (and never leased twice)
+   */
+  private static final Set<byte[]> idleBuffers =
+      Collections.newSetFromMap(new IdentityHashMap<>());
+  private static final Set<byte[]> leasedBuffers =
+      Collections.newSetFromMap(new IdentityHashMap<>());
+  private static long idleBytes, leasedBytes, peakLeasedBytes;
+  private static long leases, hits, misses, evictions;
+
+  private BufferPoolService() {
+  }
+
+  /**
+   * @param length the length of the buffer
+   * @return a buffer of exactly the given length, whose contents are undefined (it may hold the
+   *         data of its previous lease), so it should be fully overwritten by the caller
+   */
+  public static byte[] lease(final int length) {
+    if (length < MIN_POOLED_BYTES) {
+      return new byte[length];
+    }
+    byte[] buffer = null;
+    synchronized (idle) {
+      leases ++;
+      final ArrayDeque<byte[]> sizeClass = idle.get(length);
+      if (sizeClass != null) {
+        buffer = sizeClass.poll();
+        if (sizeClass.isEmpty()) {
+          idle.remove(length);
+        }
+      }
+      if (buffer != null) {
+        hits ++;
+        idleBuffers.remove(buffer);
+        idleBytes -= length;
+      } else {
+        misses ++;
+      }
+    }
+    if (buffer == null) {
+      buffer = new byte[length]; // allocated out of the lock
+    }
+    synchronized (idle) {
+      leasedBuffers.add(buffer);
+      leasedBytes += length;
+      peakLeasedBytes = Math.max(peakLeasedBytes, leasedBytes);
+    }
+    return buffer;
+  }
+
+  /**
+   * Gives a buffer back to the pool. It should not be accessed anymore by the caller.
+   * Buffers not obtained with {@link #lease} (of a pooled size) are pooled as well
+   * @param buffer the buffer to be released; ignored if null or already released
+   */
+  public static void release(final byte[] buffer) {
+    if (buffer == null || buffer.length < MIN_POOLED_BYTES) {
+      return;
+    }
+    final int length = buffer.length;
+    synchronized (idle) {
+      if (leasedBuffers.remove(buffer)) {
+        leasedBytes -= length;
+      }
+      if (length > MAX_IDLE_BYTES || !idleBuffers.add(buffer)) {
+        return;
+      }
+      idle.computeIfAbsent(length, sizeClass -> new ArrayDeque<>()).push(buffer);
+      idleBytes += length;
+      evictIdleBuffers();
+    }
+  }
+
+  /**
+   * @return true if any buffer was leased from the pool
+   */
+  public static boolean isUsed() {
+    synchronized (idle) {
+      return leases > 0;
+    }
+  }
+
+  /**
+   * @return a JSON summary of the pool occupancy & of its leases so far
+   */
+  public static String statsAsJson() {
+    synchronized (idle) {
+      int idleCount = 0;
+      for (final ArrayDeque<byte[]> sizeClass : idle.values()) {
+        idleCount += sizeClass.size();
+      }
+      return "{\"leases\":" + leases
+          + ",\"hits\":" + hits
+          + ",\"misses\":" + misses
+          + ",\"evictions\":" + evictions
+          + ",\"leased_buffers\":" + leasedBuffers.size()
+          + ",\"leased_bytes\":" + leasedBytes
+          + ",\"peak_leased_bytes\":" + peakLeasedBytes
+          + ",\"idle_buffers\":" + idleCount
+          + ",\"idle_bytes\":" + idleBytes
+          + ",\"size_classes\":" + idle.size()
+          + ",\"max_idle_bytes\":" + MAX_IDLE_BYTES
+          + '}';
+    }
+  }
+
+  // private methods
+
+  /**
+   * Evicts the least recently used size classes, one buffer at a time, while the idle buffers
+   * exceed {@link #MAX_IDLE_BYTES}. Should be called holding the lock
+   */
+  private static void evictIdleBuffers() {
+    final Iterator<ArrayDeque<byte[]>> sizeClasses = idle.values().iterator();
+    while (idleBytes > MAX_IDLE_BYTES && sizeClasses.hasNext()) {
+      final ArrayDeque<byte[]> sizeClass = sizeClasses.next();
+      while (idleBytes > MAX_IDLE_BYTES && !sizeClass.isEmpty()) {
+        final byte[] buffer = sizeClass.removeLast();
+        idleBuffers.remove(buffer);
+        idleBytes -= buffer.length;
+        evictions ++;
+      }
+      if (sizeClass.isEmpty()) {
+        sizeClasses.remove();
+      }
+    }
+  }
+
+  private static long getMaxIdleBytes() {
+    final String megabytes = System.getProperty(MAX_IDLE_MEGABYTES_PROPERTY);
+    if (megabytes != null) {
+      try {
+        return Math.max(0, Long.parseLong(megabytes.trim())) * BYTES_PER_MEGABYTE;
+      } catch (final NumberFormatException e) {
+        // Fall back to the default
+      }
+    }
+    return Runtime.getRuntime().maxMemory() / 4;
+  }
+}
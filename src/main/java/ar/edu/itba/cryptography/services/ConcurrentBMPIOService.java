@@ -0,0 +1,212 @@
+package ar.edu.itba.cryptography.services;
+
+import static ar.edu.itba.cryptography.services.IOService.ExitStatus.VALIDATION_FAILED;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * A {@link BMPIOService} for jobs running at the same time in one JVM (e.g.: the jobs of a
+ * batch), which share the images they open.<p>
+ * The images are kept in a map shared by all the instances, apart from the state of each job
+ * (the cursors of its opened files are kept by its own instance), and each file has its own
+ * read/write lock, so as jobs only wait for the ones that open the same files:
+ * <ul>
+ *   <li>files opened as {@link OpenMode#INPUT} are only read: all the jobs that open the same
+ *   one at the same time share a single image, which is loaded by the first of them and released
+ *   by the last one</li>
+ *   <li>files opened as {@link OpenMode#OUTPUT} are modified: the job that opens one loads its
+ *   own image, and no other job may open the file (in any mode) until it closes it</li>
+ * </ul>
+ * The locks are held from the moment a file is opened until it is closed, by the job, not by
+ * the thread that opened it, so the threads of a job may open & close its files. A job should not
+ * open the same file in both modes at once (it would wait for itself).
+ */
+public class ConcurrentBMPIOService extends BMPIOService {
+  /**
+   * The files opened by any of the jobs, by their absolute paths. Entries are kept once their
+   * image is released (they only hold the lock of their file)
+   */
+  private static final ConcurrentMap<Path, SharedImage> sharedImages = new ConcurrentHashMap<>();
+  private static volatile boolean enabled = false;
+  /**
+   * The instances created by the current thread (i.e., by the job it runs), so as the files of a
+   * job that failed can be released (see {@link #releaseJobFiles})
+   */
+  private static final ThreadLocal<List<ConcurrentBMPIOService>> jobInstances =
+      ThreadLocal.withInitial(ArrayList::new);
+
+  /**
+   * The files opened by this job, in each mode
+   */
+  private final Map<Path, Hold> inputHolds;
+  private final Map<Path, Hold> outputHolds;
+
+  public ConcurrentBMPIOService() {
+    super(true);
+    inputHolds = new ConcurrentHashMap<>();
+    outputHolds = new ConcurrentHashMap<>();
+    jobInstances.get().add(this);
+  }
+
+  /**
+   * @param enabled true if the following jobs run at the same time in this JVM, so as
+   *                {@link BMPIOService#newInstance} gives them instances of this class
+   */
+  public static void setEnabled(final boolean enabled) {
+    ConcurrentBMPIOService.enabled = enabled;
+  }
+
+  public static boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Releases the locks of the files that the job run by the current thread left opened (i.e., if
+   * it failed), so as the other jobs that use them do not wait forever. Their images are left to
+   * the garbage collector, as the job may not be done with them. Should be called once the job
+   * is done, by the thread that ran it
+   */
+  public static void releaseJobFiles() {
+    for (final ConcurrentBMPIOService instance : jobInstances.get()) {
+      for (final Hold hold : instance.inputHolds.values()) {
+        hold.sharedImage.abandon();
+        hold.sharedImage.lock.unlockRead(hold.stamp);
+      }
+      instance.inputHolds.clear();
+      for (final Hold hold : instance.outputHolds.values()) {
+        hold.sharedImage.lock.unlockWrite(hold.stamp);
+      }
+      instance.outputHolds.clear();
+    }
+    jobInstances.remove();
+  }
+
+  @Override
+  /* package-private */ byte[] loadImage(final Path path, final OpenMode mode)
+      throws IOException {
+    final Map<Path, Hold> holds = chooseHoldsBasedOn(mode);
+    if (holds.containsKey(path)) {
+      // Opened again without being closed => the previous image is dropped, as when not shared
+      releaseImage(path, mode, null);
+    }
+    if (chooseHoldsBasedOn(mode == OpenMode.INPUT ? OpenMode.OUTPUT : OpenMode.INPUT)
+        .containsKey(path)) {
+      IOService.exit(VALIDATION_FAILED, path + " should not be opened both as input & output");
+    }
+    final SharedImage sharedImage =
+        sharedImages.computeIfAbsent(path.toAbsolutePath().normalize(), key -> new SharedImage());
+    final Hold hold;
+    if (mode == OpenMode.INPUT) {
+      final long stamp = sharedImage.lock.readLock();
+      try {
+        hold = new Hold(sharedImage, stamp, sharedImage.acquire(path));
+      } catch (final IOException | RuntimeException e) {
+        sharedImage.lock.unlockRead(stamp);
+        throw e;
+      }
+    } else {
+      final long stamp = sharedImage.lock.writeLock();
+      try {
+        hold = new Hold(sharedImage, stamp, super.loadImage(path, mode));
+      } catch (final IOException | RuntimeException e) {
+        sharedImage.lock.unlockWrite(stamp);
+        throw e;
+      }
+    }
+    holds.put(path, hold);
+    return hold.image;
+  }
+
+  @Override
+  /* package-private */ void releaseImage(final Path path, final OpenMode mode,
+      final byte[] image) {
+    final Hold hold = chooseHoldsBasedOn(mode).remove(path);
+    if (hold == null) {
+      // Not loaded through this class (e.g.: read from an archive) => owned by this job
+      super.releaseImage(path, mode, image);
+      return;
+    }
+    if (mode == OpenMode.INPUT) {
+      hold.sharedImage.release();
+      hold.sharedImage.lock.unlockRead(hold.stamp);
+    } else {
+      super.releaseImage(path, mode, hold.image);
+      hold.sharedImage.lock.unlockWrite(hold.stamp);
+    }
+  }
+
+  // private methods
+
+  private Map<Path, Hold> chooseHoldsBasedOn(final OpenMode mode) {
+    if (mode == OpenMode.INPUT) {
+      return inputHolds;
+    }
+    return outputHolds;
+  }
+
+  /**
+   * A file opened by a job: the lock it holds & the image it was given
+   */
+  private static class Hold {
+    private final SharedImage sharedImage;
+    private final long stamp;
+    private final byte[] image;
+
+    private Hold(final SharedImage sharedImage, final long stamp, final byte[] image) {
+      this.sharedImage = sharedImage;
+      this.stamp = stamp;
+      this.image = image;
+    }
+  }
+
+  /**
+   * The lock of a file, and its image while it is opened as input by any job
+   */
+  private static class SharedImage {
+    /**
+     * A stamped lock, as it is not owned by the thread that acquired it
+     */
+    private final StampedLock lock = new StampedLock();
+    private byte[] image;
+    private int readers;
+
+    /**
+     * Should be called holding the read lock
+     * @return the image of the file, loaded if no other job has it opened
+     */
+    private synchronized byte[] acquire(final Path path) throws IOException {
+      if (image == null) {
+        image = new BMPIOService().loadImage(path, OpenMode.INPUT);
+      }
+      readers++;
+      return image;
+    }
+
+    /**
+     * Should be called holding the read lock. Releases the image once no job has it opened
+     */
+    private synchronized void release() {
+      if (--readers == 0) {
+        BufferPoolService.release(image);
+        image = null;
+      }
+    }
+
+    /**
+     * Should be called holding the read lock. Same as {@link #release}, but the image is left to
+     * the garbage collector instead of being pooled, as the job that held it may still use it
+     */
+    private synchronized void abandon() {
+      if (--readers == 0) {
+        image = null;
+      }
+    }
+  }
+}
@@ -0,0 +1,211 @@
+package ar.edu.itba.cryptography.services;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Container shadows carry many secrets. Their data region starts with a directory, followed by
+ * the share region of each of the secrets, one after the other.<p>
+ * The directory is not shared but replicated in every shadow, hidden in the LSBs as any other
+ * value (i.e., one directory byte each 8 data bytes). Its layout is as follows (all values are
+ * little-endian, as in the BMP header):
+ * <pre>
+ * 0x0000 WORD  ID = 'SC'
+ * 0x0002 WORD  number of entries
+ * 0x0004 ...   MAX_ENTRIES entries of ENTRY_SIZE bytes each:
+ *   0x0000 DWORD secret id
+ *   0x0004 DWORD region offset, in values from the end of the directory
+ *   0x0008 DWORD secret length, in bytes (the region holds ceil(length / k) values)
+ *   0x000C WORD  k
+ *   0x000E WORD  seed
+ * </pre>
+ * Container shadows are flagged with {@link #CONTAINER_SHADOW_FLAG} in their shadow number.
+ */
+public final class ContainerService {
+  /**
+   * Flag set in the shadow number of container shadows
+   */
+  public static final char CONTAINER_SHADOW_FLAG = 0x1000;
+  public static final int MAX_ENTRIES = 32;
+
+  private static final int ID = 0x4353; // 'SC' backwards because of the way it is stored
+  private static final int ID_POSITION = 0x0000;
+  private static final int ENTRIES_POSITION = 0x0002;
+  private static final int FIRST_ENTRY_POSITION = 0x0004;
+  private static final int ENTRY_SIZE = 0x0010;
+  /**
+   * Directory size, in values (i.e., directory bytes)
+   */
+  public static final int DIRECTORY_SIZE = FIRST_ENTRY_POSITION + MAX_ENTRIES * ENTRY_SIZE;
+
+  public static final class Entry {
+    private final int id;
+    private final int offset;
+    private final int length;
+    private final int k;
+    private final char seed;
+
+    public Entry(final int id, final int offset, final int length, final int k, final char seed) {
+      this.id = id;
+      this.offset = offset;
+      this.length = length;
+      this.k = k;
+      this.seed = seed;
+    }
+
+    public int getId() {
+      return id;
+    }
+
+    /**
+     * @return the position of the first value of the share region, in values from the end of
+     * the directory
+     */
+    public int getOffset() {
+      return offset;
+    }
+
+    public int getLength() {
+      return length;
+    }
+
+    public int getK() {
+      return k;
+    }
+
+    public char getSeed() {
+      return seed;
+    }
+
+    /**
+     * @return the amount of values of the share region, i.e., the amount of k-byte chunks
+     */
+    public int getChunks() {
+      return (length + k - 1) / k;
+    }
+  }
+
+  public static boolean isContainerShadow(final byte[] image) {
+    return (BMPService.recoverShadowNumber(image) & CONTAINER_SHADOW_FLAG) != 0;
+  }
+
+  /**
+   * Reads the directory of the given container shadow, reading only the bytes where it is hidden
+   * @param channelService the service where the shadow was opened
+   * @return the entries of the directory, in the same order as they were added;
+   *         null if there is no directory hidden in the given shadow
+   */
+  public static List<Entry> readDirectory(final BMPChannelService channelService,
+      final Path path) {
+    final byte[] hidden = channelService.read(path, channelService.getBitmapOffset(path),
+        DIRECTORY_SIZE * Byte.SIZE);
+    final byte[] directory = new byte[DIRECTORY_SIZE];
+    for (int i = 0 ; i < DIRECTORY_SIZE ; i++) {
+      directory[i] = BMPService.getValueInLSB(hidden, i * Byte.SIZE);
+    }
+    return decodeDirectory(directory);
+  }
+
+  /**
+   * Hides the given directory in the given container shadow, writing only the bytes where it is
+   * hidden
+   * @param channelService the service where the shadow was opened
+   * @param entries the directory entries (up to {@link #MAX_ENTRIES})
+   */
+  public static void writeDirectory(final BMPChannelService channelService, final Path path,
+      final List<Entry> entries) {
+    final int position = channelService.getBitmapOffset(path);
+    // Read the region first, so as only the LSBs are modified
+    final byte[] hidden = channelService.read(path, position, DIRECTORY_SIZE * Byte.SIZE);
+    BMPService.putValuesInLSB(hidden, encodeDirectory(entries), 0, DIRECTORY_SIZE, 0);
+    channelService.write(path, position, hidden);
+  }
+
+  /**
+   * @return the position (in the shadow file) of the first byte of the share region of the given
+   * entry
+   */
+  public static long getRegionPosition(final BMPChannelService channelService, final Path path,
+      final Entry entry) {
+    return channelService.getBitmapOffset(path)
+        + ((long) DIRECTORY_SIZE + entry.getOffset()) * Byte.SIZE;
+  }
+
+  /**
+   * @return the amount of data bytes a shadow should have so as to hold the directory and the
+   * share regions of the given entries
+   */
+  public static long getRequiredDataSize(final List<Entry> entries) {
+    return ((long) DIRECTORY_SIZE + getFreeOffset(entries)) * Byte.SIZE;
+  }
+
+  /**
+   * @return the entry with the given id; null if there is no such entry
+   */
+  public static Entry findEntry(final List<Entry> entries, final int id) {
+    for (final Entry entry : entries) {
+      if (entry.getId() == id) {
+        return entry;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * @return the offset where the share region of a new secret should start
+   */
+  public static int getFreeOffset(final List<Entry> entries) {
+    int offset = 0;
+    for (final Entry entry : entries) {
+      offset = Math.max(offset, entry.getOffset() + entry.getChunks());
+    }
+    return offset;
+  }
+
+  private static List<Entry> decodeDirectory(final byte[] directory) {
+    if (getValue(directory, ID_POSITION, 2) != ID) {
+      return null;
+    }
+    final int entries = getValue(directory, ENTRIES_POSITION, 2);
+    final List<Entry> list = new ArrayList<>(entries);
+    for (int i = 0 ; i < entries && i < MAX_ENTRIES ; i++) {
+      final int position = FIRST_ENTRY_POSITION + i * ENTRY_SIZE;
+      list.add(new Entry(getValue(directory, position, 4), getValue(directory, position + 4, 4),
+          getValue(directory, position + 8, 4), getValue(directory, position + 12, 2),
+          (char) getValue(directory, position + 14, 2)));
+    }
+    return list;
+  }
+
+  private static byte[] encodeDirectory(final List<Entry> entries) {
+    final byte[] directory = new byte[DIRECTORY_SIZE];
+    putValue(directory, ID, ID_POSITION, 2);
+    putValue(directory, entries.size(), ENTRIES_POSITION, 2);
+    for (int i = 0 ; i < entries.size() ; i++) {
+      final Entry entry = entries.get(i);
+      final int position = FIRST_ENTRY_POSITION + i * ENTRY_SIZE;
+      putValue(directory, entry.getId(), position, 4);
+      putValue(directory, entry.getOffset(), position + 4, 4);
+      putValue(directory, entry.getLength(), position + 8, 4);
+      putValue(directory, entry.getK(), position + 12, 2);
+      putValue(directory, entry.getSeed(), position + 14, 2);
+    }
+    return directory;
+  }
+
+  private static int getValue(final byte[] bytes, final int position, final int size) {
+    int value = 0;
+    for (int i = 0 ; i < size ; i++) {
+      value |= (bytes[position + i] & 0x00FF) << 8 * i;
+    }
+    return value;
+  }
+
+  private static void putValue(final byte[] bytes, final int value, final int position,
+      final int size) {
+    for (int i = 0 ; i < size ; i++) {
+      bytes[position + i] = (byte) (value >>> 8 * i);
+    }
+  }
+}
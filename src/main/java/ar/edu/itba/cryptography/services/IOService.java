@@ -6,19 +6,21 @@ import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.stream.Stream;
 
+import ar.edu.itba.cryptography.services.InstrumentationService.Phase;
 import org.apache.commons.io.FileUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 public class IOService {
-  private static final Logger LOGGER = LoggerFactory.getLogger(IOService.class);
   private static final String CWD = System.getProperty("user.dir");
 
   private static final String CHECK_LOGS = "\nCheck logs for more info.";
@@ -27,15 +29,54 @@ public class IOService {
 
   private static final Map<Path, BufferedWriter> outputFiles = new HashMap<>();
   private static final Map<Path, Stream<String>> inputFiles = new HashMap<>();
+  /**
+   * Whether the job run by the current thread throws on exit (see {@link #setThrowOnExit})
+   */
+  private static final ThreadLocal<Boolean> throwOnExit = ThreadLocal.withInitial(() -> false);
 
   public static void writeByteArrayToFile(final Path pathToOutput, final byte[] bytes) {
+    final long writeStart = InstrumentationService.start();
     try {
       FileUtils.writeByteArrayToFile(pathToOutput.toFile(), bytes);
+      InstrumentationService.record(Phase.WRITE, writeStart, bytes.length);
     } catch (IOException e) {
       exit(WRITE_FILE_ERROR, e);
     }
   }
 
+  /**
+   * Moves the source file onto the target one, replacing it, so as readers of the target see
+   * either its previous content or the whole new one. Falls back to a plain move when the file
+   * system does not support atomic moves
+   */
+  public static void moveAtomically(final Path source, final Path target) throws IOException {
+    try {
+      Files.move(source, target, StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } catch (final AtomicMoveNotSupportedException e) {
+      Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+    }
+  }
+
+  /**
+   * Thrown by {@link #exit} instead of exiting, while it is set so (see {@link #setThrowOnExit}).
+   * Its messages were already reported
+   */
+  public static class ExitException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    private final ExitStatus exitStatus;
+
+    private ExitException(final ExitStatus exitStatus) {
+      super(exitStatus.name());
+      this.exitStatus = exitStatus;
+    }
+
+    public ExitStatus getExitStatus() {
+      return exitStatus;
+    }
+  }
+
   // Exit Codes
   public enum ExitStatus {
     NO_ARGS(-1,
@@ -82,7 +123,13 @@ public class IOService {
         "[FAIL] - Could not open an input file." + ABORTING),
     BAD_ARGUMENT(-15,
         "[FAIL] - Invalid argument: {}.",
-        "[FAIL] - Invalid argument. Try 'help' for more information.");
+        "[FAIL] - Invalid argument. Try 'help' for more information."),
+    CONNECTION_FAILED(-16,
+        "[FAIL] - Connection with a remote peer failed. Caused by: ",
+        "[FAIL] - Connection with a remote peer failed." + ABORTING),
+    JOBS_FAILED(-17,
+        "[FAIL] - Jobs of the batch failed. Lines: {}",
+        "[FAIL] - Jobs of the batch failed." + CHECK_LOGS);
 
     private final int code;
     private final String loggerMsg;
@@ -262,10 +309,45 @@ public class IOService {
    */
   public static void exit(final ExitStatus exitStatus, final Object errorSource) {
     final Object reason = errorSource == null ? NO_DETAIL : errorSource;
-    writeFailMessages(exitStatus, reason);
+    reportFailure(exitStatus, reason);
+    if (throwOnExit.get()) {
+      throw new ExitException(exitStatus);
+    }
     System.exit(exitStatus.getCode());
   }
 
+  /**
+   * Only applies to the current thread, i.e., to the job it runs. Threads started by the job
+   * should be handed its setting (see {@link #isThrowOnExit})
+   * @param throwOnExit true if {@link #exit} should throw an {@link ExitException} instead of
+   *                    exiting, so as a program running several jobs (e.g.: a batch) only fails
+   *                    the job that exited
+   */
+  public static void setThrowOnExit(final boolean throwOnExit) {
+    if (throwOnExit) {
+      IOService.throwOnExit.set(true);
+    } else {
+      IOService.throwOnExit.remove();
+    }
+  }
+
+  /**
+   * @return true if {@link #exit} throws an {@link ExitException} on the current thread
+   */
+  public static boolean isThrowOnExit() {
+    return throwOnExit.get();
+  }
+
+  /**
+   * Writes the logger & standard output messages of the given exit status, without exiting
+   * @param exitStatus exit status enum
+   * @param reason detail error source for being passed to the logger
+   */
+  public static void reportFailure(final ExitStatus exitStatus, final Object reason) {
+    LoggerHolder.LOGGER.error(exitStatus.getLoggerMsg(), reason);
+    System.out.println(exitStatus.getMsg());
+  }
+
   /**
    * Opens the given {@code pathToFile} file with the given {@code append} mode.
    *
@@ -386,11 +468,6 @@ public class IOService {
 
   // private methods
 
-  private static void writeFailMessages(final ExitStatus exitStatus, final Object reason) {
-    LOGGER.error(exitStatus.getLoggerMsg(), reason);
-    System.out.println(exitStatus.getMsg());
-  }
-
   /**
    * Try to delete a file, knowing that it exists.
    * If the file cannot be deleted, program is aborted with the corresponding exit code
@@ -417,8 +494,16 @@ public class IOService {
       writer.write(data);
       return true;
     } catch (IOException e) {
-      writeFailMessages(WRITE_FILE_ERROR, e);
+      reportFailure(WRITE_FILE_ERROR, e);
       return false;
     }
   }
+
+  /**
+   * The logging backend is initialized (configuration parsing, appenders & log files creation)
+   * when the first message is logged, i.e., never on a successful run
+   */
+  private static final class LoggerHolder {
+    private static final Logger LOGGER = LoggerFactory.getLogger(IOService.class);
+  }
 }
@@ -0,0 +1,268 @@
+package ar.edu.itba.cryptography.services;
+
+import ar.edu.itba.cryptography.interfaces.InstrumentationSink;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * This class is in charge of measuring the time & bytes spent on each phase of the programs,
+ * and of keeping track of the counters of interest (e.g.: overflow retries).
+ * <p>
+ * The stages of a {@link PipelineService} are also measured (see {@link #recordStage}), and they
+ * are only included in the summary when a pipeline was run. So is the occupancy of the
+ * {@link BufferPoolService}, when any buffer was leased from it, and the configuration the
+ * programs ran with, when any was recorded (see {@link #recordConfiguration}).
+ * <p>
+ * Measurements are forwarded to all the registered sinks. If the JDK Flight Recorder is running
+ * when this class is initialized (e.g.: the JVM was started with
+ * {@code -XX:StartFlightRecording}), a sink emitting custom JFR events is registered
+ * automatically. It can also be forced with the {@value #JFR_PROPERTY} system property.
+ */
+public final class InstrumentationService {
+  private static final String JFR_RECORDER_CLASS = "jdk.jfr.FlightRecorder";
+  private static final String JFR_IS_INITIALIZED = "isInitialized";
+  private static final String JFR_EVENT_CLASS = "jdk.jfr.Event";
+  public static final String JFR_PROPERTY = "steganography.jfr";
+  private static final double NANOS_PER_MILLI = 1_000_000d;
+
+  public enum Phase {
+    SCAN, READ, OBFUSCATE, EVALUATE, SOLVE, EMBED, EXTRACT, WRITE;
+
+    public String getName() {
+      return name().toLowerCase(Locale.ROOT);
+    }
+  }
+
+  public enum Counter {
+    SHADOWS, CHUNKS, SECRET_BYTES, BYTES_PER_SHADOW, OVERFLOW_RETRIES, CORRUPTED_BLOCKS,
+    SUBSTITUTED_SHADOWS, VERIFIED_CHUNKS, SENT_BYTES;
+
+    public String getName() {
+      return name().toLowerCase(Locale.ROOT);
+    }
+  }
+
+  private static final int PHASES = Phase.values().length;
+  private static final AtomicLongArray phaseNanos = new AtomicLongArray(PHASES);
+  private static final AtomicLongArray phaseBytes = new AtomicLongArray(PHASES);
+  private static final AtomicLongArray phaseCount = new AtomicLongArray(PHASES);
+  private static final AtomicLongArray counters = new AtomicLongArray(Counter.values().length);
+  /**
+   * For each pipeline stage, in the order they were recorded:
+   * [items, busy nanos, starved nanos, blocked nanos, wall nanos]
+   */
+  private static final Map<String, long[]> stages = new LinkedHashMap<>();
+  private static final int STAGE_ITEMS = 0, STAGE_BUSY = 1, STAGE_STARVED = 2, STAGE_BLOCKED = 3,
+      STAGE_WALL = 4;
+  /**
+   * Settings the programs ran with (e.g.: the distribution engine), as JSON values
+   */
+  private static final Map<String, String> configuration = new LinkedHashMap<>();
+  private static final List<InstrumentationSink> sinks = new CopyOnWriteArrayList<>();
+  static {
+    if ((isJfrRunning() || Boolean.getBoolean(JFR_PROPERTY)) && isJfrAvailable()) {
+      sinks.add(new JfrInstrumentationSink());
+    }
+  }
+
+  private InstrumentationService() {
+  }
+
+  public static void register(final InstrumentationSink sink) {
+    sinks.add(sink);
+  }
+
+  /**
+   * @return the starting time mark of a phase, to be later given to {@link #record}
+   */
+  public static long start() {
+    return System.nanoTime();
+  }
+
+  /**
+   * Records a measurement of the given phase, started at {@code startNanos}
+   * @param phase the measured phase
+   * @param startNanos the value returned by {@link #start()} when the phase began
+   * @param bytes the amount of bytes processed during the phase
+   */
+  public static void record(final Phase phase, final long startNanos, final long bytes) {
+    recordElapsed(phase, System.nanoTime() - startNanos, bytes);
+  }
+
+  /**
+   * Records a measurement of the given phase whose time was already accumulated by the caller.
+   * Useful for phases interleaved within the same loop, where each iteration is measured
+   * separately.
+   * @param phase the measured phase
+   * @param nanos the total time spent on the phase
+   * @param bytes the amount of bytes processed during the phase
+   */
+  public static void recordElapsed(final Phase phase, final long nanos, final long bytes) {
+    final int i = phase.ordinal();
+    phaseNanos.addAndGet(i, nanos);
+    phaseBytes.addAndGet(i, bytes);
+    phaseCount.incrementAndGet(i);
+    for (final InstrumentationSink sink : sinks) {
+      sink.phaseRecorded(phase, nanos, bytes);
+    }
+  }
+
+  public static void count(final Counter counter, final long delta) {
+    final long value = counters.addAndGet(counter.ordinal(), delta);
+    for (final InstrumentationSink sink : sinks) {
+      sink.counterUpdated(counter, value);
+    }
+  }
+
+  public static void set(final Counter counter, final long value) {
+    counters.set(counter.ordinal(), value);
+    for (final InstrumentationSink sink : sinks) {
+      sink.counterUpdated(counter, value);
+    }
+  }
+
+  /**
+   * Records the measurements of a pipeline stage (added up to the previous ones of the same stage)
+   * @param stage the name of the stage
+   * @param items the amount of items the stage processed
+   * @param busyNanos the time spent processing those items
+   * @param starvedNanos the time spent waiting for items from the previous stage
+   * @param blockedNanos the time spent waiting for the following stage to accept the processed
+   *                     items (backpressure)
+   * @param wallNanos the wall-clock time of the whole pipeline
+   */
+  public static void recordStage(final String stage, final long items, final long busyNanos,
+      final long starvedNanos, final long blockedNanos, final long wallNanos) {
+    synchronized (stages) {
+      final long[] values = stages.computeIfAbsent(stage, name -> new long[STAGE_WALL + 1]);
+      values[STAGE_ITEMS] += items;
+      values[STAGE_BUSY] += busyNanos;
+      values[STAGE_STARVED] += starvedNanos;
+      values[STAGE_BLOCKED] += blockedNanos;
+      values[STAGE_WALL] += wallNanos;
+    }
+    for (final InstrumentationSink sink : sinks) {
+      sink.stageRecorded(stage, items, busyNanos, starvedNanos, blockedNanos);
+    }
+  }
+
+  /**
+   * Records a setting the program ran with, so as it is included in the summary
+   * @param name the name of the setting
+   * @param value the value of the setting (numbers are kept as such; anything else, as a string)
+   */
+  public static void recordConfiguration(final String name, final Object value) {
+    final String json = value instanceof Number ? value.toString() : "\"" + value + '"';
+    synchronized (configuration) {
+      configuration.put(name, json);
+    }
+  }
+
+  public static long getPhaseNanos(final Phase phase) {
+    return phaseNanos.get(phase.ordinal());
+  }
+
+  public static long getCounter(final Counter counter) {
+    return counters.get(counter.ordinal());
+  }
+
+  /**
+   * @return a JSON summary of all the phases & counters recorded so far
+   */
+  public static String statsAsJson() {
+    final StringBuilder sb = new StringBuilder("{\"phases\":{");
+    for (final Phase phase : Phase.values()) {
+      final int i = phase.ordinal();
+      if (i > 0) sb.append(',');
+      sb.append('"').append(phase.getName()).append("\":{")
+          .append("\"count\":").append(phaseCount.get(i))
+          .append(",\"millis\":")
+          .append(toMillis(phaseNanos.get(i)))
+          .append(",\"bytes\":").append(phaseBytes.get(i))
+          .append('}');
+    }
+    sb.append("},\"counters\":{");
+    for (final Counter counter : Counter.values()) {
+      final int i = counter.ordinal();
+      if (i > 0) sb.append(',');
+      sb.append('"').append(counter.getName()).append("\":").append(counters.get(i));
+    }
+    sb.append('}');
+    synchronized (stages) {
+      if (!stages.isEmpty()) {
+        sb.append(",\"stages\":{");
+        boolean first = true;
+        for (final Map.Entry<String, long[]> entry : stages.entrySet()) {
+          final long[] values = entry.getValue();
+          if (!first) sb.append(',');
+          first = false;
+          // Utilisation: the fraction of the pipeline wall-clock time the stage was busy
+          final double utilisation = values[STAGE_WALL] == 0 ? 0
+              : (double) values[STAGE_BUSY] / values[STAGE_WALL];
+          sb.append('"').append(entry.getKey()).append("\":{")
+              .append("\"items\":").append(values[STAGE_ITEMS])
+              .append(",\"busy_millis\":").append(toMillis(values[STAGE_BUSY]))
+              .append(",\"starved_millis\":").append(toMillis(values[STAGE_STARVED]))
+              .append(",\"blocked_millis\":").append(toMillis(values[STAGE_BLOCKED]))
+              .append(",\"utilisation\":")
+              .append(String.format(Locale.ROOT, "%.3f", utilisation))
+              .append('}');
+        }
+        sb.append('}');
+      }
+    }
+    synchronized (configuration) {
+      if (!configuration.isEmpty()) {
+        sb.append(",\"configuration\":{");
+        boolean first = true;
+        for (final Map.Entry<String, String> entry : configuration.entrySet()) {
+          if (!first) sb.append(',');
+          first = false;
+          sb.append('"').append(entry.getKey()).append("\":").append(entry.getValue());
+        }
+        sb.append('}');
+      }
+    }
+    if (BufferPoolService.isUsed()) {
+      sb.append(",\"buffers\":").append(BufferPoolService.statsAsJson());
+    }
+    return sb.append('}').toString();
+  }
+
+  // private methods
+
+  private static String toMillis(final long nanos) {
+    return String.format(Locale.ROOT, "%.3f", nanos / NANOS_PER_MILLI);
+  }
+
+  /**
+   * The Flight Recorder is checked reflectively, so as this class can run on JVMs without JFR,
+   * and it is not initialized on purpose (as initializing it adds a noticeable startup cost)
+   */
+  private static boolean isJfrRunning() {
+    try {
+      final Class<?> recorder = Class.forName(JFR_RECORDER_CLASS, false,
+          InstrumentationService.class.getClassLoader());
+      return (Boolean) recorder.getMethod(JFR_IS_INITIALIZED).invoke(null);
+    } catch (final ReflectiveOperationException | LinkageError e) {
+      return false; // Running on a JVM without Flight Recorder support
+    }
+  }
+
+  /**
+   * @return true if the JFR events API can be loaded (e.g.: false on a runtime image without the
+   *         jdk.jfr module, even if the sink was forced with the {@value #JFR_PROPERTY} property)
+   */
+  private static boolean isJfrAvailable() {
+    try {
+      Class.forName(JFR_EVENT_CLASS, false, InstrumentationService.class.getClassLoader());
+      return true;
+    } catch (final ClassNotFoundException | LinkageError e) {
+      return false; // No events are emitted
+    }
+  }
+}
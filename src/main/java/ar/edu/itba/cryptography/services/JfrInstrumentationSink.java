@@ -0,0 +1,105 @@
+package ar.edu.itba.cryptography.services;
+
+import ar.edu.itba.cryptography.interfaces.InstrumentationSink;
+import ar.edu.itba.cryptography.services.InstrumentationService.Counter;
+import ar.edu.itba.cryptography.services.InstrumentationService.Phase;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * Emits each measurement as a custom JDK Flight Recorder event.
+ * <p>
+ * This class should only be loaded if the {@code jdk.jfr} API is available
+ * (see {@link InstrumentationService}). Events are only committed while a recording is active.
+ */
+/* package-private */ final class JfrInstrumentationSink implements InstrumentationSink {
+
+  @Override
+  public void phaseRecorded(final Phase phase, final long nanos, final long bytes) {
+    final PhaseEvent event = new PhaseEvent();
+    if (event.shouldCommit()) {
+      event.phase = phase.getName();
+      event.nanos = nanos;
+      event.bytes = bytes;
+      event.commit();
+    }
+  }
+
+  @Override
+  public void counterUpdated(final Counter counter, final long value) {
+    final CounterEvent event = new CounterEvent();
+    if (event.shouldCommit()) {
+      event.counter = counter.getName();
+      event.value = value;
+      event.commit();
+    }
+  }
+
+  @Override
+  public void stageRecorded(final String stage, final long items, final long busyNanos,
+      final long starvedNanos, final long blockedNanos) {
+    final StageEvent event = new StageEvent();
+    if (event.shouldCommit()) {
+      event.stage = stage;
+      event.items = items;
+      event.busyNanos = busyNanos;
+      event.starvedNanos = starvedNanos;
+      event.blockedNanos = blockedNanos;
+      event.commit();
+    }
+  }
+
+  @Name("ar.edu.itba.cryptography.Phase")
+  @Label("Steganography Phase")
+  @Category("Steganography")
+  private static class PhaseEvent extends Event {
+    @Label("Phase")
+    String phase;
+
+    @Label("Time Spent")
+    @Timespan(Timespan.NANOSECONDS)
+    long nanos;
+
+    @Label("Bytes")
+    @DataAmount
+    long bytes;
+  }
+
+  @Name("ar.edu.itba.cryptography.Counter")
+  @Label("Steganography Counter")
+  @Category("Steganography")
+  private static class CounterEvent extends Event {
+    @Label("Counter")
+    String counter;
+
+    @Label("Value")
+    long value;
+  }
+
+  @Name("ar.edu.itba.cryptography.Stage")
+  @Label("Steganography Pipeline Stage")
+  @Category("Steganography")
+  private static class StageEvent extends Event {
+    @Label("Stage")
+    String stage;
+
+    @Label("Items")
+    long items;
+
+    @Label("Busy Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long busyNanos;
+
+    @Label("Starved Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long starvedNanos;
+
+    @Label("Blocked Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long blockedNanos;
+  }
+}
@@ -0,0 +1,234 @@
+package ar.edu.itba.cryptography.services;
+
+import static ar.edu.itba.cryptography.services.IOService.ExitStatus.VALIDATION_FAILED;
+import static ar.edu.itba.cryptography.services.IOService.ExitStatus.WRITE_FILE_ERROR;
+
+import ar.edu.itba.cryptography.helpers.DigestHelper;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * This class is in charge of journaling a distribution, so as one that died halfway (e.g.: out of
+ * memory, or its host was evicted) can be resumed from its last checkpoint instead of from zero,
+ * and the covers are never left half-written.<p>
+ * Each shadow is written into a copy of its cover (the cover path + {@value #PART_SUFFIX}), and
+ * the checkpoint file ({@value #CHECKPOINT_FILE}, next to the first shadow) records everything a
+ * resumed run needs to produce the same shadows:
+ * <ul>
+ *   <li>the seed, the shadows in the order of their shadow numbers & their flags</li>
+ *   <li>the size, k & digest of the secret, and the size of the payload it is laid out into
+ *   (e.g., once compressed), so as a different secret (or layout) is never resumed</li>
+ *   <li>the amount of chunks already hidden (& flushed to disk) into every copy</li>
+ * </ul>
+ * Once all the chunks are hidden, the checkpoint is marked as committing, and each copy replaces
+ * its cover (a resumed run that finds it committing only replaces the remaining ones). The
+ * checkpoint file is deleted afterwards.
+ */
+public class JournalService {
+  public static final String PART_SUFFIX = ".part";
+  public static final String CHECKPOINT_FILE = "steganography.checkpoint";
+  private static final String TEMP_SUFFIX = ".tmp";
+  private static final String CHECKPOINT_COMMENT = "Steganography distribution checkpoint";
+  private static final String SEED = "seed", FLAGS = "flags", K = "k",
+      SECRET_BYTES = "secret_bytes", SECRET_DIGEST = "secret_digest",
+      PAYLOAD_BYTES = "payload_bytes", SHADOWS = "shadows",
+      SHADOW = "shadow.", COMPLETED_CHUNKS = "completed_chunks", COMMITTING = "committing";
+
+  private final Path checkpointPath;
+  private final List<Path> pathsToShadows;
+  private final List<Path> partPaths;
+  private final Properties checkpoint;
+
+  private JournalService(final Path checkpointPath, final List<Path> pathsToShadows,
+      final Properties checkpoint) {
+    this.checkpointPath = checkpointPath;
+    this.pathsToShadows = pathsToShadows;
+    this.partPaths = new ArrayList<>();
+    for (final Path path : pathsToShadows) {
+      partPaths.add(getPartPath(path));
+    }
+    this.checkpoint = checkpoint;
+  }
+
+  /**
+   * Resumes the distribution journaled next to the given shadows, if any, or starts a new one
+   * (exits with a validation error if the journaled one is not a distribution of the same
+   * secret into the same shadows)
+   * @param pathsToShadows the n shadows, in the order of their shadow numbers
+   * @param data the secret bytes, before being laid out
+   * @param payloadSize the amount of bytes the secret is laid out into (i.e., distributed)
+   * @param k the chunk size
+   * @param flags the flags of the shadow numbers
+   * @param seed the seed of a new distribution (ignored if one is resumed)
+   */
+  public static JournalService start(final List<Path> pathsToShadows, final SegmentedBuffer data,
+      final long payloadSize, final int k, final char flags, final char seed) {
+    final Path checkpointPath = getCheckpointPath(pathsToShadows.get(0));
+    final Properties expected = new Properties();
+    expected.setProperty(FLAGS, String.valueOf((int) flags));
+    expected.setProperty(K, String.valueOf(k));
+    expected.setProperty(SECRET_BYTES, String.valueOf(data.size()));
+    expected.setProperty(SECRET_DIGEST, String.valueOf(DigestHelper.crc32c(data)));
+    expected.setProperty(PAYLOAD_BYTES, String.valueOf(payloadSize));
+    expected.setProperty(SHADOWS, String.valueOf(pathsToShadows.size()));
+    for (int i = 0 ; i < pathsToShadows.size() ; i++) {
+      expected.setProperty(SHADOW + i, pathsToShadows.get(i).toAbsolutePath().normalize()
+          .toString());
+    }
+    if (Files.isRegularFile(checkpointPath)) {
+      final Properties checkpoint = load(checkpointPath);
+      for (final String key : expected.stringPropertyNames()) {
+        if (!expected.getProperty(key).equals(checkpoint.getProperty(key))) {
+          IOService.exit(VALIDATION_FAILED, "The distribution journaled at " + checkpointPath
+              + " is not a distribution of the same secret into the same shadows (" + key
+              + " differs). Delete it to start over");
+        }
+      }
+      final JournalService journal =
+          new JournalService(checkpointPath, pathsToShadows, checkpoint);
+      if (!journal.isCommitting()) {
+        for (final Path partPath : journal.partPaths) {
+          if (!Files.isRegularFile(partPath)) {
+            IOService.exit(VALIDATION_FAILED, "The journaled shadow " + partPath + " is missing. "
+                + "Delete " + checkpointPath + " to start over");
+          }
+        }
+      }
+      return journal;
+    }
+    expected.setProperty(SEED, String.valueOf((int) seed));
+    expected.setProperty(COMPLETED_CHUNKS, "0");
+    final JournalService journal = new JournalService(checkpointPath, pathsToShadows, expected);
+    try {
+      for (int i = 0 ; i < pathsToShadows.size() ; i++) {
+        Files.copy(pathsToShadows.get(i), journal.partPaths.get(i),
+            StandardCopyOption.REPLACE_EXISTING);
+      }
+    } catch (final IOException e) {
+      IOService.exit(WRITE_FILE_ERROR, e);
+    }
+    journal.save();
+    return journal;
+  }
+
+  /**
+   * @param pathsToShadows the n shadows, in the order of their shadow numbers
+   * @return the seed of the distribution journaled next to the given shadows; null if there is
+   *         none
+   */
+  public static Character findSeed(final List<Path> pathsToShadows) {
+    final Path checkpointPath = getCheckpointPath(pathsToShadows.get(0));
+    if (!Files.isRegularFile(checkpointPath)) {
+      return null;
+    }
+    final String seed = load(checkpointPath).getProperty(SEED);
+    return seed == null ? null : (char) Integer.parseInt(seed);
+  }
+
+  public Path getCheckpointPath() {
+    return checkpointPath;
+  }
+
+  public char getSeed() {
+    return (char) Integer.parseInt(checkpoint.getProperty(SEED));
+  }
+
+  /**
+   * @return the amount of chunks already hidden into every shadow, which should not be
+   *         distributed again
+   */
+  public int getCompletedChunks() {
+    return Integer.parseInt(checkpoint.getProperty(COMPLETED_CHUNKS));
+  }
+
+  /**
+   * @return true if all the chunks were hidden, and the copies are replacing the covers
+   */
+  public boolean isCommitting() {
+    return Boolean.parseBoolean(checkpoint.getProperty(COMMITTING));
+  }
+
+  /**
+   * @return the copies where the shadows should be written, in the same order as the shadows
+   */
+  public List<Path> getPartPaths() {
+    return partPaths;
+  }
+
+  /**
+   * Flushes the copies to disk, and records that the given amount of chunks were hidden into them
+   * @param channelService the service the copies were written with
+   */
+  public void checkpoint(final BMPChannelService channelService, final int completedChunks) {
+    for (final Path partPath : partPaths) {
+      channelService.force(partPath);
+    }
+    checkpoint.setProperty(COMPLETED_CHUNKS, String.valueOf(completedChunks));
+    save();
+  }
+
+  /**
+   * Replaces each cover with its copy, and deletes the checkpoint. The copies should have been
+   * completely written (and closed)
+   */
+  public void commit() {
+    checkpoint.setProperty(COMMITTING, Boolean.TRUE.toString());
+    save();
+    try {
+      for (int i = 0 ; i < pathsToShadows.size() ; i++) {
+        final Path partPath = partPaths.get(i);
+        if (Files.isRegularFile(partPath)) { // a resumed commit may have moved it already
+          IOService.moveAtomically(partPath, pathsToShadows.get(i));
+        }
+      }
+      Files.deleteIfExists(checkpointPath);
+    } catch (final IOException e) {
+      IOService.exit(WRITE_FILE_ERROR, e);
+    }
+  }
+
+  // private methods
+
+  private static Path getCheckpointPath(final Path firstShadow) {
+    final Path directory = firstShadow.toAbsolutePath().getParent();
+    return directory.resolve(CHECKPOINT_FILE);
+  }
+
+  private static Path getPartPath(final Path path) {
+    return path.resolveSibling(path.getFileName() + PART_SUFFIX);
+  }
+
+  /**
+   * Writes the checkpoint into a temporary file that replaces the previous one, so as a run that
+   * dies while writing it leaves the previous checkpoint intact
+   */
+  private void save() {
+    final Path tempPath = checkpointPath.resolveSibling(CHECKPOINT_FILE + TEMP_SUFFIX);
+    try {
+      try (final OutputStream out = Files.newOutputStream(tempPath)) {
+        checkpoint.store(out, CHECKPOINT_COMMENT);
+      }
+      IOService.moveAtomically(tempPath, checkpointPath);
+    } catch (final IOException e) {
+      IOService.exit(WRITE_FILE_ERROR, e);
+    }
+  }
+
+  private static Properties load(final Path path) {
+    final Properties properties = new Properties();
+    try (final InputStream in = Files.newInputStream(path)) {
+      properties.load(in);
+    } catch (final IOException | IllegalArgumentException e) {
+      IOService.exit(VALIDATION_FAILED, "The checkpoint " + path + " cannot be read. Delete it "
+          + "to start over");
+    }
+    return properties;
+  }
+}
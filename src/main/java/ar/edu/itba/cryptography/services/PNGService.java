@@ -0,0 +1,431 @@
+package ar.edu.itba.cryptography.services;
+
+import static ar.edu.itba.cryptography.services.IOService.ExitStatus.BAD_FILE_FORMAT;
+import static ar.edu.itba.cryptography.services.IOService.ExitStatus.WRITE_FILE_ERROR;
+import static ar.edu.itba.cryptography.services.IOService.exit;
+
+import ar.edu.itba.cryptography.services.InstrumentationService.Phase;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+
+/**
+ * This class is in charge of the PNG covers & shadows: 8 bits grayscale, non interlaced PNG
+ * images (i.e., the same pixels as the bmp images of the project, losslessly compressed).<p>
+ * They are decoded into an in-memory bmp image (see {@link BMPService#createGrayscaleImage}), so
+ * as the values are hidden & retrieved exactly as in a bmp file, and encoded back when written.
+ * The reserved words of the bmp header (the seed & the shadow number) are stored in a private
+ * ancillary chunk ({@value #STEG_CHUNK}), which decoders that do not know it ignore. Each row is
+ * written with the filter that minimises the sum of its absolute differences (as most encoders
+ * do), and the rows are stored top-down, as PNG defines them.
+ */
+public final class PNGService {
+  private static final String PNG_EXT = ".png";
+  private static final byte[] SIGNATURE = { (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n' };
+  private static final String IHDR = "IHDR", IDAT = "IDAT", IEND = "IEND";
+  /**
+   * Private (2nd letter lowercase), not safe-to-copy (4th letter uppercase) ancillary chunk
+   * with the seed & the shadow number, as 2 big-endian words
+   */
+  private static final String STEG_CHUNK = "stEG";
+  private static final int STEG_CHUNK_SIZE = 4;
+  private static final int IHDR_SIZE = 13;
+  /**
+   * Length, type & CRC of each chunk
+   */
+  private static final int CHUNK_OVERHEAD = 12;
+  private static final int BIT_DEPTH = 8, GRAYSCALE = 0;
+  private static final int FILTER_NONE = 0, FILTER_SUB = 1, FILTER_UP = 2, FILTER_AVERAGE = 3,
+      FILTER_PAETH = 4, FILTERS = 5;
+  private static final int MAX_IDAT_SIZE = 1 << 20;
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private PNGService() {
+  }
+
+  /**
+   * @return true if the given file is a PNG image (by its extension)
+   */
+  public static boolean isPNGFile(final Path path) {
+    return String.valueOf(path.getFileName()).toLowerCase(Locale.ROOT).endsWith(PNG_EXT);
+  }
+
+  /**
+   * Reads only the first chunks of the given image (up to its pixel data)
+   * @return the header of the bmp image it is decoded into (see {@link #read})
+   */
+  public static byte[] readHeader(final Path path) {
+    try (final DataInputStream in = new DataInputStream(Files.newInputStream(path))) {
+      final Decoder decoder = new Decoder(path, in, false);
+      decoder.decode();
+      return decoder.toBmp(null);
+    } catch (final IOException e) {
+      exit(BAD_FILE_FORMAT, path);
+      throw new IllegalStateException(); // Should never reach here
+    }
+  }
+
+  /**
+   * @return the bmp image the given PNG image is decoded into, with its seed & shadow number
+   */
+  public static byte[] read(final Path path) throws IOException {
+    try (final InputStream in = new BufferedInputStream(Files.newInputStream(path), BUFFER_SIZE)) {
+      return read(path, in);
+    }
+  }
+
+  /**
+   * Same as {@link #read(Path)}, but the image is read from the given stream (which is not
+   * closed)
+   */
+  public static byte[] read(final Path path, final InputStream in) throws IOException {
+    final long readStart = InstrumentationService.start();
+    final Decoder decoder = new Decoder(path, new DataInputStream(in), true);
+    decoder.decode();
+    final byte[] bmp = decoder.toBmp(decoder.pixels);
+    InstrumentationService.record(Phase.READ, readStart, decoder.readBytes);
+    return bmp;
+  }
+
+  /**
+   * Writes the given bmp image (8 bits per pixel, with a grayscale palette) as a PNG image, with
+   * its seed & shadow number
+   */
+  public static void write(final Path path, final byte[] bmp) {
+    final long writeStart = InstrumentationService.start();
+    final int width = BMPService.getHorizontalWidthInPixels(bmp);
+    final int height = BMPService.getVerticalWidthInPixels(bmp);
+    final int offset = BMPService.getBitmapOffset(bmp);
+    try (final OutputStream out = Files.newOutputStream(path)) {
+      out.write(SIGNATURE);
+      final byte[] header = new byte[IHDR_SIZE];
+      putInt(header, 0, width);
+      putInt(header, 4, height);
+      header[8] = BIT_DEPTH;
+      header[9] = GRAYSCALE; // compression, filter & interlace methods are 0
+      writeChunk(out, IHDR, header, header.length);
+      final byte[] steg = new byte[STEG_CHUNK_SIZE];
+      putWord(steg, 0, BMPService.recoverSeed(bmp));
+      putWord(steg, 2, BMPService.recoverShadowNumber(bmp));
+      writeChunk(out, STEG_CHUNK, steg, steg.length);
+      final IdatOutputStream idat = new IdatOutputStream(out);
+      final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+      try (final DeflaterOutputStream zlib = new DeflaterOutputStream(idat, deflater,
+          BUFFER_SIZE)) {
+        final RowFilter filter = new RowFilter(width);
+        for (int row = 0 ; row < height ; row++) {
+          // bmp rows are stored bottom-up
+          zlib.write(filter.filter(bmp, offset + (height - 1 - row) * width));
+        }
+      } finally {
+        deflater.end();
+      }
+      writeChunk(out, IEND, new byte[0], 0);
+      InstrumentationService.record(Phase.WRITE, writeStart, Files.size(path));
+    } catch (final IOException e) {
+      exit(WRITE_FILE_ERROR, e);
+    }
+  }
+
+  // private methods
+
+  private static void writeChunk(final OutputStream out, final String type, final byte[] data,
+      final int length) throws IOException {
+    final byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+    final byte[] lengthBytes = new byte[4];
+    putInt(lengthBytes, 0, length);
+    final CRC32 crc = new CRC32();
+    crc.update(typeBytes);
+    crc.update(data, 0, length);
+    final byte[] crcBytes = new byte[4];
+    putInt(crcBytes, 0, (int) crc.getValue());
+    out.write(lengthBytes);
+    out.write(typeBytes);
+    out.write(data, 0, length);
+    out.write(crcBytes);
+  }
+
+  private static void putInt(final byte[] bytes, final int position, final int value) {
+    for (int i = 0 ; i < 4 ; i++) {
+      bytes[position + i] = (byte) (value >>> (Byte.SIZE * (3 - i)));
+    }
+  }
+
+  private static void putWord(final byte[] bytes, final int position, final char value) {
+    bytes[position] = (byte) (value >>> Byte.SIZE);
+    bytes[position + 1] = (byte) value;
+  }
+
+  private static int paeth(final int a, final int b, final int c) {
+    final int p = a + b - c;
+    final int pa = Math.abs(p - a), pb = Math.abs(p - b), pc = Math.abs(p - c);
+    if (pa <= pb && pa <= pc) {
+      return a;
+    }
+    return pb <= pc ? b : c;
+  }
+
+  /**
+   * Splits the compressed pixel data into IDAT chunks of up to {@value #MAX_IDAT_SIZE} bytes
+   */
+  private static class IdatOutputStream extends OutputStream {
+    private final OutputStream out;
+    private final byte[] buffer = new byte[MAX_IDAT_SIZE];
+    private int length;
+
+    private IdatOutputStream(final OutputStream out) {
+      this.out = out;
+    }
+
+    @Override
+    public void write(final int b) throws IOException {
+      write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void write(final byte[] bytes, final int off, final int len) throws IOException {
+      int written = 0;
+      while (written < len) {
+        final int n = Math.min(len - written, buffer.length - length);
+        System.arraycopy(bytes, off + written, buffer, length, n);
+        length += n;
+        written += n;
+        if (length == buffer.length) {
+          flush();
+        }
+      }
+    }
+
+    @Override
+    public void flush() throws IOException {
+      if (length > 0) {
+        writeChunk(out, IDAT, buffer, length);
+        length = 0;
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      flush(); // the file is closed by its writer
+    }
+  }
+
+  /**
+   * Filters each row with the filter that minimises the sum of its absolute differences
+   */
+  private static class RowFilter {
+    private final int width;
+    private final byte[] previous;
+    private final byte[][] candidates;
+
+    private RowFilter(final int width) {
+      this.width = width;
+      this.previous = new byte[width];
+      this.candidates = new byte[FILTERS][width + 1];
+    }
+
+    /**
+     * @return the filter type followed by the filtered row starting at {@code from}
+     */
+    private byte[] filter(final byte[] bmp, final int from) {
+      int best = FILTER_NONE;
+      long bestSum = Long.MAX_VALUE;
+      for (int type = FILTER_NONE ; type < FILTERS ; type++) {
+        final byte[] candidate = candidates[type];
+        candidate[0] = (byte) type;
+        long sum = 0;
+        for (int i = 0 ; i < width ; i++) {
+          final int x = bmp[from + i] & 0xFF;
+          final int a = i > 0 ? bmp[from + i - 1] & 0xFF : 0;
+          final int b = previous[i] & 0xFF;
+          final int c = i > 0 ? previous[i - 1] & 0xFF : 0;
+          final int predictor;
+          switch (type) {
+            case FILTER_SUB: predictor = a; break;
+            case FILTER_UP: predictor = b; break;
+            case FILTER_AVERAGE: predictor = (a + b) >>> 1; break;
+            case FILTER_PAETH: predictor = paeth(a, b, c); break;
+            default: predictor = 0;
+          }
+          final byte filtered = (byte) (x - predictor);
+          candidate[i + 1] = filtered;
+          sum += Math.abs(filtered);
+        }
+        if (sum < bestSum) {
+          bestSum = sum;
+          best = type;
+        }
+      }
+      System.arraycopy(bmp, from, previous, 0, width);
+      return candidates[best];
+    }
+  }
+
+  /**
+   * Reads the chunks of a PNG image
+   */
+  private static class Decoder {
+    private final Path path;
+    private final DataInputStream in;
+    /**
+     * false if only the chunks before the pixel data should be read
+     */
+    private final boolean readPixels;
+    private int width, height;
+    private char seed, shadowNumber;
+    private byte[] pixels;
+    private int inflatedBytes;
+    /**
+     * Bytes of the file read so far (i.e., its size on disk, once decoded)
+     */
+    private long readBytes;
+
+    private Decoder(final Path path, final DataInputStream in, final boolean readPixels) {
+      this.path = path;
+      this.in = in;
+      this.readPixels = readPixels;
+    }
+
+    private void decode() throws IOException {
+      final byte[] signature = new byte[SIGNATURE.length];
+      in.readFully(signature);
+      readBytes = signature.length;
+      if (!Arrays.equals(signature, SIGNATURE)) {
+        exit(BAD_FILE_FORMAT, path);
+      }
+      final Inflater inflater = new Inflater();
+      try {
+        boolean headerRead = false;
+        while (true) {
+          final int length = in.readInt();
+          final byte[] typeBytes = new byte[4];
+          in.readFully(typeBytes);
+          final String type = new String(typeBytes, StandardCharsets.US_ASCII);
+          if (length < 0 || (IDAT.equals(type) && !readPixels)) {
+            return;
+          }
+          final byte[] data = new byte[length];
+          in.readFully(data);
+          readBytes += CHUNK_OVERHEAD + length;
+          final CRC32 crc = new CRC32();
+          crc.update(typeBytes);
+          crc.update(data);
+          if ((int) crc.getValue() != in.readInt()) {
+            throw new IOException(path + " has a corrupted " + type + " chunk");
+          }
+          if (IHDR.equals(type)) {
+            readHeader(data);
+            headerRead = true;
+          } else if (!headerRead) {
+            throw new IOException(path + " does not start with its header");
+          } else if (STEG_CHUNK.equals(type) && length == STEG_CHUNK_SIZE) {
+            seed = (char) (((data[0] & 0xFF) << Byte.SIZE) | (data[1] & 0xFF));
+            shadowNumber = (char) (((data[2] & 0xFF) << Byte.SIZE) | (data[3] & 0xFF));
+          } else if (IDAT.equals(type)) {
+            inflate(inflater, data);
+          } else if (IEND.equals(type)) {
+            break;
+          } else if (Character.isUpperCase(type.charAt(0))) {
+            // A critical chunk other than the ones of a grayscale image (e.g.: a palette)
+            exit(BAD_FILE_FORMAT, path);
+          }
+        }
+        if (pixels == null || !inflater.finished() || inflatedBytes < pixels.length) {
+          throw new IOException(path + " was truncated while being read");
+        }
+        unfilter();
+      } catch (final DataFormatException e) {
+        throw new IOException(path + " has corrupted pixel data", e);
+      } finally {
+        inflater.end();
+      }
+    }
+
+    private void readHeader(final byte[] data) {
+      width = ((data[0] & 0xFF) << 24) | ((data[1] & 0xFF) << 16) | ((data[2] & 0xFF) << 8)
+          | (data[3] & 0xFF);
+      height = ((data[4] & 0xFF) << 24) | ((data[5] & 0xFF) << 16) | ((data[6] & 0xFF) << 8)
+          | (data[7] & 0xFF);
+      // Only 8 bits grayscale, non interlaced images have the layout of the project images
+      if (data.length != IHDR_SIZE || data[8] != BIT_DEPTH || data[9] != GRAYSCALE
+          || data[10] != 0 || data[11] != 0 || data[12] != 0 || width <= 0 || height <= 0
+          || (long) (width + 1) * height > Integer.MAX_VALUE) {
+        exit(BAD_FILE_FORMAT, path);
+      }
+    }
+
+    /**
+     * Inflates the given compressed pixel data after the previous one (filtered rows)
+     */
+    private void inflate(final Inflater inflater, final byte[] data)
+        throws DataFormatException, IOException {
+      if (pixels == null) {
+        pixels = new byte[(width + 1) * height];
+      }
+      inflater.setInput(data);
+      final byte[] excess = new byte[1];
+      while (!inflater.needsInput() && !inflater.finished()) {
+        if (inflatedBytes < pixels.length) {
+          inflatedBytes += inflater.inflate(pixels, inflatedBytes, pixels.length - inflatedBytes);
+        } else if (inflater.inflate(excess) > 0) {
+          throw new IOException(path + " has more pixel data than its dimensions");
+        }
+        if (inflater.needsDictionary()) {
+          throw new IOException(path + " has corrupted pixel data");
+        }
+      }
+    }
+
+    /**
+     * Reverts the filters of the rows, in place: the row r is left at r * (width + 1) + 1
+     */
+    private void unfilter() throws IOException {
+      final int stride = width + 1;
+      for (int row = 0 ; row < height ; row++) {
+        final int start = row * stride + 1;
+        final int type = pixels[start - 1];
+        for (int i = 0 ; i < width ; i++) {
+          final int a = i > 0 ? pixels[start + i - 1] & 0xFF : 0;
+          final int b = row > 0 ? pixels[start - stride + i] & 0xFF : 0;
+          final int c = i > 0 && row > 0 ? pixels[start - stride + i - 1] & 0xFF : 0;
+          final int predictor;
+          switch (type) {
+            case FILTER_NONE: predictor = 0; break;
+            case FILTER_SUB: predictor = a; break;
+            case FILTER_UP: predictor = b; break;
+            case FILTER_AVERAGE: predictor = (a + b) >>> 1; break;
+            case FILTER_PAETH: predictor = paeth(a, b, c); break;
+            default: throw new IOException(path + " has an unknown row filter: " + type);
+          }
+          pixels[start + i] = (byte) (pixels[start + i] + predictor);
+        }
+      }
+    }
+
+    /**
+     * @param rows the unfiltered rows (see {@link #unfilter}); null for the header only
+     * @return the bmp image (or its header) with the decoded pixels, seed & shadow number
+     */
+    private byte[] toBmp(final byte[] rows) {
+      final int stride = width + 1;
+      final byte[] bmp = rows == null ? BMPService.createGrayscaleHeader(width, height)
+          : BMPService.createGrayscaleImage(width, height,
+              i -> rows[(height - 1 - i / width) * stride + 1 + i % width]);
+      BMPService.saveSeed(bmp, seed);
+      BMPService.saveShadowNumber(bmp, shadowNumber);
+      return bmp;
+    }
+  }
+}
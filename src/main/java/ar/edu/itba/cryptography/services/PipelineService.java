@@ -0,0 +1,194 @@
+package ar.edu.itba.cryptography.services;
+
+import ar.edu.itba.cryptography.interfaces.PipelineStage;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Staged producer/consumer pipeline: each stage runs on its own thread, and consecutive stages
+ * are connected by bounded queues, so as I/O stages (e.g.: read & write) overlap with the
+ * compute ones, and the wall-clock time approaches the one of the slowest stage instead of the
+ * sum of all of them.<p>
+ * A full queue blocks the stage that feeds it (backpressure), so at most
+ * {@code stages * (queueCapacity + 1)} items are in flight at the same time.<p>
+ * Once the pipeline is done, the following measurements of each stage are recorded with
+ * {@link InstrumentationService#recordStage}: the amount of items, the time spent processing
+ * them (busy), waiting for the previous stage (starved) and waiting for the following one
+ * (blocked, i.e., backpressure).
+ * @param <T> the type of the items flowing through the pipeline
+ */
+public class PipelineService<T> {
+  /**
+   * Marks the end of the items in a queue
+   */
+  private static final Object END = new Object();
+
+  private final int queueCapacity;
+  private final List<String> names;
+  private final List<PipelineStage<T>> stages;
+
+  /**
+   * @param queueCapacity the amount of items each queue can hold
+   */
+  public PipelineService(final int queueCapacity) {
+    this.queueCapacity = queueCapacity;
+    this.names = new ArrayList<>();
+    this.stages = new ArrayList<>();
+  }
+
+  /**
+   * @param stages the amount of stages of a pipeline
+   * @param queueCapacity the amount of items each of its queues can hold
+   * @return the maximum amount of items the pipeline holds at the same time: the ones in each
+   *         queue, the one held by each stage & the one the producer is waiting to enqueue
+   */
+  public static int getMaxItemsInFlight(final int stages, final int queueCapacity) {
+    return stages * (queueCapacity + 1) + 1;
+  }
+
+  /**
+   * Appends a stage to the pipeline
+   * @param name the name of the stage, used for its thread & its measurements
+   * @param stage the stage
+   * @return this pipeline
+   */
+  public PipelineService<T> addStage(final String name, final PipelineStage<T> stage) {
+    names.add(name);
+    stages.add(stage);
+    return this;
+  }
+
+  /**
+   * Runs all the given items through all the stages, in order, and waits for all of them to be
+   * done. If any stage fails, all the others are stopped and its failure is thrown
+   * @param items the items to be processed. They are produced on the calling thread
+   */
+  public void run(final Iterator<T> items) {
+    final int size = stages.size();
+    final List<BlockingQueue<Object>> queues = new ArrayList<>(size);
+    for (int i = 0 ; i < size ; i++) {
+      queues.add(new ArrayBlockingQueue<>(queueCapacity));
+    }
+    final AtomicReference<Throwable> failure = new AtomicReference<>();
+    final List<Thread> threads = new ArrayList<>(size + 1);
+    // The calling thread is interrupted as well if a stage fails
+    threads.add(Thread.currentThread());
+    final List<StageThread> stageThreads = new ArrayList<>(size);
+    for (int i = 0 ; i < size ; i++) {
+      final BlockingQueue<Object> output = i + 1 < size ? queues.get(i + 1) : null;
+      stageThreads.add(new StageThread(names.get(i), stages.get(i), queues.get(i), output,
+          failure, threads));
+    }
+    threads.addAll(stageThreads);
+    final long runStart = System.nanoTime();
+    for (final StageThread thread : stageThreads) {
+      thread.start();
+    }
+    try {
+      while (items.hasNext()) {
+        queues.get(0).put(items.next());
+      }
+      queues.get(0).put(END);
+      for (final StageThread thread : stageThreads) {
+        thread.join();
+      }
+    } catch (final InterruptedException e) {
+      if (failure.get() == null) {
+        // Interrupted from outside => stop all the stages
+        failure.set(e);
+        for (final StageThread thread : stageThreads) {
+          thread.interrupt();
+        }
+      }
+    }
+    final Throwable throwable = failure.get();
+    if (throwable != null) {
+      if (throwable instanceof InterruptedException) {
+        Thread.currentThread().interrupt();
+      } else {
+        Thread.interrupted(); // clear the interruption made by the failing stage
+      }
+      if (throwable instanceof RuntimeException) {
+        throw (RuntimeException) throwable;
+      }
+      if (throwable instanceof Error) {
+        throw (Error) throwable;
+      }
+      throw new IllegalStateException("Pipeline stopped", throwable);
+    }
+    final long wallNanos = System.nanoTime() - runStart;
+    for (final StageThread thread : stageThreads) {
+      InstrumentationService.recordStage(thread.getName(), thread.items, thread.busyNanos,
+          thread.starvedNanos, thread.blockedNanos, wallNanos);
+    }
+  }
+
+  private class StageThread extends Thread {
+    private final PipelineStage<T> stage;
+    private final BlockingQueue<Object> input;
+    private final BlockingQueue<Object> output;
+    private final AtomicReference<Throwable> failure;
+    private final List<Thread> threads;
+    /**
+     * The setting of the job that runs the pipeline (see {@link IOService#setThrowOnExit})
+     */
+    private final boolean throwOnExit;
+    private long items, busyNanos, starvedNanos, blockedNanos;
+
+    private StageThread(final String name, final PipelineStage<T> stage,
+        final BlockingQueue<Object> input, final BlockingQueue<Object> output,
+        final AtomicReference<Throwable> failure, final List<Thread> threads) {
+      super(name);
+      setDaemon(true);
+      this.stage = stage;
+      this.input = input;
+      this.output = output;
+      this.failure = failure;
+      this.threads = threads;
+      this.throwOnExit = IOService.isThrowOnExit();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void run() {
+      IOService.setThrowOnExit(throwOnExit);
+      try {
+        while (true) {
+          final long takeStart = System.nanoTime();
+          final Object item = input.take();
+          final long processStart = System.nanoTime();
+          starvedNanos += processStart - takeStart;
+          if (item == END) {
+            break;
+          }
+          stage.process((T) item);
+          final long putStart = System.nanoTime();
+          busyNanos += putStart - processStart;
+          items ++;
+          if (output != null) {
+            output.put(item);
+            blockedNanos += System.nanoTime() - putStart;
+          }
+        }
+        if (output != null) {
+          output.put(END);
+        }
+      } catch (final InterruptedException e) {
+        // Another stage failed => stop right away
+      } catch (final Throwable e) {
+        if (failure.compareAndSet(null, e)) {
+          // Stop all the other stages & the producer
+          for (final Thread thread : threads) {
+            if (thread != this) {
+              thread.interrupt();
+            }
+          }
+        }
+      }
+    }
+  }
+}
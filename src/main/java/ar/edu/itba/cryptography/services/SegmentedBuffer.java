@@ -0,0 +1,149 @@
+package ar.edu.itba.cryptography.services;
+
+import ar.edu.itba.cryptography.interfaces.ByteSource;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A buffer addressed with long positions, made of fixed-size segments (slices of a heap array,
+ * or read-only mappings of a file), for the images & secrets that do not fit in a single Java
+ * array (i.e., the ones whose unsigned 32-bit size field is beyond 2 GB).<p>
+ * Every segment but the last one holds exactly {@value #SEGMENT_SIZE} bytes, so as positions
+ * are split into a segment & an index with shifts. A buffer made of a single array (see
+ * {@link #wrap}) exposes it through {@link #array}, so as the callers that work on whole arrays
+ * keep doing so.
+ */
+public final class SegmentedBuffer implements ByteSource {
+  /**
+   * Largest array that can be allocated by most JVMs
+   */
+  public static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+  private static final int SEGMENT_SHIFT = 30;
+  private static final int SEGMENT_SIZE = 1 << SEGMENT_SHIFT;
+  private static final int SEGMENT_MASK = SEGMENT_SIZE - 1;
+
+  private final ByteBuffer[] segments;
+  /**
+   * Position of the first byte of this buffer in its segments (non-zero for slices)
+   */
+  private final long base;
+  private final long size;
+  private final byte[] array;
+
+  private SegmentedBuffer(final ByteBuffer[] segments, final long base, final long size,
+      final byte[] array) {
+    this.segments = segments;
+    this.base = base;
+    this.size = size;
+    this.array = array;
+  }
+
+  /**
+   * @return a buffer backed by the given array (i.e., changes to any of them are seen by the
+   *         other one)
+   */
+  public static SegmentedBuffer wrap(final byte[] array) {
+    final ByteBuffer[] segments = new ByteBuffer[getSegments(array.length)];
+    for (int i = 0 ; i < segments.length ; i++) {
+      final int from = i << SEGMENT_SHIFT;
+      segments[i] = ByteBuffer.wrap(array, from, Math.min(SEGMENT_SIZE, array.length - from))
+          .slice();
+    }
+    return new SegmentedBuffer(segments, 0, array.length, array);
+  }
+
+  /**
+   * Maps the whole given file, read-only, so as its bytes are paged in as they are accessed
+   * (out of the heap). The file should not be modified while the buffer is referenced
+   */
+  public static SegmentedBuffer map(final Path path) throws IOException {
+    try (final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      final long size = channel.size();
+      final ByteBuffer[] segments = new ByteBuffer[getSegments(size)];
+      for (int i = 0 ; i < segments.length ; i++) {
+        final long from = (long) i << SEGMENT_SHIFT;
+        segments[i] = channel.map(MapMode.READ_ONLY, from, Math.min(SEGMENT_SIZE, size - from));
+      }
+      // Mappings remain valid once the channel is closed
+      return new SegmentedBuffer(segments, 0, size, null);
+    }
+  }
+
+  @Override
+  public long size() {
+    return size;
+  }
+
+  /**
+   * @return the array that holds the whole buffer (from its first byte on, and with its exact
+   *         size); null if it is not a single array (e.g.: it is mapped, or it is a slice)
+   */
+  public byte[] array() {
+    return array;
+  }
+
+  public byte get(final long position) {
+    final long absolute = base + position;
+    return segments[(int) (absolute >>> SEGMENT_SHIFT)].get((int) (absolute & SEGMENT_MASK));
+  }
+
+  public void put(final long position, final byte b) {
+    final long absolute = base + position;
+    segments[(int) (absolute >>> SEGMENT_SHIFT)].put((int) (absolute & SEGMENT_MASK), b);
+  }
+
+  /**
+   * Copies {@code length} bytes of this buffer, starting at {@code position}, into
+   * {@code bytes}, starting at {@code from}
+   */
+  @Override
+  public void get(final long position, final byte[] bytes, final int from, final int length) {
+    int copied = 0;
+    while (copied < length) {
+      final long absolute = base + position + copied;
+      final ByteBuffer segment = segments[(int) (absolute >>> SEGMENT_SHIFT)].duplicate();
+      final int index = (int) (absolute & SEGMENT_MASK);
+      final int count = Math.min(length - copied, segment.limit() - index);
+      segment.position(index);
+      segment.get(bytes, from + copied, count);
+      copied += count;
+    }
+  }
+
+  /**
+   * Copies {@code length} bytes of {@code bytes}, starting at {@code from}, into this buffer,
+   * starting at {@code position}
+   */
+  public void put(final long position, final byte[] bytes, final int from, final int length) {
+    int copied = 0;
+    while (copied < length) {
+      final long absolute = base + position + copied;
+      final ByteBuffer segment = segments[(int) (absolute >>> SEGMENT_SHIFT)].duplicate();
+      final int index = (int) (absolute & SEGMENT_MASK);
+      final int count = Math.min(length - copied, segment.limit() - index);
+      segment.position(index);
+      segment.put(bytes, from + copied, count);
+      copied += count;
+    }
+  }
+
+  /**
+   * @return a view of this buffer from the given position on (i.e., sharing its bytes)
+   */
+  public SegmentedBuffer slice(final long from) {
+    if (from == 0) {
+      return this;
+    }
+    return new SegmentedBuffer(segments, base + from, size - from, null);
+  }
+
+  // private methods
+
+  private static int getSegments(final long size) {
+    return (int) ((size + SEGMENT_SIZE - 1) >>> SEGMENT_SHIFT);
+  }
+}
@@ -0,0 +1,169 @@
+package ar.edu.itba.cryptography.services;
+
+import static ar.edu.itba.cryptography.services.IOService.ExitStatus.WRITE_FILE_ERROR;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Locale;
+import java.util.Properties;
+
+/**
+ * This class is in charge of the tuning profile of the host: the distribution settings (engine &
+ * tile size) that performed best for each (k, n, size class), as calibrated by the tune program.
+ * <p>
+ * The profile is a properties file at {@code ~/.steganography/tuning.properties}, or at the path
+ * of the {@value #PROFILE_PROPERTY} system property, with one entry per calibrated job shape, e.g.:
+ * {@code k14.n19.size18=shadow_major,4096}. Size classes are powers of 4: a secret of
+ * {@code bytes} bytes belongs to the class {@code 2 * floor(log4(bytes))}.<p>
+ * It is loaded once, the first time it is needed. Jobs whose shape was not calibrated use the
+ * default settings.
+ */
+public final class TuningService {
+  public static final String PROFILE_PROPERTY = "steganography.profile";
+  private static final String PROFILE_DIR = ".steganography";
+  private static final String PROFILE_FILE = "tuning.properties";
+  private static final String PROFILE_COMMENT = "Steganography tuning profile";
+  private static final String SEPARATOR = ",";
+
+  public enum Engine {
+    CHUNK_MAJOR, SHADOW_MAJOR, VECTOR;
+
+    public String getName() {
+      return name().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * @return true if the engine evaluates the chunks in tiles
+     */
+    public boolean isTiled() {
+      return this != CHUNK_MAJOR;
+    }
+  }
+
+  /**
+   * The settings of a distribution
+   */
+  public static final class Tuning {
+    private final Engine engine;
+    private final int tileChunks;
+
+    /**
+     * @param engine the distribution engine
+     * @param tileChunks the amount of chunks of each tile; ignored (0) if the engine is not tiled
+     */
+    public Tuning(final Engine engine, final int tileChunks) {
+      this.engine = engine;
+      this.tileChunks = engine.isTiled() ? tileChunks : 0;
+    }
+
+    public Engine getEngine() {
+      return engine;
+    }
+
+    public int getTileChunks() {
+      return tileChunks;
+    }
+
+    @Override
+    public String toString() {
+      return engine.getName() + SEPARATOR + tileChunks;
+    }
+
+    /**
+     * @return the tuning represented by the given {@link #toString}; null if it is not valid
+     */
+    private static Tuning parse(final String value) {
+      final String[] fields = value.trim().split(SEPARATOR);
+      if (fields.length != 2) {
+        return null;
+      }
+      try {
+        final Engine engine = Engine.valueOf(fields[0].trim().toUpperCase(Locale.ROOT));
+        final int tileChunks = Integer.parseInt(fields[1].trim());
+        return engine.isTiled() && tileChunks <= 0 ? null : new Tuning(engine, tileChunks);
+      } catch (final IllegalArgumentException e) {
+        return null; // also catches NumberFormatException
+      }
+    }
+  }
+
+  private static Properties profile;
+
+  private TuningService() {
+  }
+
+  /**
+   * @param secretBytes the amount of bytes of the secret being distributed
+   * @return the size class of the secret
+   */
+  public static int getSizeClass(final long secretBytes) {
+    final int log2 = 63 - Long.numberOfLeadingZeros(Math.max(1, secretBytes));
+    return log2 - log2 % 2;
+  }
+
+  /**
+   * @return the calibrated settings for the given job shape; null if it was not calibrated
+   */
+  public static synchronized Tuning find(final int k, final int n, final long secretBytes) {
+    final String value = getProfile().getProperty(getKey(k, n, getSizeClass(secretBytes)));
+    return value == null ? null : Tuning.parse(value);
+  }
+
+  /**
+   * Saves the calibrated settings of the given job shape into the profile file, keeping the
+   * settings of the other shapes
+   */
+  public static synchronized void save(final int k, final int n, final int sizeClass,
+      final Tuning tuning) {
+    final Properties properties = getProfile();
+    properties.setProperty(getKey(k, n, sizeClass), tuning.toString());
+    final Path path = getProfilePath();
+    try {
+      if (path.getParent() != null) {
+        Files.createDirectories(path.getParent());
+      }
+      try (final OutputStream out = Files.newOutputStream(path)) {
+        properties.store(out, PROFILE_COMMENT);
+      }
+    } catch (final IOException e) {
+      IOService.exit(WRITE_FILE_ERROR, e);
+    }
+  }
+
+  public static Path getProfilePath() {
+    final String path = System.getProperty(PROFILE_PROPERTY);
+    if (path != null) {
+      return Paths.get(path);
+    }
+    return Paths.get(System.getProperty("user.home"), PROFILE_DIR, PROFILE_FILE);
+  }
+
+  // private methods
+
+  private static String getKey(final int k, final int n, final int sizeClass) {
+    return "k" + k + ".n" + n + ".size" + sizeClass;
+  }
+
+  /**
+   * @return the loaded profile; empty if there is none (or if it cannot be read, as the default
+   *         settings are always valid)
+   */
+  private static Properties getProfile() {
+    if (profile == null) {
+      profile = new Properties();
+      final Path path = getProfilePath();
+      if (Files.isRegularFile(path)) {
+        try (final InputStream in = Files.newInputStream(path)) {
+          profile.load(in);
+        } catch (final IOException | IllegalArgumentException e) {
+          profile.clear();
+        }
+      }
+    }
+    return profile;
+  }
+}
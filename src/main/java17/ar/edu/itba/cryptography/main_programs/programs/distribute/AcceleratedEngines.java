@@ -0,0 +1,32 @@
+package ar.edu.itba.cryptography.main_programs.programs.distribute;
+
+import ar.edu.itba.cryptography.interfaces.DistributeEngine;
+
+/**
+ * Factory of the SIMD accelerated engines.
+ * <p>
+ * This is the multi-release version of the class, picked by JVMs 17+.
+ * The accelerated engines are only used if the {@code jdk.incubator.vector} module was added to
+ * the running JVM (i.e.: {@code java --add-modules jdk.incubator.vector -jar ...}) and if they
+ * were not disabled with {@code -Dsteganography.vector=false}.
+ * Otherwise, null is returned and the scalar engines are used.
+ */
+/* package-private */ abstract class AcceleratedEngines {
+  private static final String VECTOR_MODULE = "jdk.incubator.vector";
+  private static final String VECTOR_PROPERTY = "steganography.vector";
+  private static final boolean VECTOR_API_ENABLED =
+      ModuleLayer.boot().findModule(VECTOR_MODULE).isPresent()
+          && Boolean.parseBoolean(System.getProperty(VECTOR_PROPERTY, Boolean.TRUE.toString()));
+
+  /**
+   * @param k the amount of bytes of each chunk
+   * @param tileChunks the amount of chunks to be evaluated on each tile
+   * @return the accelerated engine if the running JVM supports it; null otherwise
+   */
+  /* package-private */ static DistributeEngine create(final int k, final int tileChunks) {
+    if (!VECTOR_API_ENABLED || !VectorDistributeEngine.supports(k)) {
+      return null;
+    }
+    return new VectorDistributeEngine(tileChunks);
+  }
+}
@@ -0,0 +1,161 @@
+package ar.edu.itba.cryptography.main_programs.programs.distribute;
+
+import static ar.edu.itba.cryptography.services.BMPIOService.OpenMode.OUTPUT;
+
+import ar.edu.itba.cryptography.services.BMPIOService;
+import ar.edu.itba.cryptography.services.BMPService;
+import java.nio.file.Path;
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShuffle;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Shadow-major engine whose kernels use the {@code jdk.incubator.vector} API:
+ * <ul>
+ *   <li>Each tile is evaluated for one shadow number at a time, with many chunks per vector
+ *   (one chunk per lane). Chunks that overflow any shadow, and the tail of the tile, are
+ *   evaluated with the scalar path (which takes care of the overflow retries).</li>
+ *   <li>Each evaluation byte is spread into its 8 LSB bytes of the shadow within vector lanes.</li>
+ * </ul>
+ * Shadows are byte-identical to the ones of the scalar engines.
+ */
+/* package-private */ class VectorDistributeEngine extends ShadowMajorDistributeEngine {
+  private static final int MODULUS = 257;
+  private static final int OVERFLOW_VALUE = 256;
+  /**
+   * Max k such that k terms of value up to 256 * 255 can be added without int overflow
+   */
+  private static final int MAX_K = 32896;
+  private static final int BITS_PER_BYTE = 8;
+
+  private static final VectorSpecies<Integer> INT_SPECIES = IntVector.SPECIES_PREFERRED;
+  private static final VectorSpecies<Byte> BYTE_SPECIES =
+      VectorSpecies.of(byte.class, INT_SPECIES.vectorShape());
+  // Only the first INT_SPECIES.length() lanes are filled when converting ints to bytes
+  private static final VectorMask<Byte> CONVERTED_LANES =
+      BYTE_SPECIES.indexInRange(0, INT_SPECIES.length());
+  // LSB kernel: each value is spread among 8 lanes, with the most significant bit first
+  private static final int VALUES_PER_VECTOR = BYTE_SPECIES.length() / BITS_PER_BYTE;
+  private static final VectorShuffle<Byte> SPREAD =
+      VectorShuffle.fromOp(BYTE_SPECIES, lane -> lane / BITS_PER_BYTE);
+  private static final ByteVector SHIFTS = ByteVector.zero(BYTE_SPECIES)
+      .addIndex(1).lanewise(VectorOperators.AND, (byte) (BITS_PER_BYTE - 1))
+      .neg().add((byte) (BITS_PER_BYTE - 1));
+
+  /* package-private */ VectorDistributeEngine(final int tileChunks) {
+    super(tileChunks);
+  }
+
+  /* package-private */ static boolean supports(final int k) {
+    return k <= MAX_K && VALUES_PER_VECTOR > 0;
+  }
+
+  @Override
+  /* package-private */ int evaluateTile(final byte[] obfData, final int firstChunk,
+      final int chunks, final int[][] matrixA, final int k, final int modulus,
+      final byte[] tileBuffer, final int tile) {
+    if (modulus != MODULUS) {
+      return super.evaluateTile(obfData, firstChunk, chunks, matrixA, k, modulus, tileBuffer,
+          tile);
+    }
+    final int n = matrixA.length;
+    final int lanes = INT_SPECIES.length();
+    final int vectorChunks = chunks - chunks % lanes;
+    // Transpose the tile so as the c-th byte of consecutive chunks are contiguous
+    final int[] coefficients = new int[k * vectorChunks];
+    for (int chunk = 0 ; chunk < vectorChunks ; chunk ++) {
+      final int chunkOffset = (firstChunk + chunk) * k;
+      for (int c = 0 ; c < k ; c ++) {
+        coefficients[c * vectorChunks + chunk] = obfData[chunkOffset + c] & 0xFF;
+      }
+    }
+    final boolean[] overflowed = new boolean[chunks];
+    boolean anyOverflow = false;
+    for (int row = 0 ; row < n ; row ++) {
+      final int[] rowA = matrixA[row];
+      for (int chunk = 0 ; chunk < vectorChunks ; chunk += lanes) {
+        IntVector sum = IntVector.zero(INT_SPECIES);
+        for (int c = 0 ; c < k ; c ++) {
+          sum = IntVector.fromArray(INT_SPECIES, coefficients, c * vectorChunks + chunk)
+              .mul(rowA[c]).add(sum);
+        }
+        final IntVector evaluation = mod257(sum);
+        final VectorMask<Integer> overflow = evaluation.eq(OVERFLOW_VALUE);
+        if (overflow.anyTrue()) {
+          anyOverflow = true;
+          for (int lane = 0 ; lane < lanes ; lane ++) {
+            overflowed[chunk + lane] |= overflow.laneIsSet(lane);
+          }
+        }
+        ((ByteVector) evaluation.convertShape(VectorOperators.I2B, BYTE_SPECIES, 0))
+            .intoArray(tileBuffer, row * tile + chunk, CONVERTED_LANES);
+      }
+    }
+    // Chunks that need overflow retries & the chunks that did not fill a vector go scalar
+    final byte[] arrayX = new byte[k];
+    final byte[] arrayB = new byte[n];
+    int overflowRetries = 0;
+    for (int chunk = anyOverflow ? 0 : vectorChunks ; chunk < chunks ; chunk ++) {
+      if (chunk < vectorChunks && !overflowed[chunk]) {
+        continue;
+      }
+      overflowRetries += evaluateChunk(obfData, firstChunk + chunk, matrixA, k, modulus,
+          arrayX, arrayB);
+      for (int row = 0 ; row < n ; row ++) {
+        tileBuffer[row * tile + chunk] = arrayB[row];
+      }
+    }
+    return overflowRetries;
+  }
+
+  @Override
+  /* package-private */ void embedRun(final BMPIOService bmpIOService, final Path path,
+      final byte[] tileBuffer, final int from, final int length) {
+    final int position = bmpIOService.reserveHiddenBytes(path, OUTPUT, length);
+    final byte[] image = bmpIOService.getBmp(path, OUTPUT);
+    int i = 0;
+    // Each iteration loads a whole vector of values, although only VALUES_PER_VECTOR are used
+    while (i + VALUES_PER_VECTOR <= length
+        && from + i + BYTE_SPECIES.length() <= tileBuffer.length) {
+      final ByteVector bits = ByteVector.fromArray(BYTE_SPECIES, tileBuffer, from + i)
+          .rearrange(SPREAD)
+          .lanewise(VectorOperators.LSHR, SHIFTS)
+          .and((byte) 0x01);
+      final int imagePosition = position + BITS_PER_BYTE * i;
+      ByteVector.fromArray(BYTE_SPECIES, image, imagePosition)
+          .and((byte) 0xFE)
+          .or(bits)
+          .intoArray(image, imagePosition);
+      i += VALUES_PER_VECTOR;
+    }
+    // Remaining values
+    BMPService.putValuesInLSB(image, tileBuffer, from + i, length - i,
+        position + BITS_PER_BYTE * i);
+  }
+
+  /**
+   * Reduces each lane (in [0, 2^31)) modulo 257 without divisions, using that 256 = -1 (mod 257).
+   * Each folding step adds a multiple of 257 to keep the values positive.
+   * @return the reduced lanes, in [0, 256]
+   */
+  private static IntVector mod257(final IntVector x) {
+    // x in [0, 2^31) => y in [32769, 8421631]
+    IntVector y = fold(x).add(MODULUS * 32768);
+    // => y in [257, 33408]
+    y = fold(y).add(MODULUS * 129);
+    // => y in [127, 512]
+    y = fold(y).add(MODULUS);
+    // => y in [0, 256]
+    return y.sub(MODULUS, y.compare(VectorOperators.GE, MODULUS));
+  }
+
+  /**
+   * @return (x & 0xFF) - (x >>> 8), which is congruent with x (mod 257)
+   */
+  private static IntVector fold(final IntVector x) {
+    return x.and(0xFF).sub(x.lanewise(VectorOperators.LSHR, 8));
+  }
+}
@@ -0,0 +1,138 @@
+package ar.edu.itba.cryptography;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import ar.edu.itba.cryptography.helpers.CompressionHelper;
+import ar.edu.itba.cryptography.services.SegmentedBuffer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CompressionRoundTripTest {
+  /**
+   * Position of the bitmap offset in the BMP header
+   */
+  private static final int BITMAP_OFFSET_POSITION = 0x000A;
+
+  @Rule
+  public final TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void retrievesACompressedSecretWithoutLoss() throws IOException {
+    final Path root = folder.getRoot().toPath();
+    final Path secret = RoundTrips.copyImage(RoundTrips.SECRET, root.resolve("secret"));
+    final Path shadows = RoundTrips.copyCovers(root.resolve("shadows"));
+    RoundTrips.distribute(secret, 3, shadows, "-compress");
+    final byte[] retrieved = RoundTrips.retrieve(shadows, 3, root.resolve("retrieved.bmp"));
+    assertArrayEquals(Files.readAllBytes(secret), retrieved);
+  }
+
+  /**
+   * Deflate does not make a noisy secret smaller, so it is stored as it is
+   */
+  @Test
+  public void retrievesAStoredSecretWithoutLoss() throws IOException {
+    final Path root = folder.getRoot().toPath();
+    final Path secret = Files.write(root.resolve("noise.bmp"), createNoise());
+    final Path shadows = RoundTrips.copyCovers(root.resolve("shadows"));
+    RoundTrips.distribute(secret, 2, shadows, "-compress", "-pipeline");
+    final byte[] retrieved =
+        RoundTrips.retrieve(shadows, 2, root.resolve("retrieved.bmp"), "-pipeline");
+    assertArrayEquals(Files.readAllBytes(secret), retrieved);
+  }
+
+  /**
+   * Only the chunks whose evaluation overflows carry a salt, so a stored payload is much smaller
+   * than the one that salts every chunk (twice the data for k = 2)
+   */
+  @Test
+  public void saltsOnlyTheOverflowingChunks() throws IOException {
+    final byte[] data = createNoise();
+    final byte[] payload = CompressionHelper.deflate(data, 2, (char) 1234, new int[] { 1, 2, 3 });
+    assertTrue(payload.length < data.length * 11 / 10);
+    assertArrayEquals(data, CompressionHelper.inflate(payload, 2));
+  }
+
+  /**
+   * A compressed secret is deflated as its tiles are distributed, and inflated as they are
+   * retrieved
+   */
+  @Test
+  public void streamsACompressedSecretThroughThePipeline() throws IOException {
+    final Path root = folder.getRoot().toPath();
+    final Path secret = RoundTrips.copyImage(RoundTrips.SECRET, root.resolve("secret"));
+    final Path shadows = RoundTrips.copyCovers(root.resolve("shadows"));
+    RoundTrips.distribute(secret, 3, shadows, "-compress", "-pipeline");
+    final byte[] retrieved =
+        RoundTrips.retrieve(shadows, 3, root.resolve("retrieved.bmp"), "-pipeline");
+    assertArrayEquals(Files.readAllBytes(secret), retrieved);
+  }
+
+  /**
+   * The payload read piece by piece (and read again from its start) is the same as the one laid
+   * out at once, and it is inflated piece by piece as well
+   */
+  @Test
+  public void laysOutAndInflatesPieceByPiece() throws IOException {
+    final byte[] data = Files.readAllBytes(
+        RoundTrips.copyImage(RoundTrips.SECRET, folder.newFolder().toPath()));
+    final int[] shadowNumbers = { 1, 2, 3, 4 };
+    final byte[] payload = CompressionHelper.deflate(data, 3, (char) 99, shadowNumbers);
+    final CompressionHelper.Encoder encoder = new CompressionHelper.Encoder(
+        SegmentedBuffer.wrap(data), 3, (char) 99, shadowNumbers);
+    assertEquals(payload.length, encoder.size());
+    final byte[] pieces = new byte[payload.length];
+    for (int from = 0, length = 1 ; from < pieces.length ; from += length, length += 7) {
+      length = Math.min(length, pieces.length - from);
+      encoder.get(from, pieces, from, length);
+    }
+    assertArrayEquals(payload, pieces);
+    final byte[] again = new byte[payload.length / 2];
+    encoder.get(payload.length - again.length, again, 0, again.length);
+    assertArrayEquals(Arrays.copyOfRange(payload, payload.length - again.length, payload.length),
+        again);
+    final ByteArrayOutputStream inflated = new ByteArrayOutputStream();
+    final CompressionHelper.Decoder decoder = new CompressionHelper.Decoder(3, inflated::write);
+    for (int from = 0, length = 1 ; from < payload.length ; from += length, length += 5) {
+      length = Math.min(length, payload.length - from);
+      decoder.write(payload, from, length);
+    }
+    decoder.finish();
+    assertArrayEquals(data, inflated.toByteArray());
+  }
+
+  /**
+   * The header of a tiny payload takes more chunks than its data, so every chunk is salted instead
+   * of listing the salted ones (i.e., a payload of the original layout)
+   */
+  @Test
+  public void saltsEveryChunkOfATinyPayload() {
+    final byte[] data = { 1, 2, 3, 4, 5 };
+    final byte[] payload = CompressionHelper.deflate(data, 2, (char) 1234, new int[] { 1, 2, 3 });
+    // 11 header bytes + the 5 stored ones, a byte per salted chunk
+    assertEquals((11 + data.length) * 2, payload.length);
+    assertArrayEquals(data, CompressionHelper.inflate(payload, 2));
+  }
+
+  /**
+   * @return the secret image with its pixels replaced by (reproducible) noise
+   */
+  private byte[] createNoise() throws IOException {
+    final Path image = RoundTrips.copyImage(RoundTrips.SECRET, folder.newFolder().toPath());
+    final byte[] bmp = Files.readAllBytes(image);
+    final int bitmapOffset = bmp[BITMAP_OFFSET_POSITION] & 0xFF
+        | (bmp[BITMAP_OFFSET_POSITION + 1] & 0xFF) << 8;
+    final byte[] pixels = new byte[bmp.length - bitmapOffset];
+    new Random(0).nextBytes(pixels);
+    System.arraycopy(pixels, 0, bmp, bitmapOffset, pixels.length);
+    return bmp;
+  }
+}
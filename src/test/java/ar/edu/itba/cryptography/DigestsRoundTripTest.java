@@ -0,0 +1,56 @@
+package ar.edu.itba.cryptography;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import ar.edu.itba.cryptography.services.BMPService;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class DigestsRoundTripTest {
+  private static final int K = 2;
+  private static final int CORRUPTED_CHUNK = 1000;
+  private static final int CORRUPTED_CHUNKS = 64;
+
+  @Rule
+  public final TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void retrievesTheSecretFromACorruptedShadow() throws IOException {
+    final Path root = folder.getRoot().toPath();
+    final Path secret = RoundTrips.copyImage(RoundTrips.SECRET, root.resolve("secret"));
+    final Path shadows = RoundTrips.copyCovers(root.resolve("shadows"));
+    RoundTrips.distribute(secret, K, shadows, "-digests", "-compress");
+    // The first shadow (in name order) is one of the k shadows the secret is retrieved from
+    corrupt(shadows.resolve(RoundTrips.COVERS.get(0)));
+    final byte[] retrieved = RoundTrips.retrieve(shadows, K, root.resolve("retrieved.bmp"));
+    assertArrayEquals(Files.readAllBytes(secret), retrieved);
+  }
+
+  @Test
+  public void pipelineVerifiesTheSameSecret() throws IOException {
+    final Path root = folder.getRoot().toPath();
+    final Path secret = RoundTrips.copyImage(RoundTrips.SECRET, root.resolve("secret"));
+    final Path shadows = RoundTrips.copyCovers(root.resolve("shadows"));
+    RoundTrips.distribute(secret, K, shadows, "-digests");
+    final byte[] inMemory = RoundTrips.retrieve(shadows, K, root.resolve("in_memory.bmp"));
+    final byte[] pipelined =
+        RoundTrips.retrieve(shadows, K, root.resolve("pipelined.bmp"), "-pipeline");
+    assertArrayEquals(inMemory, pipelined);
+  }
+
+  /**
+   * Flips the values hidden for some chunks of the given shadow
+   */
+  private static void corrupt(final Path shadow) throws IOException {
+    final byte[] image = Files.readAllBytes(shadow);
+    final int first = BMPService.getBitmapOffset(image) + CORRUPTED_CHUNK * Byte.SIZE;
+    for (int i = first ; i < first + CORRUPTED_CHUNKS * Byte.SIZE ; i++) {
+      image[i] ^= 1;
+    }
+    Files.write(shadow, image);
+  }
+}
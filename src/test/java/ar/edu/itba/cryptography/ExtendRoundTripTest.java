@@ -0,0 +1,133 @@
+package ar.edu.itba.cryptography;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import ar.edu.itba.cryptography.services.BMPService;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * New shadows are wide shadows (see {@link BMPService#WIDE_SHADOW_FLAG}), which should take part in
+ * a retrieval (or an update) as any other shadow of the share set. Each retrieval is compared with
+ * the one from the original shadows
+ */
+public class ExtendRoundTripTest {
+  private static final int K = 2;
+  private static final int N = RoundTrips.COVERS.size();
+  /**
+   * The new shadows are saved with this prefix, so as they can be put together with the original
+   * ones (which were copies of the same covers)
+   */
+  private static final String NEW_PREFIX = "new_";
+  /**
+   * Pixel bytes of the secret that are changed by the update
+   */
+  private static final int CHANGED_FROM = 20001, CHANGED_TO = 21000;
+
+  @Rule
+  public final TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void retrievesFromTheNewShadows() throws IOException {
+    final Path root = folder.getRoot().toPath();
+    final Path shadows = distribute(root);
+    final byte[] expected = RoundTrips.retrieve(shadows, K, root.resolve("expected.bmp"));
+    final List<Path> newShadows = extend(root, shadows);
+    for (int i = 0 ; i < newShadows.size() ; i++) {
+      final byte[] image = Files.readAllBytes(newShadows.get(i));
+      assertEquals(N + 1 + i,
+          BMPService.recoverShadowNumber(image) & BMPService.SHADOW_NUMBER_MASK);
+      assertTrue(BMPService.isWideShadow(image));
+    }
+    // Only new shadows
+    assertRetrieves(expected, root.resolve("new"), newShadows.get(0), newShadows.get(1));
+    // An original shadow & a new one
+    assertRetrieves(expected, root.resolve("mixed"),
+        shadows.resolve(RoundTrips.COVERS.get(0)), newShadows.get(1));
+  }
+
+  /**
+   * The new shadows are updated together with the original ones, so they keep retrieving the
+   * same secret as the original ones
+   */
+  @Test
+  public void updatesTheNewShadows() throws IOException {
+    final Path root = folder.getRoot().toPath();
+    final Path shadows = distribute(root);
+    final List<Path> newShadows = new ArrayList<>();
+    for (final Path path : extend(root, shadows)) {
+      newShadows.add(Files.move(path,
+          shadows.resolve(NEW_PREFIX + path.getFileName().toString())));
+    }
+    final Path secret = root.resolve("secret").resolve(RoundTrips.SECRET);
+    final Path newSecret =
+        RoundTrips.writeNewVersion(secret, root.resolve("v2.bmp"), CHANGED_FROM, CHANGED_TO);
+    final byte[] before = RoundTrips.retrieve(shadows, K, root.resolve("before.bmp"));
+    RoundTrips.distribute(newSecret, K, shadows, "-update", "-old", secret.toString());
+    final Path originals = root.resolve("originals");
+    final byte[] expected = retrieveFrom(originals, root.resolve("expected.bmp"),
+        shadows.resolve(RoundTrips.COVERS.get(0)), shadows.resolve(RoundTrips.COVERS.get(1)));
+    assertFalse(Arrays.equals(before, expected));
+    assertRetrieves(expected, root.resolve("new"), newShadows.get(0), newShadows.get(1));
+    assertRetrieves(expected, root.resolve("mixed"),
+        shadows.resolve(RoundTrips.COVERS.get(2)), newShadows.get(0));
+  }
+
+  /**
+   * Distributes the secret into copies of all the covers
+   * @return the directory of the shadows
+   */
+  private static Path distribute(final Path root) throws IOException {
+    final Path secret = RoundTrips.copyImage(RoundTrips.SECRET, root.resolve("secret"));
+    final Path shadows = RoundTrips.copyCovers(root.resolve("shadows"));
+    RoundTrips.distribute(secret, K, shadows);
+    return shadows;
+  }
+
+  /**
+   * Adds 2 shadows to the share set of the given directory, in copies of the first covers
+   * @return the new shadows
+   */
+  private static List<Path> extend(final Path root, final Path shadows) throws IOException {
+    final Path covers = root.resolve("covers");
+    final List<Path> newShadows = new ArrayList<>();
+    for (final String cover : RoundTrips.COVERS.subList(0, K)) {
+      newShadows.add(RoundTrips.copyImage(cover, covers));
+    }
+    RoundTrips.extend(shadows, K, N, covers);
+    return newShadows;
+  }
+
+  /**
+   * Retrieves the secret from the given shadows only, in memory & with the pipeline
+   */
+  private static void assertRetrieves(final byte[] expected, final Path directory,
+      final Path... shadows) throws IOException {
+    assertArrayEquals(expected, retrieveFrom(directory, directory.resolveSibling(
+        directory.getFileName() + ".bmp"), shadows));
+    assertArrayEquals(expected, RoundTrips.retrieve(directory, K, directory.resolveSibling(
+        directory.getFileName() + "_pipelined.bmp"), "-pipeline"));
+  }
+
+  /**
+   * Copies the given shadows into the given directory, and retrieves the secret from them
+   */
+  private static byte[] retrieveFrom(final Path directory, final Path output,
+      final Path... shadows) throws IOException {
+    Files.createDirectories(directory);
+    for (final Path shadow : shadows) {
+      Files.copy(shadow, directory.resolve(shadow.getFileName()));
+    }
+    return RoundTrips.retrieve(directory, K, output);
+  }
+}
@@ -0,0 +1,121 @@
+package ar.edu.itba.cryptography;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+
+import ar.edu.itba.cryptography.helpers.CompressionHelper;
+import ar.edu.itba.cryptography.services.BMPChannelService;
+import ar.edu.itba.cryptography.services.BMPService;
+import ar.edu.itba.cryptography.services.JournalService;
+import ar.edu.itba.cryptography.services.SegmentedBuffer;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * A journaled distribution that died halfway is resumed from its checkpoint. The run that died is
+ * simulated by a complete distribution, whose first chunks are copied into the journaled copies
+ * of another set of covers: the resumed distribution should end up with the same shadows.
+ */
+public class JournalResumeTest {
+  private static final int K = 2;
+
+  @Rule
+  public final TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void resumesAPlainDistribution() throws IOException {
+    final Path root = folder.getRoot().toPath();
+    final Path secret = RoundTrips.copyImage(RoundTrips.SECRET, root.resolve("secret"));
+    final byte[] data = Files.readAllBytes(secret);
+    assertResumes(root, secret, data, seed -> data);
+  }
+
+  /**
+   * The payload of a compressed secret depends on the seed, so it is laid out again with the
+   * journaled one
+   */
+  @Test
+  public void resumesACompressedDistribution() throws IOException {
+    final Path root = folder.getRoot().toPath();
+    final Path secret = RoundTrips.copyImage(RoundTrips.SECRET, root.resolve("secret"));
+    final byte[] bmp = Files.readAllBytes(secret);
+    final int[] shadowNumbers = new int[RoundTrips.COVERS.size()];
+    for (int i = 0 ; i < shadowNumbers.length ; i++) {
+      shadowNumbers[i] = i + 1;
+    }
+    assertResumes(root, secret, bmp,
+        seed -> CompressionHelper.deflate(bmp, K, seed, shadowNumbers), "-compress");
+  }
+
+  private interface Payload {
+    byte[] get(char seed);
+  }
+
+  private void assertResumes(final Path root, final Path secret, final byte[] original,
+      final Payload payload, final String... options) throws IOException {
+    // The complete distribution
+    final Path complete = RoundTrips.copyCovers(root.resolve("complete"));
+    final List<String> journalOptions = new ArrayList<>(Arrays.asList(options));
+    journalOptions.add("-journal");
+    final String[] allOptions = journalOptions.toArray(new String[0]);
+    RoundTrips.distribute(secret, K, complete, allOptions);
+    final List<Path> completeShadows = getShadowsInOrder(complete);
+    final byte[] firstShadow = Files.readAllBytes(completeShadows.get(0));
+    final char seed = BMPService.recoverSeed(firstShadow);
+    // The run that died halfway: half of its chunks were hidden & checkpointed
+    final Path resumed = RoundTrips.copyCovers(root.resolve("resumed"));
+    final List<Path> resumedShadows = new ArrayList<>();
+    for (final Path path : completeShadows) {
+      resumedShadows.add(resumed.resolve(path.getFileName()));
+    }
+    final byte[] data = payload.get(seed);
+    final JournalService journal = JournalService.start(resumedShadows,
+        SegmentedBuffer.wrap(original), data.length, K, (char) 0, seed);
+    final int completedChunks = data.length / K / 2;
+    final BMPChannelService channelService = new BMPChannelService();
+    channelService.openBmpFiles(journal.getPartPaths());
+    for (int i = 0 ; i < resumedShadows.size() ; i++) {
+      final byte[] shadow = Files.readAllBytes(completeShadows.get(i));
+      final int offset = BMPService.getBitmapOffset(shadow);
+      channelService.write(journal.getPartPaths().get(i), offset,
+          Arrays.copyOfRange(shadow, offset, offset + completedChunks * Byte.SIZE));
+    }
+    journal.checkpoint(channelService, completedChunks);
+    channelService.closeBmpFiles(journal.getPartPaths());
+    // The resumed run
+    RoundTrips.distribute(secret, K, resumed, allOptions);
+    for (int i = 0 ; i < resumedShadows.size() ; i++) {
+      assertArrayEquals(Files.readAllBytes(completeShadows.get(i)),
+          Files.readAllBytes(resumedShadows.get(i)));
+      assertFalse(Files.exists(journal.getPartPaths().get(i)));
+    }
+    assertFalse(Files.exists(journal.getCheckpointPath()));
+    final byte[] retrieved = RoundTrips.retrieve(resumed, K, root.resolve("retrieved.bmp"));
+    assertArrayEquals(RoundTrips.retrieve(complete, K, root.resolve("complete.bmp")), retrieved);
+    if (options.length > 0) {
+      // A compressed secret is retrieved without any loss
+      assertArrayEquals(original, retrieved);
+    }
+  }
+
+  /**
+   * @return the shadows of the given directory, in the order of their shadow numbers
+   */
+  private static List<Path> getShadowsInOrder(final Path directory) throws IOException {
+    final Path[] shadows = new Path[RoundTrips.COVERS.size()];
+    for (final String cover : RoundTrips.COVERS) {
+      final Path path = directory.resolve(cover);
+      final int shadowNumber = BMPService.recoverShadowNumber(Files.readAllBytes(path))
+          & BMPService.SHADOW_NUMBER_MASK;
+      shadows[shadowNumber - 1] = path;
+    }
+    return Arrays.asList(shadows);
+  }
+}
@@ -0,0 +1,56 @@
+package ar.edu.itba.cryptography;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class PipelineRoundTripTest {
+  @Rule
+  public final TemporaryFolder folder = new TemporaryFolder();
+
+  /**
+   * A compressed secret is retrieved without any loss (see CompressionHelper)
+   */
+  @Test
+  public void retrievesACompressedSecretWithoutLoss() throws IOException {
+    final Path root = folder.getRoot().toPath();
+    final Path secret = RoundTrips.copyImage(RoundTrips.SECRET, root.resolve("secret"));
+    final Path shadows = RoundTrips.copyCovers(root.resolve("shadows"));
+    RoundTrips.distribute(secret, 2, shadows, "-compress", "-pipeline");
+    final byte[] retrieved =
+        RoundTrips.retrieve(shadows, 2, root.resolve("retrieved.bmp"), "-pipeline");
+    assertArrayEquals(Files.readAllBytes(secret), retrieved);
+  }
+
+  @Test
+  public void retrievesTheSameSecretAsInMemory() throws IOException {
+    final Path root = folder.getRoot().toPath();
+    final Path secret = RoundTrips.copyImage(RoundTrips.SECRET, root.resolve("secret"));
+    final Path shadows = RoundTrips.copyCovers(root.resolve("shadows"));
+    RoundTrips.distribute(secret, 2, shadows);
+    final byte[] inMemory = RoundTrips.retrieve(shadows, 2, root.resolve("in_memory.bmp"));
+    final byte[] pipelined =
+        RoundTrips.retrieve(shadows, 2, root.resolve("pipelined.bmp"), "-pipeline");
+    assertArrayEquals(inMemory, pipelined);
+  }
+
+  @Test
+  public void replacesAnExistingSecretAndLeavesNoTemporaryFiles() throws IOException {
+    final Path root = folder.getRoot().toPath();
+    final Path secret = RoundTrips.copyImage(RoundTrips.SECRET, root.resolve("secret"));
+    final Path shadows = RoundTrips.copyCovers(root.resolve("shadows"));
+    RoundTrips.distribute(secret, 2, shadows, "-compress");
+    final Path output = root.resolve("output");
+    Files.createDirectories(output);
+    final Path retrieved = Files.write(output.resolve("retrieved.bmp"), new byte[] { 1, 2, 3 });
+    RoundTrips.retrieve(shadows, 2, retrieved, "-pipeline");
+    assertArrayEquals(Files.readAllBytes(secret), Files.readAllBytes(retrieved));
+    assertEquals(1, output.toFile().list().length);
+  }
+}
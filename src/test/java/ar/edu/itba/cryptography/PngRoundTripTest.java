@@ -0,0 +1,60 @@
+package ar.edu.itba.cryptography;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import ar.edu.itba.cryptography.services.BMPService;
+import ar.edu.itba.cryptography.services.PNGService;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class PngRoundTripTest {
+  private static final int LSB_MASK = 0xFE;
+
+  @Rule
+  public final TemporaryFolder folder = new TemporaryFolder();
+
+  /**
+   * PNG & bmp covers are mixed in the same directory. A compressed secret is retrieved without any
+   * loss, so it is compared with the original
+   */
+  @Test
+  public void retrievesASecretFromPngShadows() throws IOException {
+    final Path root = folder.getRoot().toPath();
+    final Path secret = RoundTrips.copyImage(RoundTrips.SECRET, root.resolve("secret"));
+    final Path shadows = RoundTrips.copyCovers(root.resolve("shadows"));
+    final Path pngShadow = toPng(shadows.resolve(RoundTrips.COVERS.get(1)));
+    toPng(shadows.resolve(RoundTrips.COVERS.get(2)));
+    RoundTrips.distribute(secret, 2, shadows, "-compress");
+    final byte[] retrieved = RoundTrips.retrieve(shadows, 2, root.resolve("retrieved.bmp"));
+    assertArrayEquals(Files.readAllBytes(secret), retrieved);
+    // The PNG shadows are written back as PNG images, with the pixels of their covers but the LSBs
+    assertEquals(RoundTrips.COVERS.size(), shadows.toFile().list().length);
+    assertTrue(Files.isRegularFile(pngShadow));
+    final byte[] cover = Files.readAllBytes(
+        RoundTrips.copyImage(RoundTrips.COVERS.get(1), root.resolve("covers")));
+    final byte[] shadow = PNGService.read(pngShadow);
+    final int coverOffset = BMPService.getBitmapOffset(cover);
+    final int shadowOffset = BMPService.getBitmapOffset(shadow);
+    assertEquals(cover.length - coverOffset, shadow.length - shadowOffset);
+    for (int i = 0 ; i < cover.length - coverOffset ; i++) {
+      assertEquals(cover[coverOffset + i] & LSB_MASK, shadow[shadowOffset + i] & LSB_MASK);
+    }
+  }
+
+  /**
+   * Replaces the given bmp image with a PNG image of the same pixels
+   * @return the PNG image
+   */
+  private static Path toPng(final Path bmp) throws IOException {
+    final Path png = bmp.resolveSibling(bmp.getFileName().toString().replace(".bmp", ".png"));
+    PNGService.write(png, Files.readAllBytes(bmp));
+    Files.delete(bmp);
+    return png;
+  }
+}
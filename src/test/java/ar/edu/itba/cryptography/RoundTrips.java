@@ -0,0 +1,95 @@
+package ar.edu.itba.cryptography;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Helpers of the round-trip tests: they run the distribute, retrieve & extend programs as the
+ * command line does, on copies of the images of the repository.<p>
+ * Programs exit the JVM when they fail, so these tests only cover runs that should succeed.
+ */
+public final class RoundTrips {
+  private static final Path DATABASE = Paths.get("images", "database");
+  /**
+   * A secret that needs 264 KiB of each cover for k = 2
+   */
+  public static final String SECRET = "baboon.bmp";
+  /**
+   * Covers of the same size (1 MiB), so as any k may be used with them
+   */
+  public static final List<String> COVERS =
+      Arrays.asList("brickwall.bmp", "carpet.bmp", "man.bmp");
+
+  private RoundTrips() {
+  }
+
+  /**
+   * @return a copy of the given image of the database, in the given directory
+   */
+  public static Path copyImage(final String image, final Path directory) throws IOException {
+    Files.createDirectories(directory);
+    return Files.copy(DATABASE.resolve(image), directory.resolve(image),
+        StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  /**
+   * Copies the covers into the given directory
+   * @return the directory
+   */
+  public static Path copyCovers(final Path directory) throws IOException {
+    for (final String cover : COVERS) {
+      copyImage(cover, directory);
+    }
+    return directory;
+  }
+
+  public static void distribute(final Path secret, final int k, final Path covers,
+      final String... options) {
+    run(options, "-d", "-secret", secret.toString(), "-k", String.valueOf(k), "-dir",
+        covers.toString());
+  }
+
+  /**
+   * Adds a new shadow to the (k, n) share set of the given directory for each cover of the other
+   */
+  public static void extend(final Path shadows, final int k, final int n, final Path covers) {
+    run(new String[0], "-e", "-k", String.valueOf(k), "-n", String.valueOf(n), "-dir",
+        shadows.toString(), "-covers", covers.toString());
+  }
+
+  /**
+   * Writes a new version of the given image, with its bytes in [from, to) inverted
+   * @return the new version
+   */
+  public static Path writeNewVersion(final Path image, final Path target, final int from,
+      final int to) throws IOException {
+    final byte[] bytes = Files.readAllBytes(image);
+    for (int i = from ; i < to ; i++) {
+      bytes[i] = (byte) ~bytes[i];
+    }
+    Files.createDirectories(target.getParent());
+    return Files.write(target, bytes);
+  }
+
+  /**
+   * @return the bytes of the retrieved secret
+   */
+  public static byte[] retrieve(final Path shadows, final int k, final Path output,
+      final String... options) throws IOException {
+    run(options, "-r", "-secret", output.toString(), "-k", String.valueOf(k), "-dir",
+        shadows.toString());
+    return Files.readAllBytes(output);
+  }
+
+  private static void run(final String[] options, final String... args) {
+    final List<String> allArgs = new ArrayList<>(Arrays.asList(args));
+    allArgs.addAll(Arrays.asList(options));
+    Main.main(allArgs.toArray(new String[0]));
+  }
+}
@@ -0,0 +1,46 @@
+package ar.edu.itba.cryptography;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import ar.edu.itba.cryptography.helpers.ShareProtocolHelper;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import org.junit.Test;
+
+public class ShareProtocolTest {
+  /**
+   * Values take 9 bits each, so as 256 is sent as well
+   */
+  @Test
+  public void packsTheValuesInNineBitsEach() throws IOException {
+    final Random random = new Random(0);
+    for (final int chunks : new int[] { 1, 7, 8, 9, 4096 }) {
+      final int[] values = new int[chunks];
+      for (int i = 0 ; i < chunks ; i++) {
+        values[i] = random.nextInt(257);
+      }
+      values[0] = 256;
+      final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      final DataOutputStream out = new DataOutputStream(bytes);
+      // Two messages, so as the padding of the first one is skipped
+      ShareProtocolHelper.writeValues(out, values, chunks);
+      ShareProtocolHelper.writeValues(out, values, chunks);
+      out.flush();
+      assertEquals(2 * ShareProtocolHelper.getValuesSize(chunks), bytes.size());
+      final DataInputStream in =
+          new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+      final int[] read = new int[2 * chunks];
+      ShareProtocolHelper.readValues(in, read, 0, chunks);
+      ShareProtocolHelper.readValues(in, read, chunks, chunks);
+      final int[] expected = new int[2 * chunks];
+      System.arraycopy(values, 0, expected, 0, chunks);
+      System.arraycopy(values, 0, expected, chunks, chunks);
+      assertArrayEquals(expected, read);
+    }
+  }
+}
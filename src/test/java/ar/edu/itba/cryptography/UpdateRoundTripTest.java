@@ -0,0 +1,118 @@
+package ar.edu.itba.cryptography;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import ar.edu.itba.cryptography.services.BMPService;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * An update should leave the shadows as a distribution of the new secret with the same seed
+ * would, while only re-distributing the chunks that changed
+ */
+public class UpdateRoundTripTest {
+  private static final int K = 2;
+  /**
+   * Pixel bytes of the secret that are changed, starting & ending in the middle of a chunk
+   */
+  private static final int CHANGED_FROM = 20001, CHANGED_TO = 21000;
+
+  @Rule
+  public final TemporaryFolder folder = new TemporaryFolder();
+
+  /**
+   * The chunks that did not change keep their hidden values. The other ones are compared with an
+   * update where all the pixel chunks changed, i.e., with the distribution of the new secret
+   * with the same seed
+   */
+  @Test
+  public void updatesOnlyTheChangedChunks() throws IOException {
+    final Path root = folder.getRoot().toPath();
+    final Path secret = RoundTrips.copyImage(RoundTrips.SECRET, root.resolve("secret"));
+    final Path shadows = RoundTrips.copyCovers(root.resolve("shadows"));
+    RoundTrips.distribute(secret, K, shadows);
+    final Path redistributed = copyDirectory(shadows, root.resolve("redistributed"));
+    final byte[][] before = readShadows(shadows);
+    final Path newSecret =
+        RoundTrips.writeNewVersion(secret, root.resolve("v2.bmp"), CHANGED_FROM, CHANGED_TO);
+    RoundTrips.distribute(newSecret, K, shadows, "-update", "-old", secret.toString());
+    final byte[][] after = readShadows(shadows);
+    final int firstChanged = CHANGED_FROM / K, lastChanged = (CHANGED_TO - 1) / K;
+    for (int i = 0 ; i < after.length ; i++) {
+      final int offset = BMPService.getBitmapOffset(after[i]);
+      final int changedFrom = offset + firstChanged * Byte.SIZE;
+      final int changedTo = offset + (lastChanged + 1) * Byte.SIZE;
+      assertArrayEquals(Arrays.copyOfRange(before[i], 0, changedFrom),
+          Arrays.copyOfRange(after[i], 0, changedFrom));
+      assertArrayEquals(Arrays.copyOfRange(before[i], changedTo, before[i].length),
+          Arrays.copyOfRange(after[i], changedTo, after[i].length));
+      assertFalse(Arrays.equals(Arrays.copyOfRange(before[i], changedFrom, changedTo),
+          Arrays.copyOfRange(after[i], changedFrom, changedTo)));
+    }
+    // The changed bytes are retrieved as the new ones, but for the few chunks whose polynomial was
+    // adjusted
+    final byte[] retrieved = RoundTrips.retrieve(shadows, K, root.resolve("retrieved.bmp"));
+    final byte[] bmp = Files.readAllBytes(newSecret);
+    int differences = 0;
+    for (int i = CHANGED_FROM ; i < CHANGED_TO ; i++) {
+      if (retrieved[i] != bmp[i]) {
+        differences++;
+      }
+    }
+    assertTrue(differences < (CHANGED_TO - CHANGED_FROM) / 10);
+    // An old secret whose pixels all differ from the new ones
+    final Path unrelated = RoundTrips.writeNewVersion(newSecret, root.resolve("unrelated.bmp"),
+        BMPService.getBitmapOffset(bmp), bmp.length);
+    RoundTrips.distribute(newSecret, K, redistributed, "-update", "-old", unrelated.toString());
+    final byte[][] expected = readShadows(redistributed);
+    for (int i = 0 ; i < after.length ; i++) {
+      assertArrayEquals(expected[i], after[i]);
+    }
+  }
+
+  /**
+   * Chunks whose polynomial was adjusted are retrieved with a slight difference, so they are
+   * re-distributed when the old secret is retrieved, with the same result
+   */
+  @Test
+  public void updatesFromTheRecoveredOldSecret() throws IOException {
+    final Path root = folder.getRoot().toPath();
+    final Path secret = RoundTrips.copyImage(RoundTrips.SECRET, root.resolve("secret"));
+    final Path shadows = RoundTrips.copyCovers(root.resolve("shadows"));
+    RoundTrips.distribute(secret, K, shadows);
+    final Path recovered = copyDirectory(shadows, root.resolve("recovered"));
+    final Path newSecret =
+        RoundTrips.writeNewVersion(secret, root.resolve("v2.bmp"), CHANGED_FROM, CHANGED_TO);
+    RoundTrips.distribute(newSecret, K, shadows, "-update", "-old", secret.toString());
+    RoundTrips.distribute(newSecret, K, recovered, "-update");
+    final byte[][] expected = readShadows(shadows);
+    final byte[][] actual = readShadows(recovered);
+    for (int i = 0 ; i < expected.length ; i++) {
+      assertArrayEquals(expected[i], actual[i]);
+    }
+  }
+
+  private static Path copyDirectory(final Path source, final Path target) throws IOException {
+    FileUtils.copyDirectory(source.toFile(), target.toFile());
+    return target;
+  }
+
+  /**
+   * @return the shadows of the given directory, in the order of the covers
+   */
+  private static byte[][] readShadows(final Path directory) throws IOException {
+    final byte[][] shadows = new byte[RoundTrips.COVERS.size()][];
+    for (int i = 0 ; i < shadows.length ; i++) {
+      shadows[i] = Files.readAllBytes(directory.resolve(RoundTrips.COVERS.get(i)));
+    }
+    return shadows;
+  }
+}
@@ -0,0 +1,249 @@
+package ar.edu.itba.cryptography.main_programs.programs.distribute;
+
+import static ar.edu.itba.cryptography.services.BMPIOService.OpenMode.OUTPUT;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import ar.edu.itba.cryptography.RoundTrips;
+import ar.edu.itba.cryptography.helpers.MatrixHelper;
+import ar.edu.itba.cryptography.interfaces.DistributeEngine;
+import ar.edu.itba.cryptography.services.BMPIOService;
+import ar.edu.itba.cryptography.services.BMPService;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * All the engines should produce byte-identical shadows (see {@link DistributeEngine}). They are
+ * compared on seeded random data, against the chunk by chunk evaluation of
+ * {@link ChunkMajorDistributeEngine}.<p>
+ * The SIMD engine is only compared if the running JVM can load it, i.e., on JDK 17+ with the
+ * {@code jdk.incubator.vector} module and the multi-release classes (see the java17 profile)
+ */
+public class DistributeEnginesTest {
+  private static final int MODULUS = 257;
+  private static final long SEED = 0x5EED;
+  private static final int MIN_K = 2, MAX_K = 16;
+  private static final int[] N_VALUES = { 2, 3, 8, 31, 250 };
+  /**
+   * Beyond 32768 terms, the lazy reduction reduces the sum once per block of terms
+   */
+  private static final int BLOCKS_K = 40000;
+  private static final int MULTIPLICATIONS = 500;
+  /**
+   * Not a multiple of the vector lanes, so as the tail of each tile goes scalar
+   */
+  private static final int TILE_CHUNKS = 100;
+  /**
+   * The last tile is not filled
+   */
+  private static final int TILED_CHUNKS = 20 * TILE_CHUNKS - 7;
+  private static final int RUNS = 200;
+  private static final int SHADOWS = 5;
+  private static final int[] DISTRIBUTED_K_VALUES = { 2, 5, 16 };
+  private static final int DISTRIBUTED_CHUNKS = 10007;
+
+  @Rule
+  public final TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void lazyReductionMatchesReducingOnEachStep() {
+    final Random random = new Random(SEED);
+    for (int k = MIN_K ; k <= MAX_K ; k++) {
+      for (final int n : N_VALUES) {
+        assertMultipliesAsReducingOnEachStep(random, n, k, MULTIPLICATIONS);
+      }
+    }
+    assertMultipliesAsReducingOnEachStep(random, 2, BLOCKS_K, 10);
+  }
+
+  @Test
+  public void shadowMajorTilesMatchTheChunkByChunkEvaluation() {
+    assertTilesMatch(new ShadowMajorDistributeEngine(TILE_CHUNKS));
+  }
+
+  @Test
+  public void vectorTilesMatchTheChunkByChunkEvaluation() {
+    final ShadowMajorDistributeEngine engine = createVectorEngine();
+    Assume.assumeNotNull(engine);
+    assertTilesMatch(engine);
+  }
+
+  @Test
+  public void vectorRunsMatchTheScalarLSBKernel() throws IOException {
+    final ShadowMajorDistributeEngine engine = createVectorEngine();
+    Assume.assumeNotNull(engine);
+    final Random random = new Random(SEED);
+    final BMPIOService bmpIOService = new BMPIOService();
+    final Path path = openCopy(bmpIOService, RoundTrips.COVERS.get(0));
+    final byte[] image = bmpIOService.getBmp(path, OUTPUT);
+    final byte[] expected = image.clone();
+    int position = BMPService.getBitmapOffset(expected);
+    final byte[] tileBuffer = new byte[4 * TILE_CHUNKS];
+    for (int run = 0 ; run < RUNS ; run++) {
+      random.nextBytes(tileBuffer);
+      // Runs may end at the end of the buffer, where the vector kernel leaves more to the scalar one
+      final int from = random.nextInt(tileBuffer.length);
+      final int length = random.nextInt(tileBuffer.length - from + 1);
+      engine.embedRun(bmpIOService, path, tileBuffer, from, length);
+      BMPService.putValuesInLSB(expected, tileBuffer, from, length, position);
+      position += length * Byte.SIZE;
+    }
+    assertArrayEquals(expected, image);
+  }
+
+  @Test
+  public void enginesHideTheSameShadows() throws IOException {
+    final List<DistributeEngine> engines = new ArrayList<>(Arrays.asList(
+        new ChunkMajorDistributeEngine(), new ShadowMajorDistributeEngine(TILE_CHUNKS)));
+    final ShadowMajorDistributeEngine vectorEngine = createVectorEngine();
+    if (vectorEngine != null) {
+      engines.add(vectorEngine);
+    }
+    final Random random = new Random(SEED);
+    for (final int k : DISTRIBUTED_K_VALUES) {
+      final byte[] obfData = new byte[DISTRIBUTED_CHUNKS * k];
+      random.nextBytes(obfData);
+      final List<byte[]> expected = distribute(engines.get(0), obfData, k);
+      for (final DistributeEngine engine : engines.subList(1, engines.size())) {
+        final List<byte[]> shadows = distribute(engine, obfData, k);
+        for (int i = 0 ; i < SHADOWS ; i++) {
+          assertArrayEquals(engine.getClass().getSimpleName() + ", k = " + k + ", shadow " + i,
+              expected.get(i), shadows.get(i));
+        }
+      }
+    }
+  }
+
+  private static void assertMultipliesAsReducingOnEachStep(final Random random, final int n,
+      final int k, final int multiplications) {
+    final int[][] matrixA = createMatrix(n, k);
+    final byte[] arrayX = new byte[k];
+    final byte[] arrayB = new byte[n];
+    for (int i = 0 ; i < multiplications ; i++) {
+      random.nextBytes(arrayX);
+      final byte[] expected = multiplyReducingOnEachStep(matrixA, arrayX);
+      final boolean noOverflow = MatrixHelper.byteNoOverflowMultiply(matrixA, arrayX, MODULUS,
+          arrayB);
+      assertEquals("k = " + k + ", n = " + n, expected != null, noOverflow);
+      if (noOverflow) {
+        assertArrayEquals("k = " + k + ", n = " + n, expected, arrayB);
+      }
+    }
+  }
+
+  /**
+   * @return matrixA x arrayX (mod 257), reduced after each multiply-add, if no evaluation is 256;
+   *         null otherwise
+   */
+  private static byte[] multiplyReducingOnEachStep(final int[][] matrixA, final byte[] arrayX) {
+    final byte[] arrayB = new byte[matrixA.length];
+    for (int row = 0 ; row < matrixA.length ; row++) {
+      int sum = 0;
+      for (int col = 0 ; col < arrayX.length ; col++) {
+        sum = (sum + matrixA[row][col] * (arrayX[col] & 0xFF)) % MODULUS;
+      }
+      if (sum > 0xFF) {
+        return null;
+      }
+      arrayB[row] = (byte) sum;
+    }
+    return arrayB;
+  }
+
+  /**
+   * Evaluates many tiles (the last of them not filled) for several k & n values, and compares
+   * each evaluation & the overflow retries with the ones of evaluating chunk by chunk
+   */
+  private static void assertTilesMatch(final ShadowMajorDistributeEngine engine) {
+    final Random random = new Random(SEED);
+    for (int k = MIN_K ; k <= MAX_K ; k++) {
+      for (final int n : N_VALUES) {
+        final int[][] matrixA = createMatrix(n, k);
+        final byte[] obfData = new byte[TILED_CHUNKS * k];
+        random.nextBytes(obfData);
+        final byte[] tileBuffer = new byte[n * TILE_CHUNKS];
+        final byte[] arrayX = new byte[k];
+        final byte[] arrayB = new byte[n];
+        for (int firstChunk = 0 ; firstChunk < TILED_CHUNKS ; firstChunk += TILE_CHUNKS) {
+          final int chunks = Math.min(TILE_CHUNKS, TILED_CHUNKS - firstChunk);
+          final String message = "k = " + k + ", n = " + n + ", tile at chunk " + firstChunk;
+          final int retries = engine.evaluateTile(obfData, firstChunk, chunks, matrixA, k,
+              MODULUS, tileBuffer, TILE_CHUNKS);
+          int expectedRetries = 0;
+          for (int chunk = 0 ; chunk < chunks ; chunk++) {
+            DistributeBaseEngine.getNextKBytes(obfData, (firstChunk + chunk) * k, arrayX);
+            expectedRetries += DistributeBaseEngine.resolvePolynomialForAllShadowNumbers(matrixA,
+                arrayX, MODULUS, arrayB);
+            for (int row = 0 ; row < n ; row++) {
+              assertEquals(message, arrayB[row], tileBuffer[row * TILE_CHUNKS + chunk]);
+            }
+          }
+          assertEquals(message, expectedRetries, retries);
+        }
+      }
+    }
+  }
+
+  /**
+   * @return the shadows hidden by the given engine into copies of the covers
+   */
+  private List<byte[]> distribute(final DistributeEngine engine, final byte[] obfData,
+      final int k) throws IOException {
+    final BMPIOService bmpIOService = new BMPIOService();
+    final List<Path> paths = new ArrayList<>(SHADOWS);
+    for (int i = 0 ; i < SHADOWS ; i++) {
+      paths.add(openCopy(bmpIOService, RoundTrips.COVERS.get(i % RoundTrips.COVERS.size())));
+    }
+    final int[][] matrixA =
+        DistributeBaseAlgorithm.initializeMatrix(bmpIOService, paths, k, MODULUS, (char) 0);
+    engine.distribute(bmpIOService, obfData, paths, matrixA, k, MODULUS);
+    final List<byte[]> shadows = new ArrayList<>(SHADOWS);
+    for (final Path path : paths) {
+      shadows.add(bmpIOService.getBmp(path, OUTPUT).clone());
+    }
+    bmpIOService.closeBmpFiles(paths, OUTPUT);
+    return shadows;
+  }
+
+  private Path openCopy(final BMPIOService bmpIOService, final String cover) throws IOException {
+    final Path path = RoundTrips.copyImage(cover, folder.newFolder().toPath());
+    return bmpIOService.openBmpFile(path.toString(), OUTPUT);
+  }
+
+  /**
+   * @return the n x k matrix with the exponential evaluations of the shadow numbers 1..n
+   */
+  private static int[][] createMatrix(final int n, final int k) {
+    final int[][] matrixA = new int[n][k];
+    for (int row = 0 ; row < n ; row++) {
+      for (int col = 0 ; col < k ; col++) {
+        matrixA[row][col] = MatrixHelper.getCoefficient(row + 1, col, MODULUS);
+      }
+    }
+    return matrixA;
+  }
+
+  /**
+   * @return the SIMD engine, if the running JVM can load it; null otherwise
+   */
+  private static ShadowMajorDistributeEngine createVectorEngine() {
+    try {
+      final Class<?> engineClass = Class.forName(
+          ShadowMajorDistributeEngine.class.getPackage().getName() + ".VectorDistributeEngine");
+      return (ShadowMajorDistributeEngine) engineClass.getDeclaredConstructor(int.class)
+          .newInstance(TILE_CHUNKS);
+    } catch (final ClassNotFoundException | LinkageError e) {
+      return null;
+    } catch (final ReflectiveOperationException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+}